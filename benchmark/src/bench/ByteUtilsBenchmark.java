@@ -0,0 +1,88 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import core.util.ByteUtils;
+
+/**
+ * Byte Utils Benchmark
+ *
+ * Measures the throughput of searching for the terminating zero of a string
+ * in an encoded request and of formatting a message as hex for the logs
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ByteUtilsBenchmark {
+
+    /**
+     * Number of bytes before the terminating zero, and the number of
+     * bytes formatted as hex
+     */
+    @Param({"4", "255", "1000"})
+    public int length;
+
+    /**
+     * Bytes with a zero at the end
+     */
+    private byte[] bytes;
+
+    /**
+     * Buffer over the bytes
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Bytes formatted as hex, without the terminating zero
+     */
+    private byte[] hex;
+
+    @Setup
+    public void setup () {
+        this.bytes = new byte[this.length + 1];
+        Arrays.fill(this.bytes, 0, this.length, (byte) 'f');
+        this.buffer = ByteBuffer.wrap(this.bytes);
+        this.hex = Arrays.copyOf(this.bytes, this.length);
+    }
+
+    /**
+     * Finds the terminating zero in an array
+     *
+     * @return Index of the zero
+     */
+    @Benchmark
+    public int indexOfArray () {
+        return ByteUtils.indexOf(this.bytes, 0, (byte) 0);
+    }
+
+    /**
+     * Finds the terminating zero in a buffer
+     *
+     * @return Index of the zero
+     */
+    @Benchmark
+    public int indexOfBuffer () {
+        return ByteUtils.indexOf(this.buffer, 0, (byte) 0);
+    }
+
+    /**
+     * Formats the bytes as hex
+     *
+     * @return The formatted bytes
+     */
+    @Benchmark
+    public String bytesToHexString () {
+        return ByteUtils.bytesToHexString(this.hex);
+    }
+}
@@ -0,0 +1,204 @@
+package bench;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import core.req.AckMessage;
+import core.req.DataMessage;
+import core.req.ErrorCode;
+import core.req.ErrorMessage;
+import core.req.InvalidMessageException;
+import core.req.Message;
+import core.req.MessageFactory;
+import core.req.OptionAckMessage;
+import core.req.ReadRequest;
+import core.req.Request;
+import core.req.WriteRequest;
+
+/**
+ * Codec Benchmark
+ *
+ * Measures the throughput of encoding and decoding the messages of the
+ * core.req package. Run with the gc profiler to see the bytes allocated
+ * for each message
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+
+    /**
+     * Decodes a message of each op code into a new message
+     *
+     * @param state - Encoded message
+     *
+     * @return The decoded message
+     */
+    @Benchmark
+    public Message createMessage (Encoded state) throws InvalidMessageException {
+        return MessageFactory.createMessage(state.bytes);
+    }
+
+    /**
+     * Encodes a data message into a new array
+     *
+     * @param state - Data message to encode
+     *
+     * @return The encoded message
+     */
+    @Benchmark
+    public byte[] dataToBytes (Data state) {
+        return state.data.toBytes();
+    }
+
+    /**
+     * Encodes a data message into a reused buffer
+     *
+     * @param state - Data message to encode
+     *
+     * @return The buffer containing the encoded message
+     */
+    @Benchmark
+    public ByteBuffer dataEncode (Data state) {
+        state.buffer.clear();
+        state.data.encode(state.buffer);
+        return state.buffer;
+    }
+
+    /**
+     * Decodes a read request with a long file name
+     *
+     * @param state - Encoded request
+     *
+     * @return The decoded request
+     */
+    @Benchmark
+    public Request requestDecode (EncodedRequest state) throws InvalidMessageException {
+        return new ReadRequest(state.bytes);
+    }
+
+    /**
+     * Encoded Message
+     *
+     * A message of each op code encoded as it is received
+     */
+    @State(Scope.Thread)
+    public static class Encoded {
+
+        /**
+         * Op code of the message
+         */
+        @Param({"RRQ", "WRQ", "DATA", "ACK", "ERROR", "OACK"})
+        public String opcode;
+
+        /**
+         * Encoded message
+         */
+        byte[] bytes;
+
+        @Setup
+        public void setup () {
+            HashMap<String, String> options = new HashMap<String, String>();
+            Message msg;
+
+            options.put("blksize", "1428");
+            options.put("windowsize", "8");
+
+            switch (this.opcode) {
+                case "RRQ":
+                    msg = new ReadRequest("benchmark.txt");
+                    ((Request) msg).setOptions(options);
+                    break;
+                case "WRQ":
+                    msg = new WriteRequest("benchmark.txt");
+                    ((Request) msg).setOptions(options);
+                    break;
+                case "DATA":
+                    msg = new DataMessage((short) 1, new byte[512]);
+                    break;
+                case "ACK":
+                    msg = new AckMessage((short) 1);
+                    break;
+                case "ERROR":
+                    msg = new ErrorMessage(ErrorCode.FILE_NOT_FOUND, "File not found.");
+                    break;
+                default:
+                    msg = new OptionAckMessage(options);
+                    break;
+            }
+            this.bytes = msg.toBytes();
+        }
+    }
+
+    /**
+     * Data
+     *
+     * A data message with a full block and a buffer to encode it into
+     */
+    @State(Scope.Thread)
+    public static class Data {
+
+        /**
+         * Number of bytes in the payload
+         */
+        @Param({"512", "1428", "8192"})
+        public int blockSize;
+
+        /**
+         * Data message to encode
+         */
+        DataMessage data;
+
+        /**
+         * Buffer that the message is encoded into
+         */
+        ByteBuffer buffer;
+
+        @Setup
+        public void setup () {
+            byte[] payload = new byte[this.blockSize];
+
+            Arrays.fill(payload, (byte) 0x5A);
+            this.data = new DataMessage((short) 1, payload);
+            this.buffer = ByteBuffer.allocate(DataMessage.HEADER_SIZE + this.blockSize);
+        }
+    }
+
+    /**
+     * Encoded Request
+     *
+     * A read request encoded with a file name of a given length
+     */
+    @State(Scope.Thread)
+    public static class EncodedRequest {
+
+        /**
+         * Number of characters in the file name
+         */
+        @Param({"16", "255", "1000"})
+        public int filenameLength;
+
+        /**
+         * Encoded request
+         */
+        byte[] bytes;
+
+        @Setup
+        public void setup () {
+            char[] filename = new char[this.filenameLength];
+
+            Arrays.fill(filename, 'f');
+            this.bytes = new ReadRequest(new String(filename)).toBytes();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package bench;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import core.net.NodeSocket;
+import core.req.AckMessage;
+import core.req.DataMessage;
+import core.req.Message;
+
+/**
+ * Node Socket Benchmark
+ *
+ * Measures a round trip of a data block and its acknowledge between two
+ * node sockets on the loopback interface, the path that every block of a
+ * transfer takes through the sender and receiver
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NodeSocketBenchmark {
+
+    /**
+     * Number of bytes in the payload of the data block
+     */
+    @Param({"512", "1428", "8192"})
+    public int blockSize;
+
+    /**
+     * Socket that sends data blocks
+     */
+    private NodeSocket sender;
+
+    /**
+     * Socket that receives data blocks and sends acknowledges
+     */
+    private NodeSocket receiver;
+
+    /**
+     * Data block that is sent
+     */
+    private DataMessage data;
+
+    /**
+     * Acknowledge of the data block
+     */
+    private AckMessage ack;
+
+    @Setup
+    public void setup () throws IOException {
+        this.receiver = new NodeSocket();
+        this.sender = new NodeSocket(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), this.receiver.getLocalPort()));
+        this.receiver.setBufferSize(this.blockSize + DataMessage.HEADER_SIZE);
+        this.data = new DataMessage((short) 1, new byte[this.blockSize]);
+        this.ack = new AckMessage((short) 1);
+    }
+
+    @TearDown
+    public void tearDown () {
+        this.sender.close();
+        this.receiver.close();
+    }
+
+    /**
+     * Sends a data block and receives its acknowledge
+     *
+     * @return The received acknowledge
+     */
+    @Benchmark
+    public Message roundTrip () throws Exception {
+        this.sender.send(this.data);
+        this.receiver.receive();
+        this.receiver.send(this.ack);
+        return this.sender.receive();
+    }
+}
@@ -35,6 +35,7 @@ public class Client extends TransferController {
         System.out.println("    read   <file>     Reads a file from a tftp server to the current working directory");
         System.out.println("    write  <file>     Writes a file from the current working directory to a tftp server");
         System.out.println("    server <address>  Sets the hostname or IP address of the server to transfer with");
+        System.out.println("    option [<name> <value>]  Sets an option to request for transfers (blksize, windowsize, timeout, multicast, rollover) or lists the options");
         System.out.println("    shutdown          Exits the client");
     }
 
@@ -45,18 +46,24 @@ public class Client extends TransferController {
 
     @Override
     public void handleMessage(Message msg) {
-        LOGGER.log(Level.FINE, "Received bytes: " + ByteUtils.bytesToHexString(msg.toBytes()));
-        LOGGER.log(Level.FINE, "Received message: " + msg.toString());
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Received bytes: " + ByteUtils.bytesToHexString(msg.toBytes()));
+            LOGGER.log(Level.FINE, "Received message: " + msg.toString());
+        }
     }
 
     @Override
     public void handleSendMessage(Message msg) {
-        LOGGER.log(Level.FINE, "Sending bytes: " + ByteUtils.bytesToHexString(msg.toBytes()));
-        LOGGER.log(Level.FINE, "Sending message: " + msg.toString());
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Sending bytes: " + ByteUtils.bytesToHexString(msg.toBytes()));
+            LOGGER.log(Level.FINE, "Sending message: " + msg.toString());
+        }
     }
 
     public void handleErrorMessage (ErrorMessage err) {
-        LOGGER.log(Level.FINE, "Error bytes: " + ByteUtils.bytesToHexString(err.toBytes()));
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Error bytes: " + ByteUtils.bytesToHexString(err.toBytes()));
+        }
         LOGGER.log(Level.SEVERE, "Error message: " + err.toString());
         this.cli.message("Finished transfer with errors");
     }
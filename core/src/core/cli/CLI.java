@@ -7,6 +7,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Scanner;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This defines the functionality for a generic command line interface to be used by the client, errorSimulator,
@@ -21,6 +22,7 @@ public class CLI extends Worker {
     private final String PROMPT = "tftp> ";
     private CommandInterpreter interpreter;
     private Scanner scanner;
+    private ReentrantLock writeLock;
 
     /**
      *
@@ -34,6 +36,7 @@ public class CLI extends Worker {
         this.out = out;
         this.handlers = new ArrayList<CommandHandler>();
         this.interpreter = interpreter;
+        this.writeLock = new ReentrantLock();
     }
 
     /**
@@ -87,13 +90,18 @@ public class CLI extends Worker {
      * Writes the output to the output stream
      * @param output
      */
-    private synchronized void write(String output){
+    private void write(String output){
+        // A lock is used in place of synchronized so that virtual threads
+        // writing messages do not pin their carrier thread during the write
+        this.writeLock.lock();
         try {
         	if (this.isRunning()){
                 out.write(output.getBytes());
         	}
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            this.writeLock.unlock();
         }
     }
 
@@ -4,6 +4,7 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -12,6 +13,10 @@ import core.cli.Command;
 import core.cli.CommandHandler;
 import core.cli.CommandInterpreter;
 import core.log.ConsoleLogger;
+import core.net.SocketPool;
+import core.req.TransferOptions;
+import core.util.Durability;
+import core.util.ExecutorFactory;
 
 /**
  * Controller
@@ -25,6 +30,22 @@ public abstract class Controller implements CommandHandler {
      */
     private final static String QUIET_MODE_FLAG = "q";
 
+    /**
+     * Command line value that selects the executor that runs transfers
+     */
+    public static final String EXECUTOR_VALUE = "executor";
+
+    /**
+     * Command line value that selects when received files are forced to disk
+     */
+    public static final String DURABILITY_VALUE = "durability";
+
+    /**
+     * Command line value of the range of ports that transfers use, in the
+     * form low-high
+     */
+    public static final String PORTS_VALUE = "ports";
+
     /**
      * Command to shutdown this controller
      */
@@ -60,6 +81,11 @@ public abstract class Controller implements CommandHandler {
      */
     protected Map<String, Boolean> commandLineOptions;
 
+    /**
+     * Map of command line values specified by the user in the form -name=value
+     */
+    protected Map<String, String> commandLineValues;
+
     /**
      *
      */
@@ -70,6 +96,16 @@ public abstract class Controller implements CommandHandler {
      */
     private String directoryPrefix = "";
 
+    /**
+     * Executor that runs transfers
+     */
+    protected ExecutorService executor;
+
+    /**
+     * When the files received by transfers are forced to disk
+     */
+    protected Durability durability;
+
     /**
      * Constructs a new controller with some default CLI commands
      *
@@ -81,8 +117,12 @@ public abstract class Controller implements CommandHandler {
         this.interpreter.addCommand(HELP_COMMAND);
         this.interpreter.addCommand(CHANGE_DIRECTORY_COMMAND);
         this.commandLineOptions = new HashMap<String, Boolean>();
+        this.commandLineValues = new HashMap<String, String>();
         this.setCommandLineOptions(commandLineArgs);
         this.applyCommandLineOptions();
+        this.executor = this.createExecutor();
+        this.durability = this.createDurability();
+        this.applyPortRange();
     }
 
     /**
@@ -127,7 +167,12 @@ public abstract class Controller implements CommandHandler {
      * @param option - The valid option that is to be added to the command set
      */
     private void setOption(String option){
-        this.commandLineOptions.put(option, true);
+        int separator = option.indexOf('=');
+        if (separator > 0){
+            this.commandLineValues.put(option.substring(0, separator), option.substring(separator + 1));
+        }else{
+            this.commandLineOptions.put(option, true);
+        }
     }
 
     /**
@@ -141,6 +186,115 @@ public abstract class Controller implements CommandHandler {
         }
     }
 
+    /**
+     * Creates the executor selected by the -executor command line value.
+     * Transfers run on virtual threads unless platform threads are chosen
+     *
+     * @return Executor to run transfers
+     */
+    private ExecutorService createExecutor(){
+        String type = this.commandLineValues.getOrDefault(EXECUTOR_VALUE, ExecutorFactory.VIRTUAL);
+
+        if (ExecutorFactory.VIRTUAL.equals(type) && !ExecutorFactory.isVirtualThreadSupported()){
+            LOGGER.log(Level.INFO, "Virtual threads are not supported, running transfers on platform threads");
+        }
+        try {
+            return ExecutorFactory.create(type);
+        } catch (IllegalArgumentException e){
+            LOGGER.log(Level.WARNING, "Ignoring command line option: " + e.getMessage());
+            return ExecutorFactory.create(ExecutorFactory.VIRTUAL);
+        }
+    }
+
+    /**
+     * Parses the durability selected by the -durability command line value.
+     * Received files are not forced to disk unless a durability is chosen
+     *
+     * @return Durability of received files
+     */
+    private Durability createDurability(){
+        String value = this.commandLineValues.get(DURABILITY_VALUE);
+
+        if (value == null){
+            return Durability.NONE;
+        }
+        try {
+            return Durability.parse(value);
+        } catch (IllegalArgumentException e){
+            LOGGER.log(Level.WARNING, "Ignoring command line option: " + e.getMessage());
+            return Durability.NONE;
+        }
+    }
+
+    /**
+     * Confines the ports of the sockets leased by transfers to the range
+     * given by the -ports command line value. Transfers use any port if
+     * no range is given
+     */
+    private void applyPortRange(){
+        String value = this.commandLineValues.get(PORTS_VALUE);
+        int separator;
+
+        if (value == null){
+            return;
+        }
+        try {
+            separator = value.indexOf('-');
+            SocketPool.getDefault().setPortRange(Integer.parseInt(value.substring(0, separator)),
+                    Integer.parseInt(value.substring(separator + 1)));
+            LOGGER.log(Level.INFO, "Transfers use ports " + value);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e){
+            LOGGER.log(Level.WARNING, "Ignoring command line option: " + PORTS_VALUE +
+                    " must be a range of ports such as 50000-50999");
+        }
+    }
+
+    /**
+     * Returns when the files received by transfers are forced to disk
+     *
+     * @return Durability of received files
+     */
+    public Durability getDurability() {
+        return this.durability;
+    }
+
+    /**
+     * Returns the executor that runs transfers
+     *
+     * @return Transfer executor
+     */
+    public ExecutorService getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Replaces the executor that runs transfers. The previous executor
+     * is shut down once its running transfers complete
+     *
+     * @param executor - Executor to run transfers
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor.shutdown();
+        this.executor = executor;
+    }
+
+    /**
+     * Sets any transfer options that were given as command line values
+     *
+     * @param options - Options to apply the command line values to
+     */
+    protected void applyCommandLineValues(TransferOptions options){
+        for (Map.Entry<String, String> value : this.commandLineValues.entrySet()){
+            if (TransferOptions.isOption(value.getKey())){
+                try {
+                    options.set(value.getKey(), value.getValue());
+                } catch (IllegalArgumentException e){
+                    LOGGER.log(Level.WARNING, "Ignoring command line option: " + e.getMessage());
+                }
+            }
+        }
+    }
+
     /**
      * Returns the address that this controller is communicating with
      *
@@ -174,7 +328,11 @@ public abstract class Controller implements CommandHandler {
      * Stops the controller and command line interface
      */
     public void stop () {
-        this.cli.stop();
+        if (this.cli != null) {
+            this.cli.stop();
+        }
+        // Running transfers are allowed to complete
+        this.executor.shutdown();
     }
 
     /**
@@ -1,22 +1,47 @@
 package core.ctrl;
 
-import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 
-import core.net.ErrorResponder;
-import core.net.ReadTransfer;
+import core.cli.Command;
+import core.engine.AdmissionControl;
+import core.engine.AdmittedListener;
+import core.engine.IntakeStage;
+import core.engine.SelectorEngine;
+import core.engine.ThreadEngine;
+import core.engine.TransferEngine;
+import core.net.ErrorSender;
+import core.net.Linger;
+import core.net.MulticastTransfer;
+import core.net.NodeSocket;
 import core.net.RequestListener;
 import core.net.RequestReceiver;
-import core.net.Transfer;
+import core.net.SocketPool;
 import core.net.TransferListener;
-import core.net.WriteTransfer;
-import core.req.AckMessage;
 import core.req.ErrorCode;
 import core.req.ErrorMessage;
 import core.req.Request;
+import core.req.TransferOptions;
 import core.util.ByteUtils;
+import core.util.DuplicateFilter;
+import core.util.FileCache;
+import core.util.HashedWheelTimer;
+import core.util.MetadataCache;
+import core.util.ReadAhead;
+import core.util.WriteBehind;
+import core.util.MetadataCache.Metadata;
 
 /**
  * Request Controller
@@ -26,9 +51,163 @@ import core.util.ByteUtils;
 public abstract class RequestController extends Controller implements RequestListener, TransferListener  {
 
     /**
-     * Handles sockets requests
+     * Largest window accepted by default, each block in a window is kept
+     * in memory until it is acknowledged
      */
-    private RequestReceiver receiver;
+    public static final int DEFAULT_WINDOW_LIMIT = 64;
+
+    /**
+     * Command line value that selects the transfer engine
+     */
+    public static final String ENGINE_VALUE = "engine";
+
+    /**
+     * Engine that runs each transfer on its own thread
+     */
+    public static final String THREAD_ENGINE = "thread";
+
+    /**
+     * Engine that runs transfers on a few selector event loops
+     */
+    public static final String SELECTOR_ENGINE = "nio";
+
+    /**
+     * Command line value that sets the number of event loops
+     */
+    public static final String LOOPS_VALUE = "loops";
+
+    /**
+     * Command line value that sets the number of transfers that can run at the same time
+     */
+    public static final String MAX_TRANSFERS_VALUE = "maxtransfers";
+
+    /**
+     * Command line value that sets the number of transfers that can wait to be started
+     */
+    public static final String MAX_PENDING_VALUE = "maxpending";
+
+    /**
+     * Command line value that sets the time in ms that a transfer can wait to be started
+     */
+    public static final String MAX_WAIT_VALUE = "maxwait";
+
+    /**
+     * Command to print the admission statistics
+     */
+    public static final String STATS_COMMAND = "stats";
+
+    /**
+     * Command line value of the number of receivers that listen for requests
+     * on the server port, each on its own socket and thread
+     */
+    public static final String RECEIVERS_VALUE = "receivers";
+
+    /**
+     * Command line value of the number of threads that check and start the
+     * requests taken in by the receivers
+     */
+    public static final String INTAKE_WORKERS_VALUE = "intakeworkers";
+
+    /**
+     * Command line value of the number of requests that can wait for an
+     * intake thread
+     */
+    public static final String INTAKE_QUEUE_VALUE = "intakequeue";
+
+    /**
+     * Command line value of the number of KiB of files that can be cached,
+     * 0 turns the cache off and only shares the files that are open
+     */
+    public static final String CACHE_SIZE_VALUE = "cachesize";
+
+    /**
+     * Command line value of the number of KiB of the largest file that is cached
+     */
+    public static final String CACHE_FILE_VALUE = "cachefile";
+
+    /**
+     * Command line value of the multicast address and first port that
+     * files are multicast to, in the form address:port
+     */
+    public static final String MULTICAST_VALUE = TransferOptions.MULTICAST_OPTION;
+
+    /**
+     * Longest time in ms that a request is remembered to drop it if it is
+     * received again, long enough for a client to send it again after each
+     * of its timeouts. A request is forgotten sooner once its transfer starts
+     */
+    public static final long DUPLICATE_WINDOW = 5 * NodeSocket.DEFAULT_TIMEOUT;
+
+    /**
+     * Receivers that listen for requests on the server port
+     */
+    private ArrayList<RequestReceiver> receivers;
+
+    /**
+     * Checks and starts the requests taken in by the receivers off their
+     * threads
+     */
+    private IntakeStage intake;
+
+    /**
+     * Addresses of the clients whose requests are being checked or started,
+     * so that a request that a client sent again is dropped. The address
+     * is forgotten before the client is answered, since a client only
+     * reuses the port of a socket once it has been answered. A request
+     * received again after its transfer started is refused by the client
+     * with an unknown transfer ID error
+     */
+    private DuplicateFilter<SocketAddress> duplicates;
+
+    /**
+     * Metadata of the files in the working directory, which is watched
+     * for changes
+     */
+    private MetadataCache metadata;
+
+    /**
+     * Paths of the files being received, which are refused to other write
+     * requests until their transfers end even if the file is not created yet
+     */
+    private Set<String> uploads;
+
+    /**
+     * Largest option values that will be accepted from a request
+     */
+    private TransferOptions optionLimits;
+
+    /**
+     * Engine that runs the accepted transfers
+     */
+    private TransferEngine engine;
+
+    /**
+     * Limits the number of transfers that run at the same time
+     */
+    private AdmissionControl admission;
+
+    /**
+     * Cache of the files sent in response to read requests, which also
+     * shares the files that are sent to several clients at once
+     */
+    private FileCache cache;
+
+    /**
+     * Multicast address and first port that files are multicast to, or
+     * null if multicast is turned off. Each multicast transfer uses the
+     * lowest port from the first port that no other transfer is using
+     */
+    private InetSocketAddress multicastGroup;
+
+    /**
+     * Multicast transfers by the path and options of the file they send
+     */
+    private HashMap<String, MulticastTransfer> multicasts;
+
+    /**
+     * Guards the multicast transfers
+     */
+    private ReentrantLock multicastLock;
 
     /**
      * Constructs a new request controller for handling transfer requests
@@ -40,30 +219,136 @@ public abstract class RequestController extends Controller implements RequestLis
      */
     public RequestController (int port, String[] commandLineArgs) throws SocketException {
         super(commandLineArgs);
-        this.receiver = new RequestReceiver(port);
-        this.receiver.addRequestListener(this);
+        this.receivers = this.createReceivers(port);
+        this.optionLimits = new TransferOptions();
+        this.optionLimits.setBlockSize(TransferOptions.MAX_BLOCK_SIZE);
+        this.optionLimits.setWindowSize(DEFAULT_WINDOW_LIMIT);
+        this.applyCommandLineValues(this.optionLimits);
+        this.multicastGroup = this.createMulticastGroup();
+        this.multicasts = new HashMap<String, MulticastTransfer>();
+        this.multicastLock = new ReentrantLock();
+        this.cache = this.createCache();
+        this.metadata = new MetadataCache();
+        this.metadata.watch(this.getPrefix());
+        this.uploads = ConcurrentHashMap.newKeySet();
+        this.engine = this.createEngine();
+        this.engine.setDurability(this.getDurability());
+        this.admission = new AdmissionControl(
+                this.getCommandLineNumber(MAX_TRANSFERS_VALUE, AdmissionControl.DEFAULT_MAX_ACTIVE),
+                this.getCommandLineNumber(MAX_PENDING_VALUE, AdmissionControl.DEFAULT_MAX_PENDING),
+                this.getCommandLineNumber(MAX_WAIT_VALUE, AdmissionControl.DEFAULT_MAX_WAIT),
+                this::startWaiting);
+        this.duplicates = new DuplicateFilter<SocketAddress>(DUPLICATE_WINDOW, HashedWheelTimer.getDefault());
+        this.intake = new IntakeStage(
+                this.getCommandLineNumber(INTAKE_WORKERS_VALUE, IntakeStage.DEFAULT_WORKERS),
+                this.getCommandLineNumber(INTAKE_QUEUE_VALUE, IntakeStage.DEFAULT_CAPACITY),
+                this::process);
+        this.interpreter.addCommand(STATS_COMMAND);
     }
 
     /**
-     * Handles transfer requests and performs file transfer
+     * Invoked when a user types a command on the interface
+     *
+     * @param command - User's CLI command
+     */
+    @Override
+    public void handleCommand (Command command){
+        super.handleCommand(command);
+        if (STATS_COMMAND.equals(command.getToken())){
+            this.cli.message(this.intake.toString());
+            this.cli.message(this.duplicates.toString());
+            this.cli.message(this.admission.toString());
+            this.cli.message(this.cache.toString());
+            this.cli.message(ReadAhead.getDefault().toString());
+            this.cli.message(WriteBehind.getDefault().toString());
+            this.cli.message(Linger.getDefault().toString());
+            this.cli.message(SocketPool.getDefault().toString());
+            this.cli.message(this.metadata.toString());
+        }
+    }
+
+    /**
+     * Changes the working directory and watches it for changes to the
+     * metadata of its files, creating it if it does not exist
+     *
+     * @param dir - the new working directory
+     */
+    @Override
+    public void changeWorkingDirectory (String dir){
+        super.changeWorkingDirectory(dir);
+        this.metadata.watch(this.getPrefix());
+    }
+
+    /**
+     * Returns the admission control that limits the running transfers
+     *
+     * @return Admission control of the controller
+     */
+    public AdmissionControl getAdmission (){
+        return this.admission;
+    }
+
+    /**
+     * Returns the cache of the files sent in response to read requests
+     *
+     * @return File cache, which holds no files if the cache is turned off
+     */
+    public FileCache getFileCache (){
+        return this.cache;
+    }
+
+    /**
+     * Returns the intake stage that checks and starts the requests
+     *
+     * @return Intake stage of the controller
+     */
+    public IntakeStage getIntake (){
+        return this.intake;
+    }
+
+    /**
+     * Queues a transfer request to be checked and started off the receiving
+     * thread. Requests are turned away with a busy error if the intake
+     * queue is full, and dropped if the client already sent them
      *
      * @param req - File transfer request
      * @param address - Sender's address
      */
     public void handleRequest (Request req, SocketAddress address){
-    	LOGGER.log(Level.FINE,"Received bytes from client "+ByteUtils.bytesToHexString(req.toBytes()));
-    	LOGGER.log(Level.FINE, "Received request from client " + req.toString());
-        // Ensure that the destination directory exists for each request.
-        // If for some reason the destination is deleted between requests
-        // then it needs to be reconstructed.
-        new File(getPrefix()).mkdirs();
+        // A client sends its request again if the response is slow, which
+        // would start a second transfer of the same file. Multicast clients
+        // send it again on purpose to rejoin the group
+        if (!req.getOptions().containsKey(TransferOptions.MULTICAST_OPTION) &&
+                !this.duplicates.first(address)) {
+            LOGGER.log(Level.FINE, "Dropped duplicate request from " + address);
+            return;
+        }
+        if (!this.intake.submit(req, address)) {
+            LOGGER.log(Level.WARNING, "Intake queue full, rejecting request from " + address);
+            this.duplicates.forget(address);
+            this.respondBusy(address);
+        }
+    }
 
+    /**
+     * Handles transfer requests and performs file transfer
+     *
+     * @param req - File transfer request
+     * @param address - Sender's address
+     */
+    private void process (Request req, SocketAddress address){
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE,"Received bytes from client "+ByteUtils.bytesToHexString(req.toBytes()));
+            LOGGER.log(Level.FINE, "Received request from client " + req.toString());
+        }
+        // The destination directory is created when it is set and
+        // created again by the metadata cache if it is deleted
         switch(req.getOpCode()){
             case READ:
-                this.read(address, req.getFilename());
+                this.read(address, req.getFilename(), req.getOptions());
                 break;
             case WRITE:
-                this.write(address, req.getFilename());
+                this.write(address, req.getFilename(), req.getOptions());
                 break;
             default:
                 break;
@@ -85,7 +370,17 @@ public abstract class RequestController extends Controller implements RequestLis
     @Override
     public void start (){
         super.start();
-        this.receiver.start();
+        this.listen();
+    }
+
+    /**
+     * Starts receiving requests without a command line interface, for a
+     * controller that is embedded in another program
+     */
+    public void listen (){
+        for (RequestReceiver receiver : this.receivers) {
+            receiver.start();
+        }
     }
 
     /**
@@ -94,8 +389,236 @@ public abstract class RequestController extends Controller implements RequestLis
     @Override
     public void stop (){
         super.stop();
-        this.receiver.stop();
-        this.receiver.teardown();
+        for (RequestReceiver receiver : this.receivers) {
+            receiver.stop();
+            receiver.teardown();
+        }
+        this.intake.shutdown();
+        this.engine.shutdown();
+        this.metadata.close();
+    }
+
+    /**
+     * Creates the transfer engine selected by the -engine command line value.
+     * Transfers run on their own threads unless the selector engine is chosen
+     *
+     * @return Engine to run transfers
+     */
+    private TransferEngine createEngine () {
+        String engine = this.commandLineValues.getOrDefault(ENGINE_VALUE, THREAD_ENGINE);
+        int loops = SelectorEngine.DEFAULT_LOOPS;
+
+        if (SELECTOR_ENGINE.equals(engine)) {
+            try {
+                if (this.commandLineValues.containsKey(LOOPS_VALUE)) {
+                    loops = Integer.parseInt(this.commandLineValues.get(LOOPS_VALUE));
+                }
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.WARNING, "Ignoring command line option: loops must be a number");
+            }
+            try {
+                LOGGER.log(Level.INFO, "Running transfers on " + loops + " event loop(s)");
+                return new SelectorEngine(loops, this.cache);
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Unable to open selector, running transfers on threads: " + e.getMessage());
+            }
+        }
+        else if (!THREAD_ENGINE.equals(engine)) {
+            LOGGER.log(Level.WARNING, "Ignoring command line option: unknown engine " + engine);
+        }
+        return new ThreadEngine(this.getExecutor(), this.cache);
+    }
+
+    /**
+     * Creates the receivers that listen for requests on the port, as many
+     * as the -receivers command line value. Several receivers share the
+     * port through SO_REUSEPORT, which spreads the clients over their
+     * sockets so each client's requests reach the same receiver. A single
+     * receiver is created if the platform cannot reuse the port
+     *
+     * @param port - Port to listen for requests on
+     *
+     * @return Receivers of the requests
+     *
+     * @throws SocketException - If the port cannot be bound to
+     */
+    private ArrayList<RequestReceiver> createReceivers (int port) throws SocketException {
+        ArrayList<RequestReceiver> receivers = new ArrayList<RequestReceiver>();
+        int count = Math.max(1, this.getCommandLineNumber(RECEIVERS_VALUE, 1));
+        RequestReceiver receiver;
+
+        if (count > 1 && !NodeSocket.isReusePortSupported()) {
+            LOGGER.log(Level.WARNING, "Ports cannot be reused on this platform, receiving requests on one socket");
+            count = 1;
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                receiver = new RequestReceiver(port, count > 1);
+                receiver.addRequestListener(this);
+                receivers.add(receiver);
+            }
+        } catch (SocketException e) {
+            for (RequestReceiver opened : receivers) {
+                opened.teardown();
+            }
+            throw e;
+        }
+        if (count > 1) {
+            LOGGER.log(Level.INFO, "Receiving requests on " + count + " sockets");
+        }
+        return receivers;
+    }
+
+    /**
+     * Creates the file cache with the limits given by the -cachesize and
+     * -cachefile command line values. A cache that is turned off holds no
+     * files but still shares the files that are open
+     *
+     * @return File cache
+     */
+    private FileCache createCache () {
+        long size = this.getCommandLineNumber(CACHE_SIZE_VALUE, (int) (FileCache.DEFAULT_MAX_SIZE / 1024));
+        long file = this.getCommandLineNumber(CACHE_FILE_VALUE, (int) (FileCache.DEFAULT_MAX_ENTRY_SIZE / 1024));
+
+        return new FileCache(Math.max(0, size) * 1024, file * 1024);
+    }
+
+    /**
+     * Parses the multicast address and first port given by the -multicast
+     * command line value. Requests for multicast are refused if the value
+     * is not given or is not valid
+     *
+     * @return Multicast address and first port, or null if multicast is turned off
+     */
+    private InetSocketAddress createMulticastGroup () {
+        String value = this.commandLineValues.get(MULTICAST_VALUE);
+        InetSocketAddress group = null;
+        int separator;
+
+        if (value != null && (separator = value.lastIndexOf(':')) > 0) {
+            try {
+                group = new InetSocketAddress(InetAddress.getByName(value.substring(0, separator)),
+                        Integer.parseInt(value.substring(separator + 1)));
+            } catch (UnknownHostException | IllegalArgumentException e) {
+                group = null;
+            }
+        }
+        if (group == null || !group.getAddress().isMulticastAddress()) {
+            if (value != null) {
+                LOGGER.log(Level.WARNING, "Ignoring command line option: " + MULTICAST_VALUE +
+                        " must be a multicast address and port such as 239.255.0.1:1758");
+            }
+            this.optionLimits.setMulticast(null);
+            return null;
+        }
+        this.optionLimits.setMulticast("");
+        LOGGER.log(Level.INFO, "Multicasting files to " + group);
+        return group;
+    }
+
+    /**
+     * Returns a number given as a command line value or the default if
+     * the value was not given or is not a number
+     *
+     * @param name - Name of the command line value
+     * @param defaultValue - Number to use if the value is not given
+     *
+     * @return Number given on the command line
+     */
+    private int getCommandLineNumber (String name, int defaultValue) {
+        try {
+            if (this.commandLineValues.containsKey(name)) {
+                return Integer.parseInt(this.commandLineValues.get(name));
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.log(Level.WARNING, "Ignoring command line option: " + name + " must be a number");
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Starts a transfer once the admission control has capacity for it.
+     * Transfers that cannot be admitted are turned away with a busy error
+     * sent from a receiving socket
+     *
+     * @param address - Address of the requester
+     * @param transfer - Starts the transfer with a listener that releases its capacity
+     */
+    private void admit (SocketAddress address, AdmittedTransfer transfer) {
+        this.admit(address, transfer, () -> this.respondBusy(address), null);
+    }
+
+    /**
+     * Turns a requester away with a busy error sent from a receiving socket,
+     * without creating a socket or thread for the response
+     *
+     * @param address - Address of the requester
+     */
+    private void respondBusy (SocketAddress address) {
+        this.receivers.get(0).respond(
+                new ErrorMessage(ErrorCode.NOT_DEFINED, "Server busy, try again later."), address);
+    }
+
+    /**
+     * Starts a transfer once the admission control has capacity for it
+     *
+     * @param address - Address of the requester
+     * @param transfer - Starts the transfer with a listener that releases its capacity
+     * @param rejected - Turns the requester away if the transfer cannot be admitted
+     * @param ended - Run once the transfer ends or is turned away, or null
+     */
+    private void admit (SocketAddress address, AdmittedTransfer transfer, Runnable rejected, Runnable ended) {
+        AdmittedListener listener = new AdmittedListener(this.admission, this,
+                () -> this.duplicates.forget(address), ended);
+
+        this.admission.admit(() -> {
+            try {
+                transfer.start(listener);
+            } catch (Exception e){
+                listener.release();
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }, () -> {
+            LOGGER.log(Level.WARNING, "Server busy, rejecting request from " + address);
+            this.duplicates.forget(address);
+            if (ended != null) {
+                ended.run();
+            }
+            rejected.run();
+        });
+    }
+
+    /**
+     * Starts a transfer that waited for capacity on a thread of the
+     * executor, since the transfer that released the capacity may have
+     * ended on an event loop
+     *
+     * @param start - Starts the transfer
+     */
+    private void startWaiting (Runnable start) {
+        try {
+            this.getExecutor().execute(start);
+        } catch (RejectedExecutionException e) {
+            start.run();
+        }
+    }
+
+    /**
+     * Admitted Transfer
+     *
+     * Starts a transfer that has been admitted
+     */
+    private interface AdmittedTransfer {
+
+        /**
+         * Starts the transfer
+         *
+         * @param listener - Listener to the stages of the transfer
+         *
+         * @throws IOException - If the transfer cannot be started
+         */
+        void start (TransferListener listener) throws IOException;
     }
 
     /**
@@ -106,13 +629,24 @@ public abstract class RequestController extends Controller implements RequestLis
      * @param filename - Name of file to transfer
      */
     public void read (SocketAddress address, String filename){
-        Transfer runner;
+        this.read(address, filename, new TransferOptions().toMap());
+    }
+
+    /**
+     * Performs a write transfer by reading a file and writing it to the
+     * alternate endpoint using the options negotiated from the request
+     *
+     * @param address - Address to send file
+     * @param filename - Name of file to transfer
+     * @param options - Options appended to the request
+     */
+    public void read (SocketAddress address, String filename, Map<String, String> options){
         ErrorMessage err;
-        File file;
+        Metadata file;
         String path;
 
         path = this.appendPrefix(filename);
-        file = new File(path);
+        file = this.metadata.get(path);
 
         if (!file.exists() || !file.isFile()) {
             err = new ErrorMessage(ErrorCode.FILE_NOT_FOUND, "\"" + filename + "\" not found.");
@@ -127,15 +661,84 @@ public abstract class RequestController extends Controller implements RequestLis
         }
 
         try {
-            runner = new WriteTransfer(address, path, filename);
-            runner.addTransferListener(this);
-            (new Thread(runner)).start();
+            TransferOptions accepted = this.optionLimits.negotiate(options);
+
+            // Files with too many blocks for the block numbers of a multicast
+            // transfer are sent to the requester alone
+            if (accepted.isMulticast()) {
+                if (file.getSize() / accepted.getBlockSize() < MulticastTransfer.MAX_BLOCKS) {
+                    this.multicast(address, path, accepted);
+                    return;
+                }
+                accepted.setMulticast(null);
+            }
+            this.admit(address, (listener) -> this.engine.read(address, path, filename, accepted, listener));
         } catch (Exception e){
             e.printStackTrace();
             System.exit(1);
         }
     }
 
+    /**
+     * Sends a file to a multicast group. The requester joins the transfer
+     * that is already sending the file with the same options, otherwise a
+     * new transfer is started for it on its own thread. Only the transfer
+     * takes a place in the admission control, the clients that join it do
+     * not add to the data that is sent
+     *
+     * @param address - Address of the requester
+     * @param path - Path of the file to send
+     * @param accepted - Options accepted from the request
+     *
+     * @throws SocketException - If the socket of a new transfer cannot be created
+     */
+    private void multicast (SocketAddress address, String path, TransferOptions accepted) throws SocketException {
+        String key = path + " " + accepted.toMap();
+        MulticastTransfer transfer;
+
+        this.multicastLock.lock();
+        try {
+            this.multicasts.values().removeIf(MulticastTransfer::isClosed);
+            transfer = this.multicasts.get(key);
+            if (transfer != null && transfer.join(address)) {
+                LOGGER.log(Level.INFO, address + " joined the multicast of " + path + " to " + transfer.getGroup());
+                return;
+            }
+            transfer = new MulticastTransfer(address, path, accepted, this.nextMulticastGroup());
+            transfer.setFileCache(this.cache);
+            this.multicasts.put(key, transfer);
+        } finally {
+            this.multicastLock.unlock();
+        }
+
+        MulticastTransfer started = transfer;
+        LOGGER.log(Level.INFO, "Multicasting " + path + " to " + started.getGroup());
+        this.admit(address, (listener) -> {
+            started.addTransferListener(listener);
+            this.getExecutor().execute(started);
+        }, () -> started.cancel(new ErrorMessage(ErrorCode.NOT_DEFINED, "Server busy, try again later.")), null);
+    }
+
+    /**
+     * Returns the multicast group with the lowest port that no running
+     * multicast transfer is using. Must be called with the multicast lock held
+     *
+     * @return Multicast group for a new transfer
+     */
+    private InetSocketAddress nextMulticastGroup () {
+        int port = this.multicastGroup.getPort();
+        boolean used;
+
+        do {
+            used = false;
+            for (MulticastTransfer transfer : this.multicasts.values()) {
+                used |= transfer.getGroup().getPort() == port;
+            }
+        } while (used && ++port <= 65535);
+
+        return new InetSocketAddress(this.multicastGroup.getAddress(), Math.min(port, 65535));
+    }
+
     /**
      * Performs a read transfer by writing a file that is provided
      * over a socket with the given address
@@ -144,38 +747,55 @@ public abstract class RequestController extends Controller implements RequestLis
      * @param filename - Name of file to receive
      */
     public void write (SocketAddress address, String filename){
-        ReadTransfer runner;
+        this.write(address, filename, new TransferOptions().toMap());
+    }
+
+    /**
+     * Performs a read transfer by writing a file that is provided
+     * over a socket with the given address using the options negotiated
+     * from the request
+     *
+     * @param address - Address to receive file over
+     * @param filename - Name of file to receive
+     * @param options - Options appended to the request
+     */
+    public void write (SocketAddress address, String filename, Map<String, String> options){
         ErrorMessage err;
-        File file, dir;
+        Metadata file;
         String path;
 
         path = this.appendPrefix(filename);
-        dir  = new File(this.getPrefix());
-        file = new File(path);
+        file = this.metadata.get(path);
 
-        // Start an error thread that will send an error code 6 message to the client if the file already exists
-        if (file.exists() && file.isFile()) {
+        // A file that exists, or is being received by another transfer and
+        // may not be created yet, is not written over
+        if ((file.exists() && file.isFile()) || !this.uploads.add(path)) {
             err = new ErrorMessage(ErrorCode.FILE_ALREADY_EXISTS, "\"" + filename + "\" already exists.");
             this.respondError(err, address);
             return;
         }
-        else if (dir.exists() && !dir.canWrite()){
+        else if (!this.metadata.canWrite()){
+            this.uploads.remove(path);
             err = new ErrorMessage(ErrorCode.ACCESS_VIOLATION,
                     "Insufficient privileges to write file \"" + filename + "\"");
             this.respondError(err, address);
             return;
         }
 
+        // The cached metadata says the file does not exist, which stops
+        // being true before the watch reports the file. It is checked
+        // again from now on and once the transfer has created or deleted it
+        this.metadata.invalidate(path);
 
         try {
-            runner = new ReadTransfer(address, path, path);
-
-            runner.addTransferListener(this);
-            AckMessage ack = new AckMessage((short)0);
-            this.handleSendMessage(ack);
-            // Send the initial Ack
-            runner.getSocket().send(ack);
-            (new Thread(runner)).start();
+            // Multicast only applies to files that are read
+            TransferOptions accepted = this.optionLimits.negotiate(options);
+            accepted.setMulticast(null);
+            this.admit(address, (listener) -> this.engine.write(address, path, accepted, listener),
+                    () -> this.respondBusy(address), () -> {
+                        this.metadata.invalidate(path);
+                        this.uploads.remove(path);
+                    });
         } catch (Exception e){
             e.printStackTrace();
             System.exit(1);
@@ -183,21 +803,16 @@ public abstract class RequestController extends Controller implements RequestLis
     }
 
     /**
-     * Creates an ErrorResponder thread which sends an error message to the specified address
+     * Sends an error message to the specified address from the shared error
+     * sender and forgets the request from that address, which has ended
      *
      * @param msg - An ErrorMessage that contains the information relevant to the type of error encountered
      * @param address - The socket address that the error message should be sent to
      */
     public void respondError (ErrorMessage msg, SocketAddress address) {
-        ErrorResponder responder;
-
-        try {
-            responder = new ErrorResponder(msg, address);
-            responder.addListener(this);
-            (new Thread(responder)).start();
-        } catch (SocketException e) {
-            e.printStackTrace();
-            System.exit(1);
-        }
+        this.duplicates.forget(address);
+        this.handleStart();
+        ErrorSender.getDefault().send(msg, address);
+        this.handleErrorMessage(msg);
     }
 }
@@ -5,12 +5,15 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import core.cli.Command;
 import core.net.ReadTransfer;
 import core.net.Transfer;
 import core.net.TransferListener;
 import core.net.WriteTransfer;
+import core.req.TransferOptions;
 
 /**
  * Transfer Controller
@@ -34,6 +37,16 @@ public abstract class TransferController extends Controller implements TransferL
      */
     public static final String WRITE_COMMAND = "write";
 
+    /**
+     * Command to view or set the options requested for transfers
+     */
+    public static final String OPTION_COMMAND = "option";
+
+    /**
+     * Options requested for each transfer
+     */
+    protected TransferOptions options;
+
     /**
      * Constructs a transfer controller with a read and write command
      *
@@ -45,6 +58,9 @@ public abstract class TransferController extends Controller implements TransferL
         this.interpreter.addCommand(READ_COMMAND);
         this.interpreter.addCommand(WRITE_COMMAND);
         this.interpreter.addCommand(SERVER_COMMAND);
+        this.interpreter.addCommand(OPTION_COMMAND);
+        this.options = new TransferOptions();
+        this.applyCommandLineValues(this.options);
     }
 
     /**
@@ -67,6 +83,9 @@ public abstract class TransferController extends Controller implements TransferL
 	            case SERVER_COMMAND:
 	                this.changeServer(command.getFirstArgument());
 	                break;
+	            case OPTION_COMMAND:
+	                this.changeOption(command.getArguments());
+	                break;
 	        }
         }catch(IndexOutOfBoundsException ex){
         	this.cli.message("Invalid number of arguments to command: " + command.getToken());
@@ -87,6 +106,25 @@ public abstract class TransferController extends Controller implements TransferL
         }
     }
 
+    /**
+     * Sets an option that will be requested for each transfer or
+     * displays the current options if no option is given
+     *
+     * @param arguments - The option name followed by its value
+     */
+    private void changeOption(ArrayList<String> arguments) {
+        if (arguments.isEmpty()) {
+            this.cli.message("Requested options: " + this.options);
+            return;
+        }
+        try {
+            this.options.set(arguments.get(0), arguments.get(1));
+            this.cli.message("Requested options: " + this.options);
+        } catch (IllegalArgumentException e) {
+            this.cli.message(e.getMessage());
+        }
+    }
+
     /**
      * Performs a read transfer of the given filename from an endpoint
      * to this controller
@@ -124,7 +162,8 @@ public abstract class TransferController extends Controller implements TransferL
         // requested file does not already exist and there are
         // sufficient privileges to write
         try {
-            runner = new ReadTransfer(this.getAddress(), filename, path);
+            runner = new ReadTransfer(this.getAddress(), filename, path, this.options);
+            runner.setDurability(this.getDurability());
             runner.addTransferListener(this);
 
             if (runner.sendRequest()){
@@ -170,7 +209,7 @@ public abstract class TransferController extends Controller implements TransferL
         // There are no issues with permissions on this end of
         // the transfer
         try {
-            runner = new WriteTransfer(this.getAddress(), appendPrefix(filename), filename);
+            runner = new WriteTransfer(this.getAddress(), appendPrefix(filename), filename, this.options);
             runner.addTransferListener(this);
             System.out.println("Client Filename: " + appendPrefix(filename));
 
@@ -184,15 +223,18 @@ public abstract class TransferController extends Controller implements TransferL
     }
 
     /**
-     * Runs a transfer in a background thread
+     * Runs a transfer on the transfer executor and waits for it to complete
      *
-     * @param transfer - Transfer to run in background thread
+     * @param transfer - Transfer to run
      *
      * @throws InterruptedException - If the transfer gets killed externally
      */
     public void performTransfer (Transfer transfer) throws InterruptedException {
-        Thread transferThread = new Thread(transfer);
-        transferThread.start();
-        transferThread.join();
+        Future<?> result = this.getExecutor().submit(transfer);
+        try {
+            result.get();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
     }
 }
@@ -0,0 +1,337 @@
+package core.engine;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+import core.util.HashedWheelTimer;
+
+/**
+ * Admission Control
+ *
+ * Limits the number of transfers that run at the same time. Transfers beyond
+ * the limit wait in a bounded queue and are started in order as running
+ * transfers finish. Requests that do not fit in the queue, or that waited
+ * longer than the maximum wait, are rejected so that the transfers already
+ * admitted keep a bounded latency under overload.
+ *
+ * A waiting transfer is rejected by the default timer wheel as soon as its
+ * maximum wait passes, so its reject task runs on the wheel's thread and
+ * must not block. Waiting transfers are started on the given executor since
+ * the transfer that releases its capacity may end on an event loop.
+ */
+public class AdmissionControl {
+
+    /**
+     * Default number of transfers that can run at the same time
+     */
+    public static final int DEFAULT_MAX_ACTIVE = 1024;
+
+    /**
+     * Default number of transfers that can wait to be started
+     */
+    public static final int DEFAULT_MAX_PENDING = 256;
+
+    /**
+     * Default time in ms that a transfer can wait to be started
+     */
+    public static final int DEFAULT_MAX_WAIT = 2400;
+
+    /**
+     * Number of transfers that can run at the same time
+     */
+    private int maxActive;
+
+    /**
+     * Number of transfers that can wait to be started
+     */
+    private int maxPending;
+
+    /**
+     * Time in ms that a transfer can wait to be started
+     */
+    private long maxWait;
+
+    /**
+     * Starts the transfers that waited
+     */
+    private Executor executor;
+
+    /**
+     * Guards the counts and the queue. A lock is used in place of synchronized
+     * so that virtual threads releasing transfers do not pin their carrier
+     */
+    private ReentrantLock lock;
+
+    /**
+     * Transfers waiting to be started in the order they were requested
+     */
+    private ArrayDeque<Admission> pending;
+
+    /**
+     * Number of transfers running
+     */
+    private int active;
+
+    /**
+     * Number of transfers started
+     */
+    private long admitted;
+
+    /**
+     * Number of transfers that had to wait before they were started
+     */
+    private long queued;
+
+    /**
+     * Number of transfers rejected because the queue was full
+     */
+    private long rejected;
+
+    /**
+     * Number of transfers rejected because they waited too long
+     */
+    private long expired;
+
+    /**
+     * Total time in ns that started transfers waited
+     */
+    private long totalWait;
+
+    /**
+     * Longest time in ns that a started transfer waited
+     */
+    private long longestWait;
+
+    /**
+     * Largest number of transfers that were waiting at the same time
+     */
+    private int deepestQueue;
+
+    /**
+     * Constructs an admission control with the default limits that starts
+     * the transfers that waited on the thread that releases capacity
+     */
+    public AdmissionControl () {
+        this(DEFAULT_MAX_ACTIVE, DEFAULT_MAX_PENDING, DEFAULT_MAX_WAIT, Runnable::run);
+    }
+
+    /**
+     * Constructs an admission control with the given limits
+     *
+     * @param maxActive - Number of transfers that can run at the same time
+     * @param maxPending - Number of transfers that can wait to be started
+     * @param maxWait - Time in ms that a transfer can wait to be started
+     * @param executor - Starts the transfers that waited
+     */
+    public AdmissionControl (int maxActive, int maxPending, int maxWait, Executor executor) {
+        this.maxActive  = Math.max(1, maxActive);
+        this.maxPending = Math.max(0, maxPending);
+        this.maxWait    = Math.max(0, maxWait);
+        this.executor   = executor;
+        this.lock       = new ReentrantLock();
+        this.pending    = new ArrayDeque<Admission>();
+    }
+
+    /**
+     * Starts a transfer if there is capacity, otherwise queues it until a
+     * running transfer finishes. If the queue is full the transfer is
+     * rejected immediately, and a queued transfer is rejected from the
+     * default timer wheel once it has waited the maximum wait. Every
+     * started transfer must be released once
+     *
+     * @param start - Starts the transfer
+     * @param reject - Rejects the transfer, must not block
+     *
+     * @return If the transfer was started or queued
+     */
+    public boolean admit (Runnable start, Runnable reject) {
+        boolean run = false;
+        Admission admission;
+
+        this.lock.lock();
+        try {
+            if (this.active < this.maxActive) {
+                this.active++;
+                this.admitted++;
+                run = true;
+            }
+            else if (this.pending.size() < this.maxPending) {
+                admission = new Admission(start, reject, System.nanoTime());
+                admission.expiry = HashedWheelTimer.getDefault().schedule(() -> this.expire(admission), this.maxWait);
+                this.pending.add(admission);
+                this.deepestQueue = Math.max(this.deepestQueue, this.pending.size());
+                return true;
+            }
+            else {
+                this.rejected++;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (run) {
+            start.run();
+        }
+        else {
+            reject.run();
+        }
+        return run;
+    }
+
+    /**
+     * Releases the capacity of a finished transfer and starts the next
+     * waiting transfer on the executor
+     */
+    public void release () {
+        Admission next;
+        long waited;
+
+        this.lock.lock();
+        try {
+            this.active--;
+            next = this.pending.poll();
+            if (next == null) {
+                return;
+            }
+            next.expiry.cancel();
+            waited = System.nanoTime() - next.time;
+            this.active++;
+            this.admitted++;
+            this.queued++;
+            this.totalWait += waited;
+            this.longestWait = Math.max(this.longestWait, waited);
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.executor.execute(next.start);
+    }
+
+    /**
+     * Rejects a waiting transfer once it has waited the maximum wait,
+     * unless it was started in the meantime
+     *
+     * @param admission - The waiting transfer
+     */
+    private void expire (Admission admission) {
+        this.lock.lock();
+        try {
+            if (!this.pending.remove(admission)) {
+                return;
+            }
+            this.expired++;
+        } finally {
+            this.lock.unlock();
+        }
+
+        admission.reject.run();
+    }
+
+    /**
+     * Returns the number of transfers running
+     *
+     * @return Number of running transfers
+     */
+    public int getActive () {
+        this.lock.lock();
+        try {
+            return this.active;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of transfers waiting to be started
+     *
+     * @return Depth of the queue
+     */
+    public int getQueueDepth () {
+        this.lock.lock();
+        try {
+            return this.pending.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of transfers rejected because the queue was full
+     * or because they waited too long
+     *
+     * @return Number of rejected transfers
+     */
+    public long getRejected () {
+        this.lock.lock();
+        try {
+            return this.rejected + this.expired;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a summary of the admission statistics
+     */
+    @Override
+    public String toString () {
+        this.lock.lock();
+        try {
+            return "Active transfers:  " + this.active + " of " + this.maxActive + "\n" +
+                   "Waiting transfers: " + this.pending.size() + " of " + this.maxPending +
+                            " (deepest " + this.deepestQueue + ")\n" +
+                   "Started transfers: " + this.admitted + " (" + this.queued + " waited)\n" +
+                   "Wait time:         mean " + millis(this.queued == 0 ? 0 : this.totalWait / this.queued) +
+                            "ms, longest " + millis(this.longestWait) + "ms\n" +
+                   "Rejected:          " + this.rejected + " queue full, " + this.expired + " waited too long";
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Converts a time to milliseconds
+     *
+     * @param nanos - Time in ns
+     *
+     * @return Time in ms
+     */
+    private static double millis (long nanos) {
+        return Math.round(nanos / 10000.0) / 100.0;
+    }
+
+    /**
+     * Admission
+     *
+     * Transfer waiting to be started
+     */
+    private static class Admission {
+
+        /**
+         * Starts the transfer
+         */
+        final Runnable start;
+
+        /**
+         * Rejects the transfer
+         */
+        final Runnable reject;
+
+        /**
+         * Time in ns that the transfer was queued
+         */
+        final long time;
+
+        /**
+         * Rejects the transfer once it has waited the maximum wait
+         */
+        HashedWheelTimer.Timeout expiry;
+
+        Admission (Runnable start, Runnable reject, long time) {
+            this.start = start;
+            this.reject = reject;
+            this.time = time;
+        }
+    }
+}
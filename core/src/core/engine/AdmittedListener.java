@@ -0,0 +1,144 @@
+package core.engine;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import core.net.TransferListener;
+import core.req.ErrorMessage;
+import core.req.Message;
+
+/**
+ * Admitted Listener
+ *
+ * Forwards the stages of an admitted transfer to a listener and releases the
+ * transfer's capacity from the admission control when the transfer ends.
+ * A transfer may report more than one ending so capacity is released once
+ */
+public class AdmittedListener implements TransferListener {
+
+    /**
+     * Admission control that admitted the transfer
+     */
+    private AdmissionControl admission;
+
+    /**
+     * Listener to forward the stages of the transfer to
+     */
+    private TransferListener listener;
+
+    /**
+     * Run when the transfer starts, or ends without starting, or null
+     */
+    private Runnable onStart;
+
+    /**
+     * Run when the capacity of the transfer is released, or null
+     */
+    private Runnable onRelease;
+
+    /**
+     * If the capacity of the transfer has been released
+     */
+    private AtomicBoolean released;
+
+    /**
+     * If the transfer has started or ended
+     */
+    private AtomicBoolean started;
+
+    /**
+     * Constructs a listener for a transfer admitted by the given admission control
+     *
+     * @param admission - Admission control that admitted the transfer
+     * @param listener - Listener to forward the stages of the transfer to
+     */
+    public AdmittedListener (AdmissionControl admission, TransferListener listener) {
+        this(admission, listener, null);
+    }
+
+    /**
+     * Constructs a listener for a transfer admitted by the given admission
+     * control that runs a task once the transfer starts, or ends without
+     * starting
+     *
+     * @param admission - Admission control that admitted the transfer
+     * @param listener - Listener to forward the stages of the transfer to
+     * @param onStart - Run once when the transfer starts or ends
+     */
+    public AdmittedListener (AdmissionControl admission, TransferListener listener, Runnable onStart) {
+        this(admission, listener, onStart, null);
+    }
+
+    /**
+     * Constructs a listener for a transfer admitted by the given admission
+     * control that runs a task once the transfer starts, or ends without
+     * starting, and another once the transfer ends
+     *
+     * @param admission - Admission control that admitted the transfer
+     * @param listener - Listener to forward the stages of the transfer to
+     * @param onStart - Run once when the transfer starts or ends
+     * @param onRelease - Run once when the transfer ends
+     */
+    public AdmittedListener (AdmissionControl admission, TransferListener listener,
+            Runnable onStart, Runnable onRelease) {
+        this.admission = admission;
+        this.listener  = listener;
+        this.onStart   = onStart;
+        this.onRelease = onRelease;
+        this.released  = new AtomicBoolean();
+        this.started   = new AtomicBoolean();
+    }
+
+    /**
+     * Releases the capacity of the transfer if it has not been released
+     */
+    public void release () {
+        if (this.released.compareAndSet(false, true)) {
+            this.started();
+            if (this.onRelease != null) {
+                this.onRelease.run();
+            }
+            this.admission.release();
+        }
+    }
+
+    /**
+     * Runs the start task if the transfer had not started or ended
+     */
+    private void started () {
+        if (this.onStart != null && this.started.compareAndSet(false, true)) {
+            this.onStart.run();
+        }
+    }
+
+    public void handleStart () {
+        this.started();
+        this.listener.handleStart();
+    }
+
+    public void handleSendMessage (Message msg) {
+        this.listener.handleSendMessage(msg);
+    }
+
+    public void handleErrorMessage (ErrorMessage err) {
+        this.release();
+        this.listener.handleErrorMessage(err);
+    }
+
+    public void handleMessage (Message msg) {
+        this.listener.handleMessage(msg);
+    }
+
+    public void handleComplete () {
+        this.release();
+        this.listener.handleComplete();
+    }
+
+    public void handleException (Exception e) {
+        this.release();
+        this.listener.handleException(e);
+    }
+
+    public void handleInfo (String info) {
+        this.listener.handleInfo(info);
+    }
+}
@@ -0,0 +1,284 @@
+package core.engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import core.req.DataMessage;
+import core.req.MessageDecoder;
+import core.req.TransferOptions;
+import core.util.HashedWheelTimer;
+import core.util.Worker;
+
+/**
+ * Event Loop
+ *
+ * Drives many sessions from a single thread. Each session has a non-blocking
+ * channel registered with the loop's selector and at most one timeout on the
+ * loop's timer wheel, which the loop drives between selects so timeouts run
+ * on the loop's thread. Sessions are only accessed from the loop's thread
+ * once they are registered, work that can block such as forcing a file to
+ * disk is done on other threads which post the rest of the work back to
+ * the loop.
+ */
+public class EventLoop extends Worker {
+
+    /**
+     * Logger used to log information
+     */
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    /**
+     * Selector of the channels of the sessions in this loop
+     */
+    private Selector selector;
+
+    /**
+     * Buffer shared by all sessions to receive datagrams
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Decodes the datagrams in the receive buffer as flyweight messages
+     */
+    private MessageDecoder decoder;
+
+    /**
+     * Handles each selected key, kept so that selecting allocates nothing
+     */
+    private Consumer<SelectionKey> readable;
+
+    /**
+     * Buffer shared by all sessions to encode datagrams to be sent
+     */
+    private ByteBuffer sendBuffer;
+
+    /**
+     * Sessions waiting to be opened on the loop's thread
+     */
+    private Queue<Session> pending;
+
+    /**
+     * Tasks posted from other threads to run on the loop's thread
+     */
+    private Queue<Runnable> tasks;
+
+    /**
+     * Timeouts of the sessions
+     */
+    private HashedWheelTimer timer;
+
+    /**
+     * Number of open sessions
+     */
+    private volatile int sessions;
+
+    /**
+     * If the loop should stop once its sessions are complete
+     */
+    private volatile boolean shutdown;
+
+    /**
+     * Constructs a new event loop
+     *
+     * @throws IOException - If the selector cannot be opened
+     */
+    public EventLoop () throws IOException {
+        super();
+        this.selector = Selector.open();
+        this.buffer   = ByteBuffer.allocateDirect(TransferOptions.MAX_BLOCK_SIZE + DataMessage.HEADER_SIZE);
+        this.sendBuffer = ByteBuffer.allocateDirect(TransferOptions.MAX_BLOCK_SIZE + DataMessage.HEADER_SIZE);
+        this.decoder  = new MessageDecoder(this.buffer);
+        this.readable = this::handleSelected;
+        this.pending  = new ConcurrentLinkedQueue<Session>();
+        this.tasks    = new ConcurrentLinkedQueue<Runnable>();
+        this.timer    = new HashedWheelTimer(HashedWheelTimer.DEFAULT_TICK, HashedWheelTimer.DEFAULT_WHEEL_SIZE);
+        this.sessions = 0;
+        this.shutdown = false;
+    }
+
+    /**
+     * Adds a session to this loop. The session is started on the loop's thread
+     *
+     * @param session - Session to start
+     */
+    public void register (Session session) {
+        this.pending.add(session);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Returns the number of sessions that are open in this loop
+     *
+     * @return Number of open sessions
+     */
+    public int getSessionCount () {
+        return this.sessions;
+    }
+
+    /**
+     * Stops the loop once all of its sessions are complete
+     */
+    public void shutdown () {
+        this.shutdown = true;
+        this.selector.wakeup();
+    }
+
+    /**
+     * Stops the loop immediately and closes any open sessions
+     */
+    @Override
+    public void stop () {
+        super.stop();
+        this.selector.wakeup();
+    }
+
+    public void setup () {}
+
+    /**
+     * Opens pending sessions and runs posted tasks, waits for datagrams
+     * until the next tick of the timer wheel and then expires any timeouts
+     * that have passed
+     */
+    public void execute () {
+        try {
+            this.openPending();
+            this.runTasks();
+            if (this.shutdown && this.sessions == 0) {
+                super.stop();
+                return;
+            }
+
+            this.selector.select(this.readable, this.timer.nextTick());
+            this.timer.expire();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Event loop failed to select: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Closes any open sessions and the selector
+     */
+    public void teardown () {
+        Session session;
+
+        while ((session = this.pending.poll()) != null) {
+            session.close();
+        }
+        for (SelectionKey key : new ArrayList<SelectionKey>(this.selector.keys())) {
+            ((Session) key.attachment()).close();
+        }
+        try {
+            this.selector.close();
+        } catch (IOException e) {
+            // squash it
+        }
+    }
+
+    /**
+     * Sets the time that a session times out in place of its current
+     * timeout. Each session keeps the same timeout on the wheel
+     *
+     * @param session - Session to time out
+     * @param millis - Time in ms until the session times out
+     */
+    void schedule (Session session, long millis) {
+        if (session.timeout == null) {
+            session.timeout = this.timer.schedule(session::handleTimeout, millis);
+        }
+        else {
+            session.timeout.reschedule(millis);
+        }
+    }
+
+    /**
+     * Runs a task on the loop's thread, for work that finished on another
+     * thread and must continue a session
+     *
+     * @param task - Task to run
+     */
+    void post (Runnable task) {
+        this.tasks.add(task);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Returns the buffer that sessions encode datagrams into to be sent.
+     * Sessions only send from the loop's thread so the buffer is shared
+     *
+     * @return Cleared send buffer
+     */
+    ByteBuffer getSendBuffer () {
+        this.sendBuffer.clear();
+        return this.sendBuffer;
+    }
+
+    /**
+     * Cancels the timeout of a session
+     *
+     * @param session - Session to cancel the timeout of
+     */
+    void cancel (Session session) {
+        if (session.timeout != null) {
+            session.timeout.cancel();
+        }
+    }
+
+    /**
+     * Notifies the loop that a session has been opened
+     */
+    void opened () {
+        this.sessions++;
+    }
+
+    /**
+     * Notifies the loop that a session has been closed
+     */
+    void closed () {
+        this.sessions--;
+    }
+
+    /**
+     * Receives the datagrams of a session whose channel is readable
+     *
+     * @param key - Selected key of the session
+     */
+    private void handleSelected (SelectionKey key) {
+        if (key.isValid() && key.isReadable()) {
+            ((Session) key.attachment()).handleReadable(this.buffer, this.decoder);
+        }
+    }
+
+    /**
+     * Runs the tasks that were posted from other threads
+     */
+    private void runTasks () {
+        Runnable task;
+
+        while ((task = this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Posted task failed", e);
+            }
+        }
+    }
+
+    /**
+     * Opens the sessions that were registered from other threads
+     */
+    private void openPending () {
+        Session session;
+
+        while ((session = this.pending.poll()) != null) {
+            session.open(this, this.selector);
+        }
+    }
+}
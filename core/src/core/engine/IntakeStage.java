@@ -0,0 +1,305 @@
+package core.engine;
+
+import java.net.SocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import core.req.Request;
+
+/**
+ * Intake Stage
+ *
+ * Takes the work of a request off the thread that received it. Receivers
+ * only decode requests and queue them, and a pool of worker threads takes
+ * them from the queue to check the file system, open the files and start
+ * the transfers. A slow file system then holds up the workers and not the
+ * receivers, so requests keep being taken in while a check is blocked.
+ *
+ * The queue is bounded, requests that do not fit are refused straight away
+ * so the caller can turn them away. The stage counts the requests it took,
+ * handled and refused, the deepest the queue has been, and how long the
+ * requests waited in the queue and took to handle.
+ *
+ * Example
+ * IntakeStage intake = new IntakeStage(4, 1024, (req, address) -> handle(req, address));
+ * intake.submit(req, address);
+ * intake.shutdown();
+ */
+public class IntakeStage {
+
+    /**
+     * Default number of worker threads
+     */
+    public static final int DEFAULT_WORKERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Default number of requests that can wait in the queue
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Logger used to log information
+     */
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    /**
+     * Requests waiting to be handled in the order they were received
+     */
+    private ArrayBlockingQueue<Intake> queue;
+
+    /**
+     * Handles the requests taken from the queue
+     */
+    private Handler handler;
+
+    /**
+     * Threads that take the requests from the queue
+     */
+    private Thread[] workers;
+
+    /**
+     * Guards the counters
+     */
+    private ReentrantLock lock;
+
+    /**
+     * Number of requests queued
+     */
+    private long submitted;
+
+    /**
+     * Number of requests handled
+     */
+    private long handled;
+
+    /**
+     * Number of requests refused because the queue was full
+     */
+    private long refused;
+
+    /**
+     * Largest number of requests that were waiting at the same time
+     */
+    private int deepestQueue;
+
+    /**
+     * Total time in ns that handled requests waited in the queue
+     */
+    private long totalWait;
+
+    /**
+     * Longest time in ns that a handled request waited in the queue
+     */
+    private long longestWait;
+
+    /**
+     * Total time in ns that the requests took to handle
+     */
+    private long totalHandling;
+
+    /**
+     * Longest time in ns that a request took to handle
+     */
+    private long longestHandling;
+
+    /**
+     * Constructs a stage and starts its workers
+     *
+     * @param workers - Number of worker threads
+     * @param capacity - Number of requests that can wait in the queue
+     * @param handler - Handles each request on a worker thread
+     */
+    public IntakeStage (int workers, int capacity, Handler handler) {
+        this.queue   = new ArrayBlockingQueue<Intake>(Math.max(1, capacity));
+        this.handler = handler;
+        this.lock    = new ReentrantLock();
+        this.workers = new Thread[Math.max(1, workers)];
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Thread(this::work, "intake-" + i);
+            this.workers[i].setDaemon(true);
+            this.workers[i].start();
+        }
+    }
+
+    /**
+     * Queues a request to be handled by a worker
+     *
+     * @param req - The request
+     * @param address - Address of the requester
+     *
+     * @return If the request was queued, false if the queue is full
+     */
+    public boolean submit (Request req, SocketAddress address) {
+        int depth;
+
+        if (!this.queue.offer(new Intake(req, address, System.nanoTime()))) {
+            this.lock.lock();
+            try {
+                this.refused++;
+            } finally {
+                this.lock.unlock();
+            }
+            return false;
+        }
+
+        depth = this.queue.size();
+        this.lock.lock();
+        try {
+            this.submitted++;
+            this.deepestQueue = Math.max(this.deepestQueue, depth);
+        } finally {
+            this.lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of requests waiting in the queue
+     *
+     * @return Depth of the queue
+     */
+    public int getQueueDepth () {
+        return this.queue.size();
+    }
+
+    /**
+     * Returns the number of requests refused because the queue was full
+     *
+     * @return Number of refused requests
+     */
+    public long getRefused () {
+        this.lock.lock();
+        try {
+            return this.refused;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the workers. Requests still in the queue are dropped
+     */
+    public void shutdown () {
+        for (Thread worker : this.workers) {
+            worker.interrupt();
+        }
+        this.queue.clear();
+    }
+
+    /**
+     * Returns a summary of the intake statistics
+     */
+    @Override
+    public String toString () {
+        this.lock.lock();
+        try {
+            return "Intake queue:      " + this.queue.size() + " of " + (this.queue.size() +
+                            this.queue.remainingCapacity()) + " (deepest " + this.deepestQueue + "), " +
+                            this.workers.length + " workers\n" +
+                   "Intake requests:   " + this.submitted + " queued, " + this.handled + " handled, " +
+                            this.refused + " refused\n" +
+                   "Intake wait time:  mean " + millis(this.handled == 0 ? 0 : this.totalWait / this.handled) +
+                            "ms, longest " + millis(this.longestWait) + "ms\n" +
+                   "Intake handling:   mean " + millis(this.handled == 0 ? 0 : this.totalHandling / this.handled) +
+                            "ms, longest " + millis(this.longestHandling) + "ms";
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes requests from the queue and handles them until the worker
+     * is interrupted
+     */
+    private void work () {
+        Intake next;
+        long started;
+        long finished;
+
+        while (true) {
+            try {
+                next = this.queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            started = System.nanoTime();
+            try {
+                this.handler.handle(next.req, next.address);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Unable to handle request from " + next.address, e);
+            }
+            finished = System.nanoTime();
+
+            this.lock.lock();
+            try {
+                this.handled++;
+                this.totalWait += started - next.time;
+                this.longestWait = Math.max(this.longestWait, started - next.time);
+                this.totalHandling += finished - started;
+                this.longestHandling = Math.max(this.longestHandling, finished - started);
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Converts a time to milliseconds
+     *
+     * @param nanos - Time in ns
+     *
+     * @return Time in ms
+     */
+    private static double millis (long nanos) {
+        return Math.round(nanos / 10000.0) / 100.0;
+    }
+
+    /**
+     * Handler
+     *
+     * Handles a request taken from the queue
+     */
+    public interface Handler {
+
+        /**
+         * Handles a request on a worker thread
+         *
+         * @param req - The request
+         * @param address - Address of the requester
+         */
+        void handle (Request req, SocketAddress address);
+    }
+
+    /**
+     * Intake
+     *
+     * Request waiting in the queue
+     */
+    private static class Intake {
+
+        /**
+         * The request
+         */
+        final Request req;
+
+        /**
+         * Address of the requester
+         */
+        final SocketAddress address;
+
+        /**
+         * Time in ns that the request was queued
+         */
+        final long time;
+
+        Intake (Request req, SocketAddress address, long time) {
+            this.req = req;
+            this.address = address;
+            this.time = time;
+        }
+    }
+}
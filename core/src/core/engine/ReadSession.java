@@ -0,0 +1,296 @@
+package core.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+
+import core.net.Linger;
+import core.req.AckMessage;
+import core.req.DataMessage;
+import core.req.ErrorCode;
+import core.req.ErrorMessage;
+import core.req.InvalidMessageException;
+import core.req.Message;
+import core.req.OpCode;
+import core.req.ReceiveWindow;
+import core.req.TransferOptions;
+import core.util.BlockWriter;
+import core.util.Durability;
+import core.util.WriteBehind;
+
+/**
+ * Read Session
+ *
+ * Event driven transfer that receives a file from an endpoint in response
+ * to a write request. Blocks are acknowledged at the end of each window and
+ * once the last block is received the session completes and its channel
+ * lingers, so the last acknowledge is sent again if the last block is
+ * received again. Blocks are written to the file behind the session by a
+ * block writer that never blocks the loop. The acknowledge of a window is
+ * held back while the writer is behind, and the last block is acknowledged
+ * once the file has been closed on a background thread.
+ */
+public class ReadSession extends Session {
+
+    /**
+     * Path to write the received file to
+     */
+    private String path;
+
+    /**
+     * When the received file is forced to disk
+     */
+    private Durability durability;
+
+    /**
+     * Writer the received blocks are written to
+     */
+    private BlockWriter out;
+
+    /**
+     * Acknowledge that is reused for every acknowledge sent
+     */
+    private AckMessage ack;
+
+    /**
+     * Blocks received since the last acknowledge, whose acknowledge is
+     * held back while the writer is behind
+     */
+    private ReceiveWindow window;
+
+    /**
+     * If the file is being closed before the last block is acknowledged
+     */
+    private boolean closing;
+
+    /**
+     * Constructs a session that receives a file to the given path
+     *
+     * @param address - Address of the requester
+     * @param path - Path to write the received file to
+     * @param accepted - Options accepted from the request
+     * @param durability - When the received file is forced to disk
+     */
+    public ReadSession (SocketAddress address, String path, TransferOptions accepted, Durability durability) {
+        super(address, accepted);
+        this.path       = path;
+        this.durability = durability;
+        this.ack        = new AckMessage((short) 0);
+        this.window     = new ReceiveWindow(this.getBlocks());
+    }
+
+    /**
+     * Opens the file to write the received blocks to
+     *
+     * @throws IOException - If the file cannot be created
+     */
+    protected void prepare () throws IOException {
+        this.out = new BlockWriter(this.path, this.durability, WriteBehind.getDefault());
+        this.out.setBlocking(false);
+    }
+
+    /**
+     * Acknowledges the write request with the option acknowledge or
+     * an acknowledge of block 0
+     *
+     * @throws IOException - If the channel cannot be used
+     */
+    protected void begin () throws IOException {
+        Message ack = this.getOptionAcknowledge();
+
+        this.notifyStart();
+        this.setReceiveBufferSize(this.getWindowSize() * (this.getBlockSize() + DataMessage.HEADER_SIZE));
+
+        // Accepted options are acknowledged in place of the initial Ack
+        if (ack == null) {
+            ack = new AckMessage((short) 0);
+        }
+        this.send(ack);
+        this.getTimer().start();
+        this.schedule();
+    }
+
+    /**
+     * Writes data blocks that are received in order to the file and
+     * acknowledges the end of each window
+     *
+     * @param msg - Message received from the requester
+     *
+     * @throws IOException - If the channel cannot be used
+     * @throws InvalidMessageException - If the message is not a valid data message
+     */
+    protected void handleMessage (Message msg) throws IOException, InvalidMessageException {
+        DataMessage data;
+        ReceiveWindow.Receipt receipt;
+
+        if (this.checkErrorMessage(msg)) {
+            return;
+        }
+
+        // Blocks sent again while the file is closed are acknowledged
+        // by the linger once it is
+        if (this.closing) {
+            return;
+        }
+
+        this.checkCast(msg, OpCode.DATA);
+        data = (DataMessage) msg;
+        this.notifyMessage(data);
+
+        // Ensure that the packet we got is in the correct
+        // sequence with previous packets we have received
+        receipt = this.window.receive(data);
+        if (receipt == ReceiveWindow.Receipt.REPEATED || receipt == ReceiveWindow.Receipt.DUPLICATE) {
+            this.notifyInfo(this.orderMessage(data));
+            if (receipt == ReceiveWindow.Receipt.REPEATED) {
+                this.notifyInfo("Resending ack");
+                this.sendAcknowledge(this.getBlockNumber());
+                this.getTimer().cancel();
+            }
+            return;
+        }
+        else if (receipt == ReceiveWindow.Receipt.GAP) {
+            this.notifyInfo(this.orderMessage(data) + "\n acknowledging last block received");
+            this.sendAcknowledge(this.getBlockNumber());
+            this.getTimer().cancel();
+            return;
+        }
+        else if (receipt == ReceiveWindow.Receipt.AFTER_GAP) {
+            return;
+        }
+
+        this.getTimer().stop();
+        this.responded();
+
+        if (!this.write(data)) {
+            return;
+        }
+
+        // The last block is only acknowledged once the file is closed, so
+        // a file that cannot be written ends the transfer with an error
+        if (data.isLastBlock(this.getBlockSize())) {
+            this.closeFile(data.getBlock());
+            return;
+        }
+
+        // Acknowledge the end of each window once the writer has caught up
+        if (this.window.isWindowEnd()) {
+            if (this.out.isBacklogged()) {
+                this.holdAcknowledge(data.getBlock());
+                return;
+            }
+            this.sendAcknowledge(data.getBlock());
+            this.getTimer().start();
+        }
+        this.schedule();
+    }
+
+    /**
+     * Sends the option acknowledge again if the transfer has not started,
+     * otherwise acknowledges the blocks received so far
+     *
+     * @throws IOException - If the channel cannot be used
+     */
+    protected void retransmit () throws IOException {
+        if (this.getBlockCount() == 0 && this.getOptionAcknowledge() != null) {
+            this.send(this.getOptionAcknowledge());
+        }
+        else {
+            this.sendAcknowledge(this.getBlockNumber());
+        }
+    }
+
+    /**
+     * Closes the file and removes it if the transfer did not complete
+     */
+    protected void release () {
+        if (this.out != null) {
+            this.out.discard();
+            if (new File(this.path).delete()) {
+                this.notifyInfo("Deleted " + this.path);
+            } else {
+                this.notifyInfo("Unable to deleted " + this.path);
+            }
+            this.out = null;
+        }
+    }
+
+    /**
+     * Writes a data block to the file. If the disk is full an error is sent
+     * to the requester and the transfer ends
+     *
+     * @param data - Data block to write
+     *
+     * @return If the block was written
+     */
+    private boolean write (DataMessage data) {
+        try {
+            data.writeTo(this.out);
+            return true;
+        } catch (IOException e) {
+            this.sendError(new ErrorMessage(ErrorCode.DISK_FULL, "Disk is full."));
+            return false;
+        }
+    }
+
+    /**
+     * Holds back the acknowledge of a window until the blocks buffered by
+     * the writer have been written. The session does not time out while
+     * it waits, the sender sends the window again if it times out first
+     *
+     * @param block - Block number to acknowledge
+     */
+    private void holdAcknowledge (short block) {
+        this.window.hold();
+        this.unschedule();
+        this.out.whenWritten(() -> this.post(() -> {
+            try {
+                this.sendAcknowledge(block);
+                this.getTimer().start();
+                this.schedule();
+            } catch (IOException e) {
+                this.fail(e);
+            }
+        }));
+    }
+
+    /**
+     * Closes the file on a background thread once the last block has been
+     * written, which writes the blocks still buffered and forces the file
+     * to disk if asked. The last block is then acknowledged and the session
+     * completes, or if the blocks cannot be written an error is sent to the
+     * requester and the transfer ends
+     *
+     * @param block - Block number of the last block
+     */
+    private void closeFile (short block) {
+        this.closing = true;
+        this.unschedule();
+        this.out.close((error) -> this.post(() -> {
+            if (error != null) {
+                this.sendError(new ErrorMessage(ErrorCode.DISK_FULL, "Disk is full."));
+                return;
+            }
+            this.out = null;
+            try {
+                this.sendAcknowledge(block);
+                this.completeLingering(Linger.getDefault());
+            } catch (IOException e) {
+                this.fail(e);
+            }
+        }));
+    }
+
+    /**
+     * Sends an acknowledge for the given block
+     *
+     * @param block - Block number to acknowledge
+     *
+     * @throws IOException - If the channel cannot be used
+     */
+    private void sendAcknowledge (short block) throws IOException {
+        this.ack.setBlock(block);
+        this.send(this.ack);
+        this.window.acknowledged(block);
+    }
+}
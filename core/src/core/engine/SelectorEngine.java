@@ -0,0 +1,174 @@
+package core.engine;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import core.net.TransferListener;
+import core.req.TransferOptions;
+import core.util.Durability;
+import core.util.FileCache;
+
+/**
+ * Selector Engine
+ *
+ * Runs transfers as sessions on a fixed number of event loops. Each loop
+ * multiplexes its sessions with a single selector so the number of threads
+ * does not grow with the number of transfers. Sessions are assigned to the
+ * loops in turn.
+ */
+public class SelectorEngine implements TransferEngine {
+
+    /**
+     * Number of event loops used when no number is given
+     */
+    public static final int DEFAULT_LOOPS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Event loops that run the sessions
+     */
+    private EventLoop[] loops;
+
+    /**
+     * Index of the loop that the next session is assigned to
+     */
+    private AtomicInteger next;
+
+    /**
+     * Cache that the files sent are opened from, or null to read them from disk
+     */
+    private FileCache cache;
+
+    /**
+     * When the files received are forced to disk
+     */
+    private Durability durability = Durability.NONE;
+
+    /**
+     * Constructs an engine with the default number of event loops
+     *
+     * @throws IOException - If a selector cannot be opened
+     */
+    public SelectorEngine () throws IOException {
+        this(DEFAULT_LOOPS);
+    }
+
+    /**
+     * Constructs an engine and starts the given number of event loops
+     *
+     * @param loops - Number of event loops
+     *
+     * @throws IOException - If a selector cannot be opened
+     */
+    public SelectorEngine (int loops) throws IOException {
+        this(loops, null);
+    }
+
+    /**
+     * Constructs an engine that opens the files it sends from a cache and
+     * starts the given number of event loops
+     *
+     * @param loops - Number of event loops
+     * @param cache - Cache to open files from, or null to read them from disk
+     *
+     * @throws IOException - If a selector cannot be opened
+     */
+    public SelectorEngine (int loops, FileCache cache) throws IOException {
+        this.cache = cache;
+        this.loops = new EventLoop[Math.max(1, loops)];
+        this.next = new AtomicInteger();
+        for (int i = 0; i < this.loops.length; i++) {
+            this.loops[i] = new EventLoop();
+            this.loops[i].start();
+        }
+    }
+
+    /**
+     * Opens the requested file and starts a write session on the next loop
+     * to send it
+     *
+     * @param address - Address of the requester
+     * @param path - Path of the file to send
+     * @param filename - Name of the file that was requested
+     * @param accepted - Options accepted from the request
+     * @param listener - Listener to the stages of the transfer
+     */
+    public void read (SocketAddress address, String path, String filename,
+            TransferOptions accepted, TransferListener listener) {
+
+        WriteSession session = new WriteSession(address, path, accepted);
+        session.setFileCache(this.cache);
+        session.addTransferListener(listener);
+        this.register(session);
+    }
+
+    /**
+     * Creates the file and starts a read session on the next loop to
+     * receive it
+     *
+     * @param address - Address of the requester
+     * @param path - Path to write the received file to
+     * @param accepted - Options accepted from the request
+     * @param listener - Listener to the stages of the transfer
+     */
+    public void write (SocketAddress address, String path,
+            TransferOptions accepted, TransferListener listener) {
+
+        ReadSession session = new ReadSession(address, path, accepted, this.durability);
+        session.addTransferListener(listener);
+        this.register(session);
+    }
+
+    /**
+     * Sets when the files received by later transfers are forced to disk
+     *
+     * @param durability - Durability of the received files
+     */
+    public void setDurability (Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * Stops each loop once its sessions are complete
+     */
+    public void shutdown () {
+        for (EventLoop loop : this.loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * Returns the number of sessions open on all loops
+     *
+     * @return Number of open sessions
+     */
+    public int getSessionCount () {
+        int count = 0;
+
+        for (EventLoop loop : this.loops) {
+            count += loop.getSessionCount();
+        }
+        return count;
+    }
+
+    /**
+     * Opens the file of a session on the calling thread and then assigns
+     * the session to the next loop
+     *
+     * @param session - Session to start
+     */
+    private void register (Session session) {
+        if (session.prepared()) {
+            this.nextLoop().register(session);
+        }
+    }
+
+    /**
+     * Returns the loop that the next session is assigned to
+     *
+     * @return Next event loop
+     */
+    private EventLoop nextLoop () {
+        return this.loops[Math.floorMod(this.next.getAndIncrement(), this.loops.length)];
+    }
+}
@@ -0,0 +1,636 @@
+package core.engine;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import core.net.Linger;
+import core.net.NodeSocket;
+import core.net.RetransmissionTimer;
+import core.net.SocketPool;
+import core.net.TransferListener;
+import core.net.TransferNotifier;
+import core.net.UnreachableHostException;
+import core.req.BlockSequence;
+import core.req.DataMessage;
+import core.req.ErrorCode;
+import core.req.ErrorMessage;
+import core.req.InvalidMessageException;
+import core.req.Message;
+import core.req.MessageDecoder;
+import core.req.OpCode;
+import core.req.OptionAckMessage;
+import core.req.OptionNegotiationException;
+import core.req.TransferOptions;
+import core.util.HashedWheelTimer;
+
+/**
+ * Session
+ *
+ * Event driven transfer run by an event loop. A session is a state machine
+ * that reacts to the messages received on its non-blocking channel and to
+ * its timeout. Sessions perform the same protocol as the blocking transfers
+ * and notify transfer listeners of the same stages.
+ */
+public abstract class Session {
+
+    /**
+     * Logger used to log information
+     */
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    /**
+     * Address of the endpoint of the transfer
+     */
+    private SocketAddress address;
+
+    /**
+     * Options that this session is using
+     */
+    private TransferOptions options;
+
+    /**
+     * Option acknowledge that must be sent before the transfer begins
+     * or null if no options were accepted
+     */
+    private OptionAckMessage optionAcknowledge;
+
+    /**
+     * Estimates the retransmission timeout from measured round trip times
+     */
+    private RetransmissionTimer timer;
+
+    /**
+     * Notifies the listeners of the stages of the transfer
+     */
+    private TransferNotifier notifier;
+
+    /**
+     * Loop that runs this session
+     */
+    private EventLoop loop;
+
+    /**
+     * Channel used to perform the transfer
+     */
+    private DatagramChannel channel;
+
+    /**
+     * Registration of the channel with the loop's selector
+     */
+    private SelectionKey key;
+
+    /**
+     * Time in ns that the endpoint last responded
+     */
+    private long responded;
+
+    /**
+     * Current data block being transferred
+     */
+    private BlockSequence blocks;
+
+    /**
+     * If the session has been closed
+     */
+    private boolean closed;
+
+    /**
+     * Timeout of the session on the loop's timer wheel, or null if the
+     * session has not been scheduled
+     */
+    HashedWheelTimer.Timeout timeout;
+
+    /**
+     * Constructs a session with the given endpoint and accepted options
+     *
+     * @param address - Address of the endpoint of the transfer
+     * @param accepted - Options accepted from the request
+     */
+    public Session (SocketAddress address, TransferOptions accepted) {
+        this.address   = address;
+        this.options   = accepted;
+        this.optionAcknowledge = accepted.isEmpty() ? null : new OptionAckMessage(accepted.toMap());
+        this.timer     = new RetransmissionTimer(accepted.getTimeout() == TransferOptions.DEFAULT_TIMEOUT ?
+                NodeSocket.DEFAULT_TIMEOUT : accepted.getTimeout() * 1000);
+        this.notifier  = new TransferNotifier();
+        this.responded = System.nanoTime();
+        this.blocks    = new BlockSequence(accepted);
+        this.closed    = false;
+    }
+
+    /**
+     * Adds a listener to this session
+     *
+     * @param listener - Listener to add to this session
+     */
+    public void addTransferListener (TransferListener listener) {
+        this.notifier.addTransferListener(listener);
+    }
+
+    /**
+     * Opens the file of the transfer. Sessions are prepared on the thread
+     * that starts them before they are registered with a loop, so the
+     * loop's thread does not block opening files
+     *
+     * @throws IOException - If the file cannot be opened
+     */
+    protected abstract void prepare () throws IOException;
+
+    /**
+     * Starts the transfer once the channel is registered with the loop
+     *
+     * @throws IOException - If the file or channel cannot be used
+     */
+    protected abstract void begin () throws IOException;
+
+    /**
+     * Handles a message received from the endpoint of the transfer. The
+     * message may be a flyweight that must not be kept after handling it
+     *
+     * @param msg - Message that was received
+     *
+     * @throws IOException - If the file or channel cannot be used
+     * @throws InvalidMessageException - If the message is not valid for the transfer
+     */
+    protected abstract void handleMessage (Message msg) throws IOException, InvalidMessageException;
+
+    /**
+     * Sends the messages that have not been acknowledged again after a timeout
+     *
+     * @throws IOException - If the channel cannot be used
+     */
+    protected abstract void retransmit () throws IOException;
+
+    /**
+     * Frees the resources of the transfer when the session is closed
+     */
+    protected abstract void release ();
+
+    /**
+     * Prepares the session on the calling thread and ends the transfer
+     * if its file cannot be opened
+     *
+     * @return If the session can be registered with a loop
+     */
+    boolean prepared () {
+        try {
+            this.prepare();
+            return true;
+        } catch (IOException e) {
+            this.fail(e);
+            return false;
+        }
+    }
+
+    /**
+     * Leases the channel of this session from the socket pool, registers
+     * it with the loop's selector and begins the transfer
+     *
+     * @param loop - Loop that runs this session
+     * @param selector - Selector of the loop
+     */
+    void open (EventLoop loop, Selector selector) {
+        this.loop = loop;
+        this.loop.opened();
+        try {
+            this.channel = SocketPool.getDefault().lease(false);
+            this.key = this.channel.register(selector, SelectionKey.OP_READ, this);
+            this.begin();
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Receives every datagram waiting on the channel and handles the messages.
+     * Acknowledges and data blocks are decoded in place as flyweights that
+     * are only valid while they are handled
+     *
+     * @param buffer - Buffer to receive datagrams into
+     * @param decoder - Decoder of the datagrams in the buffer
+     */
+    void handleReadable (ByteBuffer buffer, MessageDecoder decoder) {
+        SocketAddress sender;
+
+        try {
+            while (!this.closed) {
+                buffer.clear();
+                sender = this.channel.receive(buffer);
+                if (sender == null) {
+                    break;
+                }
+                buffer.flip();
+
+                if (!this.address.equals(sender)) {
+                    this.handleUnknownTID(sender);
+                    continue;
+                }
+
+                try {
+                    this.handleMessage(decoder.decode());
+                } catch (InvalidMessageException e) {
+                    this.handleInvalidMessage(e);
+                }
+            }
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Handles the timeout of the session by sending the unacknowledged
+     * messages again, with the timeout doubled each time, until the
+     * endpoint has been silent for the timer's give up time
+     */
+    void handleTimeout () {
+        long silent = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.responded);
+        long remaining = this.timer.getGiveUp() - silent;
+
+        if (remaining <= 0) {
+            this.fail(new UnreachableHostException("No response from host after "
+                    + silent + " ms"));
+            return;
+        }
+
+        LOGGER.log(Level.WARNING, "Session timed out while waiting for message. "
+                + "Will give up in " + remaining + " ms");
+        this.timer.backoff();
+        try {
+            this.retransmit();
+            this.schedule(Math.min(this.timer.getTimeout(), remaining));
+        } catch (IOException e) {
+            this.fail(e);
+        }
+    }
+
+    /**
+     * Sends a message to the endpoint of the transfer
+     *
+     * @param msg - Message to send
+     *
+     * @throws IOException - If the channel cannot be used
+     */
+    protected void send (Message msg) throws IOException {
+        ByteBuffer buffer = this.loop.getSendBuffer();
+        ByteBuffer frame = msg instanceof DataMessage ? ((DataMessage) msg).getFrame() : null;
+        int position;
+
+        this.notifySendMessage(msg);
+        // A data message encoded in advance is sent as it is
+        if (frame != null) {
+            position = frame.position();
+            try {
+                this.channel.send(frame, this.address);
+            } finally {
+                frame.position(position);
+            }
+            return;
+        }
+        msg.encode(buffer);
+        buffer.flip();
+        // A datagram that does not fit in the socket buffer is dropped
+        // and sent again after the timeout
+        this.channel.send(buffer, this.address);
+    }
+
+    /**
+     * Requests a channel receive buffer that can hold at least the given
+     * number of bytes of datagrams. The operating system may limit the size
+     *
+     * @param size - Number of bytes the receive buffer should hold
+     */
+    protected void setReceiveBufferSize (int size) {
+        try {
+            if (size > this.channel.getOption(StandardSocketOptions.SO_RCVBUF)) {
+                this.channel.setOption(StandardSocketOptions.SO_RCVBUF, size);
+            }
+        } catch (IOException e) {
+            // The default buffer is used
+        }
+    }
+
+    /**
+     * Sets the timeout of the session to the current retransmission
+     * timeout from now
+     */
+    protected void schedule () {
+        this.schedule(this.timer.getTimeout());
+    }
+
+    /**
+     * Sets the timeout of the session to the given time from now
+     *
+     * @param millis - Time in ms until the session times out
+     */
+    protected void schedule (long millis) {
+        this.loop.schedule(this, millis);
+    }
+
+    /**
+     * Cancels the timeout of the session while it waits for work done on
+     * another thread rather than for the endpoint
+     */
+    protected void unschedule () {
+        this.loop.cancel(this);
+    }
+
+    /**
+     * Runs a task on the loop's thread unless the session has been closed
+     * by then. Work done on other threads continues the session with it
+     *
+     * @param task - Task to run
+     */
+    protected void post (Runnable task) {
+        this.loop.post(() -> {
+            if (!this.closed) {
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * Records that the endpoint responded, which restarts the time it
+     * may be silent for before it is given up on
+     */
+    protected void responded () {
+        this.responded = System.nanoTime();
+    }
+
+    /**
+     * Returns the channel of the session to the socket pool and cancels
+     * its timeout
+     */
+    protected void close () {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.loop != null) {
+            this.loop.cancel(this);
+            this.loop.closed();
+        }
+        if (this.key != null) {
+            this.key.cancel();
+        }
+        if (this.channel != null) {
+            SocketPool.getDefault().release(this.channel);
+        }
+        this.release();
+    }
+
+    /**
+     * Closes the session and notifies listeners that the transfer is complete
+     */
+    protected void complete () {
+        this.close();
+        this.notifyComplete();
+    }
+
+    /**
+     * Completes the session once the last block has been received and
+     * acknowledged, and hands its channel to the linger instead of closing
+     * it so that the last acknowledge is sent again if it was lost
+     *
+     * @param linger - Linger to hand the channel to
+     */
+    protected void completeLingering (Linger linger) {
+        DatagramChannel channel = this.channel;
+
+        // The channel is cancelled from the loop's selector but left open
+        this.channel = null;
+        this.complete();
+        if (channel != null) {
+            linger.linger(channel, this.address, this.blocks.getBlock(),
+                    Linger.ATTEMPTS * this.timer.getTimeout());
+        }
+    }
+
+    /**
+     * Closes the session and notifies listeners of the exception
+     *
+     * @param e - Exception that terminated the transfer
+     */
+    protected void fail (Exception e) {
+        this.close();
+        this.notifyException(e);
+    }
+
+    /**
+     * Checks if the given message is an error message and ends the
+     * transfer if there is
+     *
+     * @param msg - Message to check
+     *
+     * @return If the message is an error message
+     */
+    protected boolean checkErrorMessage (Message msg) {
+        if (msg.getOpCode() == OpCode.ERROR) {
+            this.close();
+            this.notifyError((ErrorMessage) msg);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the given message has the correct op code to cast to the
+     * desired message type.
+     *
+     * @param msg   - Message to check
+     * @param code  - Opcode of message type to cast to
+     *
+     * @throws InvalidMessageException - If the message is not of the correct type
+     */
+    protected void checkCast (Message msg, OpCode code) throws InvalidMessageException {
+        if (msg.getOpCode() != code) {
+            throw new InvalidMessageException("Invalid message in stream");
+        }
+    }
+
+    /**
+     * Sends an error message to the endpoint and ends the transfer
+     *
+     * @param msg - Error message to send
+     */
+    protected void sendError (ErrorMessage msg) {
+        try {
+            this.send(msg);
+        } catch (IOException e) {
+            // The transfer is ending either way
+        }
+        this.close();
+        this.notifyError(msg);
+    }
+
+    /**
+     * Handles an invalid message by sending an error message to the endpoint
+     * and ending the transfer
+     *
+     * @param error - Invalid message exception
+     */
+    protected void handleInvalidMessage (InvalidMessageException error) {
+        this.sendError(new ErrorMessage(error instanceof OptionNegotiationException ?
+                ErrorCode.OPTION_NEGOTIATION : ErrorCode.ILLEGAL_OP, error.getMessage()));
+    }
+
+    /**
+     * Responds to a message from an unknown endpoint without ending the transfer
+     *
+     * @param sender - Address of the unknown endpoint
+     *
+     * @throws IOException - If the channel cannot be used
+     */
+    private void handleUnknownTID (SocketAddress sender) throws IOException {
+        LOGGER.log(Level.WARNING, "Received message with unknown transfer ID");
+        this.channel.send(ByteBuffer.wrap(
+                new ErrorMessage(ErrorCode.UNKNOWN_TID, "Unknown transfer ID").toBytes()), sender);
+    }
+
+    /**
+     * Returns a description of a data message that is not the next block
+     *
+     * @param data - Data message that is out of order
+     *
+     * @return Description of the expected and received blocks
+     */
+    protected String orderMessage (DataMessage data) {
+        return this.blocks.orderMessage(data);
+    }
+
+    /**
+     * Returns the block number that this session is currently processing
+     *
+     * @return Current block number index
+     */
+    protected short getBlockNumber () {
+        return this.blocks.getBlock();
+    }
+
+    /**
+     * Returns the current block of this session, which its windows
+     * advance and order received blocks against
+     *
+     * @return Block sequence of the session
+     */
+    protected BlockSequence getBlocks () {
+        return this.blocks;
+    }
+
+    /**
+     * Returns the number of blocks that the current block has advanced by.
+     * Unlike the block number the count does not wrap, so it gives the
+     * position of the current block in files of any size
+     *
+     * @return Number of blocks transferred
+     */
+    protected long getBlockCount () {
+        return this.blocks.getCount();
+    }
+
+    /**
+     * Returns the retransmission timer of this session
+     *
+     * @return Retransmission timer
+     */
+    protected RetransmissionTimer getTimer () {
+        return this.timer;
+    }
+
+    /**
+     * Returns the option acknowledge that must be sent before the transfer
+     * begins or null if no options were accepted
+     *
+     * @return Option acknowledge of the accepted options
+     */
+    protected OptionAckMessage getOptionAcknowledge () {
+        return this.optionAcknowledge;
+    }
+
+    /**
+     * Returns the number of payload bytes in each data block of this session
+     *
+     * @return Negotiated block size
+     */
+    protected int getBlockSize () {
+        return this.options.getBlockSize();
+    }
+
+    /**
+     * Returns the number of data blocks of this session that are sent
+     * before an acknowledge is expected
+     *
+     * @return Negotiated window size
+     */
+    protected int getWindowSize () {
+        return this.options.getWindowSize();
+    }
+
+    /**
+     * Notifies all listeners that the transfer has started
+     */
+    protected void notifyStart () {
+        this.notifier.notifyStart();
+    }
+
+    /**
+     * Notifies all listeners that a message has been received
+     *
+     * @param msg - Message that was received
+     */
+    protected void notifyMessage (Message msg) {
+        this.notifier.notifyMessage(msg);
+    }
+
+    /**
+     * Notifies all listeners that a message is being sent
+     *
+     * @param msg - Message being sent
+     */
+    protected void notifySendMessage (Message msg) {
+        this.notifier.notifySendMessage(msg);
+    }
+
+    /**
+     * Notifies all listeners that an error occurred
+     *
+     * @param msg - Error message that was sent or received
+     */
+    protected void notifyError (ErrorMessage msg) {
+        this.notifier.notifyError(msg);
+    }
+
+    /**
+     * Notifies all listeners that the transfer has completed
+     */
+    protected void notifyComplete () {
+        this.notifier.notifyComplete();
+    }
+
+    /**
+     * Notifies all listeners that an exception has occurred
+     * and the transfer has been terminated
+     *
+     * @param e - The exception that occurred
+     */
+    protected void notifyException (Exception e) {
+        this.notifier.notifyException(e);
+    }
+
+    /**
+     * Notifies all listeners that an information message
+     * has been generated from the transfer
+     *
+     * @param info - Status message of the transfer
+     */
+    protected void notifyInfo (String info) {
+        this.notifier.notifyInfo(info);
+    }
+}
@@ -0,0 +1,126 @@
+package core.engine;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.concurrent.ExecutorService;
+
+import core.net.ReadTransfer;
+import core.net.TransferListener;
+import core.net.WriteTransfer;
+import core.req.AckMessage;
+import core.req.Message;
+import core.req.TransferOptions;
+import core.util.Durability;
+import core.util.FileCache;
+
+/**
+ * Thread Engine
+ *
+ * Runs each transfer as a task of an executor with a blocking socket. The
+ * executor decides which thread the transfer runs on
+ */
+public class ThreadEngine implements TransferEngine {
+
+    /**
+     * Executor that runs the transfers
+     */
+    private ExecutorService executor;
+
+    /**
+     * Cache that the files sent are opened from, or null to read them from disk
+     */
+    private FileCache cache;
+
+    /**
+     * When the files received are forced to disk
+     */
+    private Durability durability = Durability.NONE;
+
+    /**
+     * Constructs an engine that runs transfers on the given executor
+     *
+     * @param executor - Executor to run transfers
+     */
+    public ThreadEngine (ExecutorService executor) {
+        this(executor, null);
+    }
+
+    /**
+     * Constructs an engine that runs transfers on the given executor and
+     * opens the files it sends from a cache
+     *
+     * @param executor - Executor to run transfers
+     * @param cache - Cache to open files from, or null to read them from disk
+     */
+    public ThreadEngine (ExecutorService executor, FileCache cache) {
+        this.executor = executor;
+        this.cache = cache;
+    }
+
+    /**
+     * Starts a write transfer on the executor to send the requested file
+     *
+     * @param address - Address of the requester
+     * @param path - Path of the file to send
+     * @param filename - Name of the file that was requested
+     * @param accepted - Options accepted from the request
+     * @param listener - Listener to the stages of the transfer
+     *
+     * @throws IOException - If the socket cannot be created
+     */
+    public void read (SocketAddress address, String path, String filename,
+            TransferOptions accepted, TransferListener listener) throws IOException {
+
+        WriteTransfer runner = new WriteTransfer(address, path, filename);
+        runner.setFileCache(this.cache);
+        runner.acceptOptions(accepted);
+        runner.addTransferListener(listener);
+        this.executor.execute(runner);
+    }
+
+    /**
+     * Acknowledges the write request and starts a read transfer on the
+     * executor to receive the file
+     *
+     * @param address - Address of the requester
+     * @param path - Path to write the received file to
+     * @param accepted - Options accepted from the request
+     * @param listener - Listener to the stages of the transfer
+     *
+     * @throws IOException - If the socket cannot be created or the acknowledge cannot be sent
+     */
+    public void write (SocketAddress address, String path,
+            TransferOptions accepted, TransferListener listener) throws IOException {
+
+        ReadTransfer runner = new ReadTransfer(address, path, path);
+        runner.setDurability(this.durability);
+        runner.acceptOptions(accepted);
+        runner.addTransferListener(listener);
+
+        // Accepted options are acknowledged in place of the initial Ack
+        Message ack = runner.getOptionAcknowledge();
+        if (ack == null) {
+            ack = new AckMessage((short) 0);
+        }
+        listener.handleSendMessage(ack);
+        // Send the initial Ack
+        runner.getSocket().send(ack);
+        this.executor.execute(runner);
+    }
+
+    /**
+     * Sets when the files received by later transfers are forced to disk
+     *
+     * @param durability - Durability of the received files
+     */
+    public void setDurability (Durability durability) {
+        this.durability = durability;
+    }
+
+    /**
+     * Running transfers finish on their own threads, the executor
+     * is shut down by its owner
+     */
+    public void shutdown () {}
+
+}
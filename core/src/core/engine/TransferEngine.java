@@ -0,0 +1,59 @@
+package core.engine;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+
+import core.net.TransferListener;
+import core.req.TransferOptions;
+import core.util.Durability;
+
+/**
+ * Transfer Engine
+ *
+ * Runs the transfers of requests accepted by a request controller. An
+ * engine decides how transfers are scheduled, either with a thread for each
+ * transfer or with a few threads that multiplex many transfers.
+ */
+public interface TransferEngine {
+
+    /**
+     * Starts a transfer that sends a file in response to a read request
+     *
+     * @param address - Address of the requester
+     * @param path - Path of the file to send
+     * @param filename - Name of the file that was requested
+     * @param accepted - Options accepted from the request
+     * @param listener - Listener to the stages of the transfer
+     *
+     * @throws IOException - If the transfer cannot be started
+     */
+    public void read (SocketAddress address, String path, String filename,
+            TransferOptions accepted, TransferListener listener) throws IOException;
+
+    /**
+     * Starts a transfer that receives a file in response to a write request.
+     * The request is acknowledged by the transfer
+     *
+     * @param address - Address of the requester
+     * @param path - Path to write the received file to
+     * @param accepted - Options accepted from the request
+     * @param listener - Listener to the stages of the transfer
+     *
+     * @throws IOException - If the transfer cannot be started
+     */
+    public void write (SocketAddress address, String path,
+            TransferOptions accepted, TransferListener listener) throws IOException;
+
+    /**
+     * Sets when the files received by later transfers are forced to disk
+     *
+     * @param durability - Durability of the received files
+     */
+    public void setDurability (Durability durability);
+
+    /**
+     * Stops accepting transfers and frees the resources of the engine
+     */
+    public void shutdown ();
+
+}
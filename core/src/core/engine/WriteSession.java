@@ -0,0 +1,221 @@
+package core.engine;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+
+import core.req.AckMessage;
+import core.req.InvalidMessageException;
+import core.req.Message;
+import core.req.MessageOrderException;
+import core.req.OpCode;
+import core.req.SendWindow;
+import core.req.TransferOptions;
+import core.util.BlockReader;
+import core.util.FileCache;
+import core.util.ReadAhead;
+
+/**
+ * Write Session
+ *
+ * Event driven transfer that sends a file to an endpoint in response to a
+ * read request. Up to a window of blocks are sent before waiting for an
+ * acknowledge and unacknowledged blocks are kept in a send window so that
+ * they can be sent again after a timeout.
+ */
+public class WriteSession extends Session {
+
+    /**
+     * Path of the file to send
+     */
+    private String path;
+
+    /**
+     * Reader the blocks of the file are read from
+     */
+    private BlockReader in;
+
+    /**
+     * Cache that the file is opened from, or null to read it from disk
+     */
+    private FileCache cache;
+
+    /**
+     * Blocks that have been sent but not yet acknowledged
+     */
+    private SendWindow window;
+
+    /**
+     * If the option acknowledge is waiting to be acknowledged
+     */
+    private boolean optionsPending;
+
+    /**
+     * Constructs a session that sends the file at the given path
+     *
+     * @param address - Address of the requester
+     * @param path - Path of the file to send
+     * @param accepted - Options accepted from the request
+     */
+    public WriteSession (SocketAddress address, String path, TransferOptions accepted) {
+        super(address, accepted);
+        this.path   = path;
+        this.window = new SendWindow(this.getBlocks());
+    }
+
+    /**
+     * Sets the cache that the file is opened from
+     *
+     * @param cache - Cache to open the file from, or null to read it from disk
+     */
+    public void setFileCache (FileCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Opens the file to send
+     *
+     * @throws IOException - If the file cannot be read
+     */
+    protected void prepare () throws IOException {
+        this.in = this.cache == null
+                ? new BlockReader(this.path, this.getBlockSize(), this.getWindowSize())
+                : this.cache.open(this.path, this.getBlockSize(), this.getWindowSize());
+        this.in.setReadAhead(ReadAhead.getDefault(), ReadAhead.depth(this.getWindowSize()));
+    }
+
+    /**
+     * Sends either the option acknowledge or the first window of blocks
+     *
+     * @throws IOException - If the file cannot be read
+     */
+    protected void begin () throws IOException {
+        this.notifyStart();
+
+        // Options accepted from the request must be acknowledged
+        // by the requester before any data is sent
+        if (this.getOptionAcknowledge() != null) {
+            this.optionsPending = true;
+            this.send(this.getOptionAcknowledge());
+            this.getTimer().start();
+            this.schedule();
+        }
+        else {
+            this.sendNext();
+        }
+    }
+
+    /**
+     * Slides the window forward on each acknowledge and sends the
+     * next window of blocks
+     *
+     * @param msg - Message received from the requester
+     *
+     * @throws IOException - If the file cannot be read
+     * @throws InvalidMessageException - If the message is not a valid acknowledge
+     */
+    protected void handleMessage (Message msg) throws IOException, InvalidMessageException {
+        AckMessage ack;
+        SendWindow.Response response;
+
+        if (this.checkErrorMessage(msg)) {
+            return;
+        }
+        this.checkCast(msg, OpCode.ACK);
+        ack = (AckMessage) msg;
+
+        // Any block in the window may be acknowledged
+        try {
+            response = this.window.acknowledge(ack);
+        } catch (MessageOrderException e) {
+            this.notifyInfo(e.getMessage() + "\nIgnoring Message");
+            return;
+        }
+
+        // A duplicate acknowledge leaves the window as it is, so the window
+        // is sent again straight away rather than after the timeout
+        if (response == SendWindow.Response.IGNORED) {
+            this.notifyInfo("Ignoring duplicate acknowledge of blocks sent again");
+            return;
+        }
+        else if (response == SendWindow.Response.RESEND) {
+            this.notifyInfo("Received duplicate acknowledge, resending window");
+            this.getTimer().cancel();
+            this.responded();
+            this.sendWindow();
+            this.window.resent();
+            this.schedule();
+            return;
+        }
+
+        this.getTimer().stop();
+        this.responded();
+        this.notifyMessage(ack);
+        this.optionsPending = false;
+
+        if (this.window.isComplete()) {
+            this.complete();
+        }
+        else {
+            this.sendNext();
+        }
+    }
+
+    /**
+     * Sends the option acknowledge or the unacknowledged blocks again
+     *
+     * @throws IOException - If the channel cannot be used
+     */
+    protected void retransmit () throws IOException {
+        this.window.resent();
+        if (this.optionsPending) {
+            this.send(this.getOptionAcknowledge());
+        }
+        else {
+            this.sendWindow();
+        }
+    }
+
+    /**
+     * Closes the file
+     */
+    protected void release () {
+        try {
+            if (this.in != null) {
+                this.in.close();
+            }
+        } catch (IOException e) {
+            // squash it
+        }
+    }
+
+    /**
+     * Fills the window from the file, sends it and waits for an acknowledge
+     *
+     * @throws IOException - If the file cannot be read
+     */
+    private void sendNext () throws IOException {
+        // Only time windows that do not resend any blocks
+        boolean timed = this.window.fill(this.in);
+
+        this.sendWindow();
+        if (timed) {
+            this.getTimer().start();
+        }
+        else {
+            this.window.resent();
+        }
+        this.schedule();
+    }
+
+    /**
+     * Sends every unacknowledged block in the window starting after
+     * the last acknowledged block
+     *
+     * @throws IOException - If the channel cannot be used
+     */
+    private void sendWindow () throws IOException {
+        for (int i = 0; i < this.window.getOutstanding(); i++) {
+            this.send(this.window.get(i));
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package core.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import core.util.RingBuffer;
+
+/**
+ * Async Console Handler
+ *
+ * Publishes log records without blocking the logging thread. Records are
+ * added to a ring buffer and a background thread formats them and writes
+ * them to the console, flushing whenever the buffer has been drained. If
+ * the buffer is full the record is dropped and counted so that a slow
+ * console never stalls a transfer; the number of dropped records is logged
+ * once the buffer has room again.
+ */
+public class AsyncConsoleHandler extends Handler {
+
+    /**
+     * Default number of records that can wait to be written
+     */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * Longest time in ns that the writer sleeps before checking for records
+     */
+    private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * Records waiting to be written
+     */
+    private RingBuffer<Entry> ring;
+
+    /**
+     * Stream the records are written to
+     */
+    private Writer out;
+
+    /**
+     * Formats the records on the writer thread
+     */
+    private ConsoleFormatter formatter;
+
+    /**
+     * Thread that writes the records
+     */
+    private Thread writer;
+
+    /**
+     * If the writer thread is sleeping and must be woken for new records
+     */
+    private volatile boolean idle;
+
+    /**
+     * If the handler has been closed
+     */
+    private volatile boolean closed;
+
+    /**
+     * Number of records dropped because the buffer was full
+     */
+    private AtomicLong dropped;
+
+    /**
+     * Constructs a handler that writes to the given stream
+     *
+     * @param out - Stream to write records to
+     * @param capacity - Number of records that can wait to be written
+     */
+    public AsyncConsoleHandler (OutputStream out, int capacity) {
+        this.ring      = new RingBuffer<Entry>(capacity);
+        this.out       = new OutputStreamWriter(out);
+        this.formatter = new ConsoleFormatter();
+        this.dropped   = new AtomicLong();
+        this.writer    = new Thread(this::drain, "log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Adds a record to be written if it is loggable. Never blocks
+     *
+     * @param record - Record to publish
+     */
+    @Override
+    public void publish (LogRecord record) {
+        if (this.closed || !this.isLoggable(record)) {
+            return;
+        }
+        // The source of the record is found from the stack of the
+        // logging thread, so it must be found before the record is queued
+        record.getSourceClassName();
+        if (!this.ring.offer(new Entry(record, Thread.currentThread().getName()))) {
+            this.dropped.incrementAndGet();
+            return;
+        }
+        if (this.idle) {
+            LockSupport.unpark(this.writer);
+        }
+    }
+
+    /**
+     * Waits until the records published so far have been written
+     */
+    @Override
+    public void flush () {
+        while (!this.ring.isEmpty() && this.writer.isAlive()) {
+            LockSupport.unpark(this.writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Writes the waiting records and stops the writer thread
+     */
+    @Override
+    public void close () {
+        this.flush();
+        this.closed = true;
+        LockSupport.unpark(this.writer);
+        try {
+            this.writer.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of records dropped because the buffer was full
+     *
+     * @return Number of dropped records
+     */
+    public long getDropped () {
+        return this.dropped.get();
+    }
+
+    /**
+     * Writes records as they are published until the handler is closed
+     */
+    private void drain () {
+        long reported = 0;
+        long dropped;
+        Entry entry;
+
+        while (!this.closed || !this.ring.isEmpty()) {
+            entry = this.ring.poll();
+            try {
+                if (entry != null) {
+                    this.out.write(this.formatter.format(entry.record, entry.thread));
+                    continue;
+                }
+                dropped = this.dropped.get();
+                if (dropped != reported) {
+                    this.out.write("\n" + (dropped - reported) + " log records dropped\n");
+                    reported = dropped;
+                }
+                this.out.flush();
+            } catch (IOException | RuntimeException e) {
+                this.reportError(null, e, ErrorManager.WRITE_FAILURE);
+            }
+
+            // Sleep until a record is published, checking the buffer again
+            // after going idle since a record may have been published before
+            // the writer was seen to be idle
+            this.idle = true;
+            if (this.ring.isEmpty() && !this.closed) {
+                LockSupport.parkNanos(this, IDLE_WAIT);
+            }
+            this.idle = false;
+        }
+    }
+
+    /**
+     * Entry
+     *
+     * Record waiting to be written and the name of the thread that logged it
+     */
+    private static class Entry {
+
+        /**
+         * Record to write
+         */
+        final LogRecord record;
+
+        /**
+         * Name of the thread that logged the record
+         */
+        final String thread;
+
+        Entry (LogRecord record, String thread) {
+            this.record = record;
+            this.thread = thread;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package core.log;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.logging.Formatter;
+import java.util.logging.LogRecord;
+
+/**
+ * Console Formatter
+ *
+ * Formats log records as
+ * [thread date] source level: message
+ *
+ * The date is formatted to the second so it is only formatted again when
+ * the second changes. The formatter keeps its buffers between records and
+ * must only be used by one thread at a time.
+ */
+public class ConsoleFormatter extends Formatter {
+
+    /**
+     * Formats the date of a record
+     */
+    private SimpleDateFormat dateFormat;
+
+    /**
+     * Reused to hold the date of a record
+     */
+    private Date date;
+
+    /**
+     * Second of the last formatted date
+     */
+    private long second;
+
+    /**
+     * Last formatted date
+     */
+    private String formattedDate;
+
+    /**
+     * Reused to build each formatted record
+     */
+    private StringBuilder buffer;
+
+    /**
+     * Constructs a new console formatter
+     */
+    public ConsoleFormatter () {
+        this.dateFormat = new SimpleDateFormat("MMM dd,yyyy HH:mm:ss");
+        this.date       = new Date();
+        this.second     = -1;
+        this.buffer     = new StringBuilder();
+    }
+
+    /**
+     * Formats a record logged from the current thread
+     *
+     * @param record - Record to format
+     *
+     * @return The formatted record
+     */
+    @Override
+    public String format (LogRecord record) {
+        return this.format(record, Thread.currentThread().getName());
+    }
+
+    /**
+     * Formats a record logged from the given thread
+     *
+     * @param record - Record to format
+     * @param thread - Name of the thread that logged the record
+     *
+     * @return The formatted record
+     */
+    public String format (LogRecord record, String thread) {
+        this.buffer.setLength(0);
+        this.buffer.append("\n[").append(thread).append(' ');
+        this.buffer.append(this.formatDate(record.getMillis())).append(']');
+        this.buffer.append(' ').append(record.getSourceClassName());
+        this.buffer.append(' ').append(record.getLevel()).append(": ");
+        this.buffer.append(this.formatMessage(record)).append('\n');
+        return this.buffer.toString();
+    }
+
+    /**
+     * Formats a date, reusing the last formatted date within the same second
+     *
+     * @param millis - Date in ms since the epoch
+     *
+     * @return The formatted date
+     */
+    private String formatDate (long millis) {
+        long second = millis / 1000;
+
+        if (second != this.second) {
+            this.date.setTime(millis);
+            this.formattedDate = this.dateFormat.format(this.date);
+            this.second = second;
+        }
+        return this.formattedDate;
+    }
+}
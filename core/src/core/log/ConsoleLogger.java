@@ -1,48 +1,59 @@
 package core.log;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.logging.ConsoleHandler;
-import java.util.logging.Formatter;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
-import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 /**
  * static wrapper for java utils Logger
  * logs messages to System.out
  * Allows a global log level to be set for all log messages
+ *
+ * Records are written to the console by a background thread so logging
+ * never blocks the caller. Callers that build costly messages, such as the
+ * bytes of every packet, should check Logger.isLoggable first
  */
 public class ConsoleLogger {
-	
+
+	/**
+	 * Handler installed by the last call to init
+	 */
+	private static AsyncConsoleHandler handler;
+
 	/**
 	 * Initializes global logging with the specified log level
 	 * @param logLevel The minimum severity of messages to log
 	 */
 	public static synchronized void init(Level logLevel){
+		Logger logger = Logger.getGlobal();
+
 		// disable passing the logs up to the default parent logger
-		java.util.logging.Logger.getGlobal().setUseParentHandlers(false);
-		ConsoleHandler handler = new ConsoleHandler();
-		handler.setFormatter(new Formatter() {
-			
-			private String calcDate(long millisecs) {
-			    SimpleDateFormat date_format = new SimpleDateFormat("MMM dd,yyyy HH:mm:ss");
-			    Date resultdate = new Date(millisecs);
-			    return date_format.format(resultdate);
-			  }
-
-			@Override
-			public String format(LogRecord record) {
-				StringBuffer buf = new StringBuffer();
-				buf.append("\n["+Thread.currentThread().getName()+" ");
-				buf.append(calcDate(record.getMillis())+"]");
-				buf.append(" "+record.getSourceClassName()+" "+record.getLevel()+": "+record.getMessage()+"\n");
-				return buf.toString();
-			}
-		});
+		logger.setUseParentHandlers(false);
+
+		// Replace the handler of an earlier initialization, writing any
+		// records it is holding first
+		if (handler == null) {
+			Runtime.getRuntime().addShutdownHook(new Thread(ConsoleLogger::shutdown, "log-shutdown"));
+		} else {
+			logger.removeHandler(handler);
+			handler.close();
+		}
+		handler = new AsyncConsoleHandler(System.out, AsyncConsoleHandler.DEFAULT_CAPACITY);
 		handler.setLevel(logLevel);
 		LogManager.getLogManager().getLogger(Logger.GLOBAL_LOGGER_NAME).setLevel(logLevel);
-		Logger.getGlobal().addHandler(handler);
+		logger.addHandler(handler);
 	}
-	
-}
\ No newline at end of file
+
+	/**
+	 * Writes the records waiting in the handler, called when the
+	 * program exits
+	 */
+	private static synchronized void shutdown(){
+		Handler current = handler;
+
+		if (current != null) {
+			current.close();
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+package core.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import core.req.ErrorMessage;
+
+/**
+ * Error Sender
+ *
+ * Sends the errors that answer requests before a transfer has begun from a
+ * single socket leased from the socket pool. The error is sent on the
+ * calling thread, sending a datagram does not block, so no socket or thread
+ * is created for each error.
+ *
+ * Example
+ * ErrorSender.getDefault().send(new ErrorMessage(ErrorCode.FILE_NOT_FOUND, "Not found"), address);
+ */
+public class ErrorSender {
+
+    /**
+     * Logger used to log information
+     */
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    /**
+     * Sender shared by the process
+     */
+    private static final ErrorSender DEFAULT = new ErrorSender();
+
+    /**
+     * Socket that errors are sent from, or null if none could be leased
+     */
+    private NodeSocket socket;
+
+    /**
+     * Number of errors sent
+     */
+    private AtomicLong sent;
+
+    /**
+     * Constructs a sender with a socket leased from the socket pool
+     */
+    public ErrorSender () {
+        this.sent = new AtomicLong();
+        try {
+            this.socket = new NodeSocket();
+        } catch (SocketException e) {
+            LOGGER.log(Level.WARNING, "Unable to open a socket, errors are not sent: " + e.getMessage());
+            this.socket = null;
+        }
+    }
+
+    /**
+     * Returns the sender shared by the process
+     *
+     * @return Default sender
+     */
+    public static ErrorSender getDefault () {
+        return DEFAULT;
+    }
+
+    /**
+     * Sends an error to an address. Errors are not sent again, a requester
+     * that misses one times out
+     *
+     * @param err - Error message to send
+     * @param address - Address of the requester
+     *
+     * @return If the error was sent
+     */
+    public boolean send (ErrorMessage err, SocketAddress address) {
+        if (this.socket == null) {
+            return false;
+        }
+        try {
+            this.socket.send(err, address);
+            this.sent.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to send an error to " + address + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Returns the number of errors sent
+     *
+     * @return Number of errors sent
+     */
+    public long getSent () {
+        return this.sent.get();
+    }
+}
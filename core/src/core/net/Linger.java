@@ -0,0 +1,346 @@
+package core.net;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import core.req.AckMessage;
+import core.req.DataMessage;
+import core.req.OpCode;
+import core.util.HashedWheelTimer;
+
+/**
+ * Linger
+ *
+ * Keeps the sockets of transfers that received a whole file open for a
+ * while in case the last acknowledge was lost. If the sender sends a data
+ * block again in that time the last acknowledge is sent again, otherwise
+ * the socket is returned to the socket pool when its time is up. The
+ * transfer itself completes as soon as it hands its socket over, so its
+ * thread and file are released straight away.
+ *
+ * A single thread watches every lingering socket with a selector and closes
+ * them with a timer wheel that it drives between selects. Only the socket,
+ * the address of the sender and the block number of the last acknowledge
+ * are kept for each transfer.
+ *
+ * Example
+ * Linger.getDefault().linger(socket, lastBlock, Linger.ATTEMPTS * timeout);
+ */
+public class Linger {
+
+    /**
+     * Number of timeouts that a socket lingers for
+     */
+    public static final int ATTEMPTS = 2;
+
+    /**
+     * Logger used to log information
+     */
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    /**
+     * Linger shared by the transfers of the process
+     */
+    private static final Linger DEFAULT = new Linger();
+
+    /**
+     * Selector of the lingering sockets, or null if none could be opened
+     */
+    private Selector selector;
+
+    /**
+     * Sockets waiting to be added on the linger's thread
+     */
+    private Queue<Entry> pending;
+
+    /**
+     * Closes the lingering sockets when their time is up
+     */
+    private HashedWheelTimer timer;
+
+    /**
+     * Buffer that datagrams are received into, only the op code is read
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Buffer that acknowledges are encoded into to be sent again
+     */
+    private ByteBuffer ackBuffer;
+
+    /**
+     * Number of sockets lingering
+     */
+    private volatile int lingering;
+
+    /**
+     * Number of sockets handed over
+     */
+    private AtomicLong handed;
+
+    /**
+     * Number of acknowledges sent again
+     */
+    private AtomicLong resent;
+
+    /**
+     * Constructs a linger and starts its thread. Sockets are closed as soon
+     * as they are handed over if a selector cannot be opened
+     */
+    public Linger () {
+        Thread thread;
+
+        this.pending   = new ConcurrentLinkedQueue<Entry>();
+        this.timer     = new HashedWheelTimer(HashedWheelTimer.DEFAULT_TICK, HashedWheelTimer.DEFAULT_WHEEL_SIZE);
+        this.buffer    = ByteBuffer.allocateDirect(DataMessage.HEADER_SIZE);
+        this.ackBuffer = ByteBuffer.allocateDirect(DataMessage.HEADER_SIZE);
+        this.handed    = new AtomicLong();
+        this.resent    = new AtomicLong();
+        try {
+            this.selector = Selector.open();
+            thread = new Thread(this::run, "linger");
+            thread.setDaemon(true);
+            thread.start();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to open selector, sockets do not linger: " + e.getMessage());
+            this.selector = null;
+        }
+    }
+
+    /**
+     * Returns the linger shared by the transfers of the process
+     *
+     * @return Default linger
+     */
+    public static Linger getDefault () {
+        return DEFAULT;
+    }
+
+    /**
+     * Takes over the socket of a transfer that received its last block. The
+     * transfer must not use the socket afterwards
+     *
+     * @param socket - Socket of the transfer
+     * @param block - Block number of the last acknowledge
+     * @param time - Time in ms to linger for
+     */
+    public void linger (NodeSocket socket, short block, long time) {
+        this.linger(socket.handOver(), socket.getAddress(), block, time);
+    }
+
+    /**
+     * Takes over the channel of a transfer that received its last block. The
+     * transfer must not use the channel afterwards
+     *
+     * @param channel - Channel of the transfer
+     * @param address - Address of the sender of the file
+     * @param block - Block number of the last acknowledge
+     * @param time - Time in ms to linger for
+     */
+    public void linger (DatagramChannel channel, SocketAddress address, short block, long time) {
+        Entry entry = new Entry(channel, address, block, time);
+
+        this.handed.incrementAndGet();
+        if (this.selector == null) {
+            this.close(entry);
+            return;
+        }
+        this.pending.add(entry);
+        this.selector.wakeup();
+    }
+
+    /**
+     * Returns the number of sockets lingering
+     *
+     * @return Number of lingering sockets
+     */
+    public int getLingering () {
+        return this.lingering;
+    }
+
+    /**
+     * Returns a summary of the linger statistics
+     */
+    @Override
+    public String toString () {
+        return "Lingering:         " + this.lingering + " sockets, " + this.handed.get() + " handed over, " +
+               this.resent.get() + " acknowledges sent again";
+    }
+
+    /**
+     * Adds the sockets handed over, waits for datagrams until the next
+     * socket is closed and closes the sockets whose time is up
+     */
+    private void run () {
+        while (true) {
+            try {
+                this.addPending();
+                this.selector.select(this::handleSelected, this.timer.nextTick());
+                this.timer.expire();
+            } catch (ClosedSelectorException e) {
+                return;
+            } catch (IOException e) {
+                LOGGER.log(Level.SEVERE, "Linger failed to select: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Registers the sockets handed over from other threads
+     */
+    private void addPending () {
+        Entry next;
+
+        while ((next = this.pending.poll()) != null) {
+            Entry entry = next;
+
+            try {
+                entry.channel.configureBlocking(false);
+                entry.key = entry.channel.register(this.selector, SelectionKey.OP_READ, entry);
+                entry.timeout = this.timer.schedule(() -> this.expire(entry), entry.time);
+                this.lingering++;
+            } catch (IOException e) {
+                this.close(entry);
+            }
+        }
+    }
+
+    /**
+     * Closes a socket whose time is up
+     *
+     * @param entry - The lingering socket
+     */
+    private void expire (Entry entry) {
+        if (!entry.closed) {
+            this.close(entry);
+            this.lingering--;
+        }
+    }
+
+    /**
+     * Sends the last acknowledge again for each data block that the sender
+     * sent again. A sender that gives up with an error ends the linger
+     *
+     * @param key - Selected key of a lingering socket
+     */
+    private void handleSelected (SelectionKey key) {
+        Entry entry = (Entry) key.attachment();
+        SocketAddress sender;
+
+        try {
+            while (key.isValid() && (sender = this.receive(entry)) != null) {
+                if (!sender.equals(entry.address) || this.buffer.remaining() < 2 || this.buffer.get(0) != 0) {
+                    continue;
+                }
+                if (this.buffer.get(1) == OpCode.DATA.getCode()) {
+                    this.ackBuffer.clear();
+                    entry.ack.encode(this.ackBuffer);
+                    this.ackBuffer.flip();
+                    entry.channel.send(this.ackBuffer, entry.address);
+                    this.resent.incrementAndGet();
+                }
+                else if (this.buffer.get(1) == OpCode.ERROR.getCode()) {
+                    this.close(entry);
+                    this.lingering--;
+                }
+            }
+        } catch (IOException e) {
+            this.close(entry);
+            this.lingering--;
+        }
+    }
+
+    /**
+     * Receives the start of the next datagram of a lingering socket
+     *
+     * @param entry - The lingering socket
+     *
+     * @return Address of the sender, or null if no datagram is waiting
+     *
+     * @throws IOException - If the socket cannot be read
+     */
+    private SocketAddress receive (Entry entry) throws IOException {
+        SocketAddress sender;
+
+        this.buffer.clear();
+        sender = entry.channel.receive(this.buffer);
+        this.buffer.flip();
+        return sender;
+    }
+
+    /**
+     * Closes a lingering socket by returning its channel to the socket pool
+     *
+     * @param entry - The lingering socket
+     */
+    private void close (Entry entry) {
+        entry.closed = true;
+        if (entry.key != null) {
+            entry.key.cancel();
+        }
+        if (entry.timeout != null) {
+            entry.timeout.cancel();
+        }
+        SocketPool.getDefault().release(entry.channel);
+    }
+
+    /**
+     * Entry
+     *
+     * Socket lingering after its transfer
+     */
+    private static class Entry {
+
+        /**
+         * Channel of the socket
+         */
+        final DatagramChannel channel;
+
+        /**
+         * Address of the sender of the file
+         */
+        final SocketAddress address;
+
+        /**
+         * Last acknowledge of the transfer
+         */
+        final AckMessage ack;
+
+        /**
+         * Time in ms that the socket lingers for
+         */
+        final long time;
+
+        /**
+         * Registration of the channel with the selector
+         */
+        SelectionKey key;
+
+        /**
+         * Closes the socket when its time is up
+         */
+        HashedWheelTimer.Timeout timeout;
+
+        /**
+         * If the socket has been closed
+         */
+        boolean closed;
+
+        Entry (DatagramChannel channel, SocketAddress address, short block, long time) {
+            this.channel = channel;
+            this.address = address;
+            this.ack = new AckMessage(block);
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package core.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+import core.req.InvalidMessageException;
+import core.req.Message;
+import core.req.MessageDecoder;
+
+/**
+ * Multicast Receiver
+ *
+ * Receives the datagrams of a multicast transfer (RFC 2090). The data
+ * blocks arrive on a channel that has joined the multicast group, while
+ * option acknowledges and errors arrive on the channel of the transfer's
+ * socket. Both channels are waited on together and only datagrams sent from
+ * the server's transfer ID are returned. The group channel allows other
+ * sockets on the same host to bind the group port so several clients on
+ * one host can receive the same transfer.
+ *
+ * The transfer's socket is switched to non-blocking mode and can only send
+ * messages once the receiver has been created.
+ *
+ * Example
+ * MulticastReceiver receiver = new MulticastReceiver(socket, group);
+ * Message msg = receiver.receive(1000);
+ * receiver.close();
+ */
+public class MulticastReceiver {
+
+    /**
+     * Address of the server that sends the datagrams
+     */
+    private SocketAddress server;
+
+    /**
+     * Channel of the transfer's socket
+     */
+    private DatagramChannel unicast;
+
+    /**
+     * Channel that has joined the multicast group
+     */
+    private DatagramChannel multicast;
+
+    /**
+     * Membership of the multicast group
+     */
+    private MembershipKey membership;
+
+    /**
+     * Waits for datagrams on either channel
+     */
+    private Selector selector;
+
+    /**
+     * Buffer that datagrams are received into, reused for every receive
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Decodes the datagrams in the receive buffer
+     */
+    private MessageDecoder decoder;
+
+    /**
+     * Joins the multicast group through the interface that reaches the
+     * server of the transfer's socket
+     *
+     * @param socket - Socket of the transfer, its address is the server
+     * @param group - Address and port of the multicast group
+     *
+     * @throws IOException - If the group cannot be joined
+     */
+    public MulticastReceiver (NodeSocket socket, InetSocketAddress group) throws IOException {
+        ProtocolFamily family = group.getAddress().getAddress().length == 4
+                ? StandardProtocolFamily.INET : StandardProtocolFamily.INET6;
+
+        this.server   = socket.getAddress();
+        this.unicast  = socket.getChannel();
+        this.buffer   = ByteBuffer.allocate(socket.getBufferSize());
+        this.decoder  = new MessageDecoder(this.buffer);
+        this.selector = Selector.open();
+        try {
+            this.multicast = DatagramChannel.open(family);
+            this.multicast.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            this.multicast.bind(new InetSocketAddress(group.getPort()));
+            this.membership = this.multicast.join(group.getAddress(), NodeSocket.getInterface(this.server));
+            this.multicast.configureBlocking(false);
+            this.multicast.register(this.selector, SelectionKey.OP_READ);
+            this.unicast.configureBlocking(false);
+            this.unicast.register(this.selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for a message from the server on the group or on the transfer's
+     * socket. A message is only valid until the next receive
+     *
+     * @param timeout - Time in ms to wait for a message
+     *
+     * @return The received message, or null if the timeout passed
+     *
+     * @throws IOException - If a channel is closed
+     * @throws InvalidMessageException - If the message received is not valid
+     */
+    public Message receive (long timeout) throws IOException, InvalidMessageException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        long remaining;
+
+        while (true) {
+            if (this.receive(this.multicast) || this.receive(this.unicast)) {
+                return this.decoder.decode();
+            }
+            remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return null;
+            }
+            this.selector.select(remaining);
+            this.selector.selectedKeys().clear();
+        }
+    }
+
+    /**
+     * Leaves the group and closes the group channel. The transfer's socket
+     * is left open
+     */
+    public void close () {
+        try {
+            if (this.membership != null) {
+                this.membership.drop();
+            }
+            if (this.multicast != null) {
+                this.multicast.close();
+            }
+            this.selector.close();
+        } catch (IOException e) {
+            // squash it
+        }
+    }
+
+    /**
+     * Receives a datagram from a channel into the receive buffer, dropping
+     * datagrams that were not sent by the server
+     *
+     * @param channel - Channel to receive from
+     *
+     * @return If a datagram from the server was received
+     *
+     * @throws IOException - If the channel is closed
+     */
+    private boolean receive (DatagramChannel channel) throws IOException {
+        SocketAddress sender;
+
+        do {
+            this.buffer.clear();
+            sender = channel.receive(this.buffer);
+        } while (sender != null && !this.server.equals(sender));
+
+        if (sender == null) {
+            return false;
+        }
+        this.buffer.flip();
+        return true;
+    }
+}
@@ -0,0 +1,473 @@
+package core.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+import core.req.AckMessage;
+import core.req.DataMessage;
+import core.req.ErrorMessage;
+import core.req.InvalidMessageException;
+import core.req.Message;
+import core.req.MulticastOption;
+import core.req.OpCode;
+import core.req.OptionAckMessage;
+import core.req.TransferOptions;
+import core.util.BlockReader;
+import core.util.FileCache;
+import core.util.ReadAhead;
+
+/**
+ * Multicast Transfer
+ *
+ * Sends a file to any number of clients at once by sending its data blocks
+ * to a multicast group (RFC 2090). One client at a time is the master
+ * client, it acknowledges the blocks from its own port and the transfer
+ * sends the window after the block it acknowledged to the group. The other
+ * clients listen to the group and keep every block they receive, in any
+ * order. Once the master client has the whole file the next client that
+ * joined becomes the master client and acknowledges the last block it has
+ * in sequence, and the transfer goes back to send the blocks it is missing.
+ * The transfer ends when every client has the whole file.
+ *
+ * A client that has the whole file before it becomes the master client
+ * acknowledges the last block to leave the transfer. A master client that
+ * stops responding is dropped after the socket's give up time.
+ *
+ * Block numbers do not wrap, so only files of at most MAX_BLOCKS blocks
+ * can be multicast.
+ *
+ * Example
+ * MulticastTransfer transfer = new MulticastTransfer(client, "myFile", options, group);
+ * (new Thread(transfer)).start();
+ * transfer.join(anotherClient);
+ */
+public class MulticastTransfer extends Transfer {
+
+    /**
+     * Largest number of blocks in a file that can be multicast
+     */
+    public static final int MAX_BLOCKS = 65535;
+
+    /**
+     * Address and port of the multicast group that the blocks are sent to
+     */
+    private InetSocketAddress group;
+
+    /**
+     * Clients that do not have the whole file yet in the order they joined,
+     * the master client is first
+     */
+    private ArrayList<SocketAddress> clients;
+
+    /**
+     * Guards the clients and the closed flag
+     */
+    private ReentrantLock lock;
+
+    /**
+     * If the transfer has ended and no more clients can join
+     */
+    private boolean closed;
+
+    /**
+     * Client that acknowledges the blocks, or null between master clients
+     */
+    private volatile SocketAddress master;
+
+    /**
+     * If the master client has acknowledged its option acknowledge
+     */
+    private boolean mastered;
+
+    /**
+     * Cache that the file is opened from, or null to read it from disk
+     */
+    private FileCache cache;
+
+    /**
+     * Reader of the blocks of the file
+     */
+    private BlockReader in;
+
+    /**
+     * Number of blocks in the file including an empty last block
+     */
+    private int blocks;
+
+    /**
+     * Data messages of the window that was last sent to the group
+     */
+    private DataMessage[] window;
+
+    /**
+     * Number of blocks in the window that was last sent to the group
+     */
+    private int outstanding;
+
+    /**
+     * Constructs a transfer that sends a file to the group for the client
+     * that requested it, the first master client
+     *
+     * @param address - Address of the client that requested the file
+     * @param path - Path of the file to send
+     * @param accepted - Options accepted from the request
+     * @param group - Address and port of the multicast group to send the blocks to
+     *
+     * @throws SocketException - If the socket cannot be created
+     */
+    public MulticastTransfer (SocketAddress address, String path, TransferOptions accepted,
+            InetSocketAddress group) throws SocketException {
+        super(null, path, path);
+        this.setOptions(accepted);
+        this.group   = group;
+        this.clients = new ArrayList<SocketAddress>();
+        this.lock    = new ReentrantLock();
+        this.clients.add(address);
+    }
+
+    /**
+     * Sets the cache that the file is opened from
+     *
+     * @param cache - Cache to open the file from, or null to read it from disk
+     */
+    public void setFileCache (FileCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the address and port of the multicast group
+     *
+     * @return Multicast group of the transfer
+     */
+    public InetSocketAddress getGroup () {
+        return this.group;
+    }
+
+    /**
+     * Adds a client that requested the file while it is being sent. The
+     * client is told the group and listens to it until it becomes the
+     * master client. A client that requests the file again, because the
+     * option acknowledge was lost, is sent it again
+     *
+     * @param address - Address of the client
+     *
+     * @return If the client joined, false if the transfer has ended
+     */
+    public boolean join (SocketAddress address) {
+        this.lock.lock();
+        try {
+            if (this.closed) {
+                return false;
+            }
+            if (!this.clients.contains(address)) {
+                this.clients.add(address);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.sendOptionAcknowledge(address, address.equals(this.master));
+        } catch (IOException e) {
+            this.notifyInfo("Unable to send option acknowledge to " + address + ": " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Ends a transfer that has not started and sends an error to each
+     * client that joined it
+     *
+     * @param error - Error to send to the clients
+     */
+    public void cancel (ErrorMessage error) {
+        ArrayList<SocketAddress> clients;
+
+        this.lock.lock();
+        try {
+            this.closed = true;
+            clients = new ArrayList<SocketAddress>(this.clients);
+            this.clients.clear();
+        } finally {
+            this.lock.unlock();
+        }
+        for (SocketAddress client : clients) {
+            try {
+                this.getSocket().send(error, client);
+            } catch (IOException e) {
+                // The client times out
+            }
+        }
+        this.getSocket().close(false);
+    }
+
+    /**
+     * Returns if the transfer has ended and no more clients can join
+     *
+     * @return If the transfer is closed
+     */
+    public boolean isClosed () {
+        this.lock.lock();
+        try {
+            return this.closed;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Multicast transfers are started by the requests of their clients
+     *
+     * @throws UnsupportedOperationException - Always
+     */
+    public boolean sendRequest () {
+        throw new UnsupportedOperationException("Multicast transfers are started by a request");
+    }
+
+    /**
+     * Sends the file to the group for one master client after another
+     * until every client has the whole file
+     */
+    public void run () {
+        SocketAddress next;
+
+        this.notifyStart();
+
+        try {
+            this.window = new DataMessage[this.getWindowSize()];
+            this.in = this.cache == null
+                    ? new BlockReader(this.sourceName, this.getBlockSize(), this.window.length)
+                    : this.cache.open(this.sourceName, this.getBlockSize(), this.window.length);
+            this.in.setReadAhead(ReadAhead.getDefault(), ReadAhead.depth(this.window.length));
+            this.blocks = (int) Math.min(MAX_BLOCKS, this.in.getSize() / this.getBlockSize() + 1);
+
+            // The group is reached through the interface of the first client
+            next = this.nextMaster();
+            if (next != null) {
+                this.getSocket().setMulticastInterface(next);
+            }
+            while (next != null) {
+                this.serve(next);
+                next = this.nextMaster();
+            }
+
+            this.closeFile();
+            this.getSocket().close(false);
+            this.notifyComplete();
+        } catch (Exception e) {
+            this.lock.lock();
+            try {
+                this.closed = true;
+            } finally {
+                this.lock.unlock();
+            }
+            this.closeFile();
+            this.getSocket().close(false);
+            this.notifyException(e);
+        }
+    }
+
+    /**
+     * Handles the timeout of the socket by sending the window to the group
+     * again, or the option acknowledge if the master client has not
+     * responded to it
+     *
+     * @param remaining - Time in ms left before giving up
+     */
+    @Override
+    public void handleTimeout (int remaining) {
+        SocketAddress master = this.master;
+
+        super.handleTimeout(remaining);
+        this.cancelTiming();
+        try {
+            if (!this.mastered && master != null) {
+                this.sendOptionAcknowledge(master, true);
+            }
+            else {
+                this.sendWindow();
+            }
+        } catch (IOException e) {
+            this.notifyInfo("Unable to send to the group: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Picks the client that joined first as the next master client, or
+     * closes the transfer if every client has the whole file
+     *
+     * @return The next master client, or null if the transfer is complete
+     */
+    private SocketAddress nextMaster () {
+        this.lock.lock();
+        try {
+            if (this.clients.isEmpty()) {
+                this.closed = true;
+                return null;
+            }
+            return this.clients.get(0);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the blocks that a master client acknowledges until it has the
+     * whole file, stops responding or reports an error
+     *
+     * @param client - The master client
+     *
+     * @throws IOException - If the socket is closed or the file cannot be read
+     */
+    private void serve (SocketAddress client) throws IOException {
+        SocketAddress sender;
+        Message msg;
+        int block;
+
+        this.master = client;
+        this.mastered = false;
+        this.outstanding = 0;
+        this.sendOptionAcknowledge(client, true);
+
+        while (true) {
+            // Acknowledges come from the master client and from clients
+            // that leave the transfer, so any sender is accepted
+            this.getSocket().reset();
+            try {
+                msg = this.getSocket().receive();
+            } catch (UnreachableHostException e) {
+                this.notifyInfo("Master client " + client + " is not responding, dropping it");
+                this.remove(client);
+                return;
+            } catch (InvalidMessageException e) {
+                this.notifyInfo("Ignoring invalid message: " + e.getMessage());
+                continue;
+            }
+            sender = this.getSocket().getAddress();
+            this.notifyMessage(msg);
+
+            if (msg.getOpCode() == OpCode.ERROR) {
+                this.notifyInfo("Client " + sender + " left the transfer: " + ((ErrorMessage) msg).getMessage());
+                this.remove(sender);
+                if (sender.equals(client)) {
+                    return;
+                }
+                continue;
+            }
+            if (msg.getOpCode() != OpCode.ACK) {
+                continue;
+            }
+            block = Short.toUnsignedInt(((AckMessage) msg).getBlock());
+
+            // Any client that has the last block has the whole file
+            if (block >= this.blocks) {
+                this.remove(sender);
+                if (sender.equals(client)) {
+                    return;
+                }
+                continue;
+            }
+            if (!sender.equals(client)) {
+                continue;
+            }
+
+            // The master client needs the block after the one it acknowledged
+            this.stopTiming();
+            this.mastered = true;
+            this.fillWindow(block + 1);
+            this.sendWindow();
+            this.startTiming();
+        }
+    }
+
+    /**
+     * Removes a client that has the whole file or has left the transfer
+     *
+     * @param client - Address of the client
+     */
+    private void remove (SocketAddress client) {
+        this.lock.lock();
+        try {
+            this.clients.remove(client);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Sends an option acknowledge that tells a client the group and if
+     * it is the master client
+     *
+     * @param client - Address of the client
+     * @param master - If the client is the master client
+     *
+     * @throws IOException - If the socket is closed
+     */
+    private void sendOptionAcknowledge (SocketAddress client, boolean master) throws IOException {
+        TransferOptions options = new TransferOptions(this.getOptions());
+        OptionAckMessage oack;
+
+        options.setMulticast(new MulticastOption(this.group, master).toString());
+        oack = new OptionAckMessage(options.toMap());
+        this.notifySendMessage(oack);
+        this.getSocket().send(oack, client);
+    }
+
+    /**
+     * Reads a window of blocks into the window starting at the given block
+     *
+     * @param first - Number of the first block of the window
+     *
+     * @throws IOException - If the file cannot be read
+     */
+    private void fillWindow (int first) throws IOException {
+        DataMessage msg;
+        ByteBuffer payload;
+
+        this.in.seek((long) (first - 1) * this.getBlockSize());
+        this.outstanding = 0;
+        while (this.outstanding < this.window.length && first + this.outstanding <= this.blocks) {
+            payload = this.in.next(this.outstanding);
+            msg = this.window[this.outstanding];
+            if (msg == null) {
+                msg = new DataMessage((short) (first + this.outstanding), payload);
+                this.window[this.outstanding] = msg;
+            }
+            else {
+                msg.setBlock((short) (first + this.outstanding));
+                msg.setPayload(payload);
+            }
+            msg.setFrame(this.in.frame(this.outstanding));
+            this.outstanding++;
+        }
+    }
+
+    /**
+     * Sends the blocks of the window to the group
+     *
+     * @throws IOException - If the socket is closed
+     */
+    private void sendWindow () throws IOException {
+        for (int i = 0; i < this.outstanding; i++) {
+            this.notifySendMessage(this.window[i]);
+            this.getSocket().send(this.window[i], this.group);
+        }
+    }
+
+    /**
+     * Closes the reader of the file
+     */
+    private void closeFile () {
+        try {
+            if (this.in != null) {
+                this.in.close();
+            }
+        } catch (IOException e) {
+            // squash it
+        }
+    }
+}
@@ -1,20 +1,29 @@
 package core.net;
 
 import core.req.Message;
-import core.req.MessageFactory;
+import core.req.MessageDecoder;
 import core.req.InvalidMessageException;
 import core.req.ErrorCode;
 import core.req.ErrorMessage;
+import core.req.DataMessage;
+import core.req.TransferOptions;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
 import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * NodeSocket
@@ -24,18 +33,30 @@ import java.net.SocketTimeoutException;
  * dynamically assigned. The socket contains an address field that will
  * be the recipient of any messages sent. When a message is received on
  * the socket the address will be updated to be the sender's address.
+ * Messages are sent on the socket's channel from a direct buffer so that
+ * the payload of a data message is copied once, straight from its source.
+ * Datagrams are received into a buffer that is reused for every receive
+ * and acknowledges and data blocks are decoded from it in place. Sockets
+ * with a dynamically assigned port lease a bound channel from the socket
+ * pool and return it when they are closed.
  */
 public class NodeSocket {
 
     /**
-	 * Timeout time for the socket in ms
+	 * Default timeout time for the socket in ms
 	 */
-    private static final int TIMEOUT_TIME = 2400;
+    public static final int DEFAULT_TIMEOUT = 2400;
 
     /**
-     * Default number of attempts to retry sending and receiving after timeouts
+     * Default time in ms that the sender may be silent for before a receive
+     * gives up
      */
-    private static final int DEFAULT_ATTEMPTS = 5;
+    private static final int DEFAULT_GIVE_UP = RetransmissionTimer.GIVE_UP_TIMEOUTS * DEFAULT_TIMEOUT;
+
+    /**
+     * Default size of the buffer used to receive a datagram
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
 
 	/**
      * Address of the socket that this socket is communicating with.
@@ -43,15 +64,66 @@ public class NodeSocket {
     private SocketAddress address;
 
     /**
-     * Number of retry attempts when a socket times out
+     * Time in ms that a receive waits through timeouts before giving up
+     */
+    private int giveUp;
+
+    /**
+     * Size of the buffer used to receive a datagram. Datagrams larger
+     * than the buffer are truncated
      */
-    private int attempts;
+    private int bufferSize;
 
     /**
-     * UDP socket that this socket is using for sending and receiving
+     * Time in ms to wait for each receive attempt, 0 waits forever
+     */
+    private int timeout;
+
+    /**
+     * UDP channel that this socket is using for sending
+     */
+    private DatagramChannel channel;
+
+    /**
+     * If the channel was leased from the socket pool
+     */
+    private boolean pooled;
+
+    /**
+     * If the socket has been closed
+     */
+    private boolean closed;
+
+    /**
+     * UDP socket of the channel that this socket is using for receiving
      */
     private DatagramSocket socket;
 
+    /**
+     * Buffer that messages are encoded into to be sent
+     */
+    private ByteBuffer sendBuffer;
+
+    /**
+     * Guards the send buffer, messages can be sent from any thread
+     */
+    private ReentrantLock sendLock;
+
+    /**
+     * Packet that datagrams are received into, reused for every receive
+     */
+    private DatagramPacket packet;
+
+    /**
+     * Buffer over the data of the receive packet
+     */
+    private ByteBuffer receiveBuffer;
+
+    /**
+     * Decodes the datagrams in the receive buffer
+     */
+    private MessageDecoder decoder;
+
     /**
      * Listeners to events of this socket
      */
@@ -64,10 +136,10 @@ public class NodeSocket {
      */
     public NodeSocket () throws SocketException {
         this.listeners  = new ArrayList<NodeSocketListener>();
-        this.socket     = new DatagramSocket();
-        this.attempts   = DEFAULT_ATTEMPTS;
-        // Set the socket timeout
-        socket.setSoTimeout(TIMEOUT_TIME);
+        this.open(null, false);
+        this.giveUp     = DEFAULT_GIVE_UP;
+        this.bufferSize = DEFAULT_BUFFER_SIZE;
+        this.timeout    = DEFAULT_TIMEOUT;
     }
 
     /**
@@ -79,13 +151,12 @@ public class NodeSocket {
      * @throws SocketException - If there are no ports available
      */
     public NodeSocket (SocketAddress address) throws SocketException {
-        this.socket     = new DatagramSocket();
+        this.open(null, false);
         this.listeners  = new ArrayList<NodeSocketListener>();
         this.address    = address;
-        this.attempts   = DEFAULT_ATTEMPTS;
-
-        // Set timeout
-        socket.setSoTimeout(TIMEOUT_TIME);
+        this.giveUp     = DEFAULT_GIVE_UP;
+        this.bufferSize = DEFAULT_BUFFER_SIZE;
+        this.timeout    = DEFAULT_TIMEOUT;
     }
 
     /**
@@ -96,8 +167,126 @@ public class NodeSocket {
      * @throws SocketException - If the port is in use or there are insufficient privileges
      */
     public NodeSocket (int port) throws SocketException {
-        this.socket = new DatagramSocket(port);
-        this.attempts = DEFAULT_ATTEMPTS;
+        this(port, false);
+    }
+
+    /**
+     * Constructs a new node socket bound to the desired port, which other
+     * sockets may also be bound to if the port is reused. The datagrams sent
+     * to a reused port are spread over its sockets by the sender's address
+     *
+     * @param port - Port to bind this socket to
+     * @param reusePort - If other sockets may be bound to the same port
+     *
+     * @throws SocketException - If the port is in use or there are insufficient privileges
+     */
+    public NodeSocket (int port, boolean reusePort) throws SocketException {
+        this.open(new InetSocketAddress(port), reusePort);
+        this.giveUp = DEFAULT_GIVE_UP;
+        this.bufferSize = DEFAULT_BUFFER_SIZE;
+        this.timeout = 0;
+    }
+
+    /**
+     * Opens the channel of this socket and binds it to the given address,
+     * or leases a bound channel from the socket pool for any port
+     *
+     * @param local - Address to bind to or null for any available port
+     * @param reusePort - If other sockets may be bound to the same port
+     *
+     * @throws SocketException - If the channel cannot be opened or bound
+     */
+    private void open (SocketAddress local, boolean reusePort) throws SocketException {
+        if (local == null) {
+            this.channel  = SocketPool.getDefault().lease(true);
+            this.pooled   = true;
+            this.socket   = this.channel.socket();
+            this.sendLock = new ReentrantLock();
+            return;
+        }
+        try {
+            this.channel = DatagramChannel.open();
+            if (reusePort) {
+                this.channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            this.channel.bind(local);
+        } catch (SocketException e) {
+            this.close();
+            throw e;
+        } catch (IOException e) {
+            this.close();
+            throw new SocketException(e.getMessage());
+        }
+        this.socket   = this.channel.socket();
+        this.sendLock = new ReentrantLock();
+    }
+
+    /**
+     * Returns if several sockets can be bound to the same port on this
+     * platform
+     *
+     * @return If the SO_REUSEPORT option is supported
+     */
+    public static boolean isReusePortSupported () {
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the local port that this socket is bound to
+     *
+     * @return Local port of the socket
+     */
+    public int getLocalPort () {
+        return this.socket.getLocalPort();
+    }
+
+    /**
+     * Returns the channel of this socket, for transfers that wait on the
+     * socket together with other channels
+     *
+     * @return Channel of the socket
+     */
+    DatagramChannel getChannel () {
+        return this.channel;
+    }
+
+    /**
+     * Sends the multicast datagrams of this socket out of the network
+     * interface that reaches the given address
+     *
+     * @param remote - Address of a receiver of the datagrams
+     *
+     * @throws IOException - If the interface cannot be set
+     */
+    public void setMulticastInterface (SocketAddress remote) throws IOException {
+        NetworkInterface nif = getInterface(remote);
+
+        if (nif != null) {
+            this.channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, nif);
+        }
+    }
+
+    /**
+     * Returns the network interface that datagrams to the given address
+     * are sent out of
+     *
+     * @param remote - Address to reach
+     *
+     * @return Network interface, or null if it cannot be found
+     *
+     * @throws IOException - If the route to the address cannot be found
+     */
+    public static NetworkInterface getInterface (SocketAddress remote) throws IOException {
+        // Connecting a datagram socket sends nothing but binds it to
+        // the local address of the route to the remote address
+        try (DatagramSocket probe = new DatagramSocket()) {
+            probe.connect(remote);
+            return NetworkInterface.getByInetAddress(probe.getLocalAddress());
+        }
     }
 
     /**
@@ -138,13 +327,78 @@ public class NodeSocket {
     }
 
     /**
-     * Sets the number of attempts that a socket should try to send or
-     * receive on a socket after timeouts
+     * Sets the time that a receive waits through timeouts before giving
+     * up on the sender. Listeners may raise the timeout after each timeout
+     * so the receive is bounded by time rather than by a number of timeouts
+     *
+     * @param giveUp - Give up time in ms
+     */
+    public void setGiveUp (int giveUp) {
+        this.giveUp = giveUp;
+    }
+
+    /**
+     * Returns the time that a receive waits through timeouts before giving
+     * up on the sender
+     *
+     * @return Give up time in ms
+     */
+    public int getGiveUp () {
+        return this.giveUp;
+    }
+
+    /**
+     * Returns the size of the buffer used to receive a datagram
+     *
+     * @return Number of bytes received in a single datagram
+     */
+    public int getBufferSize () {
+        return this.bufferSize;
+    }
+
+    /**
+     * Sets the size of the buffer used to receive a datagram. The size
+     * should be large enough to hold the largest expected message
      *
-     * @param attempts - Number of retry attempts
+     * @param bufferSize - Number of bytes to receive in a single datagram
      */
-    public void setAttempts (int attempts) {
-        this.attempts = attempts;
+    public void setBufferSize (int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Requests a socket receive buffer that can hold at least the given
+     * number of bytes of datagrams. The operating system may limit the size
+     *
+     * @param size - Number of bytes the receive buffer should hold
+     */
+    public void setReceiveBufferSize (int size) {
+        try {
+            if (size > this.socket.getReceiveBufferSize()) {
+                this.socket.setReceiveBufferSize(size);
+            }
+        } catch (SocketException e) {
+            // The default buffer is used
+        }
+    }
+
+    /**
+     * Sets the time to wait for each receive attempt before timing out.
+     * The new timeout applies from the next receive attempt
+     *
+     * @param timeout - Timeout in ms, 0 waits forever
+     */
+    public void setTimeout (int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Returns the time to wait for each receive attempt before timing out
+     *
+     * @return Timeout in ms, 0 waits forever
+     */
+    public int getTimeout () {
+        return this.timeout;
     }
 
     /**
@@ -175,13 +429,46 @@ public class NodeSocket {
      * @throws IOException - If the socket is closed or the endpoint cannot be reached
      */
     public void send (Message message, SocketAddress address) throws IOException {
-        byte[] data = message.toBytes();
-        this.socket.send(new DatagramPacket(data, data.length, address));
+        ByteBuffer frame = message instanceof DataMessage ? ((DataMessage) message).getFrame() : null;
+        int position;
+
+        // A data message encoded in advance is sent as it is
+        if (frame != null) {
+            position = frame.position();
+            try {
+                this.channel.send(frame, address);
+            } finally {
+                frame.position(position);
+            }
+            return;
+        }
+
+        this.sendLock.lock();
+        try {
+            if (this.sendBuffer == null) {
+                this.sendBuffer = ByteBuffer.allocateDirect(Math.max(DEFAULT_BUFFER_SIZE, this.bufferSize));
+            }
+            this.sendBuffer.clear();
+            try {
+                message.encode(this.sendBuffer);
+            } catch (BufferOverflowException e) {
+                // Grow the buffer to hold the largest message once
+                this.sendBuffer = ByteBuffer.allocateDirect(
+                        TransferOptions.MAX_BLOCK_SIZE + DataMessage.HEADER_SIZE);
+                message.encode(this.sendBuffer);
+            }
+            this.sendBuffer.flip();
+            this.channel.send(this.sendBuffer, address);
+        } finally {
+            this.sendLock.unlock();
+        }
     }
 
     /**
      * Synchronously blocks and waits for a message on the socket and updates
-     * the socket's address to be the sender's address
+     * the socket's address to be the sender's address. Acknowledges and data
+     * blocks are flyweights decoded in place from the receive buffer, they
+     * are only valid until the next receive and must be copied to be kept
      *
      * @return The received message
      *
@@ -192,27 +479,32 @@ public class NodeSocket {
     public Message receive() throws
         IOException, InvalidMessageException, UnreachableHostException {
 
-        // Create a packet to buffer the data received
-        DatagramPacket packet;
+        // Reuse the packet to buffer the data received
+        DatagramPacket packet = this.getReceivePacket();
         boolean received;
-        int attempt = 0;
+        long start = System.nanoTime();
+        long elapsed = 0;
 
         do {
             // Receive the packets from the socket
-            packet = new DatagramPacket(new byte[1024], 1024);
+            packet.setLength(this.bufferSize);
             received=false;
             while (!received) {
                 try {
+                    // Listeners may change the timeout after each timeout,
+                    // the last wait ends when the receive gives up
+                    this.socket.setSoTimeout(this.timeout == 0 ? 0 :
+                            (int) Math.max(1, Math.min(this.timeout, this.giveUp - elapsed)));
                     this.socket.receive(packet);
                     received = true;
                 } catch (SocketTimeoutException e) {
-                    // Increment the attempt count and heck if the maximum number
-                    // of timeouts have been reached.
-                    if (++attempt == this.attempts) {
+                    // Give up once the sender has been silent for too long
+                    elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    if (elapsed >= this.giveUp) {
                         throw new UnreachableHostException("No response from host after "
-                            + this.attempts + " attempts");
+                            + elapsed + " ms");
                     }
-                    this.notifyTimeout(this.attempts - attempt);
+                    this.notifyTimeout((int) (this.giveUp - elapsed));
                 }
             }
         }
@@ -221,17 +513,73 @@ public class NodeSocket {
 
         // The packet will contain an address of the sender. Capture that
         // address for future communication
-        this.address = packet.getSocketAddress();
+        if (this.address == null) {
+            this.address = packet.getSocketAddress();
+        }
 
-        return MessageFactory.createMessage(
-            Arrays.copyOfRange(packet.getData(), 0, packet.getLength()));
+        this.receiveBuffer.clear().limit(packet.getLength());
+        return this.decoder.decode();
     }
 
     /**
-     * Closes this node socket and frees its port
+     * Returns the packet that datagrams are received into. The packet is
+     * replaced when the buffer size changes
+     *
+     * @return Packet sized to the buffer size
+     */
+    private DatagramPacket getReceivePacket () {
+        if (this.packet == null || this.packet.getData().length != this.bufferSize) {
+            this.packet = new DatagramPacket(new byte[this.bufferSize], this.bufferSize);
+            this.receiveBuffer = ByteBuffer.wrap(this.packet.getData());
+            this.decoder = new MessageDecoder(this.receiveBuffer);
+        }
+        return this.packet;
+    }
+
+    /**
+     * Closes this node socket and frees its port. A channel leased from the
+     * socket pool is returned to it. A socket that is already closed or
+     * handed over is left as it is, so a transfer may close its socket on
+     * every path it ends by
      */
     public void close () {
-        this.socket.close();
+        this.close(true);
+    }
+
+    /**
+     * Closes this node socket and frees its port. A socket that may still
+     * be used by another thread is closed rather than returned to the pool,
+     * so that it is not used by two transfers at once
+     *
+     * @param reuse - If a channel leased from the socket pool is returned to it
+     */
+    public void close (boolean reuse) {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (this.pooled && reuse) {
+            SocketPool.getDefault().release(this.channel);
+            return;
+        }
+        try {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        } catch (IOException e) {
+            // squash it
+        }
+    }
+
+    /**
+     * Hands the channel of this socket over to another owner, which closes
+     * or returns it. The socket must not be used afterwards
+     *
+     * @return Channel of the socket
+     */
+    DatagramChannel handOver () {
+        this.closed = true;
+        return this.channel;
     }
 
     /**
@@ -240,7 +588,7 @@ public class NodeSocket {
      * @param packet - Packet to confirm endpoint
      */
     private boolean validateEndpoint (DatagramPacket packet) throws IOException {
-        if (this.address != null && !this.address.equals(packet.getSocketAddress())) {
+        if (this.address != null && !this.isSender(packet)) {
             this.notifyUnknownTID();
             this.send(
                 new ErrorMessage(ErrorCode.UNKNOWN_TID, "Unknown transfer ID"),
@@ -250,6 +598,23 @@ public class NodeSocket {
         return true;
     }
 
+    /**
+     * Checks if a packet was sent from the socket's address without creating
+     * an address for the packet
+     *
+     * @param packet - Packet that was received
+     *
+     * @return If the packet is from the socket's address
+     */
+    private boolean isSender (DatagramPacket packet) {
+        if (this.address instanceof InetSocketAddress) {
+            InetSocketAddress inet = (InetSocketAddress) this.address;
+            return inet.getPort() == packet.getPort() &&
+                   inet.getAddress().equals(packet.getAddress());
+        }
+        return this.address.equals(packet.getSocketAddress());
+    }
+
     /**
      * Notifies that a timeout occurred and how many timeouts are remaining
      */
@@ -9,7 +9,7 @@ public interface NodeSocketListener {
     /**
      * Should handle a timeout
      *
-     * @param remaining - The number of timeouts remaining
+     * @param remaining - Time in ms left before the socket gives up
      */
     public void handleTimeout (int remaining);
 
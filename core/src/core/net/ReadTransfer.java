@@ -1,11 +1,12 @@
 package core.net;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.SocketAddress;
 import java.net.SocketException;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
 
 import core.req.AckMessage;
 import core.req.DataMessage;
@@ -14,15 +15,34 @@ import core.req.ErrorMessage;
 import core.req.ErrorMessageException;
 import core.req.InvalidMessageException;
 import core.req.Message;
-import core.req.MessageOrderException;
+import core.req.MulticastOption;
 import core.req.OpCode;
+import core.req.OptionAckMessage;
 import core.req.ReadRequest;
+import core.req.ReceiveWindow;
+import core.req.TransferOptions;
+import core.util.BlockWriter;
+import core.util.Durability;
+import core.util.WriteBehind;
 
 /**
  * Read Transfer
  *
  * Runnable transfer moves a file from an external endpoint to this location.
- * A read operation reads a packets from a socket until the transfer is complete
+ * A read operation reads a packets from a socket until the transfer is complete.
+ * Blocks are acknowledged at the end of each negotiated window (RFC 7440)
+ *
+ * If the server acknowledges the multicast option (RFC 2090) the blocks are
+ * received from a multicast group in any order and written in place, with
+ * a bitmap of the blocks received. Only the master client acknowledges the
+ * blocks, it acknowledges the last block it has in sequence so that the
+ * server sends the blocks it is missing.
+ *
+ * Received blocks are written to the file behind the transfer by a block
+ * writer, which coalesces them into large writes and forces the file to
+ * disk as the transfer's durability asks. Once the last block is written
+ * the transfer completes and hands its socket to the linger, which sends
+ * the last acknowledge again if the last block is sent again.
  *
  * Example
  * (new Thread(
@@ -32,6 +52,26 @@ import core.req.ReadRequest;
  */
 public class ReadTransfer extends Transfer {
 
+    /**
+     * Blocks received since the last acknowledge
+     */
+    private ReceiveWindow window;
+
+    /**
+     * Acknowledge message reused for every acknowledge sent
+     */
+    private AckMessage ack = new AckMessage((short) 0);
+
+    /**
+     * Address that the request was sent to
+     */
+    private SocketAddress requestAddress;
+
+    /**
+     * When the received file is forced to disk
+     */
+    private Durability durability = Durability.NONE;
+
     /**
      * Constructs a new transfer that will read data from a socket and
      * store it in a file with the given name
@@ -44,6 +84,33 @@ public class ReadTransfer extends Transfer {
      */
     public ReadTransfer (SocketAddress address, String filename, String destinationName) throws SocketException {
         super(address, filename, destinationName);
+        this.window = new ReceiveWindow(this.getBlocks());
+    }
+
+    /**
+     * Constructs a new transfer that will read data from a socket and
+     * store it in a file with the given name using the requested options
+     *
+     * @param address - Address of endpoint to read from
+     * @param filename - Name of file to store incoming data
+     * @param destinationName - Destination path of the file to transfer
+     * @param options - Options to request for the transfer
+     *
+     * @throws SocketException - If the socket cannot be created
+     */
+    public ReadTransfer (SocketAddress address, String filename, String destinationName,
+            TransferOptions options) throws SocketException {
+        super(address, filename, destinationName, options);
+        this.window = new ReceiveWindow(this.getBlocks());
+    }
+
+    /**
+     * Sets when the received file is forced to disk
+     *
+     * @param durability - Durability of the received file
+     */
+    public void setDurability (Durability durability) {
+        this.durability = durability;
     }
 
     /**
@@ -54,24 +121,45 @@ public class ReadTransfer extends Transfer {
      * @return If the request was accepted
      */
     public boolean sendRequest () throws IOException {
-        ReadRequest request = new ReadRequest(this.getFilename());
-        this.notifySendMessage(request);
+        boolean sent = false;
+
+        this.requestAddress = this.getSocket().getAddress();
         try {
-        	this.getSocket().send(request);
+        	this.sendReadRequest();
         	this.getSocket().reset();
+        	this.startTiming();
+        	sent = true;
         }catch(BindException e) {
         	notifyException(e);
         	return false;
+        } finally {
+            // The socket is only run by the transfer once the request is
+            // sent, otherwise it is returned here
+            if (!sent) {
+                this.getSocket().close();
+            }
         }
         return true;
     }
 
+    /**
+     * Sends the request to the address that the transfer was started with
+     *
+     * @throws IOException - If the socket is closed or there is a sending error
+     */
+    private void sendReadRequest () throws IOException {
+        ReadRequest request = new ReadRequest(this.getFilename());
+        request.setOptions(this.getOptions().toMap());
+        this.notifySendMessage(request);
+        this.getSocket().send(request, this.requestAddress);
+    }
+
     /**
      * Performs a read operation by reading data messages from the socket and
      * writing them to the output file
      */
     public void run () {
-        FileOutputStream out = null;
+        BlockWriter out = null;
         DataMessage msg;
 
         // Starting the transfer
@@ -79,28 +167,42 @@ public class ReadTransfer extends Transfer {
 
         try {
             msg = this.getNext();
-            // Create a stream to write the file too
-            out = new FileOutputStream(this.destinationName);
-            // We should continue to read until we get a block
-            // that is less than the standard data block size
-            while (msg.getData().length == DataMessage.BLOCK_SIZE){
+            // Create a writer to write the file too
+            out = new BlockWriter(this.destinationName, this.durability, WriteBehind.getDefault());
 
-                // Forward the data to the output file
-                out.write(msg.getData());
-
-                // Get the next message
-                msg = this.getNext();
+            // The server acknowledged multicast, the blocks are received
+            // from the group instead
+            if (msg == null) {
+                this.receiveMulticast(out);
+                out.close();
+                this.getSocket().close();
             }
+            else {
+                // We should continue to read until we get a block
+                // that is less than the negotiated data block size
+                while (msg.getLength() == this.getBlockSize()){
 
-            // Write the last data message to the file
-            out.write(msg.getData());
+                    // Forward the data to the output file
+                    msg.writeTo(out);
 
-            // Wait until we are certain the last ack message was received by the server
-            this.waitAfterLastAck();
+                    // Get the next message
+                    msg = this.getNext();
+                }
 
-            // Close the output stream and the socket
-            out.close();
-            this.getSocket().close();
+                // Write the last data message to the file and close it,
+                // which writes the blocks still buffered and makes the file
+                // as durable as asked. The last block is only acknowledged
+                // once the file is closed, so a file that cannot be written
+                // ends the transfer with an error instead
+                msg.writeTo(out);
+                out.close();
+                this.sendAcknowledge(this.getBlockNumber());
+
+                // The socket lingers in case the last ack message is lost,
+                // the transfer is complete and its thread is released
+                Linger.getDefault().linger(this.getSocket(), this.getBlockNumber(),
+                        Linger.ATTEMPTS * this.getTimer().getTimeout());
+            }
 
             // Notify that the transfer is complete
             this.notifyComplete();
@@ -118,38 +220,44 @@ public class ReadTransfer extends Transfer {
         	this.removeFile(out);
         } catch (Exception e){
             e.printStackTrace();
+            this.notifyException(e);
+        } finally {
+            // Returns the socket if the transfer ended without closing it
+            // or handing it to the linger, which both leave it closed
+            this.getSocket().close();
         }
     }
 
     /**
      * Delete the file if a problem occurs during transfer
      *
-     * @param out - the outputstream for the file that needs to be deleted
+     * @param out - the writer for the file that needs to be deleted
      */
-    private void removeFile (FileOutputStream out) {
+    private void removeFile (BlockWriter out) {
         if (out != null) {
-            try {
-                out.close();
-                File f = new File(this.destinationName);
-                if (f.delete()) {
-                    this.notifyInfo("Deleted " + getFilename());
-                } else {
-                    this.notifyInfo("Unable to deleted " + getFilename());
-                }
-            } catch (IOException e1) {
-                this.notifyInfo("Error closing output stream");
+            out.discard();
+            File f = new File(this.destinationName);
+            if (f.delete()) {
+                this.notifyInfo("Deleted " + getFilename());
+            } else {
+                this.notifyInfo("Unable to deleted " + getFilename());
             }
         }
     }
 
     /**
      * Synchronously receive the next data packet and sends an acknowledgement
+     * at the end of each window. The last block is left for the caller to
+     * acknowledge once the file is closed. Packets that are out of order are ignored
+     * and the first gap in a window is acknowledged so that the sender
+     * resends the blocks after the last block received
      *
-     * @return The next data packet read from the socket
+     * @return The next data packet read from the socket, or null if the
+     *         server acknowledged multicast
      *
      * @throws IOException - If the socket is closed or there is a sending error
      * @throws InvalidMessageException - If there is on error decoding the packet
-     * @throws UnreachableHostException - If the max number of attempts is reached when receiving a packet
+     * @throws UnreachableHostException - If the host is silent for the give up time when receiving a packet
      * @throws ErrorMessageException - If an error message is received
      */
     private DataMessage getNext () throws
@@ -160,91 +268,288 @@ public class ReadTransfer extends Transfer {
 
         Message msg = null;
         DataMessage data = null;
-        AckMessage ack;
-
-        msg = this.getSocket().receive();
-
-        // Check that the message is not an error message
-        this.checkErrorMessage(msg);
+        ReceiveWindow.Receipt receipt;
 
-        // Increment the block number
-        this.incrementBlockNumber();
-        // Check that we can cast the message to the type if the
-        // desired OpCode
-        this.checkCast(msg, OpCode.DATA);
-        data = (DataMessage) msg;
-
-        // Ensure that the packet we got is in the correct
-        // sequence with previous packets we have received
-        try {
-            this.checkOrder(data);
-        } catch (MessageOrderException e) {
-
-            this.notifyInfo(e.getMessage() + "\n resending ack");
+        while (data == null) {
+            msg = this.getSocket().receive();
 
-            // Reset block number to before message was received
-            this.decrementBlockNumber();
+            // Check that the message is not an error message
+            this.checkErrorMessage(msg);
 
-            if (Short.toUnsignedInt(getBlockNumber()) > 0) {
+            // The requested options were acknowledged and the acknowledge
+            // must be acknowledged before data is sent
+            if (this.checkOptionAcknowledge(msg)) {
+                this.stopTiming();
+                this.notifyMessage(msg);
+                if (this.getOptions().isMulticast()) {
+                    return null;
+                }
+                this.sendAcknowledge(this.getBlockNumber());
+                this.startTiming();
+                continue;
+            }
 
-                // Resend last acknowledge
-                ack = new AckMessage(this.getBlockNumber());
-                this.notifySendMessage(ack);
-                this.getSocket().send(ack);
-                return this.getNext();
+            // Check that we can cast the message to the type if the
+            // desired OpCode
+            this.checkCast(msg, OpCode.DATA);
+            data = (DataMessage) msg;
+
+            // Ensure that the packet we got is in the correct
+            // sequence with previous packets we have received
+            receipt = this.window.receive(data);
+            if (receipt == ReceiveWindow.Receipt.REPEATED || receipt == ReceiveWindow.Receipt.DUPLICATE) {
+                this.notifyInfo(this.orderMessage(data));
+                if (receipt == ReceiveWindow.Receipt.REPEATED) {
+                    this.notifyInfo("Resending ack");
+                    this.sendAcknowledge(this.getBlockNumber());
+                    this.cancelTiming();
+                }
+                data = null;
+            }
+            else if (receipt == ReceiveWindow.Receipt.GAP) {
+                this.notifyInfo(this.orderMessage(data) + "\n acknowledging last block received");
+                this.sendAcknowledge(this.getBlockNumber());
+                this.cancelTiming();
+                data = null;
+            }
+            else if (receipt == ReceiveWindow.Receipt.AFTER_GAP) {
+                data = null;
             }
         }
 
-        ack = new AckMessage(data.getBlock());
+        this.stopTiming();
 
         // Notify the listeners that a message we received successfully
-        // and that we are sending the next acknowledgement
         this.notifyMessage(data);
-        this.notifySendMessage(ack);
 
-        // Send the ACK
-        this.getSocket().send(ack);
+        // Acknowledge the end of each window, the last block is
+        // acknowledged once the file is closed
+        if (this.window.isWindowEnd() && !data.isLastBlock(this.getBlockSize())) {
+            this.sendAcknowledge(data.getBlock());
+            this.startTiming();
+        }
         return data;
      }
 
     /**
-     * There is the possibility that the last ack sent gets dropped,
-     * so the transfer should not end until the server receives it
+     * Receives the blocks of a multicast transfer from the group and writes
+     * each block in place until every block of the file has been received.
+     * The master client acknowledges the last block it has in sequence at
+     * the end of each window, at the first gap and when the wait for the
+     * next block times out. Other clients only acknowledge the last block
+     * once they have the whole file, so that the server does not make them
+     * the master client
      *
-     * @throws IOException - If the socket is closed or there is a sending error
-     * @throws InvalidMessageException - If there is on error decoding the packet
+     * @param out - Writer of the file to write the blocks to
+     *
+     * @throws IOException - If the socket is closed or the file cannot be written
+     * @throws InvalidMessageException - If an invalid message is received
      * @throws ErrorMessageException - If an error message is received
+     * @throws UnreachableHostException - If the server stops sending
      */
-    private void waitAfterLastAck() throws
+    private void receiveMulticast (BlockWriter out) throws
         IOException,
         InvalidMessageException,
-        ErrorMessageException {
-        Message msg = null;
-        AckMessage ack;
+        ErrorMessageException,
+        UnreachableHostException {
 
-        try {
-            this.getSocket().setAttempts(2);
-            this.getSocket().removeNodeSocketListener(this);
-            msg = this.getSocket().receive();
-            this.notifyMessage(msg);
-        } catch (UnreachableHostException e) {
-            // Squash IT!!!
+        MulticastOption option = MulticastOption.parse(this.getOptions().getMulticast());
+        MulticastReceiver receiver;
+        BitSet received = new BitSet();
+        boolean master = option.isMaster();
+        boolean gapAcknowledged = false;
+        int contiguous = 0;
+        int last = 0;
+        long progress = System.nanoTime();
+        long silent = progress;
+        long waited, remaining;
+        DataMessage data;
+        Message msg;
+        int block;
+
+        if (option.getGroup() == null) {
+            throw new InvalidMessageException("Multicast option acknowledge is missing the group");
         }
+        receiver = new MulticastReceiver(this.getSocket(), option.getGroup());
+        this.notifyInfo("Receiving from multicast group " + option.getGroup() +
+                (master ? " as the master client" : ""));
+
+        try {
+            if (master) {
+                this.sendAcknowledge((short) contiguous);
+            }
+            while (last == 0 || contiguous < last) {
+                msg = receiver.receive(this.getTimer().getTimeout());
+
+                // The master client only waits for new blocks, other
+                // clients wait for anything from the server
+                waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - progress);
+                if (msg == null || (master && waited >= this.getTimer().getTimeout())) {
+                    waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - silent);
+                    if (waited >= this.getSocket().getGiveUp()) {
+                        throw new UnreachableHostException("No response from host after "
+                            + waited + " ms");
+                    }
+                    super.handleTimeout((int) (this.getSocket().getGiveUp() - waited));
+                    if (master) {
+                        this.sendAcknowledge((short) contiguous);
+                    }
+                    progress = System.nanoTime();
+                    if (msg == null) {
+                        continue;
+                    }
+                }
+                this.checkErrorMessage(msg);
+
+                // The server hands the transfer over with a new option acknowledge
+                if (msg.getOpCode() == OpCode.OACK) {
+                    this.notifyMessage(msg);
+                    option = MulticastOption.parse(((OptionAckMessage) msg).getOptions()
+                            .getOrDefault(TransferOptions.MULTICAST_OPTION, ",,0"));
+                    if (option.isMaster()) {
+                        master = true;
+                        this.notifyInfo("Became the master client at block " + contiguous);
+                        this.sendAcknowledge((short) contiguous);
+                    }
+                    silent = System.nanoTime();
+                    progress = System.nanoTime();
+                    continue;
+                }
 
-        if (msg != null) {
+                this.checkCast(msg, OpCode.DATA);
+                data = (DataMessage) msg;
+                if (data.getLength() > this.getBlockSize()) {
+                    throw new InvalidMessageException("Data block is larger than the block size of "
+                            + this.getBlockSize() + " bytes");
+                }
+                block = Short.toUnsignedInt(data.getBlock());
+                if (!master) {
+                    silent = System.nanoTime();
+                }
 
-            // Check that the message is not an error message
-            this.checkErrorMessage(msg);
+                // A block that was already received is sent again when the
+                // server timed out, the end of the window is acknowledged again
+                if (block == 0 || received.get(block) || (last != 0 && block > last)) {
+                    if (master && block == Short.toUnsignedInt(this.window.getAcknowledged())) {
+                        this.sendAcknowledge((short) contiguous);
+                    }
+                    continue;
+                }
 
-            // Notify the listeners that we are re-sending the ack message
-            this.notifyInfo("Received data packet again, resending ack");
+                data.writeTo(out.getChannel(), (long) (block - 1) * this.getBlockSize());
+                received.set(block);
+                if (data.isLastBlock(this.getBlockSize())) {
+                    last = block;
+                }
+                while (received.get(contiguous + 1)) {
+                    contiguous++;
+                    gapAcknowledged = false;
+                }
+                silent = System.nanoTime();
+                progress = System.nanoTime();
+                this.notifyMessage(data);
+
+                if (!master) {
+                    continue;
+                }
+                if (last != 0 && contiguous == last) {
+                    continue;
+                }
+                if (contiguous - Short.toUnsignedInt(this.window.getAcknowledged()) >= this.getWindowSize()) {
+                    this.sendAcknowledge((short) contiguous);
+                }
+                else if (block > contiguous + 1 && !gapAcknowledged) {
+                    this.notifyInfo("Missing block " + (contiguous + 1) + ", acknowledging last block in sequence");
+                    this.sendAcknowledge((short) contiguous);
+                    gapAcknowledged = true;
+                }
+            }
 
-            // Re-send ack message
-            ack = new AckMessage(this.getBlockNumber());
-            this.notifySendMessage(ack);
-            this.getSocket().send(ack);
+            // The last block is only acknowledged once the file is closed.
+            // A client that is not the master client leaves the transfer,
+            // the master client acknowledges the last block again if the
+            // server sends it again because the acknowledge was lost
+            out.close();
+            this.sendAcknowledge((short) last);
+            if (!master) {
+                return;
+            }
+            progress = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.getTimer().getTimeout());
+            while ((remaining = TimeUnit.NANOSECONDS.toMillis(progress - System.nanoTime())) > 0) {
+                msg = receiver.receive(remaining);
+                if (msg != null && msg.getOpCode() == OpCode.DATA &&
+                        Short.toUnsignedInt(((DataMessage) msg).getBlock()) == last) {
+                    this.notifyInfo("Received last block again, resending ack");
+                    this.sendAcknowledge((short) last);
+                }
+            }
+        } finally {
+            receiver.close();
         }
+    }
+
+    /**
+     * Handles the timeout of a node socket by acknowledging the blocks
+     * received so far, or sending the option acknowledge again if the
+     * transfer has not started
+     *
+     * @param remaining - Time in ms left before giving up
+     */
+    @Override
+    public void handleTimeout (int remaining) {
+        super.handleTimeout(remaining);
+
+        try {
+            // The endpoint is not known until it responds to a request. A
+            // multicast request is sent again since a server that is already
+            // sending the file answers it with the group
+            if (this.getSocket().getAddress() == null) {
+                if (this.getOptions().isMulticast() && this.requestAddress != null) {
+                    this.cancelTiming();
+                    this.sendReadRequest();
+                }
+                return;
+            }
+
+            if (this.getBlockCount() == 0 && this.getOptionAcknowledge() != null) {
+                this.notifySendMessage(this.getOptionAcknowledge());
+                this.getSocket().send(this.getOptionAcknowledge());
+            }
+            else {
+                this.sendAcknowledge(this.getBlockNumber());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Sets the options of the transfer and requests a socket receive buffer
+     * that can hold a full window of data blocks
+     *
+     * @param options - Transfer options
+     */
+    @Override
+    protected void setOptions (TransferOptions options) {
+        super.setOptions(options);
+        this.getSocket().setReceiveBufferSize(
+                options.getWindowSize() * (options.getBlockSize() + DataMessage.HEADER_SIZE));
+    }
+
+    /**
+     * Sends an acknowledge for the given block
+     *
+     * @param block - Block number to acknowledge
+     *
+     * @throws IOException - If the socket is closed or there is a sending error
+     */
+    private void sendAcknowledge (short block) throws IOException {
+        this.ack.setBlock(block);
 
+        this.notifySendMessage(this.ack);
+        this.getSocket().send(this.ack);
+        this.window.acknowledged(block);
     }
 
     /**
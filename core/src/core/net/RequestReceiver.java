@@ -3,6 +3,8 @@ package core.net;
 import core.net.NodeSocket;
 import core.net.RequestListener;
 
+import core.req.Message;
+import core.req.OpCode;
 import core.req.Request;
 import core.req.InvalidMessageException;
 import core.req.ErrorCode;
@@ -15,13 +17,18 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.io.IOException;
 
+import java.net.SocketAddress;
 import java.net.SocketException;
 
 /**
  * Request Listener
  *
  * Listens on a port for a message and notifies any listeners when
- * a request is received
+ * a request is received. Several receivers can listen on the same port
+ * on their own threads when the port is reused, each receiving the
+ * requests of the clients that the platform assigns to its socket. A
+ * receiver only decodes the requests, its listeners are expected to hand
+ * the work of a request to other threads
  */
 public class RequestReceiver extends Worker {
 
@@ -49,9 +56,22 @@ public class RequestReceiver extends Worker {
      * @throws SocketException - If the port cannot be bound to
      */
     public RequestReceiver (int port) throws SocketException {
+        this(port, false);
+    }
+
+    /**
+     * Constructs a new request receiver to listen for requests on the
+     * given port, which other receivers may share if the port is reused
+     *
+     * @param port - Port to listen for requests on
+     * @param reusePort - If other receivers may listen on the same port
+     *
+     * @throws SocketException - If the port cannot be bound to
+     */
+    public RequestReceiver (int port, boolean reusePort) throws SocketException {
         super();
         this.listeners = new ArrayList<RequestListener>();
-        this.socket = new NodeSocket(port);
+        this.socket = new NodeSocket(port, reusePort);
     }
 
     public void addRequestListener(RequestListener handler){
@@ -59,21 +79,31 @@ public class RequestReceiver extends Worker {
     }
 
     public void listen () throws IOException, SocketException, UnreachableHostException {
-        Request req;
-        NodeSocket errorSocket;
+        Message msg;
         ErrorMessage err;
 
         try {
             this.socket.reset();
-            req = (Request) this.socket.receive();
+            msg = this.socket.receive();
+
+            // Only requests are sent to this port. Stray data blocks and
+            // acknowledges are answered as illegal operations, errors are
+            // never answered
+            if (msg.getOpCode() == OpCode.ERROR) {
+                LOGGER.log(Level.WARNING, "Ignoring error received from " + this.socket.getAddress());
+                return;
+            }
+            if (msg.getOpCode() != OpCode.READ && msg.getOpCode() != OpCode.WRITE) {
+                throw new InvalidMessageException(msg.getOpCode().name() + " message is not a request");
+            }
 
-            this.notifyRequest(req, socket);
+            this.notifyRequest((Request) msg, socket);
         } catch (InvalidMessageException e){
         	LOGGER.log(Level.SEVERE, "Invalid message received: " + e.getMessage());
+            // Answered from this socket so the receiving thread does not
+            // have to create one
             err = new ErrorMessage(ErrorCode.ILLEGAL_OP, e.getMessage());
-            errorSocket = new NodeSocket(this.socket.getAddress());
-            errorSocket.send(err);
-            errorSocket.close();
+            this.respond(err, this.socket.getAddress());
             this.notifyError(err);
         } catch (SocketException ex){
             if (this.isRunning()){
@@ -82,18 +112,41 @@ public class RequestReceiver extends Worker {
         }
     }
 
+    /**
+     * Responds to a request with an error from the receiving socket without
+     * creating a socket or thread for the response. Used to turn requests
+     * away quickly when the receiver is overloaded
+     *
+     * @param err - Error message to respond with
+     * @param address - Address of the requester
+     */
+    public void respond (ErrorMessage err, SocketAddress address) {
+        try {
+            this.socket.send(err, address);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to respond to " + address + ": " + e.getMessage());
+        }
+    }
+
     public void setup () {}
 
     public void teardown () {
         this.socket.close();
     };
 
+    /**
+     * Receives the next request. A request that cannot be handled is
+     * logged and the receiver keeps listening, unless its socket can no
+     * longer be used
+     */
     public void execute () {
         try {
             this.listen();
-        } catch (Exception e){
-            e.printStackTrace();
-            System.exit(1);
+        } catch (SocketException e) {
+            LOGGER.log(Level.SEVERE, "Request socket failed, no longer listening", e);
+            this.stop();
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Unable to handle request", e);
         }
     }
 
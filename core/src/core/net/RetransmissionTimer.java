@@ -0,0 +1,213 @@
+package core.net;
+
+/**
+ * Retransmission Timer
+ *
+ * Estimates the retransmission timeout of a transfer from measured round
+ * trip times. The timeout is the smoothed round trip time plus four times
+ * the round trip variance as described by Jacobson and Karels (RFC 6298).
+ * Round trips must only be measured for messages that were not sent again
+ * (Karn's rule). Each timeout doubles the retransmission timeout, up to
+ * MAX_TIMEOUT, until a new round trip is measured. Since the timeout grows
+ * with each retry, a peer is given up on after it has been silent for the
+ * give up time rather than after a number of retries.
+ *
+ * Example
+ * RetransmissionTimer timer = new RetransmissionTimer(NodeSocket.DEFAULT_TIMEOUT);
+ * socket.send(msg);
+ * timer.start();
+ * socket.receive();
+ * if (timer.stop()) socket.setTimeout(timer.getTimeout());
+ */
+public class RetransmissionTimer {
+
+    /**
+     * Smallest retransmission timeout in ms
+     */
+    public static final int MIN_TIMEOUT = 100;
+
+    /**
+     * Largest retransmission timeout in ms
+     */
+    public static final int MAX_TIMEOUT = 60000;
+
+    /**
+     * Number of initial timeouts that a peer may be silent for before it
+     * is given up on
+     */
+    public static final int GIVE_UP_TIMEOUTS = 5;
+
+    /**
+     * Granularity of the measured round trip times in us
+     */
+    private static final long CLOCK_GRANULARITY = 1000;
+
+    /**
+     * Timeout in ms used before any round trip is measured
+     */
+    private int initial;
+
+    /**
+     * Current retransmission timeout in ms
+     */
+    private int timeout;
+
+    /**
+     * Smoothed round trip time in us or -1 if no round trip has been measured
+     */
+    private long smoothed;
+
+    /**
+     * Smoothed round trip time variance in us
+     */
+    private long variance;
+
+    /**
+     * Time in ns that the timed message was sent
+     */
+    private long start;
+
+    /**
+     * If a message is waiting for a response to measure its round trip time
+     */
+    private boolean timing;
+
+    /**
+     * Constructs a timer which uses the given timeout until the first
+     * round trip is measured
+     *
+     * @param initial - Initial timeout in ms
+     */
+    public RetransmissionTimer (int initial) {
+        this.initial  = initial;
+        this.timeout  = initial;
+        this.smoothed = -1;
+        this.variance = 0;
+        this.timing   = false;
+    }
+
+    /**
+     * Returns the current retransmission timeout
+     *
+     * @return Timeout in ms
+     */
+    public int getTimeout () {
+        return this.timeout;
+    }
+
+    /**
+     * Returns the time that a peer may be silent for before it is given up
+     * on, which is at least GIVE_UP_TIMEOUTS initial timeouts
+     *
+     * @return Give up time in ms
+     */
+    public int getGiveUp () {
+        return (int) Math.min(Integer.MAX_VALUE, (long) GIVE_UP_TIMEOUTS * this.initial);
+    }
+
+    /**
+     * Returns if a round trip has been measured
+     *
+     * @return If the timeout is estimated from round trip times
+     */
+    public boolean isMeasured () {
+        return this.smoothed >= 0;
+    }
+
+    /**
+     * Sets the timeout used before a round trip is measured. If no round
+     * trip has been measured then this becomes the current timeout
+     *
+     * @param initial - Initial timeout in ms
+     */
+    public void seed (int initial) {
+        this.initial = initial;
+        if (!this.isMeasured()) {
+            this.timeout = initial;
+        }
+    }
+
+    /**
+     * Starts measuring the round trip time of a message that was just sent.
+     * Messages that are sent again must not be timed
+     */
+    public void start () {
+        this.start  = System.nanoTime();
+        this.timing = true;
+    }
+
+    /**
+     * Stops measuring the round trip time because the response to the
+     * timed message can no longer be identified
+     */
+    public void cancel () {
+        this.timing = false;
+    }
+
+    /**
+     * Completes the round trip of the timed message when its response is
+     * received and updates the retransmission timeout
+     *
+     * @return If a round trip was measured
+     */
+    public boolean stop () {
+        if (!this.timing) {
+            return false;
+        }
+        this.timing = false;
+        this.sample(System.nanoTime() - this.start);
+        return true;
+    }
+
+    /**
+     * Updates the smoothed round trip time and variance with a measured
+     * round trip and recalculates the retransmission timeout
+     *
+     * @param nanos - Measured round trip time in ns
+     */
+    public void sample (long nanos) {
+        long rtt = Math.max(1, nanos / 1000);
+
+        if (this.smoothed < 0) {
+            this.smoothed = rtt;
+            this.variance = rtt / 2;
+        }
+        else {
+            this.variance = (3 * this.variance + Math.abs(this.smoothed - rtt)) / 4;
+            this.smoothed = (7 * this.smoothed + rtt) / 8;
+        }
+
+        this.timeout = clamp((this.smoothed + Math.max(CLOCK_GRANULARITY, 4 * this.variance) + 999) / 1000);
+    }
+
+    /**
+     * Doubles the retransmission timeout after a timeout, up to MAX_TIMEOUT.
+     * A response after a timeout may answer either the original or the
+     * retransmitted message so the current measurement is cancelled
+     * (Karn's rule)
+     */
+    public void backoff () {
+        this.timing = false;
+        this.timeout = clamp(2L * this.timeout);
+    }
+
+    /**
+     * Limits a timeout to the range of valid timeouts
+     *
+     * @param timeout - Timeout in ms
+     *
+     * @return The timeout within the valid range
+     */
+    private static int clamp (long timeout) {
+        return (int) Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, timeout));
+    }
+
+    /**
+     * Returns a string representation of the timer
+     */
+    @Override
+    public String toString () {
+        return "rto=" + this.timeout + "ms srtt=" + (this.smoothed / 1000.0) +
+                "ms rttvar=" + (this.variance / 1000.0) + "ms";
+    }
+}
@@ -0,0 +1,422 @@
+package core.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Socket Pool
+ *
+ * Keeps UDP channels bound to ports ready for transfers, so that a transfer
+ * leases a bound channel instead of creating and binding a socket of its
+ * own, and returns it when it ends for a later transfer to use. The ports
+ * can be confined to a range for firewalls that only let a range through.
+ *
+ * Channels are leased in the order they were returned, so a port is reused
+ * as late as possible, and the datagrams that were left waiting on a
+ * channel are dropped before it is leased again. A channel that is still
+ * registered with a selector it was cancelled from is not leased until the
+ * selector has let it go.
+ *
+ * Example
+ * DatagramChannel channel = SocketPool.getDefault().lease(true);
+ * SocketPool.getDefault().release(channel);
+ */
+public class SocketPool {
+
+    /**
+     * Default number of channels bound when the pool is created
+     */
+    public static final int DEFAULT_PREBOUND = 16;
+
+    /**
+     * Default largest number of idle channels kept
+     */
+    public static final int DEFAULT_MAX_IDLE = 256;
+
+    /**
+     * Pool shared by the transfers of the process
+     */
+    private static final SocketPool DEFAULT = new SocketPool(DEFAULT_PREBOUND, DEFAULT_MAX_IDLE);
+
+    /**
+     * Channels that are bound and not leased, oldest first
+     */
+    private ArrayDeque<DatagramChannel> idle;
+
+    /**
+     * Number of channels bound ahead of the transfers
+     */
+    private int prebound;
+
+    /**
+     * Largest number of idle channels kept, more are closed
+     */
+    private int maxIdle;
+
+    /**
+     * Lowest port of the range, 0 for any port
+     */
+    private int low;
+
+    /**
+     * Highest port of the range, 0 for any port
+     */
+    private int high;
+
+    /**
+     * Next port of the range to try to bind
+     */
+    private int nextPort;
+
+    /**
+     * Guards the idle channels and the range
+     */
+    private ReentrantLock lock;
+
+    /**
+     * Number of channels leased
+     */
+    private AtomicLong leased;
+
+    /**
+     * Number of leases that reused an idle channel
+     */
+    private AtomicLong reused;
+
+    /**
+     * Number of channels bound
+     */
+    private AtomicLong bound;
+
+    /**
+     * Constructs a pool of channels bound to any port and binds the first
+     * channels
+     *
+     * @param prebound - Number of channels to bind ahead of the transfers
+     * @param maxIdle - Largest number of idle channels kept
+     */
+    public SocketPool (int prebound, int maxIdle) {
+        this.idle     = new ArrayDeque<DatagramChannel>();
+        this.prebound = Math.min(prebound, maxIdle);
+        this.maxIdle  = maxIdle;
+        this.lock     = new ReentrantLock();
+        this.leased   = new AtomicLong();
+        this.reused   = new AtomicLong();
+        this.bound    = new AtomicLong();
+        this.fill();
+    }
+
+    /**
+     * Returns the pool shared by the transfers of the process
+     *
+     * @return Default pool
+     */
+    public static SocketPool getDefault () {
+        return DEFAULT;
+    }
+
+    /**
+     * Confines the ports of the channels bound from now on to a range. Idle
+     * channels outside the range are closed, and leased ones are closed
+     * instead of returned
+     *
+     * @param low - Lowest port of the range
+     * @param high - Highest port of the range
+     *
+     * @throws IllegalArgumentException - If the range is not within 1 to 65535
+     */
+    public void setPortRange (int low, int high) {
+        DatagramChannel channel;
+        Iterator<DatagramChannel> it;
+
+        if (low < 1 || high > 65535 || low > high) {
+            throw new IllegalArgumentException("Port range must be within 1-65535: " + low + "-" + high);
+        }
+        this.lock.lock();
+        try {
+            this.low      = low;
+            this.high     = high;
+            this.nextPort = low;
+            it = this.idle.iterator();
+            while (it.hasNext()) {
+                channel = it.next();
+                if (!this.inRange(channel)) {
+                    it.remove();
+                    close(channel);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        this.fill();
+    }
+
+    /**
+     * Leases a bound channel, binding a new one if none is idle. The
+     * channel is returned with release once it is no longer used
+     *
+     * @param blocking - If the channel should block
+     *
+     * @return Bound channel with no datagrams waiting
+     *
+     * @throws SocketException - If no channel can be bound
+     */
+    public DatagramChannel lease (boolean blocking) throws SocketException {
+        DatagramChannel channel;
+
+        this.leased.incrementAndGet();
+        while ((channel = this.poll()) != null) {
+            try {
+                drain(channel);
+                channel.configureBlocking(blocking);
+                this.reused.incrementAndGet();
+                return channel;
+            } catch (IOException e) {
+                close(channel);
+            }
+        }
+
+        channel = this.bind();
+        try {
+            channel.configureBlocking(blocking);
+        } catch (IOException e) {
+            close(channel);
+            throw new SocketException(e.getMessage());
+        }
+        return channel;
+    }
+
+    /**
+     * Returns a channel to the pool, or closes it if the pool is full or
+     * the channel is outside the port range. The channel must not be used
+     * afterwards
+     *
+     * @param channel - Channel to return
+     */
+    public void release (DatagramChannel channel) {
+        if (!channel.isOpen()) {
+            return;
+        }
+        this.lock.lock();
+        try {
+            if (this.idle.size() < this.maxIdle && this.inRange(channel)) {
+                this.idle.addLast(channel);
+                return;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        close(channel);
+    }
+
+    /**
+     * Returns the number of idle channels
+     *
+     * @return Number of idle channels
+     */
+    public int getIdle () {
+        this.lock.lock();
+        try {
+            return this.idle.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a summary of the pool statistics
+     */
+    @Override
+    public String toString () {
+        String range;
+
+        this.lock.lock();
+        try {
+            range = this.low == 0 ? "" : " in ports " + this.low + "-" + this.high;
+        } finally {
+            this.lock.unlock();
+        }
+        return "Socket pool:       " + this.getIdle() + " idle" + range + ", " + this.leased.get() +
+               " leased, " + this.reused.get() + " reused, " + this.bound.get() + " bound";
+    }
+
+    /**
+     * Binds channels until the pool holds the number bound ahead of the
+     * transfers. Ports that cannot be bound are left to the first leases
+     */
+    private void fill () {
+        DatagramChannel channel;
+
+        while (this.getIdle() < this.prebound) {
+            try {
+                channel = this.bind();
+            } catch (SocketException e) {
+                return;
+            }
+            this.release(channel);
+        }
+    }
+
+    /**
+     * Takes the oldest idle channel that is not registered with a selector
+     *
+     * @return Idle channel, or null if there is none
+     */
+    private DatagramChannel poll () {
+        DatagramChannel channel;
+        Iterator<DatagramChannel> it;
+
+        this.lock.lock();
+        try {
+            it = this.idle.iterator();
+            while (it.hasNext()) {
+                channel = it.next();
+                if (!channel.isRegistered()) {
+                    it.remove();
+                    return channel;
+                }
+            }
+            return null;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Opens a channel and binds it to any port, or to the next free port of
+     * the range
+     *
+     * @return Bound channel
+     *
+     * @throws SocketException - If the channel cannot be opened or no port is free
+     */
+    private DatagramChannel bind () throws SocketException {
+        DatagramChannel channel;
+        int low;
+        int high;
+        int port;
+
+        this.lock.lock();
+        try {
+            low  = this.low;
+            high = this.high;
+            port = this.nextPort;
+        } finally {
+            this.lock.unlock();
+        }
+
+        try {
+            channel = DatagramChannel.open();
+        } catch (IOException e) {
+            throw new SocketException(e.getMessage());
+        }
+        try {
+            if (low == 0) {
+                channel.bind(null);
+            }
+            else {
+                port = this.bindInRange(channel, low, high, port);
+                this.lock.lock();
+                try {
+                    this.nextPort = port == high ? low : port + 1;
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        } catch (IOException e) {
+            close(channel);
+            throw e instanceof SocketException ? (SocketException) e : new SocketException(e.getMessage());
+        }
+        this.bound.incrementAndGet();
+        return channel;
+    }
+
+    /**
+     * Binds a channel to the first free port of a range, starting from
+     * the given port and wrapping around
+     *
+     * @param channel - Channel to bind
+     * @param low - Lowest port of the range
+     * @param high - Highest port of the range
+     * @param start - Port to try first
+     *
+     * @return Port that the channel was bound to
+     *
+     * @throws IOException - If no port of the range is free
+     */
+    private int bindInRange (DatagramChannel channel, int low, int high, int start) throws IOException {
+        int port = start < low || start > high ? low : start;
+
+        for (int i = low; i <= high; i++) {
+            try {
+                channel.bind(new InetSocketAddress(port));
+                return port;
+            } catch (SocketException e) {
+                port = port == high ? low : port + 1;
+            }
+        }
+        throw new SocketException("No free port in the range " + low + "-" + high);
+    }
+
+    /**
+     * Checks if a channel is bound to a port of the range. Must be called
+     * with the lock held
+     *
+     * @param channel - The channel
+     *
+     * @return If the channel is in the range, or any port is allowed
+     */
+    private boolean inRange (DatagramChannel channel) {
+        SocketAddress local;
+        int port;
+
+        if (this.low == 0) {
+            return true;
+        }
+        try {
+            local = channel.getLocalAddress();
+        } catch (IOException e) {
+            return false;
+        }
+        port = local instanceof InetSocketAddress ? ((InetSocketAddress) local).getPort() : 0;
+        return port >= this.low && port <= this.high;
+    }
+
+    /**
+     * Drops the datagrams waiting on an idle channel, which were sent to
+     * the transfer that used it last
+     *
+     * @param channel - The channel
+     *
+     * @throws IOException - If the channel cannot be read
+     */
+    private static void drain (DatagramChannel channel) throws IOException {
+        ByteBuffer discard = ByteBuffer.allocate(1);
+
+        channel.configureBlocking(false);
+        do {
+            discard.clear();
+        } while (channel.receive(discard) != null);
+    }
+
+    /**
+     * Closes a channel
+     *
+     * @param channel - The channel
+     */
+    private static void close (DatagramChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // squash it
+        }
+    }
+}
@@ -3,11 +3,12 @@ package core.net;
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.net.SocketException;
-import java.util.ArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import core.req.AckMessage;
+import core.req.BlockSequence;
+import core.req.DataMessage;
 import core.req.ErrorCode;
 import core.req.ErrorMessage;
 import core.req.ErrorMessageException;
@@ -15,6 +16,9 @@ import core.req.InvalidMessageException;
 import core.req.Message;
 import core.req.MessageOrderException;
 import core.req.OpCode;
+import core.req.OptionAckMessage;
+import core.req.OptionNegotiationException;
+import core.req.TransferOptions;
 
 /**
  * Transfer
@@ -36,9 +40,9 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
     private static final Logger LOGGER = Logger.getGlobal();
 
     /**
-     * Listeners to the stages of a transfer
+     * Notifies the listeners of the stages of the transfer
      */
-    private ArrayList<TransferListener> listeners;
+    private TransferNotifier notifier;
 
     /**
      * Socket that will be used to perform this transfer. This socket
@@ -56,7 +60,33 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
     /**
      * Current data block being transferred
      */
-    private short currentBlock;
+    private BlockSequence blocks;
+
+    /**
+     * Options that this transfer is using
+     */
+    private TransferOptions options;
+
+    /**
+     * If this endpoint requested options
+     */
+    private boolean optionsRequested;
+
+    /**
+     * If the requested options are waiting to be acknowledged
+     */
+    private boolean optionsPending;
+
+    /**
+     * Option acknowledge that must be sent before the transfer begins
+     * when this endpoint accepted options from a request
+     */
+    private OptionAckMessage optionAcknowledge;
+
+    /**
+     * Estimates the retransmission timeout from measured round trip times
+     */
+    private RetransmissionTimer timer;
 
     /**
      * Constructs a transfer with a socket which will move the specified file
@@ -68,12 +98,32 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
      * @throws SocketException - If the socket cannot be created
      */
     public Transfer (SocketAddress address, String sourceName, String destinationName) throws SocketException {
+        this(address, sourceName, destinationName, new TransferOptions());
+    }
+
+    /**
+     * Constructs a transfer with a socket which will move the specified file
+     * and request the given options
+     *
+     * @param address - Address to use as the endpoint
+     * @param sourceName - Source path of file to transfer
+     * @param destinationName - Destination path of the file to transfer
+     * @param options - Options to request for this transfer
+     *
+     * @throws SocketException - If the socket cannot be created
+     */
+    public Transfer (SocketAddress address, String sourceName, String destinationName,
+            TransferOptions options) throws SocketException {
         this.sourceName = sourceName;
         this.destinationName = destinationName;
 
         this.socket = new NodeSocket(address);
-        this.listeners = new ArrayList<TransferListener>();
-        this.currentBlock = 0;
+        this.notifier = new TransferNotifier();
+        this.blocks = new BlockSequence(options);
+        this.optionsRequested = !options.isEmpty();
+        this.optionsPending = this.optionsRequested;
+        this.timer = new RetransmissionTimer(NodeSocket.DEFAULT_TIMEOUT);
+        this.setOptions(new TransferOptions(options));
 
         this.socket.addNodeSocketListener(this);
     }
@@ -87,7 +137,8 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
     protected void handleInvalidMessage (InvalidMessageException error) {
         ErrorMessage msg;
         try {
-            msg = new ErrorMessage(ErrorCode.ILLEGAL_OP, error.getMessage());
+            msg = new ErrorMessage(error instanceof OptionNegotiationException ?
+                    ErrorCode.OPTION_NEGOTIATION : ErrorCode.ILLEGAL_OP, error.getMessage());
             this.socket.send(msg);
             this.notifyError(msg);
         } catch (IOException e){
@@ -99,11 +150,13 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
     /**
      * Handles the timeout of a node socket
      *
-     * @param remaining - Number of retry attempts remaining
+     * @param remaining - Time in ms left before giving up
      */
     public void handleTimeout (int remaining) {
+        this.timer.backoff();
+        this.socket.setTimeout(this.timer.getTimeout());
         LOGGER.log(Level.WARNING, "Socket timed out while waiting for message. "
-                + "Will attempt " + remaining + " more time(s)");
+                + "Will give up in " + remaining + " ms");
     }
 
     /**
@@ -114,6 +167,32 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
     }
 
 
+    /**
+     * Starts measuring the round trip time of a message that was just sent.
+     * Messages that are sent again must not be timed
+     */
+    protected void startTiming () {
+        this.timer.start();
+    }
+
+    /**
+     * Stops measuring the round trip time because the response to the
+     * timed message can no longer be identified
+     */
+    protected void cancelTiming () {
+        this.timer.cancel();
+    }
+
+    /**
+     * Completes the round trip of the timed message when its response is
+     * received and updates the socket with the new retransmission timeout
+     */
+    protected void stopTiming () {
+        if (this.timer.stop()) {
+            this.socket.setTimeout(this.timer.getTimeout());
+        }
+    }
+
     /**
      * Checks if the given message is an error message and throws an exception
      * if there is
@@ -128,6 +207,41 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
         }
     }
 
+    /**
+     * Checks if the given message is an option acknowledge in response to the
+     * options requested by this endpoint and applies the acknowledged options.
+     * If the requested options are pending and any other message is received
+     * then the peer has refused the options and the defaults are used.
+     *
+     * @param msg - Message to check
+     *
+     * @return If the message is an option acknowledge
+     *
+     * @throws InvalidMessageException - If the option acknowledge was not expected
+     */
+    protected boolean checkOptionAcknowledge (Message msg) throws InvalidMessageException {
+        if (msg.getOpCode() != OpCode.OACK) {
+            if (this.optionsPending) {
+                this.optionsPending = false;
+                this.setOptions(new TransferOptions());
+                this.notifyInfo("Options were not acknowledged, using default options");
+            }
+            return false;
+        }
+
+        if (!this.optionsRequested || this.getBlockCount() != 0) {
+            throw new InvalidMessageException("Unexpected option acknowledge");
+        }
+
+        // A repeated option acknowledge has already been applied
+        if (this.optionsPending) {
+            this.options.acknowledge(((OptionAckMessage) msg).getOptions());
+            this.setOptions(this.options);
+            this.optionsPending = false;
+        }
+        return true;
+    }
+
     /**
      * Checks if the given acknowledge message is in the correct order
      * and throws an error if not
@@ -138,19 +252,18 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
      * @throws InvalidMessageException - If the acknowledge is larger than expected
      */
     protected void checkOrder (AckMessage ack) throws MessageOrderException, InvalidMessageException {
-        if (Short.toUnsignedInt(ack.getBlock()) < Short.toUnsignedInt(this.getBlockNumber())) {
-            throw new MessageOrderException(
-                    ack.getOpCode().name() + " Message out of order." +
-                    " Expected " + this.getBlockNumber() +
-                    " Received " + ack.getBlock());
-        }
-        else if(Short.toUnsignedInt(ack.getBlock()) > Short.toUnsignedInt(this.getBlockNumber())) {
-            throw new InvalidMessageException(ack.getOpCode().name() +
-                    " Message has a wrong block code "+
-                    " Expected " + this.getBlockNumber() +
-                    " Received " + ack.getBlock());
+        this.blocks.checkOrder(ack, 0);
+    }
 
-        }
+    /**
+     * Returns a description of a data message that is not the next block
+     *
+     * @param data - Data message that is out of order
+     *
+     * @return Description of the expected and received blocks
+     */
+    protected String orderMessage (DataMessage data) {
+        return this.blocks.orderMessage(data);
     }
 
     /**
@@ -189,13 +302,91 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
         return this.socket;
     }
 
+    /**
+     * Returns the options that this transfer is using
+     *
+     * @return Transfer options
+     */
+    public TransferOptions getOptions () {
+        return this.options;
+    }
+
+    /**
+     * Sets the options that this transfer is using, sizes the socket
+     * to receive the largest message of the transfer and seeds the
+     * retransmission timeout and the give up time with the negotiated
+     * timeout
+     *
+     * @param options - Transfer options
+     */
+    protected void setOptions (TransferOptions options) {
+        this.options = options;
+        this.blocks.setOptions(options);
+        this.socket.setBufferSize(Math.max(NodeSocket.DEFAULT_BUFFER_SIZE,
+                options.getBlockSize() + DataMessage.HEADER_SIZE));
+        this.timer.seed(options.getTimeout() == TransferOptions.DEFAULT_TIMEOUT ?
+                NodeSocket.DEFAULT_TIMEOUT : options.getTimeout() * 1000);
+        this.socket.setTimeout(this.timer.getTimeout());
+        this.socket.setGiveUp(this.timer.getGiveUp());
+    }
+
+    /**
+     * Returns the retransmission timer of this transfer
+     *
+     * @return Retransmission timer
+     */
+    public RetransmissionTimer getTimer () {
+        return this.timer;
+    }
+
+    /**
+     * Returns the number of payload bytes in each data block of this transfer
+     *
+     * @return Negotiated block size
+     */
+    public int getBlockSize () {
+        return this.options.getBlockSize();
+    }
+
+    /**
+     * Returns the number of data blocks of this transfer that are sent
+     * before an acknowledge is expected
+     *
+     * @return Negotiated window size
+     */
+    public int getWindowSize () {
+        return this.options.getWindowSize();
+    }
+
+    /**
+     * Applies the options that were accepted in response to a request. If any
+     * options were accepted then an option acknowledge is prepared which must
+     * be sent to the requester before the transfer begins
+     *
+     * @param accepted - Options accepted by this endpoint
+     */
+    public void acceptOptions (TransferOptions accepted) {
+        this.setOptions(accepted);
+        this.optionAcknowledge = accepted.isEmpty() ? null : new OptionAckMessage(accepted.toMap());
+    }
+
+    /**
+     * Returns the option acknowledge that must be sent before the transfer
+     * begins or null if no options were accepted
+     *
+     * @return Option acknowledge of the accepted options
+     */
+    public OptionAckMessage getOptionAcknowledge () {
+        return this.optionAcknowledge;
+    }
+
     /**
      * Adds a listener to this transfer
      *
      * @param listener - Listener to add to this transfer
      */
     public void addTransferListener (TransferListener listener) {
-        this.listeners.add(listener);
+        this.notifier.addTransferListener(listener);
     }
 
     /**
@@ -213,34 +404,60 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
      * @return Current block number index
      */
     public short getBlockNumber() {
-        return this.currentBlock;
+        return this.blocks.getBlock();
+    }
+
+    /**
+     * Returns the current block of this transfer, which its windows
+     * advance and order received blocks against
+     *
+     * @return Block sequence of the transfer
+     */
+    protected BlockSequence getBlocks () {
+        return this.blocks;
     }
 
     /**
-     * Increments the current block number and then returns the new value
+     * Returns the number of blocks that the current block has advanced by.
+     * Unlike the block number the count does not wrap, so it gives the
+     * position of the current block in files of any size
      *
-     * @return The next block number
+     * @return Number of blocks transferred
+     */
+    public long getBlockCount () {
+        return this.blocks.getCount();
+    }
+
+    /**
+     * Advances the current block number, wrapping to the negotiated
+     * rollover after block 65535, and returns the block it advanced from
+     *
+     * @return The block number before it was advanced
      */
     protected short incrementBlockNumber () {
-        return this.currentBlock++;
+        short block = this.blocks.getBlock();
+
+        this.blocks.advance();
+        return block;
     }
 
     /**
-     * Decrements the current block number and then returns the new value
+     * Moves the current block number back and returns the block it moved from
      *
-     * @return The previous block number
+     * @return The block number before it was moved back
      */
     protected short decrementBlockNumber () {
-        return this.currentBlock--;
+        short block = this.blocks.getBlock();
+
+        this.blocks.retreat();
+        return block;
     }
 
     /**
      * Notifies all listeners that the transfer has started
      */
     protected void notifyStart () {
-        for (TransferListener listener : this.listeners) {
-            listener.handleStart();
-        }
+        this.notifier.notifyStart();
     }
 
     /**
@@ -249,9 +466,7 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
      * @param msg - Message that was received
      */
     protected void notifyMessage (Message msg) {
-        for (TransferListener listener : this.listeners) {
-            listener.handleMessage(msg);
-        }
+        this.notifier.notifyMessage(msg);
     }
 
     /**
@@ -260,9 +475,7 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
      * @param msg - Message being sent
      */
     protected void notifySendMessage(Message msg){
-        for (TransferListener listener : this.listeners) {
-            listener.handleSendMessage(msg);
-        }
+        this.notifier.notifySendMessage(msg);
     }
 
     /**
@@ -271,18 +484,14 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
      * @param msg - Error message that was received
      */
     protected void notifyError (ErrorMessage msg) {
-        for (TransferListener listener : this.listeners) {
-            listener.handleErrorMessage(msg);
-        }
+        this.notifier.notifyError(msg);
     }
 
     /**
      * Notifies all listeners that the transfer has completed
      */
     protected void notifyComplete () {
-        for (TransferListener listener : this.listeners) {
-            listener.handleComplete();
-        }
+        this.notifier.notifyComplete();
     }
 
     /**
@@ -292,9 +501,7 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
      * @param e - The exception that occurred
      */
     protected void notifyException (Exception e) {
-        for (TransferListener listener : this.listeners) {
-            listener.handleException(e);
-        }
+        this.notifier.notifyException(e);
     }
 
     /**
@@ -304,9 +511,7 @@ public abstract class Transfer implements Runnable, NodeSocketListener {
      * @param info - Status message of the transfer
      */
     protected void notifyInfo (String info) {
-        for (TransferListener listener : this.listeners) {
-            listener.handleInfo(info);
-        }
+        this.notifier.notifyInfo(info);
 
     }
 
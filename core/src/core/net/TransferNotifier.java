@@ -0,0 +1,116 @@
+package core.net;
+
+import java.util.ArrayList;
+
+import core.req.ErrorMessage;
+import core.req.Message;
+
+/**
+ * Transfer Notifier
+ *
+ * Notifies the listeners of a transfer of its stages, for both the
+ * blocking transfers and the event driven sessions.
+ *
+ * Example
+ * TransferNotifier notifier = new TransferNotifier();
+ * notifier.addTransferListener(listener);
+ * notifier.notifyStart();
+ */
+public class TransferNotifier {
+
+    /**
+     * Listeners to the stages of the transfer
+     */
+    private ArrayList<TransferListener> listeners;
+
+    /**
+     * Constructs a notifier without any listeners
+     */
+    public TransferNotifier () {
+        this.listeners = new ArrayList<TransferListener>();
+    }
+
+    /**
+     * Adds a listener to the transfer
+     *
+     * @param listener - Listener to add to the transfer
+     */
+    public void addTransferListener (TransferListener listener) {
+        this.listeners.add(listener);
+    }
+
+    /**
+     * Notifies all listeners that the transfer has started
+     */
+    public void notifyStart () {
+        for (TransferListener listener : this.listeners) {
+            listener.handleStart();
+        }
+    }
+
+    /**
+     * Notifies all listeners that a message has been received
+     *
+     * @param msg - Message that was received
+     */
+    public void notifyMessage (Message msg) {
+        for (TransferListener listener : this.listeners) {
+            listener.handleMessage(msg);
+        }
+    }
+
+    /**
+     * Notifies all listeners that a message is being sent
+     *
+     * @param msg - Message being sent
+     */
+    public void notifySendMessage (Message msg) {
+        for (TransferListener listener : this.listeners) {
+            listener.handleSendMessage(msg);
+        }
+    }
+
+    /**
+     * Notifies all listeners that an error occurred
+     *
+     * @param msg - Error message that was sent or received
+     */
+    public void notifyError (ErrorMessage msg) {
+        for (TransferListener listener : this.listeners) {
+            listener.handleErrorMessage(msg);
+        }
+    }
+
+    /**
+     * Notifies all listeners that the transfer has completed
+     */
+    public void notifyComplete () {
+        for (TransferListener listener : this.listeners) {
+            listener.handleComplete();
+        }
+    }
+
+    /**
+     * Notifies all listeners that an exception has occurred
+     * and the transfer has been terminated
+     *
+     * @param e - The exception that occurred
+     */
+    public void notifyException (Exception e) {
+        for (TransferListener listener : this.listeners) {
+            listener.handleException(e);
+        }
+    }
+
+    /**
+     * Notifies all listeners that an information message
+     * has been generated from the transfer
+     *
+     * @param info - Status message of the transfer
+     */
+    public void notifyInfo (String info) {
+        for (TransferListener listener : this.listeners) {
+            listener.handleInfo(info);
+        }
+    }
+}
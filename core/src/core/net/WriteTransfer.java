@@ -1,27 +1,34 @@
 package core.net;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.BindException;
 import java.net.SocketAddress;
 import java.net.SocketException;
-import java.util.Arrays;
 
 import core.req.AckMessage;
-import core.req.DataMessage;
 import core.req.ErrorMessageException;
 import core.req.InvalidMessageException;
 import core.req.Message;
 import core.req.MessageOrderException;
 import core.req.OpCode;
+import core.req.OptionAckMessage;
+import core.req.SendWindow;
+import core.req.TransferOptions;
 import core.req.WriteRequest;
+import core.util.BlockReader;
+import core.util.FileCache;
+import core.util.ReadAhead;
 
 /**
  * Write Transfer
  *
  * Runnable transfer moves a file from this location to an external endpoint.
  * A write operation chunks a file into block sized packets and writes them
- * to a socket.
+ * to a socket. Up to a window of blocks are sent before waiting for an
+ * acknowledge (RFC 7440). Unacknowledged blocks are kept in a send window
+ * so that they can be sent again starting after the last acknowledged block.
+ * Blocks of large files are slices of a mapping of the file that are
+ * sent without being copied onto the heap.
  *
  * Example
  * ( new Thread(
@@ -31,9 +38,14 @@ import core.req.WriteRequest;
 public class WriteTransfer extends Transfer {
 
     /**
-     * Stores the current message being transferred
+     * Blocks that have been sent but not yet acknowledged
      */
-    private DataMessage currentMessage;
+    private SendWindow window;
+
+    /**
+     * Cache that the file is opened from, or null to read it from disk
+     */
+    private FileCache cache;
 
     /**
      * Constructs a new transfer will write data to a socket from
@@ -47,8 +59,49 @@ public class WriteTransfer extends Transfer {
      */
     public WriteTransfer (SocketAddress address, String sourceName, String destinationName) throws SocketException {
         super(address, sourceName, destinationName);
+        this.window = new SendWindow(this.getBlocks());
+    }
+
+    /**
+     * Constructs a new transfer will write data to a socket from
+     * the file with the given name using the requested options
+     *
+     * @param address - Address of endpoint to send data
+     * @param sourceName - Source name of the file to send to server
+     * @param destinationName - Destination name of the file on the server
+     * @param options - Options to request for the transfer
+     *
+     * @throws SocketException - If the socket cannot be created
+     */
+    public WriteTransfer (SocketAddress address, String sourceName, String destinationName,
+            TransferOptions options) throws SocketException {
+        super(address, sourceName, destinationName, unicast(options));
+        this.window = new SendWindow(this.getBlocks());
+    }
+
+    /**
+     * Returns the options without the multicast option, which only applies
+     * to files that are read (RFC 2090)
+     *
+     * @param options - Options to request
+     *
+     * @return Options that can be requested for a write
+     */
+    private static TransferOptions unicast (TransferOptions options) {
+        TransferOptions requested = new TransferOptions(options);
+
+        requested.setMulticast(null);
+        return requested;
     }
 
+    /**
+     * Sets the cache that the file is opened from
+     *
+     * @param cache - Cache to open the file from, or null to read it from disk
+     */
+    public void setFileCache (FileCache cache) {
+        this.cache = cache;
+    }
 
     /**
      * Sends a request to start this transfer
@@ -58,7 +111,18 @@ public class WriteTransfer extends Transfer {
      * @return If the request was accepted
      */
     public boolean sendRequest () throws IOException {
-        return this.sendRequest(REQUEST_ATTEMPTS);
+        boolean accepted = false;
+
+        // The socket is only run by the transfer once the request is
+        // accepted, otherwise it is returned here
+        try {
+            accepted = this.sendRequest(REQUEST_ATTEMPTS);
+            return accepted;
+        } finally {
+            if (!accepted) {
+                this.getSocket().close();
+            }
+        }
     }
 
     /**
@@ -78,9 +142,11 @@ public class WriteTransfer extends Transfer {
         addr = this.getSocket().getAddress();
         try {
             request = new WriteRequest(this.destinationName);
+            request.setOptions(this.getOptions().toMap());
             this.notifySendMessage(request);
             this.getSocket().send(request);
             this.getSocket().reset();
+            this.startTiming();
 
             ack = this.getAcknowledge();
 
@@ -106,23 +172,40 @@ public class WriteTransfer extends Transfer {
      * and writing them to the socket
      */
     public void run () {
-        FileInputStream in = null;
+        BlockReader in = null;
         AckMessage ack;
+        boolean timed;
 
         // Starting the transfer
         this.notifyStart();
 
         try {
-            // Create a new stream to read the file
-            in = new FileInputStream(this.sourceName);
+            // Open the file to be read a block at a time
+            in = this.cache == null
+                    ? new BlockReader(this.sourceName, this.getBlockSize(), this.getWindowSize())
+                    : this.cache.open(this.sourceName, this.getBlockSize(), this.getWindowSize());
+            in.setReadAhead(ReadAhead.getDefault(), ReadAhead.depth(this.getWindowSize()));
 
-            // Continue to send data until all of the data has been sent
+            // Options accepted from the request must be acknowledged
+            // by the requester before any data is sent
+            if (this.getOptionAcknowledge() != null) {
+                this.sendOptionAcknowledge();
+            }
+
+            // Continue to send data until all of the data has been acknowledged
             do {
-                this.currentMessage = createMessage(in);
-                this.sendDataMessage(this.currentMessage);
+                // Only time windows that do not resend any blocks
+                timed = this.window.fill(in);
+                this.sendWindow();
+                if (timed) {
+                    this.startTiming();
+                }
+                else {
+                    this.window.resent();
+                }
                 ack = this.getAcknowledge();
                 this.notifyMessage(ack);
-            } while (this.currentMessage.getData().length == DataMessage.BLOCK_SIZE);
+            } while (!this.window.isComplete());
 
             // Close the input stream and socket
             this.closeFile(in);
@@ -142,6 +225,10 @@ public class WriteTransfer extends Transfer {
         } catch (Exception e) {
             this.closeFile(in);
             e.printStackTrace();
+            this.notifyException(e);
+        } finally {
+            // Returns the socket if the transfer ended without closing it
+            this.getSocket().close();
         }
     }
 
@@ -154,7 +241,7 @@ public class WriteTransfer extends Transfer {
      * @throws IOException - If the socket is closed
      * @throws InvalidMessageException - If the received message has an invalid encoding
      * @throws ErrorMessageException - If an error message is received
-     * @throws UnreachableHostException - If an acknowledge packet isn't received within TIMEOUT_TIME
+     * @throws UnreachableHostException - If an acknowledge packet isn't received within the socket's give up time
      */
     public AckMessage getAcknowledge () throws
         IOException,
@@ -164,32 +251,64 @@ public class WriteTransfer extends Transfer {
 
         Message msg;
         AckMessage ack;
+        SendWindow.Response response;
         msg = this.getSocket().receive();
 
         this.checkErrorMessage(msg);
+
+        // An option acknowledge takes the place of the acknowledge of a request
+        if (this.checkOptionAcknowledge(msg)) {
+            this.stopTiming();
+            this.notifyMessage(msg);
+            return new AckMessage(this.getBlockNumber());
+        }
+
         this.checkCast(msg, OpCode.ACK);
         ack = (AckMessage) msg;
 
+        // Any block in the window may be acknowledged
         try {
-           this.checkOrder(ack);
+            response = this.window.acknowledge(ack);
         } catch (MessageOrderException e) {
             this.notifyInfo(e.getMessage() + "\nIgnoring Message");
             return this.getAcknowledge();
         }
 
+        // A duplicate acknowledge leaves the window as it is, so the window
+        // is sent again straight away rather than after the timeout
+        if (response == SendWindow.Response.IGNORED) {
+            this.notifyInfo("Ignoring duplicate acknowledge of blocks sent again");
+            return this.getAcknowledge();
+        }
+        else if (response == SendWindow.Response.RESEND) {
+            this.notifyInfo("Received duplicate acknowledge, resending window");
+            this.cancelTiming();
+            return ack;
+        }
+
+        this.stopTiming();
         return ack;
     }
 
     /**
      * Handles the timeout of a node socket
      *
-     * @param remaining - Number of retry attempts remaining
+     * @param remaining - Time in ms left before giving up
      */
     public void handleTimeout (int remaining) {
         super.handleTimeout(remaining);
-    	if(this.currentMessage != null) {
+        this.window.resent();
+    	if(this.window.getOutstanding() > 0) {
+            try {
+                this.sendWindow();
+            } catch (IOException e){
+                e.printStackTrace();
+                System.exit(0);
+            }
+        }
+        else if (this.getOptionAcknowledge() != null) {
             try {
-                this.sendDataMessage(this.currentMessage);
+                this.sendMessage(this.getOptionAcknowledge());
             } catch (IOException e){
                 e.printStackTrace();
                 System.exit(0);
@@ -198,21 +317,57 @@ public class WriteTransfer extends Transfer {
     }
 
     /**
-     * Sends a data message to the endpoint
+     * Sends the option acknowledge of the accepted options and waits for
+     * the requester to acknowledge it
+     *
+     * @throws IOException - If the socket is closed
+     * @throws InvalidMessageException - If the received message has an invalid encoding
+     * @throws ErrorMessageException - If an error message is received
+     * @throws UnreachableHostException - If the option acknowledge is never acknowledged
+     */
+    private void sendOptionAcknowledge () throws
+        IOException,
+        InvalidMessageException,
+        ErrorMessageException,
+        UnreachableHostException {
+
+        OptionAckMessage oack = this.getOptionAcknowledge();
+        AckMessage ack;
+
+        this.sendMessage(oack);
+        this.startTiming();
+        ack = this.getAcknowledge();
+        this.notifyMessage(ack);
+    }
+
+    /**
+     * Sends every unacknowledged block in the window starting after
+     * the last acknowledged block
+     *
+     * @throws IOException - If the socket is closed
+     */
+    private void sendWindow () throws IOException {
+        for (int i = 0; i < this.window.getOutstanding(); i++) {
+            this.sendMessage(this.window.get(i));
+        }
+    }
+
+    /**
+     * Sends a message to the endpoint
      *
      * @param msg - Message to send to endpoint
      */
-    private void sendDataMessage(DataMessage msg) throws IOException {
+    private void sendMessage(Message msg) throws IOException {
         this.notifySendMessage(msg);
         this.getSocket().send(msg);
     }
 
     /**
-     * Closes the given file stream
+     * Closes the given file reader
      *
-     * @param in - Input stream to close
+     * @param in - Reader to close
      */
-    private void closeFile (FileInputStream in) {
+    private void closeFile (BlockReader in) {
         try {
             if (in != null) {
                 in.close();
@@ -222,32 +377,4 @@ public class WriteTransfer extends Transfer {
         }
     }
 
-    /**
-     * Creates a data message out of the next block in the given input stream
-     *
-     * @param in - The input stream it read the next block from
-     */
-    private DataMessage createMessage (FileInputStream in) throws IOException {
-        DataMessage message;
-        int read;
-        byte[] data;
-
-        // Increment the block
-        this.incrementBlockNumber();
-        data = new byte[DataMessage.BLOCK_SIZE];
-        read = in.read(data);
-
-        // If there are only 0 bytes read in then we need to send
-        // a data packet with no data. Otherwise we will truncate the
-        // data to only use the data read in
-        if (read >= 0) {
-            message = new DataMessage(this.getBlockNumber(), Arrays.copyOfRange(data, 0, read));
-        }
-        else {
-            message = new DataMessage(this.getBlockNumber(), new byte[0]);
-        }
-
-        return message;
-    }
-
 }
@@ -1,6 +1,4 @@
 package core.req;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
@@ -28,7 +26,17 @@ public class AckMessage extends Message {
      */
     public AckMessage(byte[] bytes) throws InvalidMessageException {
         super(bytes);
-        this.decode(bytes);
+    }
+
+    /**
+     * Constructs an acknowledge message by decoding the given buffer
+     *
+     * @param buffer - Buffer containing the encoded message
+     *
+     * @throws InvalidMessageException - Thrown if the buffer does not contain a valid message
+     */
+    public AckMessage(ByteBuffer buffer) throws InvalidMessageException {
+        super(buffer);
     }
 
     /**
@@ -81,38 +89,42 @@ public class AckMessage extends Message {
      * The method verifies the byte list is in a valid form for an acknowledgement packet
      * If verified, it sets the block number to the appropriate value
      *
-     * @param bytes - List of bytes to decode
+     * @param buffer - Buffer to decode
      */
     @Override
-    protected void decode(byte[] bytes) throws InvalidMessageException {
-        if (bytes.length != ACK_SIZE){
+    protected void decode(ByteBuffer buffer) throws InvalidMessageException {
+        if (buffer.remaining() != ACK_SIZE){
             throw new InvalidMessageException("Ack Message must be 4 bytes");
         }
-        super.decode(bytes);
-
-        //stores the block number in a byte buffer to be converted into a short
-        ByteBuffer wrapper = ByteBuffer.wrap(bytes, 2, 2);
+        this.decodeHeader(buffer);
+    }
 
-        this.block= wrapper.getShort();
+    /**
+     * Reads the opcode and block number in place without checking the length
+     *
+     * @param buffer - Buffer to decode
+     *
+     * @throws InvalidMessageException - If the opcode is not valid
+     */
+    protected void decodeHeader(ByteBuffer buffer) throws InvalidMessageException {
+        super.decode(buffer);
+        this.block = buffer.getShort(buffer.position() + 2);
     }
 
     /**
-     * Converts the opcode to a byte array and returns it
+     * Returns the number of bytes in the encoded message
      */
     @Override
-    public byte[] toBytes() {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        ByteBuffer b = ByteBuffer.allocate(2);
-        b.putShort(this.block);
-
-        byte[] result = b.array();
+    public int getEncodedLength() {
+        return ACK_SIZE;
+    }
 
-        try {
-            out.write(super.toBytes());
-            out.write(result);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return out.toByteArray();
+    /**
+     * Writes the opcode and block number to the buffer
+     */
+    @Override
+    public void encode(ByteBuffer buffer) {
+        super.encode(buffer);
+        buffer.putShort(this.block);
     }
 }
@@ -0,0 +1,80 @@
+package core.req;
+
+/**
+ * Block Number
+ *
+ * Arithmetic on the 16 bit block numbers of data blocks and acknowledges.
+ * Block numbers start at 1 and wrap around after 65535 to the rollover
+ * value, 0 by default or 1 if negotiated, so a transfer can send any
+ * number of blocks. Block 0 is only the acknowledge of a request when
+ * the numbers roll over to 1, so the numbers that a transfer cycles
+ * through are 65536 or 65535 long.
+ *
+ * Example
+ * short block = BlockNumber.next(current, options.getRollover());
+ * int ahead = BlockNumber.offset(block, current, options.getRollover());
+ */
+public final class BlockNumber {
+
+    /**
+     * Largest block number
+     */
+    public static final int MAX_BLOCK = 0xFFFF;
+
+    private BlockNumber () {
+    }
+
+    /**
+     * Returns the block number that follows the given block
+     *
+     * @param block - Block number
+     * @param rollover - Block number that follows the largest block number
+     *
+     * @return Next block number
+     */
+    public static short next (short block, int rollover) {
+        return block == (short) MAX_BLOCK ? (short) rollover : (short) (block + 1);
+    }
+
+    /**
+     * Returns the block number that comes before the given block
+     *
+     * @param block - Block number
+     * @param rollover - Block number that follows the largest block number
+     *
+     * @return Previous block number
+     */
+    public static short previous (short block, int rollover) {
+        return block == (short) rollover && rollover != 0 ? (short) MAX_BLOCK : (short) (block - 1);
+    }
+
+    /**
+     * Returns the number of blocks that a block number is ahead of the
+     * current block, negative if it is behind. Block numbers wrap so a
+     * block is taken to be whichever of ahead or behind is nearer
+     *
+     * @param block - Block number to compare
+     * @param current - Current block number
+     * @param rollover - Block number that follows the largest block number
+     *
+     * @return Signed distance from the current block
+     */
+    public static int offset (short block, short current, int rollover) {
+        int distance;
+
+        if (rollover == 0) {
+            return (short) (block - current);
+        }
+
+        // Block 0 only comes before block 1 at the start of a transfer,
+        // afterwards it is behind every block
+        if (block == 0) {
+            return current == 0 ? 0 : Short.MIN_VALUE;
+        }
+        if (current == 0) {
+            return block;
+        }
+        distance = Math.floorMod(Short.toUnsignedInt(block) - Short.toUnsignedInt(current), MAX_BLOCK);
+        return distance > MAX_BLOCK / 2 ? distance - MAX_BLOCK : distance;
+    }
+}
@@ -0,0 +1,185 @@
+package core.req;
+
+/**
+ * Block Sequence
+ *
+ * Current block of a transfer in both the blocking transfers and the event
+ * driven sessions. The block number wraps to the negotiated rollover after
+ * 65535 while the block count keeps growing, and received block numbers
+ * are ordered against the current block.
+ *
+ * Example
+ * BlockSequence blocks = new BlockSequence(options);
+ * short block = blocks.advance();
+ * int offset = blocks.checkOrder(ack, outstanding);
+ */
+public class BlockSequence {
+
+    /**
+     * Options of the transfer, which give the rollover and window size
+     */
+    private TransferOptions options;
+
+    /**
+     * Current block number
+     */
+    private short current;
+
+    /**
+     * Number of blocks the current block has advanced by, which does not
+     * wrap around like the block number
+     */
+    private long count;
+
+    /**
+     * Constructs a sequence at block 0
+     *
+     * @param options - Options of the transfer
+     */
+    public BlockSequence (TransferOptions options) {
+        this.options = options;
+        this.current = 0;
+        this.count   = 0;
+    }
+
+    /**
+     * Sets the options of the transfer once they are negotiated
+     *
+     * @param options - Options of the transfer
+     */
+    public void setOptions (TransferOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * Returns the options of the transfer
+     *
+     * @return Options of the transfer
+     */
+    public TransferOptions getOptions () {
+        return this.options;
+    }
+
+    /**
+     * Returns the current block number
+     *
+     * @return Current block number
+     */
+    public short getBlock () {
+        return this.current;
+    }
+
+    /**
+     * Returns the block number that follows the current block
+     *
+     * @return Next block number
+     */
+    public short getNext () {
+        return BlockNumber.next(this.current, this.options.getRollover());
+    }
+
+    /**
+     * Returns the number of blocks that the current block has advanced by
+     *
+     * @return Number of blocks transferred
+     */
+    public long getCount () {
+        return this.count;
+    }
+
+    /**
+     * Advances the current block number, wrapping to the negotiated
+     * rollover after block 65535
+     *
+     * @return The new current block number
+     */
+    public short advance () {
+        this.current = this.getNext();
+        this.count++;
+        return this.current;
+    }
+
+    /**
+     * Moves the current block number back
+     *
+     * @return The new current block number
+     */
+    public short retreat () {
+        this.current = BlockNumber.previous(this.current, this.options.getRollover());
+        this.count--;
+        return this.current;
+    }
+
+    /**
+     * Returns the number of blocks that the given block number is ahead of
+     * the current block, negative if it is behind
+     *
+     * @param block - Block number to compare to the current block
+     *
+     * @return Signed distance from the current block
+     */
+    public int offset (short block) {
+        return BlockNumber.offset(block, this.current, this.options.getRollover());
+    }
+
+    /**
+     * Follows the rollover of a sender that wraps its block numbers without
+     * having negotiated a rollover, which may differ from the one configured
+     * here. With one block in flight the block after 65535 shows where the
+     * sender wrapped to, larger windows keep the configured rollover since
+     * block 0 may just have been lost
+     *
+     * @param block - Block number of a received data block
+     */
+    public void followRollover (short block) {
+        if ((block == 0 || block == 1) && this.current == (short) BlockNumber.MAX_BLOCK &&
+                this.options.getWindowSize() == 1 && !this.options.isSpecified(TransferOptions.ROLLOVER_OPTION)) {
+            this.options.setRollover(block);
+        }
+    }
+
+    /**
+     * Checks that an acknowledge is in the range of blocks ending at the
+     * current block
+     *
+     * @param ack - Acknowledge message
+     * @param outstanding - Number of blocks before the current block that may be acknowledged
+     *
+     * @return Signed distance of the acknowledged block from the current block
+     *
+     * @throws MessageOrderException - If the acknowledge is less than expected
+     * @throws InvalidMessageException - If the acknowledge is larger than expected
+     */
+    public int checkOrder (AckMessage ack, int outstanding)
+        throws MessageOrderException, InvalidMessageException {
+
+        int offset = this.offset(ack.getBlock());
+
+        if (offset < -outstanding) {
+            throw new MessageOrderException(
+                    ack.getOpCode().name() + " Message out of order." +
+                    " Expected " + Short.toUnsignedInt(this.current) +
+                    " Received " + Short.toUnsignedInt(ack.getBlock()));
+        }
+        else if (offset > 0) {
+            throw new InvalidMessageException(ack.getOpCode().name() +
+                    " Message has a wrong block code " +
+                    " Expected " + Short.toUnsignedInt(this.current) +
+                    " Received " + Short.toUnsignedInt(ack.getBlock()));
+        }
+        return offset;
+    }
+
+    /**
+     * Returns a description of a data message that is not the next block
+     *
+     * @param data - Data message that is out of order
+     *
+     * @return Description of the expected and received blocks
+     */
+    public String orderMessage (DataMessage data) {
+        return data.getOpCode().name() + " Message out of order." +
+                " Expected " + Short.toUnsignedInt(this.getNext()) +
+                " Received " + Short.toUnsignedInt(data.getBlock());
+    }
+}
@@ -0,0 +1,160 @@
+package core.req;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Data Frames
+ *
+ * The data messages of a whole file encoded once for a block size and
+ * stored back to back in off-heap memory. The frames never change once
+ * encoded so any number of transfers can send them at the same time, each
+ * through its own views, without encoding or copying a block.
+ *
+ * Block numbers start at 1 and wrap around after 65535 the same way as the
+ * block numbers of a transfer.
+ *
+ * Example
+ * DataFrames frames = DataFrames.encode(contents, 512);
+ * ByteBuffer view = frames.view();
+ * channel.send(frames.frame(0, view), address);
+ */
+public class DataFrames {
+
+    /**
+     * Encoded data messages of the file
+     */
+    private ByteBuffer frames;
+
+    /**
+     * Number of bytes in the payload of every block but the last
+     */
+    private int blockSize;
+
+    /**
+     * Number of bytes in the file
+     */
+    private long fileSize;
+
+    /**
+     * Number of data messages, including an empty last block
+     */
+    private int count;
+
+    /**
+     * Constructs the frames of a file
+     *
+     * @param frames - Encoded data messages
+     * @param blockSize - Number of bytes in the payload of each block
+     * @param fileSize - Number of bytes in the file
+     * @param count - Number of data messages
+     */
+    private DataFrames (ByteBuffer frames, int blockSize, long fileSize, int count) {
+        this.frames    = frames;
+        this.blockSize = blockSize;
+        this.fileSize  = fileSize;
+        this.count     = count;
+    }
+
+    /**
+     * Returns the number of bytes needed to encode the data messages of a
+     * file for a block size
+     *
+     * @param fileSize - Number of bytes in the file
+     * @param blockSize - Number of bytes in the payload of each block
+     *
+     * @return Number of bytes of the frames
+     */
+    public static long encodedSize (long fileSize, int blockSize) {
+        return fileSize + (fileSize / blockSize + 1) * DataMessage.HEADER_SIZE;
+    }
+
+    /**
+     * Encodes the data messages of a file for a block size
+     *
+     * @param contents - Contents of the file, from position to limit
+     * @param blockSize - Number of bytes in the payload of each block
+     *
+     * @return The frames of the file
+     *
+     * @throws IllegalArgumentException - If the frames do not fit in one buffer
+     */
+    public static DataFrames encode (ByteBuffer contents, int blockSize) {
+        long size = encodedSize(contents.remaining(), blockSize);
+        ByteBuffer source = contents.duplicate();
+        ByteBuffer frames;
+        DataMessage msg;
+        int count;
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("File is too large to be encoded in one buffer");
+        }
+        frames = ByteBuffer.allocateDirect((int) size);
+        count = contents.remaining() / blockSize + 1;
+        msg = new DataMessage((short) 0, source);
+
+        for (int i = 0; i < count; i++) {
+            source.limit(Math.min(contents.limit(), source.position() + blockSize));
+            msg.setBlock((short) (i + 1));
+            msg.setPayload(source);
+            msg.encode(frames);
+            source.position(source.limit());
+        }
+        frames.flip();
+        return new DataFrames(frames.asReadOnlyBuffer(), blockSize, contents.remaining(), count);
+    }
+
+    /**
+     * Returns a new view of the frames for a transfer to position on the
+     * frame it sends
+     *
+     * @return View of the frames
+     */
+    public ByteBuffer view () {
+        return this.frames.duplicate();
+    }
+
+    /**
+     * Positions a view on the data message of a block
+     *
+     * @param index - Index of the block in the file, starting at 0
+     * @param view - View of these frames
+     *
+     * @return The view, from the start to the end of the data message
+     */
+    public ByteBuffer frame (int index, ByteBuffer view) {
+        int start = index * (this.blockSize + DataMessage.HEADER_SIZE);
+        long remaining = this.fileSize - (long) index * this.blockSize;
+
+        view.clear();
+        view.position(start);
+        view.limit(start + DataMessage.HEADER_SIZE + (int) Math.min(this.blockSize, remaining));
+        return view;
+    }
+
+    /**
+     * Returns the number of bytes in the payload of each block
+     *
+     * @return Block size of the frames
+     */
+    public int getBlockSize () {
+        return this.blockSize;
+    }
+
+    /**
+     * Returns the number of data messages
+     *
+     * @return Number of frames
+     */
+    public int getCount () {
+        return this.count;
+    }
+
+    /**
+     * Returns the number of bytes of the frames
+     *
+     * @return Size of the frames
+     */
+    public long getSize () {
+        return this.frames.capacity();
+    }
+}
@@ -1,8 +1,10 @@
 package core.req;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * This class is responsible for data packets that are treated as acknowledgments
@@ -17,10 +19,26 @@ public class DataMessage extends AckMessage {
     public static final int BLOCK_SIZE = 512;
 
     /**
-     * Payload for this message
+     * Number of header bytes preceding the payload of a data message
+     */
+    public static final int HEADER_SIZE = ACK_SIZE;
+
+    /**
+     * Payload for this message, null until it is needed if the
+     * message was constructed from a buffer
      */
     private byte[] data;
 
+    /**
+     * Payload for this message if it was constructed from a buffer
+     */
+    private ByteBuffer payload;
+
+    /**
+     * Encoded datagram of this message if it has been encoded in advance
+     */
+    private ByteBuffer frame;
+
     /**
      * Constructs a data message using the given encoded bytes
      *
@@ -32,6 +50,18 @@ public class DataMessage extends AckMessage {
         super(bytes);
     }
 
+    /**
+     * Constructs a data message by decoding the given buffer. The payload
+     * is copied since the buffer may be reused
+     *
+     * @param buffer - Buffer containing the encoded message
+     *
+     * @throws InvalidMessageException - If the buffer does not contain a valid Data Message
+     */
+    public DataMessage(ByteBuffer buffer) throws InvalidMessageException {
+        super(buffer);
+    }
+
     /**
      * Constructs a data message for the given block number which will
      * contain the desired payload
@@ -45,44 +75,133 @@ public class DataMessage extends AckMessage {
     }
 
     /**
-     * The method verifies the byte list is in a valid form for a data acknowledgement packet
+     * Constructs a data message for the given block number whose payload is
+     * the remaining bytes of the given buffer. The buffer is not copied so
+     * a slice of a mapped file is sent directly from the mapping
+     *
+     * @param block - Index of this data block in a transfer sequence
+     * @param payload - Buffer containing the payload of data to transfer
+     */
+    public DataMessage (short block, ByteBuffer payload) {
+        super(OpCode.DATA, block);
+        this.payload = payload;
+    }
+
+    /**
+     * The method verifies the buffer is in a valid form for a data acknowledgement packet
      * If verified, it stores the data in a private byte array
      *
-     * @param bytes - A byte list to decode
+     * @param buffer - A buffer to decode
      *
      * @throws InvalidMessageException - If the given bytes do not produce a valid data message
      */
     @Override
-    protected void decode (byte[] bytes) throws InvalidMessageException {
-        if (bytes.length >= ACK_SIZE && bytes.length <= BLOCK_SIZE+ACK_SIZE) {
-            super.decode(Arrays.copyOfRange(bytes, 0, ACK_SIZE));
-            this.data=Arrays.copyOfRange(bytes, ACK_SIZE, bytes.length);
+    protected void decode (ByteBuffer buffer) throws InvalidMessageException {
+        checkLength(buffer.remaining());
+        this.decodeHeader(buffer);
+        this.data = new byte[buffer.remaining() - ACK_SIZE];
+        buffer.get(buffer.position() + ACK_SIZE, this.data);
+    }
 
-        } else if (bytes.length < ACK_SIZE) {
+    /**
+     * Checks that a datagram of the given length can be a data message
+     *
+     * @param length - Number of bytes in the datagram
+     *
+     * @throws InvalidMessageException - If the length is not valid for a data message
+     */
+    static void checkLength (int length) throws InvalidMessageException {
+        if (length >= ACK_SIZE && length <= TransferOptions.MAX_BLOCK_SIZE+ACK_SIZE) {
+            return;
+        } else if (length < ACK_SIZE) {
             throw new InvalidMessageException("Data Message must be at least " + ACK_SIZE + " bytes");
         } else {
             throw new InvalidMessageException("Data Message must be less than " +
-                    (BLOCK_SIZE + ACK_SIZE + 1) + "bytes");
+                    (TransferOptions.MAX_BLOCK_SIZE + ACK_SIZE + 1) + "bytes");
         }
     }
 
     /**
-     * Writes the data to a byte stream and returns it
+     * Returns the number of bytes in the header and payload
      *
-     * @return An encoded version of this data message
+     * @return Length of the encoded message
      */
     @Override
-    public byte[] toBytes() {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try {
-            out.write(super.toBytes());
-            if(data!=null) {
-                out.write(data);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+    public int getEncodedLength() {
+        return HEADER_SIZE + this.getLength();
+    }
+
+    /**
+     * Writes the header and payload of this message to the buffer without
+     * copying the payload to an intermediate array
+     *
+     * @param buffer - Buffer to write the encoded message to
+     */
+    @Override
+    public void encode(ByteBuffer buffer) {
+        int length = this.getLength();
+
+        if (buffer.remaining() < HEADER_SIZE + length) {
+            throw new BufferOverflowException();
+        }
+        super.encode(buffer);
+        if (this.payload != null) {
+            buffer.put(buffer.position(), this.payload, this.payload.position(), length);
+            buffer.position(buffer.position() + length);
+        }
+        else if (this.data != null) {
+            buffer.put(this.data);
+        }
+    }
+
+    /**
+     * Replaces the payload of this message with the remaining bytes of the
+     * given buffer without copying them. Used to reuse a message for
+     * each block of a transfer
+     *
+     * @param payload - Buffer containing the payload of data to transfer
+     */
+    public void setPayload(ByteBuffer payload) {
+        this.payload = payload;
+        this.data = null;
+        this.frame = null;
+    }
+
+    /**
+     * Sets the block number of this message. An encoded datagram of the
+     * previous block is discarded
+     *
+     * @param block - Block number of this message
+     */
+    @Override
+    public void setBlock(short block) {
+        super.setBlock(block);
+        this.frame = null;
+    }
+
+    /**
+     * Sets the datagram of this message encoded in advance, from the
+     * position to the limit of the given buffer, so that it can be sent
+     * without being encoded. The frame is ignored if it is not the encoding
+     * of this message's block. Changing the block or payload discards it
+     *
+     * @param frame - Encoded datagram of this message, or null
+     */
+    public void setFrame(ByteBuffer frame) {
+        if (frame != null && (frame.remaining() != HEADER_SIZE + this.getLength() ||
+                frame.getShort(frame.position() + 2) != this.getBlock())) {
+            frame = null;
         }
-        return out.toByteArray();
+        this.frame = frame;
+    }
+
+    /**
+     * Returns the datagram of this message encoded in advance
+     *
+     * @return Encoded datagram, or null if the message must be encoded to be sent
+     */
+    public ByteBuffer getFrame() {
+        return this.frame;
     }
 
     /**
@@ -90,15 +209,98 @@ public class DataMessage extends AckMessage {
      * @return Payload of this message
      */
     public byte[] getData() {
+        if (this.data == null && this.payload != null) {
+            this.data = new byte[this.payload.remaining()];
+            this.payload.duplicate().get(this.data);
+        }
         return data;
     }
 
+    /**
+     * Writes the payload of this message to the given channel without
+     * copying it to an intermediate array
+     *
+     * @param channel - Channel to write the payload to
+     *
+     * @throws IOException - If the channel cannot be written to
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer src;
+        int position;
+
+        if (this.getLength() == 0) {
+            return;
+        }
+        src = this.payload != null ? this.payload : ByteBuffer.wrap(this.data);
+        position = src.position();
+
+        try {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        } finally {
+            src.position(position);
+        }
+    }
+
+    /**
+     * Writes the payload of this message to the given position of a file,
+     * for blocks that are received out of order
+     *
+     * @param channel - Channel of the file to write the payload to
+     * @param position - Position in the file of the first byte of the payload
+     *
+     * @throws IOException - If the file cannot be written to
+     */
+    public void writeTo(FileChannel channel, long position) throws IOException {
+        ByteBuffer src;
+        int start;
+
+        if (this.getLength() == 0) {
+            return;
+        }
+        src = this.payload != null ? this.payload : ByteBuffer.wrap(this.data);
+        start = src.position();
+
+        try {
+            while (src.hasRemaining()) {
+                channel.write(src, position + src.position() - start);
+            }
+        } finally {
+            src.position(start);
+        }
+    }
+
+    /**
+     * Returns the number of bytes in the payload of this message
+     *
+     * @return Length of the payload
+     */
+    public int getLength() {
+        if (this.payload != null) {
+            return this.payload.remaining();
+        }
+        return this.data == null ? 0 : this.data.length;
+    }
+
     /**
      * Returns if this message is the last one in a transfer sequence
      *
      * @return If block is last in sequence
      */
     public boolean isLastBlock () {
-        return this.data.length < BLOCK_SIZE;
+        return this.isLastBlock(BLOCK_SIZE);
+    }
+
+    /**
+     * Returns if this message is the last one in a transfer sequence
+     * that uses the given block size
+     *
+     * @param blockSize - Negotiated size of a data block
+     *
+     * @return If block is last in sequence
+     */
+    public boolean isLastBlock (int blockSize) {
+        return this.getLength() < blockSize;
     }
 }
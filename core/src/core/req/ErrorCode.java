@@ -1,12 +1,14 @@
 package core.req;
 
 public enum ErrorCode {
+	NOT_DEFINED				((byte) 0x00),
 	FILE_NOT_FOUND			((byte) 0x01),
     ACCESS_VIOLATION        ((byte) 0x02),
 	DISK_FULL				((byte) 0x03),
 	ILLEGAL_OP				((byte) 0x04),
 	UNKNOWN_TID			    ((byte) 0x05),
-	FILE_ALREADY_EXISTS	    ((byte) 0x06);
+	FILE_ALREADY_EXISTS	    ((byte) 0x06),
+	OPTION_NEGOTIATION	    ((byte) 0x08);
 
     private byte code;
 
@@ -20,6 +22,8 @@ public enum ErrorCode {
 
     public static ErrorCode convert (byte code) {
         switch(code){
+            case 0x00:
+                return NOT_DEFINED;
         	case 0x01:
         		return FILE_NOT_FOUND;
             case 0x02:
@@ -30,6 +34,8 @@ public enum ErrorCode {
         		return ILLEGAL_OP;
             case 0x05:
                 return UNKNOWN_TID;
+            case 0x08:
+                return OPTION_NEGOTIATION;
             default:
                 return FILE_ALREADY_EXISTS;
         }
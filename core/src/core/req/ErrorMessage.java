@@ -1,9 +1,8 @@
 package core.req;
 
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
-import java.io.IOException;
-import java.io.ByteArrayOutputStream;
+import core.util.ByteUtils;
 
 public class ErrorMessage extends Message {
 
@@ -21,6 +20,10 @@ public class ErrorMessage extends Message {
         super(bytes);
     }
 
+    public ErrorMessage (ByteBuffer buffer) throws InvalidMessageException {
+        super(buffer);
+    }
+
     public ErrorCode getErrorCode () {
         return this.errorCode;
     }
@@ -37,27 +40,29 @@ public class ErrorMessage extends Message {
         return "Error code: " + this.errorCode.getCode() + " " + this.errorCode + " message: " + this.message;
     }
 
-    public void decode (byte[] data) throws InvalidMessageException {
-        super.decode(data);
+    protected void decode (ByteBuffer buffer) throws InvalidMessageException {
+        int start = buffer.position();
+
+        super.decode(buffer);
+        if (buffer.remaining() < 5) {
+            throw new InvalidMessageException("Error Message must be at least 5 bytes");
+        }
 
-        this.errorCode = ErrorCode.convert(data[3]);
-        this.message = new String(Arrays.copyOfRange(data, 4, data.length - 1));
+        this.errorCode = ErrorCode.convert(buffer.get(start + 3));
+        this.message = ByteUtils.toString(buffer, start + 4, buffer.limit() - 1);
 
     }
 
-    public byte[] toBytes() {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+    public int getEncodedLength() {
+        return super.getEncodedLength() + 2 + this.message.getBytes().length + 1;
+    }
 
-        try {
-            out.write(super.toBytes());
-            out.write(0x00);
-            out.write(this.errorCode.getCode());
-            out.write(this.message.getBytes());
-            out.write(0x00);
-        } catch (IOException e){
-            e.printStackTrace();
-        }
-        return out.toByteArray();
+    public void encode(ByteBuffer buffer) {
+        super.encode(buffer);
+        buffer.put((byte) 0x00);
+        buffer.put(this.errorCode.getCode());
+        buffer.put(this.message.getBytes());
+        buffer.put((byte) 0x00);
     }
 
 }
@@ -1,9 +1,11 @@
 package core.req;
 
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 
 /**
- * This is the base class that holds all common functionality for any message
+ * This is the base class that holds all common functionality for any message.
+ * Messages are encoded into and decoded from buffers in place. Each level of
+ * the hierarchy writes or reads its own fields after those of its parent
  *
  */
 public abstract class Message {
@@ -21,7 +23,19 @@ public abstract class Message {
      * @throws InvalidMessageException - If the bytes do not form a valid message
      */
     public Message (byte[] bytes) throws InvalidMessageException {
-        decode(bytes);
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Constructs a message by decoding the datagram between the position
+     * and limit of the given buffer. The buffer is not modified
+     *
+     * @param buffer - Buffer containing a message
+     *
+     * @throws InvalidMessageException - If the buffer does not contain a valid message
+     */
+    public Message (ByteBuffer buffer) throws InvalidMessageException {
+        decode(buffer);
     }
 
     /**
@@ -36,12 +50,15 @@ public abstract class Message {
     /**
      * Sets the opcode
      *
-     * @param bytes - The byte list containing the opcode
+     * @param buffer - The buffer containing the opcode
      *
      * @throws InvalidMessageException - If the given bytes do not form a valid messsage
      */
-    protected void decode (byte[] bytes) throws InvalidMessageException {
-        this.opCode = OpCode.convert(bytes[1]);
+    protected void decode (ByteBuffer buffer) throws InvalidMessageException {
+        if (buffer.remaining() < 2) {
+            throw new InvalidMessageException("Invalid opCode: requires two bytes");
+        }
+        this.opCode = OpCode.convert(buffer.get(buffer.position() + 1));
     }
 
     /**
@@ -54,15 +71,36 @@ public abstract class Message {
     }
 
     /**
-     * Returns a byte array containing the opcode
+     * Returns a byte array containing the encoded message
      *
      * @return A byte representation of this message
      */
     public byte[] toBytes() {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        out.write(0);
-        out.write(getOpCode().getCode());
-        return out.toByteArray();
+        byte[] bytes = new byte[this.getEncodedLength()];
+
+        this.encode(ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Returns the number of bytes in the encoded message
+     *
+     * @return Length of the encoded message
+     */
+    public int getEncodedLength() {
+        return 2;
+    }
+
+    /**
+     * Writes the encoded message to the given buffer at its position
+     *
+     * @param buffer - Buffer to write the encoded message to
+     *
+     * @throws java.nio.BufferOverflowException - If the message does not fit in the buffer
+     */
+    public void encode(ByteBuffer buffer) {
+        buffer.put((byte) 0);
+        buffer.put(this.getOpCode().getCode());
     }
 
     /**
@@ -0,0 +1,87 @@
+package core.req;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Message Decoder
+ *
+ * Decodes the datagrams received into a buffer as flyweight messages. Every
+ * acknowledge is decoded into the same acknowledge message and every data
+ * block into the same data message, whose payload is a view of the receive
+ * buffer. Decoding the acknowledges and data blocks of a transfer therefore
+ * reads the op code, block and payload in place and allocates nothing.
+ * A flyweight message is only valid until the next datagram is decoded and
+ * must be copied to be kept. Other messages are rare and are decoded into
+ * new messages.
+ *
+ * Example
+ * MessageDecoder decoder = new MessageDecoder(buffer);
+ * channel.receive(buffer);
+ * buffer.flip();
+ * Message msg = decoder.decode();
+ */
+public class MessageDecoder {
+
+    /**
+     * Buffer that the datagrams are received into
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * View of the receive buffer that is the payload of the data message
+     */
+    private ByteBuffer payload;
+
+    /**
+     * Flyweight acknowledge message
+     */
+    private AckMessage ack;
+
+    /**
+     * Flyweight data message
+     */
+    private DataMessage data;
+
+    /**
+     * Constructs a decoder of the datagrams received into the given buffer
+     *
+     * @param buffer - Buffer that the datagrams are received into
+     */
+    public MessageDecoder (ByteBuffer buffer) {
+        this.buffer  = buffer;
+        this.payload = buffer.duplicate();
+        this.ack     = new AckMessage((short) 0);
+        this.data    = new DataMessage((short) 0, this.payload);
+    }
+
+    /**
+     * Decodes the datagram between the position and limit of the receive
+     * buffer. The buffer is not modified
+     *
+     * @return The decoded message, a flyweight for acknowledges and data blocks
+     *
+     * @throws InvalidMessageException - If the datagram is not a valid message
+     */
+    public Message decode () throws InvalidMessageException {
+        int start = this.buffer.position();
+        int length = this.buffer.remaining();
+
+        switch (MessageFactory.checkOpCode(this.buffer)) {
+            case ACK:
+                if (length != AckMessage.ACK_SIZE) {
+                    throw new InvalidMessageException("Ack Message must be 4 bytes");
+                }
+                this.ack.setBlock(this.buffer.getShort(start + 2));
+                return this.ack;
+            case DATA:
+                DataMessage.checkLength(length);
+                this.payload.limit(this.buffer.limit());
+                this.payload.position(start + DataMessage.HEADER_SIZE);
+                this.data.setBlock(this.buffer.getShort(start + 2));
+                this.data.setPayload(this.payload);
+                return this.data;
+            default:
+                return MessageFactory.createMessage(this.buffer);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package core.req;
 
+import java.nio.ByteBuffer;
+
 /**
  * Factory that creates a specific type of Message based on an opcode byte
  *
@@ -16,29 +18,61 @@ public class MessageFactory {
      * @return A decoded message object
      */
     public static Message createMessage(byte[] bytes) throws InvalidMessageException {
-    	if (bytes.length < 2) {
-    		throw new InvalidMessageException("Invalid opCode: requires two bytes");
-    	}
-
-        if (bytes[0] != 0) {
-            throw new InvalidMessageException("Invalid first byte: expected 0x00 got " + bytes[0]);
-        }
+        return createMessage(ByteBuffer.wrap(bytes));
+    }
 
-        // Takes the opcode byte and runs a switch on it, throws an exception if it is not a valid opcode
-        switch(OpCode.convert(bytes[1])) {
+    /**
+     * Creates a message by decoding the datagram between the position and
+     * limit of the given buffer. The buffer is not modified and the message
+     * does not refer to it, so the buffer can be reused
+     *
+     * @param buffer - Buffer containing an encoded message
+     *
+     * @throws InvalidMessageException - If the buffer does not contain a valid message
+     *
+     * @return A decoded message object
+     */
+    public static Message createMessage(ByteBuffer buffer) throws InvalidMessageException {
+        switch(checkOpCode(buffer)) {
             case READ:
-                return new ReadRequest(bytes);
+                return new ReadRequest(buffer);
             case WRITE:
-                return new WriteRequest(bytes);
+                return new WriteRequest(buffer);
             case DATA:
-                return new DataMessage(bytes);
+                return new DataMessage(buffer);
             case ACK:
-                return new AckMessage(bytes);
+                return new AckMessage(buffer);
             case ERROR:
-                return new ErrorMessage(bytes);
+                return new ErrorMessage(buffer);
+            case OACK:
+                return new OptionAckMessage(buffer);
             default:
-                throw new InvalidMessageException("Invalid message op code: " + bytes[1]);
+                throw new InvalidMessageException("Invalid message op code: " + buffer.get(buffer.position() + 1));
+        }
+    }
+
+    /**
+     * Checks the first two bytes of the datagram in the buffer and returns its op code
+     *
+     * @param buffer - Buffer containing an encoded message
+     *
+     * @throws InvalidMessageException - If the datagram does not start with a valid op code
+     *
+     * @return Op code of the message
+     */
+    static OpCode checkOpCode(ByteBuffer buffer) throws InvalidMessageException {
+        int start = buffer.position();
+
+    	if (buffer.remaining() < 2) {
+    		throw new InvalidMessageException("Invalid opCode: requires two bytes");
+    	}
+
+        if (buffer.get(start) != 0) {
+            throw new InvalidMessageException("Invalid first byte: expected 0x00 got " + buffer.get(start));
         }
+
+        // Takes the opcode byte and runs a switch on it, throws an exception if it is not a valid opcode
+        return OpCode.convert(buffer.get(start + 1));
     }
 
     /**
@@ -49,8 +83,21 @@ public class MessageFactory {
      * @return True if it is the last block in a data message .Otherwise False.
      */
     public static boolean isLastMessage(Message message) {
+        return isLastMessage(message, DataMessage.BLOCK_SIZE);
+    }
+
+    /**
+     * Checks to see if the message is a data message, and if so, if it is the last block
+     * of a transfer that uses the given block size
+     *
+     * @param message - Message to check
+     * @param blockSize - Negotiated size of a data block
+     *
+     * @return True if it is the last block in a data message .Otherwise False.
+     */
+    public static boolean isLastMessage(Message message, int blockSize) {
         if(OpCode.DATA.equals(message.getOpCode())) {
-            return (((DataMessage) message).isLastBlock());
+            return (((DataMessage) message).isLastBlock(blockSize));
         }
         else {
             return  OpCode.ERROR.equals(message.getOpCode());
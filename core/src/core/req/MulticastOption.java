@@ -0,0 +1,108 @@
+package core.req;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Multicast Option
+ *
+ * Value of the multicast option acknowledged by a server (RFC 2090). The
+ * value is the multicast address and port that the data blocks of the file
+ * are sent to and if the client is the master client, separated by commas
+ * such as "239.255.0.1,1758,1". The master client acknowledges the blocks
+ * and every other client listens to the group until it becomes the master.
+ * The address and port may be left empty when the server only changes the
+ * master client.
+ *
+ * Example
+ * MulticastOption option = MulticastOption.parse("239.255.0.1,1758,1");
+ * option.isMaster();
+ */
+public class MulticastOption {
+
+    /**
+     * Address and port of the multicast group, or null if it was not given
+     */
+    private InetSocketAddress group;
+
+    /**
+     * If the client is the master client
+     */
+    private boolean master;
+
+    /**
+     * Constructs the value of a multicast option
+     *
+     * @param group - Address and port of the multicast group, or null to leave it out
+     * @param master - If the client is the master client
+     */
+    public MulticastOption (InetSocketAddress group, boolean master) {
+        this.group  = group;
+        this.master = master;
+    }
+
+    /**
+     * Parses the value of an acknowledged multicast option
+     *
+     * @param value - Value of the option
+     *
+     * @return The parsed option
+     *
+     * @throws IllegalArgumentException - If the value is not a valid multicast option
+     */
+    public static MulticastOption parse (String value) {
+        String[] fields = value.split(",", -1);
+        InetAddress address;
+        int port;
+
+        if (fields.length != 3 || !(fields[2].equals("0") || fields[2].equals("1"))) {
+            throw new IllegalArgumentException("Option " + TransferOptions.MULTICAST_OPTION +
+                    " must be an address, port and master flag");
+        }
+        if (fields[0].isEmpty() && fields[1].isEmpty()) {
+            return new MulticastOption(null, fields[2].equals("1"));
+        }
+        try {
+            address = InetAddress.getByName(fields[0]);
+            port = Integer.parseInt(fields[1]);
+        } catch (UnknownHostException | NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + TransferOptions.MULTICAST_OPTION +
+                    " has an invalid address " + fields[0] + "," + fields[1]);
+        }
+        if (!address.isMulticastAddress() || port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Option " + TransferOptions.MULTICAST_OPTION +
+                    " has an invalid address " + fields[0] + "," + fields[1]);
+        }
+        return new MulticastOption(new InetSocketAddress(address, port), fields[2].equals("1"));
+    }
+
+    /**
+     * Returns the address and port of the multicast group
+     *
+     * @return Multicast group, or null if it was left out
+     */
+    public InetSocketAddress getGroup () {
+        return this.group;
+    }
+
+    /**
+     * Returns if the client is the master client
+     *
+     * @return If the client acknowledges the blocks
+     */
+    public boolean isMaster () {
+        return this.master;
+    }
+
+    /**
+     * Returns the value of the option as it is sent in an option acknowledge
+     */
+    @Override
+    public String toString () {
+        String group = this.group == null ? "," :
+                this.group.getAddress().getHostAddress() + "," + this.group.getPort();
+
+        return group + "," + (this.master ? "1" : "0");
+    }
+}
@@ -9,7 +9,14 @@ public enum OpCode {
     WRITE   ((byte) 0x02),
     DATA    ((byte) 0x03),
     ACK     ((byte) 0x04),
-    ERROR   ((byte) 0x05);
+    ERROR   ((byte) 0x05),
+    OACK    ((byte) 0x06);
+
+    /**
+     * Op codes indexed by their byte less one, cached since values()
+     * copies the array on every call
+     */
+    private static final OpCode[] CODES = values();
 
     private byte code;
 
@@ -41,9 +48,9 @@ public enum OpCode {
      * @throws InvalidMessageException - If the given byte is not a valid op code
      */
     public static OpCode convert(byte code) throws InvalidMessageException {
-    	if (code < 1 || code > OpCode.values().length){
+    	if (code < 1 || code > CODES.length){
     		throw new InvalidMessageException("Invalid opcode");
     	}
-    	return OpCode.values()[code - 1];
+    	return CODES[code - 1];
     }
 }
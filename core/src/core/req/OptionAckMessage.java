@@ -0,0 +1,100 @@
+package core.req;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class is responsible for option acknowledge packets (RFC 2347).
+ * An option acknowledge is sent in place of the first response to a request
+ * and contains the options that the responder has accepted
+ *
+ */
+public class OptionAckMessage extends Message {
+
+    /**
+     * Options accepted by the responder
+     */
+    private Map<String, String> options;
+
+    /**
+     * Constructs an option acknowledge by decoding the given byte data
+     *
+     * @param bytes - Encoded message to decode
+     *
+     * @throws InvalidMessageException - If the bytes do not form a valid option acknowledge
+     */
+    public OptionAckMessage (byte[] bytes) throws InvalidMessageException {
+        super(bytes);
+    }
+
+    /**
+     * Constructs an option acknowledge by decoding the given buffer
+     *
+     * @param buffer - Buffer containing the encoded message
+     *
+     * @throws InvalidMessageException - If the buffer does not contain a valid option acknowledge
+     */
+    public OptionAckMessage (ByteBuffer buffer) throws InvalidMessageException {
+        super(buffer);
+    }
+
+    /**
+     * Constructs an option acknowledge for the given accepted options
+     *
+     * @param options - Map of accepted option names to values
+     */
+    public OptionAckMessage (Map<String, String> options) {
+        super(OpCode.OACK);
+        this.options = new LinkedHashMap<String, String>(options);
+    }
+
+    /**
+     * Returns the accepted options
+     *
+     * @return Map of option names to values
+     */
+    public Map<String, String> getOptions () {
+        return this.options;
+    }
+
+    /**
+     * Decodes the option name and value pairs following the opcode
+     *
+     * @param buffer - Buffer to decode
+     */
+    @Override
+    protected void decode (ByteBuffer buffer) throws InvalidMessageException {
+        super.decode(buffer);
+        this.options = TransferOptions.decode(buffer, buffer.position() + 2);
+    }
+
+    /**
+     * Returns the number of bytes in the opcode and options
+     *
+     * @return Length of the encoded option acknowledge
+     */
+    @Override
+    public int getEncodedLength () {
+        return super.getEncodedLength() + TransferOptions.encodedLength(this.options);
+    }
+
+    /**
+     * Writes the opcode and each option to the buffer
+     *
+     * @param buffer - Buffer to write the encoded option acknowledge to
+     */
+    @Override
+    public void encode (ByteBuffer buffer) {
+        super.encode(buffer);
+        TransferOptions.encode(this.options, buffer);
+    }
+
+    /**
+     * Returns a string representation of the accepted options
+     */
+    @Override
+    public String toString () {
+        return super.toString() + " options: " + this.options;
+    }
+}
@@ -0,0 +1,15 @@
+package core.req;
+
+/**
+ * A custom exception that is thrown when the options acknowledged by a peer
+ * cannot be accepted
+ *
+ */
+
+@SuppressWarnings("serial")
+public class OptionNegotiationException extends InvalidMessageException {
+
+    public OptionNegotiationException(String message) {
+        super(message);
+    }
+}
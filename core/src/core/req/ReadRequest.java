@@ -5,6 +5,8 @@ import core.req.OpCode;
 import core.req.Request;
 import core.req.InvalidMessageException;
 
+import java.nio.ByteBuffer;
+
 /**
  * Defines the functionality for a read request
  *
@@ -27,4 +29,13 @@ public class ReadRequest extends Request {
     public ReadRequest (byte[] data) throws InvalidMessageException {
         super(data);
     }
+
+    /**
+     * Specifies a file to read decoded from a buffer
+     * @param buffer  the encoded request
+     * @throws InvalidMessageException - If the given buffer does not contain a valid request
+     */
+    public ReadRequest (ByteBuffer buffer) throws InvalidMessageException {
+        super(buffer);
+    }
 }
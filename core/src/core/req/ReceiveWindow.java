@@ -0,0 +1,171 @@
+package core.req;
+
+/**
+ * Receive Window
+ *
+ * Blocks received since the last acknowledge, for both the blocking
+ * transfers and the event driven sessions. Blocks are acknowledged at the
+ * end of each negotiated window (RFC 7440). The window decides what each
+ * received block is and whether it is acknowledged, and leaves writing the
+ * blocks and sending the acknowledges to the transfer that drives it.
+ *
+ * Example
+ * ReceiveWindow window = new ReceiveWindow(blocks);
+ * ReceiveWindow.Receipt receipt = window.receive(data);
+ * window.acknowledged(blocks.getBlock());
+ */
+public class ReceiveWindow {
+
+    /**
+     * What a received block is
+     */
+    public enum Receipt {
+        /**
+         * The next block, which the current block has advanced to
+         */
+        NEXT,
+
+        /**
+         * A block that was already received, the blocks received so far
+         * are acknowledged again
+         */
+        REPEATED,
+
+        /**
+         * A block that was already received and is not acknowledged again
+         */
+        DUPLICATE,
+
+        /**
+         * The first block received after a gap, the last block received
+         * is acknowledged so the sender continues after it
+         */
+        GAP,
+
+        /**
+         * A block after a gap that has already been acknowledged
+         */
+        AFTER_GAP
+    }
+
+    /**
+     * Current block of the transfer, which is the last block received
+     */
+    private BlockSequence blocks;
+
+    /**
+     * Block number of the last acknowledge sent
+     */
+    private short acknowledged;
+
+    /**
+     * Number of blocks received since the last acknowledge was sent
+     */
+    private int unacknowledged;
+
+    /**
+     * If the gap in the received blocks has already been acknowledged
+     */
+    private boolean gapAcknowledged;
+
+    /**
+     * If the acknowledge of the last window is held back
+     */
+    private boolean held;
+
+    /**
+     * Constructs a window that starts after the current block of the
+     * given sequence
+     *
+     * @param blocks - Current block of the transfer
+     */
+    public ReceiveWindow (BlockSequence blocks) {
+        this.blocks = blocks;
+    }
+
+    /**
+     * Returns the block number of the last acknowledge sent
+     *
+     * @return Last acknowledged block number
+     */
+    public short getAcknowledged () {
+        return this.acknowledged;
+    }
+
+    /**
+     * Orders a received data block against the last block received and
+     * advances the current block if it is the next block
+     *
+     * @param data - Received data message
+     *
+     * @return What the block is
+     *
+     * @throws InvalidMessageException - If the block is larger than the block size or beyond the window
+     */
+    public Receipt receive (DataMessage data) throws InvalidMessageException {
+        TransferOptions options = this.blocks.getOptions();
+        int offset;
+
+        if (data.getLength() > options.getBlockSize()) {
+            throw new InvalidMessageException("Data block is larger than the block size of "
+                    + options.getBlockSize() + " bytes");
+        }
+
+        this.blocks.followRollover(data.getBlock());
+        offset = this.blocks.offset(data.getBlock());
+        if (offset < 1) {
+            // Either the last acknowledge was lost or the sender timed out
+            // before the window was complete and is sending it again. The
+            // blocks received so far are acknowledged so the sender can
+            // continue after them, unless the acknowledge is held back
+            return !this.held && (data.getBlock() == this.acknowledged || this.blocks.getBlock() != this.acknowledged)
+                    ? Receipt.REPEATED : Receipt.DUPLICATE;
+        }
+        else if (offset > options.getWindowSize()) {
+            throw new InvalidMessageException(data.getOpCode().name() +
+                    " Message has a wrong block code " + this.blocks.orderMessage(data));
+        }
+        else if (offset > 1) {
+            // The last block received is acknowledged once per gap
+            if (this.gapAcknowledged) {
+                return Receipt.AFTER_GAP;
+            }
+            this.gapAcknowledged = true;
+            return Receipt.GAP;
+        }
+
+        this.blocks.advance();
+        this.gapAcknowledged = false;
+        this.unacknowledged++;
+        return Receipt.NEXT;
+    }
+
+    /**
+     * Returns if the blocks received since the last acknowledge fill the
+     * window, so that they are acknowledged
+     *
+     * @return If the end of the window has been received
+     */
+    public boolean isWindowEnd () {
+        return this.unacknowledged == this.blocks.getOptions().getWindowSize();
+    }
+
+    /**
+     * Holds back the acknowledge of the window, so that blocks that are
+     * sent again are not acknowledged until the held acknowledge is sent
+     */
+    public void hold () {
+        this.held = true;
+    }
+
+    /**
+     * Records that an acknowledge was sent for the given block
+     *
+     * @param block - Block number that was acknowledged
+     */
+    public void acknowledged (short block) {
+        this.acknowledged = block;
+        this.unacknowledged = 0;
+        this.held = false;
+    }
+}
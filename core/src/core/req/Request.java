@@ -7,9 +7,9 @@ import core.req.RequestMode;
 
 import core.util.ByteUtils;
 
-import java.util.Arrays;
-
-import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Defines functionality for a request message
@@ -27,6 +27,11 @@ public abstract class Request extends Message {
      */
     private String filename;
 
+    /**
+     * Options appended to the request (RFC 2347)
+     */
+    private Map<String, String> options;
+
     /**
      * Sets the request information
      *
@@ -38,6 +43,7 @@ public abstract class Request extends Message {
         super(code);
         this.mode = RequestMode.BINARY;
         this.filename = filename;
+        this.options = new LinkedHashMap<String, String>();
     }
 
     /**
@@ -51,6 +57,17 @@ public abstract class Request extends Message {
         super(data);
     }
 
+    /**
+     * Sets the request information decoded from a buffer
+     *
+     * @param buffer - Buffer containing the encoded request
+     *
+     * @throws InvalidMessageException - If the buffer does not contain a valid request
+     */
+    public Request (ByteBuffer buffer) throws InvalidMessageException {
+        super(buffer);
+    }
+
     /**
      * Sets the transfer mode
      *
@@ -88,25 +105,47 @@ public abstract class Request extends Message {
     }
 
     /**
-     * The method verifies the byte list is in a valid form for a request packet
+     * Sets the options appended to this request
+     *
+     * @param options - Map of option names to values
+     */
+    public void setOptions (Map<String, String> options) {
+        this.options = new LinkedHashMap<String, String>(options);
+    }
+
+    /**
+     * Gets the options appended to this request
+     *
+     * @return Map of option names to values
+     */
+    public Map<String, String> getOptions () {
+        return this.options;
+    }
+
+    /**
+     * The method verifies the buffer is in a valid form for a request packet
      * If verified, it decodes the filename and transfer mode into Strings that are locally stored
      *
-     * @param data - A byte list to decode
+     * @param buffer - A buffer to decode
      */
     @Override
-    protected void decode (byte[] data) throws InvalidMessageException {
-        int fileIndex, modeIndex;
+    protected void decode (ByteBuffer buffer) throws InvalidMessageException {
+        int start, fileIndex, modeIndex;
 
-        super.decode(data);
+        super.decode(buffer);
 
-        fileIndex = ByteUtils.indexOf(data, 2, (byte) 0x00);
-        this.filename = new String(Arrays.copyOfRange(data, 2, fileIndex));
+        start = buffer.position() + 2;
+        fileIndex = ByteUtils.indexOf(buffer, start, (byte) 0x00);
+        if(fileIndex < 0) {
+        	throw new InvalidMessageException("Missing 0 Byte after file name.");
+        }
+        this.filename = ByteUtils.toString(buffer, start, fileIndex);
 
-        modeIndex = ByteUtils.indexOf(data, fileIndex + 1, (byte) 0x00);
+        modeIndex = ByteUtils.indexOf(buffer, fileIndex + 1, (byte) 0x00);
         if(modeIndex < 0) {
         	throw new InvalidMessageException("Missing End 0 Byte.");
         }
-    	String tempMode = new String(Arrays.copyOfRange(data, fileIndex+1, modeIndex));
+    	String tempMode = ByteUtils.toString(buffer, fileIndex+1, modeIndex);
 
         try{
         	this.mode = RequestMode.convert(tempMode);
@@ -114,29 +153,34 @@ public abstract class Request extends Message {
         	throw new InvalidMessageException("Invalid mode " + tempMode);
         }
 
+        this.options = TransferOptions.decode(buffer, modeIndex + 1);
+
     }
 
     /**
-     * Writes the data to a byte stream and returns it as a byte array
+     * Returns the number of bytes in the encoded request
      *
-     * @return An encoded version of this request
-     */
-    public byte[] toBytes () {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-
-        try {
-            buffer.write(super.toBytes());
-            buffer.write(this.filename.getBytes());
-            buffer.write(0x00);
-            buffer.write(this.mode.getBytes());
-            buffer.write(0x00);
-        } catch (Exception e){
-            // This only happens if we run out of memory
-            e.printStackTrace();
-            System.exit(1);
-        }
+     * @return Length of the encoded request
+     */
+    @Override
+    public int getEncodedLength () {
+        return super.getEncodedLength() + this.filename.getBytes().length + 1 +
+            this.mode.getBytes().length + 1 + TransferOptions.encodedLength(this.options);
+    }
 
-        return buffer.toByteArray();
+    /**
+     * Writes the file name, mode and options of the request to the buffer
+     *
+     * @param buffer - Buffer to write the encoded request to
+     */
+    @Override
+    public void encode (ByteBuffer buffer) {
+        super.encode(buffer);
+        buffer.put(this.filename.getBytes());
+        buffer.put((byte) 0x00);
+        buffer.put(this.mode.getBytes());
+        buffer.put((byte) 0x00);
+        TransferOptions.encode(this.options, buffer);
     }
 
     /**
@@ -145,7 +189,8 @@ public abstract class Request extends Message {
     public String toString() {
         return super.toString() +
             "\nMode: " + this.mode +
-            "\nFile: " + this.filename;
+            "\nFile: " + this.filename +
+            (this.options.isEmpty() ? "" : "\nOptions: " + this.options);
     }
 
 }
@@ -0,0 +1,194 @@
+package core.req;
+
+import java.io.IOException;
+
+import core.util.BlockReader;
+
+/**
+ * Send Window
+ *
+ * Blocks of a file that have been sent but not yet acknowledged, for both
+ * the blocking transfers and the event driven sessions. Up to a window of
+ * blocks are read ahead of the last acknowledge (RFC 7440) and kept in a
+ * ring so that they can be sent again starting after the last acknowledged
+ * block. The window decides how each acknowledge is answered and leaves
+ * sending the blocks to the transfer that drives it.
+ *
+ * Example
+ * SendWindow window = new SendWindow(blocks);
+ * boolean timed = window.fill(in);
+ * SendWindow.Response response = window.acknowledge(ack);
+ */
+public class SendWindow {
+
+    /**
+     * How an acknowledge is answered
+     */
+    public enum Response {
+        /**
+         * The acknowledged blocks were removed from the window
+         */
+        ACCEPTED,
+
+        /**
+         * The receiver is missing the first block of the window, which
+         * is sent again straight away rather than after the timeout
+         */
+        RESEND,
+
+        /**
+         * The acknowledge repeats one that may answer blocks that were
+         * already sent again and is ignored
+         */
+        IGNORED
+    }
+
+    /**
+     * Current block of the transfer, which is the last block in the window
+     */
+    private BlockSequence blocks;
+
+    /**
+     * Ring of data messages that have been read from the file but not yet
+     * acknowledged. The oldest unacknowledged block is at the head. The
+     * messages are reused for the blocks that are read into their slot
+     */
+    private DataMessage[] ring;
+
+    /**
+     * Index of the oldest unacknowledged block in the ring
+     */
+    private int head;
+
+    /**
+     * Number of blocks in the window waiting to be acknowledged
+     */
+    private int outstanding;
+
+    /**
+     * If the last block of the file has been read into the window
+     */
+    private boolean lastBlockRead;
+
+    /**
+     * Block count of the last block sent when blocks were last sent again.
+     * An acknowledge repeated up to this block may answer the blocks that
+     * were sent again rather than show that a block was lost
+     */
+    private long resent;
+
+    /**
+     * Constructs an empty window that ends at the current block of the
+     * given sequence. The ring is sized to the negotiated window size when
+     * it is first filled
+     *
+     * @param blocks - Current block of the transfer
+     */
+    public SendWindow (BlockSequence blocks) {
+        this.blocks = blocks;
+        this.resent = -1;
+    }
+
+    /**
+     * Returns the number of blocks in the window waiting to be acknowledged
+     *
+     * @return Number of unacknowledged blocks
+     */
+    public int getOutstanding () {
+        return this.outstanding;
+    }
+
+    /**
+     * Returns an unacknowledged block of the window
+     *
+     * @param index - Position of the block after the last acknowledged block
+     *
+     * @return Data message of the block
+     */
+    public DataMessage get (int index) {
+        return this.ring[(this.head + index) % this.ring.length];
+    }
+
+    /**
+     * Returns if every block of the file has been sent and acknowledged
+     *
+     * @return If the transfer is complete
+     */
+    public boolean isComplete () {
+        return this.outstanding == 0 && this.lastBlockRead;
+    }
+
+    /**
+     * Reads blocks from the file into the window until the window is full
+     * or the last block has been read. Only windows that do not send any
+     * block again are timed
+     *
+     * @param in - The reader to read blocks from
+     *
+     * @return If the window was empty, so that its round trip can be timed
+     *
+     * @throws IOException - If the file cannot be read
+     */
+    public boolean fill (BlockReader in) throws IOException {
+        boolean timed = this.outstanding == 0;
+        DataMessage msg;
+        int slot;
+
+        if (this.ring == null) {
+            this.ring = new DataMessage[this.blocks.getOptions().getWindowSize()];
+        }
+        while (this.outstanding < this.ring.length && !this.lastBlockRead) {
+            slot = (this.head + this.outstanding) % this.ring.length;
+            msg = this.ring[slot];
+            if (msg == null) {
+                msg = new DataMessage(this.blocks.advance(), in.next(slot));
+                this.ring[slot] = msg;
+            }
+            else {
+                msg.setBlock(this.blocks.advance());
+                msg.setPayload(in.next(slot));
+            }
+            msg.setFrame(in.frame(slot));
+            this.outstanding++;
+            this.lastBlockRead = msg.isLastBlock(this.blocks.getOptions().getBlockSize());
+        }
+        return timed;
+    }
+
+    /**
+     * Records that every block in the window has been sent again, either
+     * after a timeout or along with the blocks read into the window
+     */
+    public void resent () {
+        this.resent = this.blocks.getCount();
+    }
+
+    /**
+     * Answers an acknowledge of any block in the window. Every block up to
+     * and including the acknowledged block is removed from the window. The
+     * acknowledge of the block before the window is sent again when the
+     * receiver is missing the first block of the window, unless it may
+     * answer blocks that were already sent again
+     *
+     * @param ack - Acknowledge message
+     *
+     * @return How the acknowledge is answered
+     *
+     * @throws MessageOrderException - If the acknowledge is before the window
+     * @throws InvalidMessageException - If the acknowledge is after the window
+     */
+    public Response acknowledge (AckMessage ack) throws MessageOrderException, InvalidMessageException {
+        int offset = this.blocks.checkOrder(ack, this.outstanding);
+        int acknowledged = this.outstanding + offset;
+
+        if (this.outstanding > 0 && acknowledged == 0) {
+            return this.blocks.getCount() - this.outstanding <= this.resent
+                    ? Response.IGNORED : Response.RESEND;
+        }
+        if (acknowledged > 0) {
+            this.head = (this.head + acknowledged) % this.ring.length;
+            this.outstanding -= acknowledged;
+        }
+        return Response.ACCEPTED;
+    }
+}
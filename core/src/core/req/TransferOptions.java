@@ -0,0 +1,650 @@
+package core.req;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import core.util.ByteUtils;
+
+/**
+ * Transfer Options
+ *
+ * The set of options that a transfer is run with. Options are appended to
+ * a request by the requester and acknowledged with an option acknowledge
+ * by the responder (RFC 2347). Only options that are explicitly set are
+ * sent in a request, any option that is not set uses the default value.
+ *
+ * Supported options
+ *  - blksize (RFC 2348) Number of payload bytes in each data block
+ *  - windowsize (RFC 7440) Number of data blocks sent before an acknowledge
+ *  - timeout (RFC 2349) Seconds to wait before the first retransmission
+ *  - multicast (RFC 2090) Data blocks are sent to a multicast group
+ *  - rollover Block number that follows block 65535, 0 or 1
+ */
+public class TransferOptions {
+
+    /**
+     * Name of the block size option
+     */
+    public static final String BLOCK_SIZE_OPTION = "blksize";
+
+    /**
+     * Name of the window size option
+     */
+    public static final String WINDOW_SIZE_OPTION = "windowsize";
+
+    /**
+     * Name of the timeout option
+     */
+    public static final String TIMEOUT_OPTION = "timeout";
+
+    /**
+     * Name of the multicast option
+     */
+    public static final String MULTICAST_OPTION = "multicast";
+
+    /**
+     * Name of the rollover option
+     */
+    public static final String ROLLOVER_OPTION = "rollover";
+
+    /**
+     * Smallest block size that can be negotiated
+     */
+    public static final int MIN_BLOCK_SIZE = 8;
+
+    /**
+     * Largest block size that can be negotiated
+     */
+    public static final int MAX_BLOCK_SIZE = 65464;
+
+    /**
+     * Number of blocks sent before an acknowledge when no window is negotiated
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 1;
+
+    /**
+     * Largest window size that can be negotiated
+     */
+    public static final int MAX_WINDOW_SIZE = 65535;
+
+    /**
+     * Timeout when no timeout is negotiated, the socket default is used
+     */
+    public static final int DEFAULT_TIMEOUT = 0;
+
+    /**
+     * Smallest timeout in seconds that can be negotiated
+     */
+    public static final int MIN_TIMEOUT = 1;
+
+    /**
+     * Largest timeout in seconds that can be negotiated
+     */
+    public static final int MAX_TIMEOUT = 255;
+
+    /**
+     * Block number that follows block 65535 when no rollover is negotiated
+     */
+    public static final int DEFAULT_ROLLOVER = 0;
+
+    /**
+     * Largest rollover block number that can be negotiated
+     */
+    public static final int MAX_ROLLOVER = 1;
+
+    /**
+     * Number of payload bytes in each data block
+     */
+    private int blockSize;
+
+    /**
+     * Number of data blocks sent before waiting for an acknowledge
+     */
+    private int windowSize;
+
+    /**
+     * Seconds to wait before the first retransmission
+     */
+    private int timeout;
+
+    /**
+     * Value of the multicast option, empty when it is requested and the
+     * group and master flag when it is acknowledged, or null if the data
+     * blocks are not multicast
+     */
+    private String multicast;
+
+    /**
+     * Block number that follows block 65535
+     */
+    private int rollover;
+
+    /**
+     * Names of the options that have been explicitly set
+     */
+    private Set<String> specified;
+
+    /**
+     * Constructs a set of options where every option has its default value
+     */
+    public TransferOptions () {
+        this.blockSize = DataMessage.BLOCK_SIZE;
+        this.windowSize = DEFAULT_WINDOW_SIZE;
+        this.timeout = DEFAULT_TIMEOUT;
+        this.rollover = DEFAULT_ROLLOVER;
+        this.specified = new LinkedHashSet<String>();
+    }
+
+    /**
+     * Constructs a copy of the given options
+     *
+     * @param options - Options to copy
+     */
+    public TransferOptions (TransferOptions options) {
+        this.blockSize = options.blockSize;
+        this.windowSize = options.windowSize;
+        this.timeout = options.timeout;
+        this.multicast = options.multicast;
+        this.rollover = options.rollover;
+        this.specified = new LinkedHashSet<String>(options.specified);
+    }
+
+    /**
+     * Returns the number of payload bytes in each data block
+     *
+     * @return Size of a data block
+     */
+    public int getBlockSize () {
+        return this.blockSize;
+    }
+
+    /**
+     * Sets the number of payload bytes in each data block
+     *
+     * @param blockSize - Size of a data block
+     *
+     * @throws IllegalArgumentException - If the size is outside of the negotiable range
+     */
+    public void setBlockSize (int blockSize) {
+        checkRange(BLOCK_SIZE_OPTION, blockSize, MIN_BLOCK_SIZE, MAX_BLOCK_SIZE);
+        this.blockSize = blockSize;
+        this.specified.add(BLOCK_SIZE_OPTION);
+    }
+
+    /**
+     * Returns the number of data blocks that are sent before waiting
+     * for an acknowledge
+     *
+     * @return Size of the window in blocks
+     */
+    public int getWindowSize () {
+        return this.windowSize;
+    }
+
+    /**
+     * Sets the number of data blocks that are sent before waiting
+     * for an acknowledge
+     *
+     * @param windowSize - Size of the window in blocks
+     *
+     * @throws IllegalArgumentException - If the size is outside of the negotiable range
+     */
+    public void setWindowSize (int windowSize) {
+        checkRange(WINDOW_SIZE_OPTION, windowSize, DEFAULT_WINDOW_SIZE, MAX_WINDOW_SIZE);
+        this.windowSize = windowSize;
+        this.specified.add(WINDOW_SIZE_OPTION);
+    }
+
+    /**
+     * Returns the number of seconds to wait before the first retransmission
+     *
+     * @return Timeout in seconds or DEFAULT_TIMEOUT if no timeout is set
+     */
+    public int getTimeout () {
+        return this.timeout;
+    }
+
+    /**
+     * Sets the number of seconds to wait before the first retransmission
+     *
+     * @param timeout - Timeout in seconds
+     *
+     * @throws IllegalArgumentException - If the timeout is outside of the negotiable range
+     */
+    public void setTimeout (int timeout) {
+        checkRange(TIMEOUT_OPTION, timeout, MIN_TIMEOUT, MAX_TIMEOUT);
+        this.timeout = timeout;
+        this.specified.add(TIMEOUT_OPTION);
+    }
+
+    /**
+     * Returns the value of the multicast option
+     *
+     * @return Empty if multicast is requested, the acknowledged group and
+     *         master flag, or null if the data blocks are not multicast
+     */
+    public String getMulticast () {
+        return this.multicast;
+    }
+
+    /**
+     * Sets the value of the multicast option. A requester sends an empty
+     * value and the responder acknowledges the group and master flag
+     *
+     * @param multicast - Value of the option, or null to not multicast
+     */
+    public void setMulticast (String multicast) {
+        this.multicast = multicast;
+        if (multicast == null) {
+            this.specified.remove(MULTICAST_OPTION);
+        } else {
+            this.specified.add(MULTICAST_OPTION);
+        }
+    }
+
+    /**
+     * Returns if the data blocks are sent to a multicast group
+     *
+     * @return If the multicast option is set
+     */
+    public boolean isMulticast () {
+        return this.multicast != null;
+    }
+
+    /**
+     * Returns the block number that follows block 65535
+     *
+     * @return Rollover block number, 0 or 1
+     */
+    public int getRollover () {
+        return this.rollover;
+    }
+
+    /**
+     * Sets the block number that follows block 65535
+     *
+     * @param rollover - Rollover block number, 0 or 1
+     *
+     * @throws IllegalArgumentException - If the block number is not 0 or 1
+     */
+    public void setRollover (int rollover) {
+        checkRange(ROLLOVER_OPTION, rollover, DEFAULT_ROLLOVER, MAX_ROLLOVER);
+        this.rollover = rollover;
+        this.specified.add(ROLLOVER_OPTION);
+    }
+
+    /**
+     * Sets an option by name from its string representation
+     *
+     * @param name - Name of the option
+     * @param value - Value of the option
+     *
+     * @throws IllegalArgumentException - If the option is unknown or the value is invalid
+     */
+    public void set (String name, String value) {
+        switch (name.toLowerCase()) {
+            case BLOCK_SIZE_OPTION:
+                this.setBlockSize(parse(name, value));
+                break;
+            case WINDOW_SIZE_OPTION:
+                this.setWindowSize(parse(name, value));
+                break;
+            case TIMEOUT_OPTION:
+                this.setTimeout(parse(name, value));
+                break;
+            case MULTICAST_OPTION:
+                this.setMulticast(parseSwitch(value) ? "" : null);
+                break;
+            case ROLLOVER_OPTION:
+                this.setRollover(parse(name, value));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + name);
+        }
+    }
+
+    /**
+     * Returns if the given name is a supported option
+     *
+     * @param name - Name of the option
+     *
+     * @return If the option is supported
+     */
+    public static boolean isOption (String name) {
+        switch (name.toLowerCase()) {
+            case BLOCK_SIZE_OPTION:
+            case WINDOW_SIZE_OPTION:
+            case TIMEOUT_OPTION:
+            case MULTICAST_OPTION:
+            case ROLLOVER_OPTION:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns if no options have been explicitly set
+     *
+     * @return If all options have their default values
+     */
+    public boolean isEmpty () {
+        return this.specified.isEmpty();
+    }
+
+    /**
+     * Returns if an option has been explicitly set, by a request or by the
+     * option acknowledge of a peer
+     *
+     * @param name - Name of the option
+     *
+     * @return If the option was set
+     */
+    public boolean isSpecified (String name) {
+        return this.specified.contains(name);
+    }
+
+    /**
+     * Returns the explicitly set options as a map of option names to values
+     * in the order they were set
+     *
+     * @return Map of option names to string values
+     */
+    public Map<String, String> toMap () {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+
+        for (String name : this.specified) {
+            switch (name) {
+                case BLOCK_SIZE_OPTION:
+                    options.put(name, Integer.toString(this.blockSize));
+                    break;
+                case WINDOW_SIZE_OPTION:
+                    options.put(name, Integer.toString(this.windowSize));
+                    break;
+                case TIMEOUT_OPTION:
+                    options.put(name, Integer.toString(this.timeout));
+                    break;
+                case MULTICAST_OPTION:
+                    options.put(name, this.multicast);
+                    break;
+                case ROLLOVER_OPTION:
+                    options.put(name, Integer.toString(this.rollover));
+                    break;
+                default:
+                    break;
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Negotiates the options requested by a peer using these options as the
+     * upper limits of what will be accepted. A timeout can only be accepted
+     * as requested (RFC 2349). Multicast is accepted if these options allow
+     * it, the responder fills in the group of each requester (RFC 2090). Unknown options and options with invalid values
+     * are ignored as described by RFC 2347. Either rollover is accepted as
+     * requested, a requester that does not request one uses the rollover of
+     * these options without it being acknowledged.
+     *
+     * @param requested - Options sent in a request
+     *
+     * @return The accepted options that should be acknowledged
+     */
+    public TransferOptions negotiate (Map<String, String> requested) {
+        TransferOptions accepted = new TransferOptions();
+        int value;
+
+        for (Map.Entry<String, String> option : requested.entrySet()) {
+            try {
+                switch (option.getKey()) {
+                    case BLOCK_SIZE_OPTION:
+                        value = parse(option.getKey(), option.getValue());
+                        accepted.setBlockSize(Math.min(value, this.blockSize));
+                        break;
+                    case WINDOW_SIZE_OPTION:
+                        value = parse(option.getKey(), option.getValue());
+                        accepted.setWindowSize(Math.min(value, this.windowSize));
+                        break;
+                    case TIMEOUT_OPTION:
+                        accepted.setTimeout(parse(option.getKey(), option.getValue()));
+                        break;
+                    case MULTICAST_OPTION:
+                        if (this.multicast != null) {
+                            accepted.setMulticast("");
+                        }
+                        break;
+                    case ROLLOVER_OPTION:
+                        accepted.setRollover(parse(option.getKey(), option.getValue()));
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IllegalArgumentException e) {
+                // Invalid options are not acknowledged
+            }
+        }
+        if (!accepted.specified.contains(ROLLOVER_OPTION)) {
+            accepted.rollover = this.rollover;
+        }
+        return accepted;
+    }
+
+    /**
+     * Applies the options acknowledged by a peer. The peer may only acknowledge
+     * options that were requested and may not raise any requested value or
+     * change the requested timeout or rollover. Any
+     * requested option that was not acknowledged reverts to its default value.
+     *
+     * @param acknowledged - Options sent in an option acknowledge
+     *
+     * @throws OptionNegotiationException - If the acknowledged options are not acceptable
+     */
+    public void acknowledge (Map<String, String> acknowledged) throws OptionNegotiationException {
+        TransferOptions defaults = new TransferOptions();
+
+        for (Map.Entry<String, String> option : acknowledged.entrySet()) {
+            if (!this.specified.contains(option.getKey())) {
+                throw new OptionNegotiationException("Option " + option.getKey() + " was not requested");
+            }
+            try {
+                switch (option.getKey()) {
+                    case BLOCK_SIZE_OPTION:
+                        this.setBlockSize(parseAcknowledged(option, this.blockSize));
+                        break;
+                    case WINDOW_SIZE_OPTION:
+                        this.setWindowSize(parseAcknowledged(option, this.windowSize));
+                        break;
+                    case TIMEOUT_OPTION:
+                        if (parse(option.getKey(), option.getValue()) != this.timeout) {
+                            throw new IllegalArgumentException("Acknowledged " + option.getKey() +
+                                    " " + option.getValue() + " is not the requested " + this.timeout);
+                        }
+                        break;
+                    case ROLLOVER_OPTION:
+                        if (parse(option.getKey(), option.getValue()) != this.rollover) {
+                            throw new IllegalArgumentException("Acknowledged " + option.getKey() +
+                                    " " + option.getValue() + " is not the requested " + this.rollover);
+                        }
+                        break;
+                    case MULTICAST_OPTION:
+                        MulticastOption.parse(option.getValue());
+                        this.multicast = option.getValue();
+                        break;
+                    default:
+                        break;
+                }
+            } catch (IllegalArgumentException e) {
+                throw new OptionNegotiationException(e.getMessage());
+            }
+        }
+
+        if (!acknowledged.containsKey(BLOCK_SIZE_OPTION)) {
+            this.blockSize = defaults.blockSize;
+        }
+        if (!acknowledged.containsKey(WINDOW_SIZE_OPTION)) {
+            this.windowSize = defaults.windowSize;
+        }
+        if (!acknowledged.containsKey(TIMEOUT_OPTION)) {
+            this.timeout = defaults.timeout;
+        }
+        if (!acknowledged.containsKey(MULTICAST_OPTION)) {
+            this.multicast = defaults.multicast;
+        }
+        if (!acknowledged.containsKey(ROLLOVER_OPTION)) {
+            this.rollover = defaults.rollover;
+        }
+        this.specified.retainAll(acknowledged.keySet());
+    }
+
+    /**
+     * Returns a string representation of the options
+     */
+    @Override
+    public String toString () {
+        return BLOCK_SIZE_OPTION + "=" + this.blockSize + " " +
+                WINDOW_SIZE_OPTION + "=" + this.windowSize + " " +
+                TIMEOUT_OPTION + "=" + (this.timeout == DEFAULT_TIMEOUT ? "default" : this.timeout) +
+                (this.multicast == null ? "" : " " + MULTICAST_OPTION + "=" +
+                        (this.multicast.isEmpty() ? "on" : this.multicast)) +
+                (this.rollover == DEFAULT_ROLLOVER ? "" : " " + ROLLOVER_OPTION + "=" + this.rollover);
+    }
+
+    /**
+     * Parses the value of an acknowledged option which may not be
+     * larger than the requested value
+     *
+     * @param option - Acknowledged option name and value
+     * @param requested - Value that was requested
+     *
+     * @return The acknowledged value
+     *
+     * @throws IllegalArgumentException - If the value is not a number or is larger than requested
+     */
+    private static int parseAcknowledged (Map.Entry<String, String> option, int requested) {
+        int value = parse(option.getKey(), option.getValue());
+
+        if (value > requested) {
+            throw new IllegalArgumentException("Acknowledged " + option.getKey() +
+                    " " + value + " is larger than requested " + requested);
+        }
+        return value;
+    }
+
+    /**
+     * Checks that the value of an option is within its valid range
+     *
+     * @param name - Name of the option
+     * @param value - Value of the option
+     * @param min - Smallest valid value
+     * @param max - Largest valid value
+     *
+     * @throws IllegalArgumentException - If the value is outside of the range
+     */
+    private static void checkRange (String name, int value, int min, int max) {
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("Option " + name + " must be between " +
+                    min + " and " + max);
+        }
+    }
+
+    /**
+     * Parses the numeric value of an option
+     *
+     * @param name - Name of the option
+     * @param value - String value of the option
+     *
+     * @return The numeric value
+     *
+     * @throws IllegalArgumentException - If the value is not a number
+     */
+    private static int parse (String name, String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Option " + name + " must be a number");
+        }
+    }
+
+    /**
+     * Parses an option that is turned on or off
+     *
+     * @param value - String value of the option
+     *
+     * @return If the option is turned on
+     */
+    private static boolean parseSwitch (String value) {
+        switch (value.trim().toLowerCase()) {
+            case "off":
+            case "false":
+            case "no":
+            case "0":
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Returns the number of bytes in the given options when encoded
+     *
+     * @param options - Options to encode
+     *
+     * @return Length of the encoded options
+     */
+    static int encodedLength (Map<String, String> options) {
+        int length = 0;
+
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            length += option.getKey().getBytes().length + option.getValue().getBytes().length + 2;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the given options as a sequence of null terminated name and value pairs
+     *
+     * @param options - Options to encode
+     * @param buffer - Buffer to write the options to
+     */
+    static void encode (Map<String, String> options, ByteBuffer buffer) {
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            buffer.put(option.getKey().getBytes());
+            buffer.put((byte) 0x00);
+            buffer.put(option.getValue().getBytes());
+            buffer.put((byte) 0x00);
+        }
+    }
+
+    /**
+     * Reads a sequence of null terminated name and value pairs up to the
+     * limit of the buffer. Option names are case insensitive and are stored
+     * in lower case.
+     *
+     * @param buffer - Buffer containing the encoded message
+     * @param start - Index of the first option in the buffer
+     *
+     * @return Map of option names to values
+     *
+     * @throws InvalidMessageException - If an option is not terminated
+     */
+    static Map<String, String> decode (ByteBuffer buffer, int start) throws InvalidMessageException {
+        Map<String, String> options = new LinkedHashMap<String, String>();
+        int nameIndex, valueIndex;
+
+        while (start < buffer.limit()) {
+            nameIndex = ByteUtils.indexOf(buffer, start, (byte) 0x00);
+            valueIndex = nameIndex < 0 ? -1 : ByteUtils.indexOf(buffer, nameIndex + 1, (byte) 0x00);
+            if (valueIndex < 0) {
+                throw new InvalidMessageException("Option is missing 0 byte terminator");
+            }
+            options.put(
+                ByteUtils.toString(buffer, start, nameIndex).toLowerCase(),
+                ByteUtils.toString(buffer, nameIndex + 1, valueIndex));
+            start = valueIndex + 1;
+        }
+        return options;
+    }
+}
@@ -5,6 +5,8 @@ import core.req.OpCode;
 import core.req.Request;
 import core.req.InvalidMessageException;
 
+import java.nio.ByteBuffer;
+
 /**
  * Defines the functionality for a read request
  *
@@ -30,4 +32,15 @@ public class WriteRequest extends Request {
     public WriteRequest (byte[] data) throws InvalidMessageException {
         super(data);
     }
+
+    /**
+     * Specifies a file to write decoded from a buffer
+     *
+     * @param buffer  the encoded request
+     *
+     * @throws InvalidMessageException - If the given buffer does not contain a valid request
+     */
+    public WriteRequest (ByteBuffer buffer) throws InvalidMessageException {
+        super(buffer);
+    }
 }
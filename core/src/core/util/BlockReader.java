@@ -0,0 +1,561 @@
+package core.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import core.req.DataFrames;
+
+/**
+ * Block Reader
+ *
+ * Reads a file as a sequence of blocks for a transfer. Large files are
+ * memory mapped a region at a time and each block is a view of the mapping
+ * so the file's pages are sent without being copied onto the heap. Small
+ * files are read from the channel into a buffer since mapping them costs
+ * more than reading them. The contents of a file that are already in memory,
+ * such as those held by a file cache, are read the same way as a mapping.
+ *
+ * A file opened through a reader registry shares the regions mapped or the
+ * contents read by the other readers of the same file, and releases them
+ * when it is closed.
+ *
+ * A reader can read ahead of the transfer on the background threads of a
+ * read ahead: the pages of a mapping ahead of the next block are loaded
+ * into memory, and blocks that are read from the channel are read into a
+ * ring of buffers ahead of the next block and copied from there, so the
+ * transfer does not wait on the disk for the blocks it sends next.
+ *
+ * Contents in memory may also have their data messages encoded in advance,
+ * in which case the encoded datagram of each block can be sent in place of
+ * encoding the block.
+ *
+ * Blocks are returned in slots, one for each block of a window that may be
+ * unacknowledged. The buffer of a slot is reused for every block read into
+ * the slot so reading blocks allocates nothing once each slot has been used.
+ * A block is valid until the next block is read into its slot.
+ *
+ * Example
+ * BlockReader reader = new BlockReader("myFile", 512, 1);
+ * ByteBuffer block;
+ * do {
+ *     block = reader.next(0);
+ * } while (block.remaining() == 512);
+ * reader.close();
+ */
+public class BlockReader implements Closeable {
+
+    /**
+     * Smallest file size in bytes that is memory mapped
+     */
+    public static final long MAP_THRESHOLD = 256 * 1024;
+
+    /**
+     * Largest number of bytes mapped at once
+     */
+    private static final int REGION_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Channel of the file being read
+     */
+    private FileChannel channel;
+
+    /**
+     * Shared source of the file, or null if the reader has its own
+     */
+    private ReaderRegistry.Source source;
+
+    /**
+     * Number of bytes in each block
+     */
+    private int blockSize;
+
+    /**
+     * Size of the file in bytes when it was opened
+     */
+    private long size;
+
+    /**
+     * Position in the file of the next block
+     */
+    private long position;
+
+    /**
+     * If the blocks are views of a mapping of the file
+     */
+    private boolean mapped;
+
+    /**
+     * Mapped region of the file that contains the next block
+     */
+    private ByteBuffer region;
+
+    /**
+     * Position in the file of the start of the mapped region
+     */
+    private long regionStart;
+
+    /**
+     * Number of regions that have been mapped
+     */
+    private int regionCount;
+
+    /**
+     * Buffer of each slot, a view of a mapped region or a block sized buffer
+     */
+    private ByteBuffer[] slots;
+
+    /**
+     * Mapped region that the view of each slot belongs to
+     */
+    private int[] slotRegions;
+
+    /**
+     * Data messages of the contents encoded in advance, or null
+     */
+    private DataFrames frames;
+
+    /**
+     * View of the encoded data message of the block in each slot
+     */
+    private ByteBuffer[] slotFrames;
+
+    /**
+     * Index of the block in each slot
+     */
+    private int[] slotBlocks;
+
+    /**
+     * Reads the blocks ahead of this reader, or null
+     */
+    private ReadAhead readAhead;
+
+    /**
+     * Number of bytes read ahead of the next block
+     */
+    private long readAheadBytes;
+
+    /**
+     * If the mapping of the file is loaded ahead of the reader, only
+     * mappings of a file on disk are
+     */
+    private boolean loadAhead;
+
+    /**
+     * Position in the file up to which the mapping has been loaded ahead
+     */
+    private long loadedTo;
+
+    /**
+     * Ring of blocks read ahead from the channel, or null
+     */
+    private ByteBuffer[] ring;
+
+    /**
+     * Position in the file of the block in each buffer of the ring, -1
+     * while the buffer is being filled or has been taken
+     */
+    private AtomicLongArray ringPositions;
+
+    /**
+     * Position in the file of the next block to read into the ring
+     */
+    private volatile long ringNext;
+
+    /**
+     * Position in the file after the last block the reader has read, the
+     * ring is filled up to the read ahead size past it
+     */
+    private volatile long consumed;
+
+    /**
+     * If a read ahead task is filling the ring
+     */
+    private AtomicBoolean filling;
+
+    /**
+     * Opens the file at the given path to be read in blocks of the given size
+     *
+     * @param path - Path of the file to read
+     * @param blockSize - Number of bytes in each block
+     * @param slots - Number of blocks that can be held at the same time
+     *
+     * @throws IOException - If the file cannot be opened
+     */
+    public BlockReader (String path, int blockSize, int slots) throws IOException {
+        this.channel     = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        this.blockSize   = blockSize;
+        this.size        = this.channel.size();
+        this.position    = 0;
+        this.mapped      = this.size >= MAP_THRESHOLD;
+        this.slots       = new ByteBuffer[slots];
+        this.slotRegions = new int[slots];
+    }
+
+    /**
+     * Reads contents that are already in memory in blocks of the given size.
+     * The contents are read from their position to their limit and are not
+     * modified
+     *
+     * @param contents - Contents of the file to read
+     * @param blockSize - Number of bytes in each block
+     * @param slots - Number of blocks that can be held at the same time
+     */
+    public BlockReader (ByteBuffer contents, int blockSize, int slots) {
+        this(contents, null, blockSize, slots);
+    }
+
+    /**
+     * Reads contents that are already in memory in blocks of the given size,
+     * with the data messages of the contents encoded in advance for the
+     * block size. The contents are read from their position to their limit
+     * and are not modified
+     *
+     * @param contents - Contents of the file to read
+     * @param frames - Encoded data messages of the contents, or null
+     * @param blockSize - Number of bytes in each block
+     * @param slots - Number of blocks that can be held at the same time
+     */
+    public BlockReader (ByteBuffer contents, DataFrames frames, int blockSize, int slots) {
+        if (frames != null && frames.getBlockSize() == blockSize) {
+            this.frames     = frames;
+            this.slotFrames = new ByteBuffer[slots];
+            this.slotBlocks = new int[slots];
+        }
+        this.blockSize   = blockSize;
+        this.size        = contents.remaining();
+        this.position    = 0;
+        this.mapped      = true;
+        this.region      = contents.slice();
+        this.regionCount = 1;
+        this.slots       = new ByteBuffer[slots];
+        this.slotRegions = new int[slots];
+    }
+
+    /**
+     * Reads a file from a source shared with its other readers in blocks of
+     * the given size. The reader releases the source when it is closed
+     *
+     * @param source - Shared source of the file
+     * @param blockSize - Number of bytes in each block
+     * @param slots - Number of blocks that can be held at the same time
+     */
+    BlockReader (ReaderRegistry.Source source, int blockSize, int slots) {
+        this.source      = source;
+        this.blockSize   = blockSize;
+        this.size        = source.getSize();
+        this.position    = 0;
+        this.mapped      = true;
+        this.slots       = new ByteBuffer[slots];
+        this.slotRegions = new int[slots];
+    }
+
+    /**
+     * Reads the next block of the file into the given slot. A block that is
+     * shorter than the block size is the last block, which is empty if the
+     * file size is a multiple of the block size
+     *
+     * @param slot - Slot to read the block into
+     *
+     * @return Buffer of the slot containing the next block
+     *
+     * @throws IOException - If the file cannot be read
+     */
+    public ByteBuffer next (int slot) throws IOException {
+        int length = (int) Math.max(0, Math.min(this.blockSize, this.size - this.position));
+        ByteBuffer block = this.mapped ? this.view(slot, length)
+                : this.ring != null ? this.take(slot, length) : this.read(slot, length);
+
+        if (this.frames != null) {
+            this.slotBlocks[slot] = (int) (this.position / this.blockSize);
+        }
+        this.position += block.remaining();
+        return block;
+    }
+
+    /**
+     * Reads ahead of the next block on the background threads of a read
+     * ahead. Contents that are already in memory are not read ahead
+     *
+     * @param readAhead - Read ahead to run the reads on
+     * @param blocks - Number of blocks to read ahead of the next block
+     */
+    public void setReadAhead (ReadAhead readAhead, int blocks) {
+        this.readAhead = readAhead;
+        this.readAheadBytes = (long) Math.max(1, blocks) * this.blockSize;
+        this.loadAhead = this.mapped && (this.source == null ? this.channel != null : this.source.isMapped());
+        this.loadedTo = this.position;
+
+        // A file of one block is read as soon as it is opened
+        if (this.mapped || this.channel == null || this.size < this.blockSize) {
+            return;
+        }
+
+        this.ring = new ByteBuffer[Math.max(1, blocks)];
+        this.ringPositions = new AtomicLongArray(this.ring.length);
+        for (int i = 0; i < this.ring.length; i++) {
+            this.ringPositions.set(i, -1);
+        }
+        this.ringNext = this.position;
+        this.consumed = this.position;
+        this.filling = new AtomicBoolean();
+        this.fill();
+    }
+
+    /**
+     * Returns the size of the file when it was opened
+     *
+     * @return Number of bytes in the file
+     */
+    public long getSize () {
+        return this.size;
+    }
+
+    /**
+     * Moves the reader to the given position in the file so that the next
+     * block is read from there, for transfers that send blocks again after
+     * moving past them
+     *
+     * @param position - Position in the file of the next block
+     */
+    public void seek (long position) {
+        position = Math.max(0, Math.min(position, this.size));
+
+        // The ring is only read ahead of blocks that are read in order
+        if (position != this.position) {
+            this.ring = null;
+        }
+        this.position = position;
+    }
+
+    /**
+     * Returns the encoded data message of the block last read into a slot
+     *
+     * @param slot - Slot of the block
+     *
+     * @return View of the encoded data message, or null if the data
+     *         messages were not encoded in advance
+     */
+    public ByteBuffer frame (int slot) {
+        if (this.frames == null) {
+            return null;
+        }
+        if (this.slotFrames[slot] == null) {
+            this.slotFrames[slot] = this.frames.view();
+        }
+        return this.frames.frame(this.slotBlocks[slot], this.slotFrames[slot]);
+    }
+
+    /**
+     * Closes the file. Blocks that have already been returned remain valid
+     */
+    public void close () throws IOException {
+        if (this.source != null) {
+            this.source.release();
+            this.source = null;
+        }
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * Points the view of a slot at a block of the mapping of the file,
+     * mapping the next region if the block is past the current one. Regions
+     * hold a whole number of blocks so that a block never spans two regions,
+     * while the regions of a shared source overlap by the largest block
+     *
+     * @param slot - Slot to read the block into
+     * @param length - Number of bytes in the block
+     *
+     * @return View of the mapping containing the block
+     *
+     * @throws IOException - If the file cannot be mapped
+     */
+    private ByteBuffer view (int slot, int length) throws IOException {
+        long regionSize = (long) this.blockSize * Math.max(1, REGION_SIZE / this.blockSize);
+        int offset;
+        int index;
+
+        if (this.region == null || this.position < this.regionStart ||
+                this.position + length > this.regionStart + this.region.capacity()) {
+            if (this.source != null) {
+                index = (int) Math.min(this.position / this.source.getRegionSize(), this.source.getRegionCount() - 1);
+                this.regionStart = index * this.source.getRegionSize();
+                this.region = this.source.region(index);
+            }
+            else {
+                this.regionStart = this.position;
+                this.region = this.channel.map(MapMode.READ_ONLY, this.position,
+                        Math.min(regionSize, this.size - this.position));
+            }
+            this.regionCount++;
+        }
+        if (this.loadAhead) {
+            this.load(length);
+        }
+
+        // Views of earlier regions keep their blocks valid
+        // until the slot is reused
+        if (this.slots[slot] == null || this.slotRegions[slot] != this.regionCount) {
+            this.slots[slot] = this.region.duplicate();
+            this.slotRegions[slot] = this.regionCount;
+        }
+
+        offset = (int) (this.position - this.regionStart);
+        this.slots[slot].clear();
+        this.slots[slot].position(offset).limit(offset + length);
+        return this.slots[slot];
+    }
+
+    /**
+     * Loads the pages of the mapped region ahead of the next block into
+     * memory on a background thread. Pages are loaded once less than half
+     * of the read ahead size past the block is loaded
+     *
+     * @param length - Number of bytes in the next block
+     */
+    private void load (int length) {
+        long end = Math.min(this.regionStart + this.region.capacity(), this.position + length + this.readAheadBytes);
+        MappedByteBuffer ahead;
+
+        this.loadedTo = Math.max(this.loadedTo, this.position + length);
+        if (end <= this.loadedTo || this.loadedTo - this.position - length >= this.readAheadBytes / 2) {
+            return;
+        }
+        ahead = ((MappedByteBuffer) this.region).slice((int) (this.loadedTo - this.regionStart),
+                (int) (end - this.loadedTo));
+        if (this.readAhead.submit(() -> {
+            ahead.load();
+            this.readAhead.loaded(ahead.capacity());
+        })) {
+            this.loadedTo = end;
+        }
+    }
+
+    /**
+     * Takes the next block from the ring into the buffer of a slot, or reads
+     * it from the file if it has not been read ahead, and reads more blocks
+     * into the ring
+     *
+     * @param slot - Slot to read the block into
+     * @param length - Number of bytes in the block
+     *
+     * @return Buffer of the slot containing the block
+     *
+     * @throws IOException - If the file cannot be read
+     */
+    private ByteBuffer take (int slot, int length) throws IOException {
+        int index = (int) ((this.position / this.blockSize) % this.ring.length);
+        ByteBuffer block;
+
+        if (length == 0 || this.ringPositions.get(index) != this.position) {
+            block = this.read(slot, length);
+            if (length > 0) {
+                this.readAhead.read(false);
+            }
+        }
+        else {
+            block = this.slots[slot];
+            if (block == null) {
+                block = ByteBuffer.allocate(this.blockSize);
+                this.slots[slot] = block;
+            }
+            block.clear();
+            block.put(this.ring[index].duplicate());
+            block.flip();
+            this.ringPositions.set(index, -1);
+            this.readAhead.read(true);
+        }
+
+        // The buffer of the block can be filled again once it is copied
+        this.consumed = this.position + this.blockSize;
+        this.fill();
+        return block;
+    }
+
+    /**
+     * Starts a read ahead task to fill the ring unless one is running
+     */
+    private void fill () {
+        if (this.filling.compareAndSet(false, true) && !this.readAhead.submit(this::fillRing)) {
+            this.filling.set(false);
+        }
+    }
+
+    /**
+     * Reads the blocks after the last block read into the ring until the
+     * ring holds the read ahead size past the reader. Runs on a read ahead
+     * thread. A buffer is only filled again once the reader has moved past
+     * the block it held
+     */
+    private void fillRing () {
+        ByteBuffer[] ring = this.ring;
+        ByteBuffer buffer;
+        long next;
+        int index;
+
+        if (ring == null) {
+            return;
+        }
+        try {
+            while ((next = Math.max(this.ringNext, this.consumed)) < this.size &&
+                    next < this.consumed + this.readAheadBytes) {
+                index = (int) ((next / this.blockSize) % ring.length);
+                buffer = ring[index];
+                if (buffer == null) {
+                    buffer = ByteBuffer.allocate(this.blockSize);
+                    ring[index] = buffer;
+                }
+                this.ringPositions.set(index, -1);
+                buffer.clear();
+                while (buffer.hasRemaining() && this.channel.read(buffer, next + buffer.position()) >= 0);
+                buffer.flip();
+                this.ringPositions.set(index, next);
+                this.ringNext = next + this.blockSize;
+            }
+        } catch (IOException e) {
+            // The file was closed, the reader reads the blocks
+            // that are left itself
+            return;
+        }
+        this.filling.set(false);
+
+        // Blocks taken while the task was finishing are read by another task
+        if (Math.max(this.ringNext, this.consumed) < Math.min(this.size, this.consumed + this.readAheadBytes)) {
+            this.fill();
+        }
+    }
+
+    /**
+     * Reads a block from the file into the buffer of a slot. The block is
+     * shorter than requested if the file was truncated after it was opened
+     *
+     * @param slot - Slot to read the block into
+     * @param length - Number of bytes in the block
+     *
+     * @return Buffer of the slot containing the block
+     *
+     * @throws IOException - If the file cannot be read
+     */
+    private ByteBuffer read (int slot, int length) throws IOException {
+        ByteBuffer block = this.slots[slot];
+
+        if (block == null) {
+            block = ByteBuffer.allocate(this.blockSize);
+            this.slots[slot] = block;
+        }
+        block.clear();
+        block.limit(length);
+        while (block.hasRemaining() && this.channel.read(block, this.position + block.position()) >= 0);
+        block.flip();
+        return block;
+    }
+}
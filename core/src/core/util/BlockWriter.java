@@ -0,0 +1,572 @@
+package core.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Block Writer
+ *
+ * Writes the blocks that a transfer receives to a file behind the transfer.
+ * Blocks are copied into a buffer as they arrive, and a full buffer is
+ * written to the file by the background threads of a write behind with a
+ * single positional write, so the file is written in large writes aligned
+ * to the buffer size instead of a write for every block. The buffers of a
+ * writer are written in order, one at a time. A writer holds a bounded
+ * number of buffers, when all of them are waiting to be written the block
+ * is written by the transfer itself rather than waiting for a buffer.
+ *
+ * A writer that is not blocking never writes or forces the file on the
+ * transfer's thread, for transfers run by an event loop. It takes another
+ * buffer when all of them are waiting to be written, and the transfer holds
+ * back its next acknowledge until the writer has caught up, so the sender
+ * is slowed down to the speed of the disk. Such a writer is closed with a
+ * callback that runs once the file is closed on a background thread.
+ *
+ * A write that fails behind the transfer is reported by the next write,
+ * flush or close of the transfer, so running out of disk space still ends
+ * the transfer with an error.
+ *
+ * Closing the writer writes the blocks still buffered and then makes the
+ * file durable as its durability asks: not at all, by forcing the file to
+ * disk before the close returns, or by leaving the file to the next group
+ * commit of the write behind, which forces it and closes it.
+ *
+ * Example
+ * BlockWriter out = new BlockWriter("myFile", Durability.CLOSE, WriteBehind.getDefault());
+ * data.writeTo(out);
+ * out.close();
+ *
+ * out.setBlocking(false);
+ * out.close((error) -> loop.post(() -> finish(error)));
+ */
+public class BlockWriter implements WritableByteChannel {
+
+    /**
+     * Largest number of buffers that a writer holds at once
+     */
+    public static final int MAX_BUFFERS = 4;
+
+    /**
+     * Logger used to log information
+     */
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    /**
+     * Path of the file being written
+     */
+    private String path;
+
+    /**
+     * Channel of the file being written
+     */
+    private FileChannel channel;
+
+    /**
+     * When the written file is forced to disk
+     */
+    private Durability durability;
+
+    /**
+     * Background threads that write the full buffers
+     */
+    private WriteBehind behind;
+
+    /**
+     * If the file can be written and forced on the caller's thread
+     */
+    private boolean blocking;
+
+    /**
+     * Tasks waiting for the pending buffers to be written
+     */
+    private ArrayList<Runnable> waiting;
+
+    /**
+     * Buffer that blocks are copied into, or null if there is none yet
+     */
+    private ByteBuffer current;
+
+    /**
+     * Position in the file of the next byte written to the writer
+     */
+    private long position;
+
+    /**
+     * Guards the pending buffers, the number of buffers held and the
+     * state of the background writes
+     */
+    private ReentrantLock lock;
+
+    /**
+     * Signalled when every pending buffer has been written
+     */
+    private Condition idle;
+
+    /**
+     * Full buffers waiting to be written in the order they were filled
+     */
+    private ArrayDeque<Pending> pending;
+
+    /**
+     * Number of buffers held, the current buffer and those pending
+     */
+    private int buffers;
+
+    /**
+     * If the pending buffers are being written
+     */
+    private boolean draining;
+
+    /**
+     * First error of a background write, or null if none failed
+     */
+    private volatile IOException failure;
+
+    /**
+     * If the writer was closed or discarded
+     */
+    private volatile boolean closed;
+
+    /**
+     * If the writer was closed and its channel is left for the next group
+     * commit to close
+     */
+    private volatile boolean finished;
+
+    /**
+     * Creates or truncates a file and constructs a writer for it
+     *
+     * @param path - Path of the file to write
+     * @param durability - When the written file is forced to disk
+     * @param behind - Background threads that write the full buffers
+     *
+     * @throws IOException - If the file cannot be opened for writing
+     */
+    public BlockWriter (String path, Durability durability, WriteBehind behind) throws IOException {
+        this.path       = path;
+        this.channel    = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.durability = durability;
+        this.behind     = behind;
+        this.blocking   = true;
+        this.waiting    = new ArrayList<Runnable>();
+        this.lock       = new ReentrantLock();
+        this.idle       = this.lock.newCondition();
+        this.pending    = new ArrayDeque<Pending>();
+    }
+
+    /**
+     * Sets if the file can be written and forced on the caller's thread. A
+     * writer that is not blocking leaves every write to the write behind
+     * and must be closed with a callback
+     *
+     * @param blocking - If the caller's thread may write the file
+     */
+    public void setBlocking (boolean blocking) {
+        this.blocking = blocking;
+    }
+
+    /**
+     * Returns if every buffer of the writer is in use, in which case a
+     * writer that is not blocking is ahead of the disk and the transfer
+     * should wait for it before acknowledging more blocks
+     *
+     * @return If the writer holds its largest number of buffers or more
+     */
+    public boolean isBacklogged () {
+        this.lock.lock();
+        try {
+            return this.buffers >= MAX_BUFFERS;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Runs a task once the buffers pending now have been written, on the
+     * background thread that wrote the last of them, or straight away on
+     * the caller's thread if none are pending
+     *
+     * @param task - Task to run
+     */
+    public void whenWritten (Runnable task) {
+        this.lock.lock();
+        try {
+            if (this.draining) {
+                this.waiting.add(task);
+                return;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        task.run();
+    }
+
+    /**
+     * Writes a block after the bytes written so far. The block is copied
+     * and written behind the caller
+     *
+     * @param src - Bytes to write, the buffer's position is moved past them
+     *
+     * @return Number of bytes written
+     *
+     * @throws IOException - If the writer is closed or an earlier write failed
+     */
+    @Override
+    public int write (ByteBuffer src) throws IOException {
+        int written = src.remaining();
+        ByteBuffer part;
+        int length;
+
+        this.check();
+        while (src.hasRemaining()) {
+            if (this.current == null && (this.current = this.take()) == null) {
+                this.writeDirect(src);
+                break;
+            }
+
+            length = Math.min(src.remaining(), this.current.remaining());
+            part = src.duplicate();
+            part.limit(part.position() + length);
+            this.current.put(part);
+            src.position(src.position() + length);
+            this.position += length;
+
+            if (!this.current.hasRemaining()) {
+                this.queue(this.current, false);
+                this.current = null;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Writes the buffered blocks and waits until every block written so far
+     * is in the file
+     *
+     * @throws IOException - If the writer is closed or a write failed
+     */
+    public void flush () throws IOException {
+        this.check();
+        if (this.current != null) {
+            if (this.current.position() > 0) {
+                this.queue(this.current, true);
+            }
+            else {
+                this.release(this.current);
+            }
+            this.current = null;
+        }
+
+        this.lock.lock();
+        try {
+            while (this.draining) {
+                this.idle.awaitUninterruptibly();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        this.check();
+    }
+
+    /**
+     * Returns the channel of the file for blocks that are written in place
+     * rather than after the bytes written so far. Those writes are not
+     * written behind
+     *
+     * @return Channel of the file
+     */
+    public FileChannel getChannel () {
+        return this.channel;
+    }
+
+    /**
+     * Returns if the writer can be written to
+     *
+     * @return If the writer was neither closed nor discarded
+     */
+    @Override
+    public boolean isOpen () {
+        return !this.closed;
+    }
+
+    /**
+     * Writes the buffered blocks and closes the file, forcing it to disk
+     * first if the durability is on close. With group commit the file is
+     * forced and closed by the next commit
+     *
+     * @throws IOException - If a write failed or the file cannot be forced
+     */
+    @Override
+    public void close () throws IOException {
+        boolean committed = false;
+
+        if (this.closed) {
+            return;
+        }
+        try {
+            this.flush();
+            this.closed = true;
+            if (this.durability == Durability.CLOSE) {
+                this.channel.force(true);
+                this.behind.forced();
+            }
+            else if (this.durability == Durability.GROUP) {
+                this.finished = true;
+                this.behind.commitLater(this);
+                committed = true;
+            }
+        } finally {
+            this.closed = true;
+            if (!committed) {
+                this.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered blocks and closes the file on a background thread
+     * without blocking the caller, forcing it to disk first if the
+     * durability is on close
+     *
+     * @param done - Called on a background thread once the file is closed,
+     *               with the error if a write failed or null
+     */
+    public void close (Consumer<IOException> done) {
+        Runnable close = () -> {
+            try {
+                this.close();
+                done.accept(null);
+            } catch (IOException e) {
+                done.accept(e);
+            }
+        };
+
+        if (this.current != null && !this.closed) {
+            if (this.current.position() > 0) {
+                this.queue(this.current, false);
+            }
+            else {
+                this.release(this.current);
+            }
+            this.current = null;
+        }
+        this.whenWritten(() -> {
+            if (!this.behind.submit(close)) {
+                close.run();
+            }
+        });
+    }
+
+    /**
+     * Closes the file without writing the buffered blocks, for a file that
+     * is deleted because its transfer failed
+     */
+    public void discard () {
+        this.closed = true;
+        if (this.current != null) {
+            this.release(this.current);
+            this.current = null;
+        }
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // squash it
+        }
+    }
+
+    /**
+     * Forces the file to disk for a group commit, and closes it if the
+     * writer was closed
+     */
+    void commit () {
+        try {
+            this.channel.force(true);
+            this.behind.forced();
+            if (this.finished) {
+                this.channel.close();
+            }
+        } catch (ClosedChannelException e) {
+            // The writer was discarded
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to commit " + this.path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Throws if the writer is closed or a background write failed
+     *
+     * @throws IOException - If the writer cannot be written to
+     */
+    private void check () throws IOException {
+        if (this.failure != null) {
+            throw new IOException("Unable to write " + this.path + ": " + this.failure.getMessage(), this.failure);
+        }
+        if (this.closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Takes a buffer for the next blocks if the writer holds fewer than
+     * the most buffers
+     *
+     * @return Empty buffer, or null if every buffer is in use
+     */
+    private ByteBuffer take () {
+        this.lock.lock();
+        try {
+            if (this.buffers >= MAX_BUFFERS && this.blocking) {
+                return null;
+            }
+            this.buffers++;
+        } finally {
+            this.lock.unlock();
+        }
+        return this.behind.allocate();
+    }
+
+    /**
+     * Returns a buffer that the writer no longer holds
+     *
+     * @param buffer - The buffer
+     */
+    private void release (ByteBuffer buffer) {
+        this.behind.recycle(buffer);
+        this.lock.lock();
+        try {
+            this.buffers--;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Writes bytes to the file from the caller's thread, for when every
+     * buffer is waiting to be written
+     *
+     * @param src - Bytes to write
+     *
+     * @throws IOException - If the file cannot be written
+     */
+    private void writeDirect (ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            this.position += this.channel.write(src, this.position);
+        }
+        this.behind.writtenDirect();
+        if (this.durability == Durability.GROUP) {
+            this.behind.commitLater(this);
+        }
+    }
+
+    /**
+     * Queues a buffer to be written after the buffers already pending and
+     * starts writing them if they are not being written
+     *
+     * @param buffer - Buffer holding the bytes before the current position
+     * @param wait - If the caller waits for the write, in which case it
+     *               writes the buffers itself when none are being written
+     */
+    private void queue (ByteBuffer buffer, boolean wait) {
+        boolean start;
+
+        buffer.flip();
+        this.lock.lock();
+        try {
+            this.pending.add(new Pending(buffer, this.position - buffer.remaining()));
+            start = !this.draining;
+            this.draining = true;
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (start && (wait || !this.behind.submit(this::drain))) {
+            this.drain();
+        }
+    }
+
+    /**
+     * Writes the pending buffers in order until none are left, then runs
+     * the tasks waiting for them. Once a write failed the remaining buffers
+     * are dropped
+     */
+    private void drain () {
+        ArrayList<Runnable> written = null;
+        Pending next;
+        int length;
+        long at;
+
+        while (true) {
+            this.lock.lock();
+            try {
+                next = this.pending.poll();
+                if (next == null) {
+                    this.draining = false;
+                    this.idle.signalAll();
+                    written = this.waiting;
+                    this.waiting = new ArrayList<Runnable>();
+                }
+            } finally {
+                this.lock.unlock();
+            }
+            if (written != null) {
+                for (Runnable task : written) {
+                    task.run();
+                }
+                return;
+            }
+
+            if (this.failure == null) {
+                try {
+                    length = next.buffer.remaining();
+                    at = next.position;
+                    while (next.buffer.hasRemaining()) {
+                        at += this.channel.write(next.buffer, at);
+                    }
+                    this.behind.written(length);
+                    if (this.durability == Durability.GROUP) {
+                        this.behind.commitLater(this);
+                    }
+                } catch (IOException e) {
+                    this.failure = e;
+                }
+            }
+            this.release(next.buffer);
+        }
+    }
+
+    /**
+     * Pending
+     *
+     * Full buffer waiting to be written
+     */
+    private static class Pending {
+
+        /**
+         * Bytes to write
+         */
+        final ByteBuffer buffer;
+
+        /**
+         * Position in the file of the first byte
+         */
+        final long position;
+
+        Pending (ByteBuffer buffer, long position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+    }
+}
@@ -1,10 +1,17 @@
 
 package core.util;
 
+import java.nio.ByteBuffer;
+
 /**
  * Contains static methods to help convert bytes to other formats
  */
 public class ByteUtils {
+
+	/**
+	 * Hexadecimal digits indexed by their value
+	 */
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
 	
 	/**
 	 * indexOf
@@ -34,6 +41,39 @@ public class ByteUtils {
         return -1;
     }
     
+    /**
+     * indexOf
+     * Find the index of a value in a buffer between the given index and
+     * the buffer's limit without changing the buffer's position
+     * @param buffer The buffer to search through
+     * @param start The index to start searching from
+     * @param value The value to search for
+     * @return The index of the value if found, returns -1 if the value is not found
+     */
+    public static int indexOf (ByteBuffer buffer, int start, byte value) {
+        for (int i = start; i < buffer.limit(); i++){
+            if(buffer.get(i) == value){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decodes the bytes of a buffer between two indexes into a string
+     * without changing the buffer's position
+     * @param buffer The buffer to decode from
+     * @param start The index of the first byte
+     * @param end The index after the last byte
+     * @return The decoded string
+     */
+    public static String toString (ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+
+        buffer.get(start, bytes);
+        return new String(bytes);
+    }
+
     /**
      * Converts an array of byte to a hex-formatted string representation
      * 
@@ -41,15 +81,35 @@ public class ByteUtils {
      * @return A hex-formatted string
      */
 	public static String bytesToHexString(byte[] bytes) {
-		if(bytes.length<1) {
+		return bytesToHexString(bytes, 0, bytes.length);
+	}
+
+    /**
+     * Converts a range of an array of byte to a hex-formatted string
+     * representation, formatted as [0A, 1B]
+     * 
+     * @param bytes The array of bytes to convert
+     * @param offset The index of the first byte
+     * @param length The number of bytes to convert
+     * @return A hex-formatted string
+     */
+	public static String bytesToHexString(byte[] bytes, int offset, int length) {
+		if(length<1) {
 			return "[]";
 		}
-		StringBuilder s= new StringBuilder();
-		for(byte b: bytes) {
-			s.append(String.format("%02X", b)+", ");
+		char[] s = new char[length * 4];
+		int i = 0;
+		s[i++] = '[';
+		for(int b = offset; b < offset + length; b++) {
+			s[i++] = HEX_DIGITS[(bytes[b] >> 4) & 0x0F];
+			s[i++] = HEX_DIGITS[bytes[b] & 0x0F];
+			if (b < offset + length - 1) {
+				s[i++] = ',';
+				s[i++] = ' ';
+			}
 		}
-		//remove trailing comma and space
-		return "["+s.substring(0, s.length()-2)+"]";
+		s[i++] = ']';
+		return new String(s, 0, i);
 	}
 
 }
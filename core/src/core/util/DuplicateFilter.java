@@ -0,0 +1,102 @@
+package core.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Duplicate Filter
+ *
+ * Remembers the keys it has seen for a window of time so that a key seen
+ * again in that window is recognised as a duplicate. Each key is forgotten
+ * by a timeout on a timer wheel when its window ends, or earlier by its
+ * owner once a duplicate can no longer arrive, so the filter only holds
+ * the keys of the last window.
+ *
+ * Example
+ * DuplicateFilter<String> filter = new DuplicateFilter<String>(12000, HashedWheelTimer.getDefault());
+ * if (filter.first(key)) {
+ *     handle(key);
+ * }
+ */
+public class DuplicateFilter<K> {
+
+    /**
+     * Keys seen in the last window
+     */
+    private Set<K> recent;
+
+    /**
+     * Wheel that forgets the keys when their window ends
+     */
+    private HashedWheelTimer timer;
+
+    /**
+     * Time in ms that a key is remembered
+     */
+    private long window;
+
+    /**
+     * Number of duplicates found
+     */
+    private AtomicLong duplicates;
+
+    /**
+     * Constructs a filter that remembers keys for a window of time
+     *
+     * @param window - Time in ms that a key is remembered
+     * @param timer - Wheel that forgets the keys when their window ends
+     */
+    public DuplicateFilter (long window, HashedWheelTimer timer) {
+        this.recent     = ConcurrentHashMap.newKeySet();
+        this.timer      = timer;
+        this.window     = window;
+        this.duplicates = new AtomicLong();
+    }
+
+    /**
+     * Checks if a key is seen for the first time in its window and
+     * remembers it if it is
+     *
+     * @param key - The key
+     *
+     * @return If the key was not seen in the window, false if it is a duplicate
+     */
+    public boolean first (K key) {
+        if (!this.recent.add(key)) {
+            this.duplicates.incrementAndGet();
+            return false;
+        }
+        this.timer.schedule(() -> this.recent.remove(key), this.window);
+        return true;
+    }
+
+    /**
+     * Forgets a key before its window ends, so that it is seen for the
+     * first time again. The timeout of its window still runs but only
+     * removes a key that was seen again since
+     *
+     * @param key - The key
+     */
+    public void forget (K key) {
+        this.recent.remove(key);
+    }
+
+    /**
+     * Returns the number of duplicates found
+     *
+     * @return Number of duplicates
+     */
+    public long getDuplicates () {
+        return this.duplicates.get();
+    }
+
+    /**
+     * Returns a summary of the filter statistics
+     */
+    @Override
+    public String toString () {
+        return "Duplicates:        " + this.duplicates.get() + " dropped, " + this.recent.size() +
+               " remembered for " + this.window + "ms";
+    }
+}
@@ -0,0 +1,47 @@
+package core.util;
+
+/**
+ * Durability
+ *
+ * When the files written by transfers are flushed to disk. Files are
+ * written behind the transfer either way, the durability only decides
+ * when the written data is forced from the page cache to the disk.
+ */
+public enum Durability {
+
+    /**
+     * Files are never forced to disk, the operating system writes them
+     * back when it chooses
+     */
+    NONE,
+
+    /**
+     * Each file is forced to disk when it is closed, before its transfer
+     * completes
+     */
+    CLOSE,
+
+    /**
+     * The files written since the last commit are forced to disk together
+     * on a fixed interval, closed files included
+     */
+    GROUP;
+
+    /**
+     * Parses a durability given by its name in any case
+     *
+     * @param value - Name of the durability, none, close or group
+     *
+     * @return The durability
+     *
+     * @throws IllegalArgumentException - If the value is not a durability
+     */
+    public static Durability parse (String value) {
+        for (Durability durability : values()) {
+            if (durability.name().equalsIgnoreCase(value)) {
+                return durability;
+            }
+        }
+        throw new IllegalArgumentException("durability must be none, close or group");
+    }
+}
@@ -0,0 +1,91 @@
+package core.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executor Factory
+ *
+ * Creates the executor services that run transfers. Every transfer runs on
+ * its own thread, which is a virtual thread when the runtime supports them
+ * (Java 21 and later) and a pooled platform thread otherwise. Blocking
+ * transfers park a virtual thread without holding a carrier thread so many
+ * thousands of transfers can run without the memory of platform threads.
+ */
+public final class ExecutorFactory {
+
+    /**
+     * Runs each task on a new virtual thread
+     */
+    public static final String VIRTUAL = "virtual";
+
+    /**
+     * Runs each task on a pooled platform thread
+     */
+    public static final String PLATFORM = "platform";
+
+    private ExecutorFactory () {}
+
+    /**
+     * Creates an executor of the given type. Virtual threads fall back to
+     * platform threads if the runtime does not support them
+     *
+     * @param type - Type of executor, VIRTUAL or PLATFORM
+     *
+     * @return A new executor service
+     *
+     * @throws IllegalArgumentException - If the type is unknown
+     */
+    public static ExecutorService create (String type) {
+        ExecutorService executor;
+
+        switch (type) {
+            case VIRTUAL:
+                executor = newVirtualThreadExecutor();
+                return executor != null ? executor : Executors.newCachedThreadPool();
+            case PLATFORM:
+                return Executors.newCachedThreadPool();
+            default:
+                throw new IllegalArgumentException("Unknown executor " + type);
+        }
+    }
+
+    /**
+     * Returns if the runtime supports virtual threads
+     *
+     * @return If virtual thread executors can be created
+     */
+    public static boolean isVirtualThreadSupported () {
+        return virtualThreadFactoryMethod() != null;
+    }
+
+    /**
+     * Creates an executor that runs each task on a new virtual thread
+     *
+     * @return A new executor or null if virtual threads are not supported
+     */
+    public static ExecutorService newVirtualThreadExecutor () {
+        Method method = virtualThreadFactoryMethod();
+
+        try {
+            return method == null ? null : (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the factory of virtual thread executors which only exists
+     * in runtimes that support virtual threads
+     *
+     * @return The factory method or null if it does not exist
+     */
+    private static Method virtualThreadFactoryMethod () {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,484 @@
+package core.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import core.req.DataFrames;
+
+/**
+ * File Cache
+ *
+ * Keeps the contents of recently read files in off-heap memory so that
+ * files requested again are served without reading them from disk. The
+ * total size of the cache is bounded and the least recently used files are
+ * evicted to make room. Files larger than the entry size limit are never
+ * cached. A cached file is checked against the size and modification time
+ * of the file on each open and is read again if it has changed.
+ *
+ * Files that are opened again are popular, so the data messages of their
+ * blocks are encoded once for each block size they are requested with and
+ * kept with the contents. Transfers of a popular file send the encoded
+ * datagrams without encoding or copying a block. The encoded messages count
+ * towards the size of the cache.
+ *
+ * Evicted contents stay valid for the transfers that are still reading them
+ * and are freed once the last of those transfers finishes.
+ *
+ * Files that are not cached are opened through a reader registry, so the
+ * transfers that send the same file at the same time share one source of
+ * it. A cache of size 0 holds no files and only shares the open files.
+ *
+ * Example
+ * FileCache cache = new FileCache(64 * 1024 * 1024, 8 * 1024 * 1024);
+ * BlockReader reader = cache.open("myFile", 512, 1);
+ */
+public class FileCache {
+
+    /**
+     * Default number of bytes that can be cached
+     */
+    public static final long DEFAULT_MAX_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Default number of bytes of the largest file that is cached
+     */
+    public static final long DEFAULT_MAX_ENTRY_SIZE = 8L * 1024 * 1024;
+
+    /**
+     * Number of times a cached file is opened before its data messages
+     * are encoded in advance
+     */
+    public static final int FRAME_THRESHOLD = 2;
+
+    /**
+     * Number of bytes that can be cached
+     */
+    private long maxSize;
+
+    /**
+     * Number of bytes of the largest file that is cached
+     */
+    private long maxEntrySize;
+
+    /**
+     * Guards the entries and the counters
+     */
+    private ReentrantLock lock;
+
+    /**
+     * Cached files by path in order of least to most recently used
+     */
+    private LinkedHashMap<String, Entry> entries;
+
+    /**
+     * Number of bytes cached
+     */
+    private long size;
+
+    /**
+     * Number of opens served from the cache
+     */
+    private long hits;
+
+    /**
+     * Number of opens of files that were not cached
+     */
+    private long misses;
+
+    /**
+     * Number of files evicted to make room for other files
+     */
+    private long evictions;
+
+    /**
+     * Number of cached files that were read again because they changed
+     */
+    private long invalidations;
+
+    /**
+     * Number of times the data messages of a file were encoded in advance
+     */
+    private long encodings;
+
+    /**
+     * Registry that the files that are not cached are opened from
+     */
+    private ReaderRegistry readers;
+
+    /**
+     * Constructs a cache with the default limits
+     */
+    public FileCache () {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_ENTRY_SIZE);
+    }
+
+    /**
+     * Constructs a cache with the given limits
+     *
+     * @param maxSize - Number of bytes that can be cached
+     * @param maxEntrySize - Number of bytes of the largest file that is cached
+     */
+    public FileCache (long maxSize, long maxEntrySize) {
+        this.maxSize      = Math.max(0, maxSize);
+        this.maxEntrySize = Math.min(Math.min(Math.max(0, maxEntrySize), this.maxSize), Integer.MAX_VALUE);
+        this.lock         = new ReentrantLock();
+        this.entries      = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        this.readers      = new ReaderRegistry();
+    }
+
+    /**
+     * Opens a file to be read in blocks, from the cache if the file is
+     * cached and unchanged. Files that are small enough are cached when
+     * they are opened and other files are shared with their other readers
+     *
+     * @param path - Path of the file to read
+     * @param blockSize - Number of bytes in each block
+     * @param slots - Number of blocks that can be held at the same time
+     *
+     * @return Reader of the file's blocks
+     *
+     * @throws IOException - If the file cannot be read
+     */
+    public BlockReader open (String path, int blockSize, int slots) throws IOException {
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        String key = file.toString();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        DataFrames frames = null;
+        boolean encode = false;
+        Entry entry;
+
+        this.lock.lock();
+        try {
+            entry = this.entries.get(key);
+            if (entry != null && entry.matches(attributes)) {
+                this.hits++;
+                entry.uses++;
+                frames = entry.getFrames(blockSize);
+                encode = frames == null && entry.uses >= FRAME_THRESHOLD &&
+                        entry.size + DataFrames.encodedSize(entry.size, blockSize) <= this.maxSize;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        // The data messages are encoded outside of the lock, a transfer
+        // that opens the file meanwhile encodes its blocks as they are sent
+        if (encode) {
+            frames = this.addFrames(key, entry, DataFrames.encode(entry.contents, blockSize));
+        }
+        if (entry != null && entry.matches(attributes)) {
+            return new BlockReader(entry.contents.duplicate(), frames, blockSize, slots);
+        }
+
+        this.lock.lock();
+        try {
+            if (entry != null) {
+                this.remove(key);
+                this.invalidations++;
+            }
+            this.misses++;
+        } finally {
+            this.lock.unlock();
+        }
+
+        if (attributes.size() > this.maxEntrySize || this.maxSize == 0) {
+            return this.readers.open(path, blockSize, slots);
+        }
+
+        entry = this.load(file, attributes);
+        if (entry == null) {
+            return this.readers.open(path, blockSize, slots);
+        }
+        this.add(key, entry);
+        return new BlockReader(entry.contents.duplicate(), blockSize, slots);
+    }
+
+    /**
+     * Removes every file from the cache
+     */
+    public void clear () {
+        this.lock.lock();
+        try {
+            this.entries.clear();
+            this.size = 0;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of opens served from the cache
+     *
+     * @return Number of hits
+     */
+    public long getHits () {
+        this.lock.lock();
+        try {
+            return this.hits;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of opens of files that were not cached
+     *
+     * @return Number of misses
+     */
+    public long getMisses () {
+        this.lock.lock();
+        try {
+            return this.misses;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of files evicted to make room for other files
+     *
+     * @return Number of evictions
+     */
+    public long getEvictions () {
+        this.lock.lock();
+        try {
+            return this.evictions;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the registry that the files that are not cached are opened from
+     *
+     * @return Registry of the shared readers
+     */
+    public ReaderRegistry getReaders () {
+        return this.readers;
+    }
+
+    /**
+     * Returns a summary of the cache statistics
+     */
+    @Override
+    public String toString () {
+        this.lock.lock();
+        try {
+            return "Cached files:      " + this.entries.size() + " (" + (this.size / 1024) + " of " +
+                            (this.maxSize / 1024) + " KiB, files up to " + (this.maxEntrySize / 1024) + " KiB)\n" +
+                   "Cache lookups:     " + this.hits + " hits, " + this.misses + " misses\n" +
+                   "Cache removals:    " + this.evictions + " evicted, " + this.invalidations + " changed on disk\n" +
+                   "Encoded files:     " + this.encodings + " files encoded for a block size\n" +
+                   this.readers.toString();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Reads a file into off-heap memory
+     *
+     * @param file - Path of the file
+     * @param attributes - Attributes of the file before it was read
+     *
+     * @return The cache entry, or null if the file changed while it was read
+     *
+     * @throws IOException - If the file cannot be read
+     */
+    private Entry load (Path file, BasicFileAttributes attributes) throws IOException {
+        ByteBuffer contents = ByteBuffer.allocateDirect((int) attributes.size());
+        Entry entry;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (contents.hasRemaining() && channel.read(contents) >= 0);
+        }
+        contents.flip();
+        entry = new Entry(contents.asReadOnlyBuffer(), attributes);
+
+        // A file that is being written is not cached
+        if (contents.remaining() != entry.size ||
+                !entry.matches(Files.readAttributes(file, BasicFileAttributes.class))) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Adds a file to the cache, evicting the least recently used files until
+     * it fits. A file that was added by another transfer while this one was
+     * reading it is kept
+     *
+     * @param key - Path of the file
+     * @param entry - Contents of the file
+     */
+    private void add (String key, Entry entry) {
+        Iterator<Map.Entry<String, Entry>> eldest;
+
+        this.lock.lock();
+        try {
+            if (this.entries.containsKey(key)) {
+                return;
+            }
+            eldest = this.entries.entrySet().iterator();
+            while (this.size + entry.size > this.maxSize && eldest.hasNext()) {
+                this.size -= eldest.next().getValue().getBytes();
+                eldest.remove();
+                this.evictions++;
+            }
+            this.entries.put(key, entry);
+            this.size += entry.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the encoded data messages of a cached file, evicting the least
+     * recently used other files until they fit. The messages are discarded
+     * if the file was removed from the cache while they were encoded
+     *
+     * @param key - Path of the file
+     * @param entry - Cached contents of the file
+     * @param frames - Encoded data messages of the file
+     *
+     * @return The frames to send the file with
+     */
+    private DataFrames addFrames (String key, Entry entry, DataFrames frames) {
+        Iterator<Map.Entry<String, Entry>> eldest;
+        Entry next;
+
+        this.lock.lock();
+        try {
+            if (this.entries.get(key) != entry) {
+                return frames;
+            }
+            if (entry.getFrames(frames.getBlockSize()) != null) {
+                return entry.getFrames(frames.getBlockSize());
+            }
+            eldest = this.entries.entrySet().iterator();
+            while (this.size + frames.getSize() > this.maxSize && eldest.hasNext()) {
+                next = eldest.next().getValue();
+                if (next == entry) {
+                    return frames;
+                }
+                this.size -= next.getBytes();
+                eldest.remove();
+                this.evictions++;
+            }
+            entry.frames.add(frames);
+            this.size += frames.getSize();
+            this.encodings++;
+            return frames;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a file from the cache. Must be called with the lock held
+     *
+     * @param key - Path of the file
+     */
+    private void remove (String key) {
+        Entry entry = this.entries.remove(key);
+
+        if (entry != null) {
+            this.size -= entry.getBytes();
+        }
+    }
+
+    /**
+     * Entry
+     *
+     * Contents of a cached file and the attributes it was read with
+     */
+    private static class Entry {
+
+        /**
+         * Read only contents of the file
+         */
+        final ByteBuffer contents;
+
+        /**
+         * Number of bytes in the file
+         */
+        final long size;
+
+        /**
+         * Modification time of the file
+         */
+        final FileTime modified;
+
+        /**
+         * Data messages of the file encoded for each block size it was
+         * requested with
+         */
+        final ArrayList<DataFrames> frames;
+
+        /**
+         * Number of times the file was opened from the cache
+         */
+        int uses;
+
+        Entry (ByteBuffer contents, BasicFileAttributes attributes) {
+            this.contents = contents;
+            this.size     = attributes.size();
+            this.modified = attributes.lastModifiedTime();
+            this.frames   = new ArrayList<DataFrames>(1);
+        }
+
+        /**
+         * Returns the data messages encoded for a block size
+         *
+         * @param blockSize - Number of bytes in each block
+         *
+         * @return Encoded data messages, or null if they are not encoded
+         */
+        DataFrames getFrames (int blockSize) {
+            for (DataFrames frames : this.frames) {
+                if (frames.getBlockSize() == blockSize) {
+                    return frames;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the number of bytes of the contents and encoded messages
+         *
+         * @return Bytes held by the entry
+         */
+        long getBytes () {
+            long bytes = this.size;
+
+            for (DataFrames frames : this.frames) {
+                bytes += frames.getSize();
+            }
+            return bytes;
+        }
+
+        /**
+         * Checks if the file still has the size and modification time
+         * it was cached with
+         *
+         * @param attributes - Current attributes of the file
+         *
+         * @return If the cached contents are current
+         */
+        boolean matches (BasicFileAttributes attributes) {
+            return this.size == attributes.size() && this.modified.equals(attributes.lastModifiedTime());
+        }
+    }
+}
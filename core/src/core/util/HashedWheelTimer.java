@@ -0,0 +1,473 @@
+package core.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed Wheel Timer
+ *
+ * Runs tasks after a delay with a fixed resolution. Time is divided into
+ * ticks and the wheel has a bucket for each tick of one turn, a timeout is
+ * kept in the bucket of the tick it is due on, several turns ahead if need
+ * be. Scheduling, rescheduling and cancelling a timeout link or unlink it
+ * from its bucket, so they take the same time however many timeouts are
+ * pending, and each tick only looks at the timeouts in one bucket. Tasks
+ * run up to one tick late, never early.
+ *
+ * A wheel is either driven by the thread that owns it, which calls expire
+ * when the next tick is due, or runs on a thread of its own once started.
+ * Tasks run on the thread that drives the wheel and must not block it. The
+ * default wheel runs on its own thread and is shared by the process.
+ *
+ * Example
+ * HashedWheelTimer.Timeout timeout = HashedWheelTimer.getDefault().schedule(task, 500);
+ * timeout.cancel();
+ */
+public class HashedWheelTimer {
+
+    /**
+     * Default time in ms of each tick
+     */
+    public static final long DEFAULT_TICK = 10;
+
+    /**
+     * Default number of ticks in a turn of the wheel
+     */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /**
+     * Logger used to log information
+     */
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    /**
+     * Wheel shared by the process, run on its own thread
+     */
+    private static final HashedWheelTimer DEFAULT = new HashedWheelTimer(DEFAULT_TICK, DEFAULT_WHEEL_SIZE)
+            .start("wheel-timer");
+
+    /**
+     * First timeout in the bucket of each tick of a turn
+     */
+    private Timeout[] wheel;
+
+    /**
+     * Mask of a tick's bucket, the number of buckets less one
+     */
+    private int mask;
+
+    /**
+     * Time in ns of each tick
+     */
+    private long tick;
+
+    /**
+     * Time in ns that the wheel started from
+     */
+    private long origin;
+
+    /**
+     * Next tick to expire
+     */
+    private long next;
+
+    /**
+     * Number of timeouts pending
+     */
+    private int pending;
+
+    /**
+     * Guards the buckets
+     */
+    private ReentrantLock lock;
+
+    /**
+     * Signalled when the first timeout is scheduled on an empty wheel
+     */
+    private Condition scheduled;
+
+    /**
+     * Thread that drives the wheel, or null if it is driven by its owner
+     */
+    private Thread thread;
+
+    /**
+     * Constructs a wheel driven by the thread that owns it
+     *
+     * @param tick - Time in ms of each tick
+     * @param size - Number of ticks in a turn, rounded up to a power of two
+     */
+    public HashedWheelTimer (long tick, int size) {
+        int buckets = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+
+        this.wheel     = new Timeout[buckets];
+        this.mask      = buckets - 1;
+        this.tick      = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tick));
+        this.origin    = System.nanoTime();
+        this.next      = 0;
+        this.lock      = new ReentrantLock();
+        this.scheduled = this.lock.newCondition();
+    }
+
+    /**
+     * Returns the wheel shared by the process, which runs its tasks on its
+     * own thread
+     *
+     * @return Default wheel
+     */
+    public static HashedWheelTimer getDefault () {
+        return DEFAULT;
+    }
+
+    /**
+     * Drives the wheel from a daemon thread of its own
+     *
+     * @param name - Name of the thread
+     *
+     * @return This wheel
+     */
+    public HashedWheelTimer start (String name) {
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+        return this;
+    }
+
+    /**
+     * Stops the thread of a wheel that was started. Pending timeouts do not run
+     */
+    public void stop () {
+        if (this.thread != null) {
+            this.thread.interrupt();
+        }
+    }
+
+    /**
+     * Schedules a task to run after a delay
+     *
+     * @param task - Task to run
+     * @param delay - Time in ms until the task runs
+     *
+     * @return Timeout that can cancel or reschedule the task
+     */
+    public Timeout schedule (Runnable task, long delay) {
+        Timeout timeout = new Timeout(this, task);
+
+        this.add(timeout, delay);
+        return timeout;
+    }
+
+    /**
+     * Runs the tasks of the timeouts that are due on the calling thread.
+     * Called by the owner of the wheel once the next tick is due
+     *
+     * @return Number of tasks run
+     */
+    public int expire () {
+        Timeout expired = null;
+        Timeout timeout;
+        Timeout following;
+        long current;
+        int count = 0;
+
+        this.lock.lock();
+        try {
+            current = (System.nanoTime() - this.origin) / this.tick;
+            if (current < this.next) {
+                return 0;
+            }
+
+            // A bucket is only looked at once, even if the wheel fell more
+            // than a turn behind
+            for (long t = Math.max(this.next, current - this.mask); t <= current && this.pending > 0; t++) {
+                for (timeout = this.wheel[(int) (t & this.mask)]; timeout != null; timeout = following) {
+                    following = timeout.next;
+                    if (timeout.deadline <= current) {
+                        this.unlink(timeout);
+                        timeout.expiring = true;
+                        timeout.chain = expired;
+                        expired = timeout;
+                    }
+                }
+            }
+            this.next = current + 1;
+        } finally {
+            this.lock.unlock();
+        }
+
+        // A timeout that was cancelled or rescheduled by an earlier task
+        // does not run
+        for (timeout = expired; timeout != null; timeout = following) {
+            following = timeout.chain;
+            timeout.chain = null;
+            if (!this.take(timeout)) {
+                continue;
+            }
+            count++;
+            try {
+                timeout.task.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Timer task failed", e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the time until the next tick, for the owner of the wheel to
+     * wait for
+     *
+     * @return Time in ms until the next tick, 0 if no timeouts are pending
+     */
+    public long nextTick () {
+        this.lock.lock();
+        try {
+            if (this.pending == 0) {
+                return 0;
+            }
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(
+                    this.origin + this.next * this.tick - System.nanoTime() + 999999));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of timeouts pending
+     *
+     * @return Number of pending timeouts
+     */
+    public int size () {
+        this.lock.lock();
+        try {
+            return this.pending;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Links a timeout into the bucket of the tick it is due on, unlinking
+     * it first if it is pending
+     *
+     * @param timeout - The timeout
+     * @param delay - Time in ms until it is due
+     */
+    private void add (Timeout timeout, long delay) {
+        long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delay)) - this.origin;
+        Timeout[] bucket = this.wheel;
+        int index;
+
+        this.lock.lock();
+        try {
+            if (timeout.pending) {
+                this.unlink(timeout);
+            }
+            timeout.expiring = false;
+
+            // Due on the first tick that starts after the delay has passed
+            timeout.deadline = Math.max(this.next, (due + this.tick - 1) / this.tick);
+            index = (int) (timeout.deadline & this.mask);
+            timeout.prev = null;
+            timeout.next = bucket[index];
+            if (timeout.next != null) {
+                timeout.next.prev = timeout;
+            }
+            bucket[index] = timeout;
+            timeout.pending = true;
+            if (this.pending++ == 0) {
+                this.scheduled.signal();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Unlinks a pending timeout from its bucket. Must be called with the
+     * lock held
+     *
+     * @param timeout - The timeout
+     */
+    private void unlink (Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        }
+        else {
+            this.wheel[(int) (timeout.deadline & this.mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.pending = false;
+        this.pending--;
+    }
+
+    /**
+     * Cancels a timeout if it is pending
+     *
+     * @param timeout - The timeout
+     *
+     * @return If the timeout was pending
+     */
+    private boolean remove (Timeout timeout) {
+        this.lock.lock();
+        try {
+            if (timeout.expiring) {
+                timeout.expiring = false;
+                return true;
+            }
+            if (!timeout.pending) {
+                return false;
+            }
+            this.unlink(timeout);
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Takes an expired timeout to run its task
+     *
+     * @param timeout - The timeout
+     *
+     * @return If the task should run, false if it was cancelled or
+     *         rescheduled since it expired
+     */
+    private boolean take (Timeout timeout) {
+        this.lock.lock();
+        try {
+            if (!timeout.expiring) {
+                return false;
+            }
+            timeout.expiring = false;
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Expires the timeouts on each tick until the thread is interrupted,
+     * sleeping while none are pending
+     */
+    private void run () {
+        long wait;
+
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                this.lock.lock();
+                try {
+                    while (this.pending == 0) {
+                        this.scheduled.await();
+                    }
+                } finally {
+                    this.lock.unlock();
+                }
+                wait = this.nextTick();
+                if (wait > 0) {
+                    Thread.sleep(wait);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.expire();
+        }
+    }
+
+    /**
+     * Timeout
+     *
+     * Task scheduled on a wheel. A timeout can be rescheduled after it
+     * was cancelled or ran, so a task that is scheduled again and again
+     * reuses the same timeout
+     */
+    public static class Timeout {
+
+        /**
+         * Wheel the timeout is scheduled on
+         */
+        private final HashedWheelTimer timer;
+
+        /**
+         * Task to run when the timeout is due
+         */
+        private final Runnable task;
+
+        /**
+         * Tick that the timeout is due on
+         */
+        private long deadline;
+
+        /**
+         * If the timeout is linked into its bucket
+         */
+        private boolean pending;
+
+        /**
+         * If the timeout expired and its task has not run yet
+         */
+        private boolean expiring;
+
+        /**
+         * Next timeout that expired on the same tick
+         */
+        private Timeout chain;
+
+        /**
+         * Previous timeout in the bucket
+         */
+        private Timeout prev;
+
+        /**
+         * Next timeout in the bucket
+         */
+        private Timeout next;
+
+        /**
+         * Constructs a timeout that is not scheduled
+         *
+         * @param timer - Wheel to schedule it on
+         * @param task - Task to run when it is due
+         */
+        Timeout (HashedWheelTimer timer, Runnable task) {
+            this.timer = timer;
+            this.task = task;
+        }
+
+        /**
+         * Schedules the task to run after a delay in place of the time it
+         * was scheduled for, or again if it was cancelled or ran
+         *
+         * @param delay - Time in ms until the task runs
+         */
+        public void reschedule (long delay) {
+            this.timer.add(this, delay);
+        }
+
+        /**
+         * Cancels the task if it has not run
+         *
+         * @return If the task was pending
+         */
+        public boolean cancel () {
+            return this.timer.remove(this);
+        }
+
+        /**
+         * Returns if the task is waiting to run. Only reliable on the
+         * thread that drives the wheel
+         *
+         * @return If the timeout is pending
+         */
+        public boolean isPending () {
+            return this.pending;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package core.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Metadata Cache
+ *
+ * Keeps the metadata that requests check before a transfer starts, whether
+ * a file exists, is a regular file and can be read and its size, so that
+ * requests for the same files do not stat them again. Only the files
+ * directly in the watched directory are cached, the directory is watched
+ * for changes and the entry of a file is dropped when the file is created,
+ * deleted or modified, including changes of its permissions. Files outside
+ * the directory are checked on every request.
+ *
+ * The watched directory is created when it is set and again if it is
+ * deleted. Whether the directory can be written to is not reported by its
+ * own watch, so it is checked again after a short interval.
+ *
+ * Example
+ * MetadataCache metadata = new MetadataCache();
+ * metadata.watch("files/");
+ * metadata.get("files/myFile").canRead();
+ * metadata.close();
+ */
+public class MetadataCache implements Closeable {
+
+    /**
+     * Time in ms that the writability of the directory is kept
+     */
+    public static final long DIRECTORY_CHECK_INTERVAL = 1000;
+
+    /**
+     * Logger used to log information
+     */
+    private static final Logger LOGGER = Logger.getGlobal();
+
+    /**
+     * Guards the entries, the directory and the counters
+     */
+    private ReentrantLock lock;
+
+    /**
+     * Metadata of the files in the directory by absolute path
+     */
+    private HashMap<String, Metadata> entries;
+
+    /**
+     * Watches the directory for changes, or null if watching is not supported
+     */
+    private WatchService watcher;
+
+    /**
+     * Absolute path of the watched directory
+     */
+    private Path directory;
+
+    /**
+     * Registration of the directory with the watcher, or null if it is
+     * not watched
+     */
+    private WatchKey key;
+
+    /**
+     * Number of times the entries were invalidated, stats that started
+     * before an invalidation are not cached
+     */
+    private long generation;
+
+    /**
+     * If the directory could be written to when it was last checked
+     */
+    private boolean writable;
+
+    /**
+     * Time in ns that the writability of the directory was last checked
+     */
+    private long writableChecked;
+
+    /**
+     * Number of lookups served from the cache
+     */
+    private long hits;
+
+    /**
+     * Number of lookups that checked the file system
+     */
+    private long misses;
+
+    /**
+     * Number of entries dropped because their files changed
+     */
+    private long invalidations;
+
+    /**
+     * Constructs a cache and starts the thread that watches for changes.
+     * Nothing is cached if the file system cannot be watched
+     */
+    public MetadataCache () {
+        Thread thread;
+
+        this.lock    = new ReentrantLock();
+        this.entries = new HashMap<String, Metadata>();
+        try {
+            this.watcher = FileSystems.getDefault().newWatchService();
+            thread = new Thread(this::run, "metadata-watch");
+            thread.setDaemon(true);
+            thread.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.log(Level.WARNING, "Unable to watch for file changes, file metadata is not cached: " + e.getMessage());
+            this.watcher = null;
+        }
+    }
+
+    /**
+     * Watches a directory in place of the last one, creating it if it
+     * does not exist. The entries of the last directory are dropped
+     *
+     * @param directory - Path of the directory, an empty path is the current directory
+     */
+    public void watch (String directory) {
+        this.lock.lock();
+        try {
+            if (this.key != null) {
+                this.key.cancel();
+                this.key = null;
+            }
+            this.directory = Paths.get(directory.isEmpty() ? "." : directory).toAbsolutePath().normalize();
+            this.writableChecked = 0;
+            this.clear();
+            this.register();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the metadata of a file, from the cache if the file is in the
+     * watched directory and has not changed since it was last checked
+     *
+     * @param path - Path of the file
+     *
+     * @return Metadata of the file
+     */
+    public Metadata get (String path) {
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        String key = file.toString();
+        Metadata metadata;
+        boolean cached;
+        long generation;
+
+        this.lock.lock();
+        try {
+            this.register();
+            cached = this.key != null && this.directory.equals(file.getParent());
+            metadata = cached ? this.entries.get(key) : null;
+            if (metadata != null) {
+                this.hits++;
+                return metadata;
+            }
+            this.misses++;
+            generation = this.generation;
+        } finally {
+            this.lock.unlock();
+        }
+
+        metadata = new Metadata(file.toFile());
+        if (!cached) {
+            return metadata;
+        }
+
+        // A change seen while the file was checked may not be in the
+        // metadata, so it is only cached if nothing changed meanwhile
+        this.lock.lock();
+        try {
+            if (this.generation == generation && this.key != null) {
+                this.entries.put(key, metadata);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        return metadata;
+    }
+
+    /**
+     * Checks if files can be created in the watched directory, which is
+     * the case if it does not exist since it is created for them
+     *
+     * @return If the directory can be written to
+     */
+    public boolean canWrite () {
+        File dir;
+
+        this.lock.lock();
+        try {
+            this.register();
+            if (System.nanoTime() - this.writableChecked < TimeUnit.MILLISECONDS.toNanos(DIRECTORY_CHECK_INTERVAL) &&
+                    this.writableChecked != 0) {
+                return this.writable;
+            }
+            dir = this.directory.toFile();
+            this.writable = !dir.exists() || dir.canWrite();
+            this.writableChecked = System.nanoTime();
+            return this.writable;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Drops the entry of a file so that it is checked again on its next
+     * lookup, for changes that are made before the watch reports them
+     *
+     * @param path - Path of the file
+     */
+    public void invalidate (String path) {
+        this.lock.lock();
+        try {
+            this.generation++;
+            if (this.entries.remove(Paths.get(path).toAbsolutePath().normalize().toString()) != null) {
+                this.invalidations++;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Stops watching for changes. Lookups check the file system from then on
+     */
+    public void close () {
+        this.lock.lock();
+        try {
+            this.key = null;
+            this.clear();
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            if (this.watcher != null) {
+                this.watcher.close();
+            }
+        } catch (IOException e) {
+            // squash it
+        }
+    }
+
+    /**
+     * Returns a summary of the cache statistics
+     */
+    @Override
+    public String toString () {
+        this.lock.lock();
+        try {
+            return "File metadata:     " + this.entries.size() + " files in " + this.directory +
+                            (this.key == null ? " (not watched)" : "") + "\n" +
+                   "Metadata lookups:  " + this.hits + " hits, " + this.misses + " misses, " +
+                            this.invalidations + " changed";
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Creates the directory and watches it if it is not watched, which is
+     * when it is first set or after it was deleted. A directory that cannot
+     * be watched is created on every lookup. Must be called with the lock
+     * held
+     */
+    private void register () {
+        if (this.key != null && this.key.isValid()) {
+            return;
+        }
+        this.key = null;
+        if (this.directory == null) {
+            return;
+        }
+        this.directory.toFile().mkdirs();
+        if (this.watcher == null) {
+            return;
+        }
+        try {
+            this.key = this.directory.register(this.watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | ClosedWatchServiceException e) {
+            LOGGER.log(Level.WARNING, "Unable to watch " + this.directory + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Drops every entry. Must be called with the lock held
+     */
+    private void clear () {
+        this.generation++;
+        this.invalidations += this.entries.size();
+        this.entries.clear();
+    }
+
+    /**
+     * Drops the entries of the files that the watch reports changes to
+     * until the watcher is closed
+     */
+    private void run () {
+        WatchKey key;
+        Path dir;
+
+        while (true) {
+            try {
+                key = this.watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            dir = (Path) key.watchable();
+
+            this.lock.lock();
+            try {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    this.generation++;
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        this.clear();
+                    }
+                    else if (this.entries.remove(dir.resolve((Path) event.context()).toString()) != null) {
+                        this.invalidations++;
+                    }
+                }
+
+                // A directory that was deleted is no longer watched
+                if (!key.reset() && key == this.key) {
+                    this.clear();
+                }
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Metadata
+     *
+     * What a request checks about a file before it is transferred
+     */
+    public static class Metadata {
+
+        /**
+         * If the file exists
+         */
+        private final boolean exists;
+
+        /**
+         * If the file is a regular file
+         */
+        private final boolean file;
+
+        /**
+         * If the file can be read
+         */
+        private final boolean readable;
+
+        /**
+         * Number of bytes in the file
+         */
+        private final long size;
+
+        /**
+         * Checks the metadata of a file
+         *
+         * @param file - The file
+         */
+        Metadata (File file) {
+            this.exists   = file.exists();
+            this.file     = this.exists && file.isFile();
+            this.readable = this.file && file.canRead();
+            this.size     = this.file ? file.length() : 0;
+        }
+
+        /**
+         * Returns if the file exists
+         *
+         * @return If the file exists
+         */
+        public boolean exists () {
+            return this.exists;
+        }
+
+        /**
+         * Returns if the file is a regular file
+         *
+         * @return If the file is not a directory or other special file
+         */
+        public boolean isFile () {
+            return this.file;
+        }
+
+        /**
+         * Returns if the file can be read
+         *
+         * @return If the file is a regular file that can be read
+         */
+        public boolean canRead () {
+            return this.readable;
+        }
+
+        /**
+         * Returns the size of the file
+         *
+         * @return Number of bytes in the file, 0 if it is not a regular file
+         */
+        public long getSize () {
+            return this.size;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package core.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read Ahead
+ *
+ * Background I/O threads that read the upcoming blocks of files while their
+ * transfers wait for acknowledges, so that a transfer finds its next blocks
+ * in memory instead of waiting on the disk. Block readers submit the work:
+ * the pages of a mapped file ahead of the reader are loaded into memory and
+ * the blocks of a file that is read from its channel are read into a ring
+ * of buffers ahead of the reader.
+ *
+ * Reading ahead is only a hint. Work that does not fit in the queue is
+ * dropped, and a reader that gets ahead of the read ahead reads its blocks
+ * itself.
+ *
+ * Example
+ * BlockReader reader = new BlockReader("myFile", 512, 4);
+ * reader.setReadAhead(ReadAhead.getDefault(), 8);
+ */
+public class ReadAhead {
+
+    /**
+     * Default number of background I/O threads
+     */
+    public static final int DEFAULT_THREADS = 2;
+
+    /**
+     * Default number of read ahead tasks that can wait for a thread
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Smallest number of blocks read ahead of a transfer
+     */
+    public static final int MIN_BLOCKS = 8;
+
+    /**
+     * Read ahead shared by the transfers of the process
+     */
+    private static final ReadAhead DEFAULT = new ReadAhead(DEFAULT_THREADS, DEFAULT_CAPACITY);
+
+    /**
+     * Runs the read ahead tasks
+     */
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Number of bytes of mapped files loaded ahead of their readers
+     */
+    private AtomicLong loaded;
+
+    /**
+     * Number of blocks that readers found read ahead
+     */
+    private AtomicLong hits;
+
+    /**
+     * Number of blocks that readers had to read themselves
+     */
+    private AtomicLong misses;
+
+    /**
+     * Number of tasks dropped because the queue was full
+     */
+    private AtomicLong dropped;
+
+    /**
+     * Constructs a read ahead with its own threads
+     *
+     * @param threads - Number of background I/O threads
+     * @param capacity - Number of tasks that can wait for a thread
+     */
+    public ReadAhead (int threads, int capacity) {
+        AtomicInteger count = new AtomicInteger();
+
+        this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, capacity)), (runnable) -> {
+                    Thread thread = new Thread(runnable, "read-ahead-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.loaded  = new AtomicLong();
+        this.hits    = new AtomicLong();
+        this.misses  = new AtomicLong();
+        this.dropped = new AtomicLong();
+    }
+
+    /**
+     * Returns the read ahead shared by the transfers of the process
+     *
+     * @return Default read ahead
+     */
+    public static ReadAhead getDefault () {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the number of blocks to read ahead of a transfer, twice its
+     * window so the next window is read while the current one is sent
+     *
+     * @param windowSize - Number of blocks in the transfer's window
+     *
+     * @return Number of blocks to read ahead
+     */
+    public static int depth (int windowSize) {
+        return Math.max(MIN_BLOCKS, 2 * windowSize);
+    }
+
+    /**
+     * Runs a read ahead task on a background thread
+     *
+     * @param task - Reads the blocks ahead of a reader
+     *
+     * @return If the task was queued, false if it was dropped
+     */
+    boolean submit (Runnable task) {
+        try {
+            this.executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            this.dropped.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Counts the bytes of a mapped file that were loaded ahead
+     *
+     * @param bytes - Number of bytes loaded
+     */
+    void loaded (long bytes) {
+        this.loaded.addAndGet(bytes);
+    }
+
+    /**
+     * Counts a block that a reader found read ahead or had to read itself
+     *
+     * @param hit - If the block was read ahead
+     */
+    void read (boolean hit) {
+        (hit ? this.hits : this.misses).incrementAndGet();
+    }
+
+    /**
+     * Returns a summary of the read ahead statistics
+     */
+    @Override
+    public String toString () {
+        return "Read ahead:        " + (this.loaded.get() / 1024) + " KiB mapped loaded, " + this.hits.get() +
+               " blocks read ahead, " + this.misses.get() + " read by transfers, " + this.dropped.get() + " dropped";
+    }
+}
@@ -0,0 +1,357 @@
+package core.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import core.req.TransferOptions;
+
+/**
+ * Reader Registry
+ *
+ * Shares one source between the transfers that send the same file at the
+ * same time. Files are registered by their canonical path and the version
+ * of the file, its size and modification time. The first transfer opens the
+ * file and every transfer that opens the same version while it is open reads
+ * the same source: small files are read once into memory and large files are
+ * mapped once a region at a time, so the file is read from disk in a single
+ * pass however many transfers send it. Each transfer reads its blocks as
+ * views of the shared source at its own pace and sends them again from
+ * there. The source is closed when the last of its transfers closes its
+ * reader. A file that changes while it is open is opened again as a new
+ * version for the transfers that start after the change.
+ *
+ * Example
+ * ReaderRegistry readers = new ReaderRegistry();
+ * BlockReader reader = readers.open("myFile", 512, 1);
+ * reader.close();
+ */
+public class ReaderRegistry {
+
+    /**
+     * Number of bytes in each mapped region of a large file. Regions overlap
+     * by the largest block so a block never spans two regions
+     */
+    static final int REGION_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Guards the sources and the counters
+     */
+    private ReentrantLock lock;
+
+    /**
+     * Open sources by canonical path
+     */
+    private HashMap<String, Source> sources;
+
+    /**
+     * Number of opens that shared a source that was already open
+     */
+    private long shared;
+
+    /**
+     * Number of sources that were opened
+     */
+    private long opened;
+
+    /**
+     * Constructs an empty registry
+     */
+    public ReaderRegistry () {
+        this.lock    = new ReentrantLock();
+        this.sources = new HashMap<String, Source>();
+    }
+
+    /**
+     * Opens a file to be read in blocks, sharing its source with the other
+     * readers of the same version of the file
+     *
+     * @param path - Path of the file to read
+     * @param blockSize - Number of bytes in each block
+     * @param slots - Number of blocks that can be held at the same time
+     *
+     * @return Reader of the file's blocks, which must be closed
+     *
+     * @throws IOException - If the file cannot be opened
+     */
+    public BlockReader open (String path, int blockSize, int slots) throws IOException {
+        Path file = Paths.get(path).toRealPath();
+        String key = file.toString();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        Source source;
+
+        this.lock.lock();
+        try {
+            source = this.sources.get(key);
+            if (source != null && source.matches(attributes)) {
+                source.readers++;
+                this.shared++;
+                return new BlockReader(source, blockSize, slots);
+            }
+        } finally {
+            this.lock.unlock();
+        }
+
+        // The file is opened outside of the lock, a transfer that opens
+        // the same file meanwhile opens it as well and one of the two is
+        // registered
+        source = new Source(this, key, file, attributes);
+
+        this.lock.lock();
+        try {
+            this.opened++;
+            source.readers++;
+            if (this.sources.get(key) == null || !this.sources.get(key).matches(attributes)) {
+                this.sources.put(key, source);
+            }
+            return new BlockReader(source, blockSize, slots);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a summary of the shared readers
+     */
+    @Override
+    public String toString () {
+        int readers = 0;
+
+        this.lock.lock();
+        try {
+            for (Source source : this.sources.values()) {
+                readers += source.readers;
+            }
+            return "Shared readers:    " + this.sources.size() + " files open for " + readers +
+                   " transfers, " + this.shared + " of " + (this.shared + this.opened) + " opens shared";
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes a reader of a source and closes the source after its last reader
+     *
+     * @param source - Source that the reader read
+     */
+    void release (Source source) {
+        this.lock.lock();
+        try {
+            if (--source.readers > 0) {
+                return;
+            }
+            this.sources.remove(source.key, source);
+        } finally {
+            this.lock.unlock();
+        }
+        source.close();
+    }
+
+    /**
+     * Source
+     *
+     * One version of an open file shared by its readers. Small files are
+     * read into memory when the source is opened and large files are
+     * mapped a region at a time as the regions are first read
+     */
+    static class Source {
+
+        /**
+         * Registry of the source
+         */
+        private final ReaderRegistry registry;
+
+        /**
+         * Canonical path of the file
+         */
+        private final String key;
+
+        /**
+         * Channel of a large file, or null once the file is in memory
+         */
+        private FileChannel channel;
+
+        /**
+         * Number of bytes in the file
+         */
+        private final long size;
+
+        /**
+         * Modification time of the file
+         */
+        private final FileTime modified;
+
+        /**
+         * Number of bytes that can be read, fewer than the size if a small
+         * file was truncated while it was read
+         */
+        private final long length;
+
+        /**
+         * Number of bytes in each region
+         */
+        private final long regionSize;
+
+        /**
+         * Read only regions of the file, mapped when they are first read
+         */
+        private final ByteBuffer[] regions;
+
+        /**
+         * Guards the mapping of the regions
+         */
+        private final ReentrantLock lock;
+
+        /**
+         * Number of open readers, guarded by the registry
+         */
+        int readers;
+
+        /**
+         * Opens a version of a file, reading it into memory if it is small
+         *
+         * @param registry - Registry of the source
+         * @param key - Canonical path of the file
+         * @param file - Path of the file
+         * @param attributes - Attributes of the file when it was opened
+         *
+         * @throws IOException - If the file cannot be opened or read
+         */
+        Source (ReaderRegistry registry, String key, Path file, BasicFileAttributes attributes) throws IOException {
+            ByteBuffer contents;
+
+            this.registry = registry;
+            this.key      = key;
+            this.size     = attributes.size();
+            this.modified = attributes.lastModifiedTime();
+            this.lock     = new ReentrantLock();
+            this.channel  = FileChannel.open(file, StandardOpenOption.READ);
+
+            if (this.size >= BlockReader.MAP_THRESHOLD) {
+                this.length = this.size;
+                this.regionSize = REGION_SIZE;
+                this.regions = new ByteBuffer[(int) ((this.size + REGION_SIZE - 1) / REGION_SIZE)];
+                return;
+            }
+
+            // A small file is read in one pass, a file that is truncated
+            // while it is read is shorter than its size
+            contents = ByteBuffer.allocateDirect((int) this.size);
+            try {
+                while (contents.hasRemaining() && this.channel.read(contents) >= 0);
+            } finally {
+                this.close();
+            }
+            contents.flip();
+            this.length = contents.remaining();
+            this.regionSize = Math.max(1, this.length);
+            this.regions = new ByteBuffer[] { contents.asReadOnlyBuffer() };
+        }
+
+        /**
+         * Returns the number of bytes of the file that can be read
+         *
+         * @return Size of the file when it was opened
+         */
+        long getSize () {
+            return this.length;
+        }
+
+        /**
+         * Returns the number of bytes in each region
+         *
+         * @return Region size
+         */
+        long getRegionSize () {
+            return this.regionSize;
+        }
+
+        /**
+         * Returns if the regions are mappings of the file rather than its
+         * contents read into memory
+         *
+         * @return If the file is mapped
+         */
+        boolean isMapped () {
+            return this.size >= BlockReader.MAP_THRESHOLD;
+        }
+
+        /**
+         * Returns the number of regions of the file
+         *
+         * @return Region count
+         */
+        int getRegionCount () {
+            return this.regions.length;
+        }
+
+        /**
+         * Returns a region of the file, mapping it if it is the first read
+         * of the region. A region holds the bytes from its start to the start
+         * of the next region and as many more as the largest block
+         *
+         * @param index - Index of the region
+         *
+         * @return The region, starting at index times the region size
+         *
+         * @throws IOException - If the region cannot be mapped
+         */
+        ByteBuffer region (int index) throws IOException {
+            long start = (long) index * this.regionSize;
+
+            this.lock.lock();
+            try {
+                if (this.regions[index] == null) {
+                    this.regions[index] = this.channel.map(MapMode.READ_ONLY, start,
+                            Math.min(this.size - start, this.regionSize + TransferOptions.MAX_BLOCK_SIZE));
+                }
+                return this.regions[index];
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        /**
+         * Checks if the file still has the size and modification time it
+         * was opened with
+         *
+         * @param attributes - Current attributes of the file
+         *
+         * @return If the source is the current version of the file
+         */
+        boolean matches (BasicFileAttributes attributes) {
+            return this.size == attributes.size() && this.modified.equals(attributes.lastModifiedTime());
+        }
+
+        /**
+         * Removes a reader of the source
+         */
+        void release () {
+            this.registry.release(this);
+        }
+
+        /**
+         * Closes the channel of the file. Mapped regions stay valid for the
+         * blocks that were already returned
+         */
+        private void close () {
+            try {
+                if (this.channel != null) {
+                    this.channel.close();
+                    this.channel = null;
+                }
+            } catch (IOException e) {
+                // squash it
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package core.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Ring Buffer
+ *
+ * Bounded queue for many producer threads and a single consumer thread that
+ * never blocks or locks. A producer claims a slot by advancing the tail and
+ * then publishes its element into the slot; the consumer takes elements in
+ * the order the slots were claimed. A producer that finds the buffer full
+ * is refused rather than made to wait.
+ *
+ * Example
+ * RingBuffer&lt;String&gt; ring = new RingBuffer&lt;String&gt;(1024);
+ * ring.offer("message");
+ * String next = ring.poll();
+ */
+public class RingBuffer<T> {
+
+    /**
+     * Slots of the buffer, a slot is null until its element is published
+     */
+    private AtomicReferenceArray<T> slots;
+
+    /**
+     * Mask of a sequence number to its slot, the capacity is a power of two
+     */
+    private int mask;
+
+    /**
+     * Sequence number of the next slot to be claimed by a producer
+     */
+    private AtomicLong tail;
+
+    /**
+     * Sequence number of the next slot to be taken by the consumer
+     */
+    private AtomicLong head;
+
+    /**
+     * Constructs a ring buffer that holds at least the given number of
+     * elements, rounded up to a power of two
+     *
+     * @param capacity - Number of elements that can be held
+     */
+    public RingBuffer (int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+        this.slots = new AtomicReferenceArray<T>(size);
+        this.mask  = size - 1;
+        this.tail  = new AtomicLong();
+        this.head  = new AtomicLong();
+    }
+
+    /**
+     * Adds an element to the buffer unless it is full. Safe to call
+     * from any number of threads
+     *
+     * @param element - Element to add
+     *
+     * @return If the element was added
+     */
+    public boolean offer (T element) {
+        long sequence;
+
+        do {
+            sequence = this.tail.get();
+            if (sequence - this.head.get() > this.mask) {
+                return false;
+            }
+        } while (!this.tail.compareAndSet(sequence, sequence + 1));
+
+        this.slots.lazySet((int) sequence & this.mask, element);
+        return true;
+    }
+
+    /**
+     * Takes the oldest element from the buffer. Must only be called
+     * from the consumer thread
+     *
+     * @return The oldest element, or null if the buffer is empty or the
+     *         oldest element has been claimed but not yet published
+     */
+    public T poll () {
+        long sequence = this.head.get();
+        int slot = (int) sequence & this.mask;
+        T element = this.slots.get(slot);
+
+        if (element != null) {
+            this.slots.lazySet(slot, null);
+            this.head.lazySet(sequence + 1);
+        }
+        return element;
+    }
+
+    /**
+     * Checks if every claimed slot has been taken by the consumer
+     *
+     * @return If the buffer is empty
+     */
+    public boolean isEmpty () {
+        return this.head.get() == this.tail.get();
+    }
+
+    /**
+     * Returns the number of elements that can be held
+     *
+     * @return Capacity of the buffer
+     */
+    public int capacity () {
+        return this.mask + 1;
+    }
+}
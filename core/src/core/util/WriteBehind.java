@@ -0,0 +1,280 @@
+package core.util;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write Behind
+ *
+ * Background I/O threads that write the blocks received by transfers to
+ * their files, so that a transfer acknowledges its next window while the
+ * last one is written. Block writers coalesce the blocks they are given into
+ * large buffers and hand the full buffers to these threads. The files of
+ * writers with group commit durability are forced to disk together by a
+ * commit thread on a fixed interval.
+ *
+ * Example
+ * BlockWriter writer = new BlockWriter("myFile", Durability.GROUP, WriteBehind.getDefault());
+ */
+public class WriteBehind {
+
+    /**
+     * Default number of background I/O threads
+     */
+    public static final int DEFAULT_THREADS = 2;
+
+    /**
+     * Default number of write tasks that can wait for a thread
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    /**
+     * Time in ms between the group commits
+     */
+    public static final long COMMIT_INTERVAL = 1000;
+
+    /**
+     * Number of bytes in each buffer that blocks are coalesced into
+     */
+    public static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Number of free buffers kept for the next writers
+     */
+    public static final int POOLED_BUFFERS = 64;
+
+    /**
+     * Write behind shared by the transfers of the process
+     */
+    private static final WriteBehind DEFAULT = new WriteBehind(DEFAULT_THREADS, DEFAULT_CAPACITY);
+
+    /**
+     * Runs the write tasks
+     */
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Free buffers kept for the next writers
+     */
+    private ConcurrentLinkedQueue<ByteBuffer> pool;
+
+    /**
+     * Number of free buffers kept
+     */
+    private AtomicInteger pooled;
+
+    /**
+     * Guards the writers waiting for the next commit and the commit thread
+     */
+    private ReentrantLock lock;
+
+    /**
+     * Writers with data written since the last group commit
+     */
+    private LinkedHashSet<BlockWriter> uncommitted;
+
+    /**
+     * Thread that runs the group commits, started by the first writer
+     * that needs one
+     */
+    private Thread committer;
+
+    /**
+     * Number of buffers written behind their transfers
+     */
+    private AtomicLong buffers;
+
+    /**
+     * Number of bytes written behind their transfers
+     */
+    private AtomicLong bytes;
+
+    /**
+     * Number of blocks written by their transfers because every buffer
+     * was waiting to be written
+     */
+    private AtomicLong direct;
+
+    /**
+     * Number of files forced to disk
+     */
+    private AtomicLong forced;
+
+    /**
+     * Number of group commits that forced at least one file
+     */
+    private AtomicLong commits;
+
+    /**
+     * Constructs a write behind with its own threads
+     *
+     * @param threads - Number of background I/O threads
+     * @param capacity - Number of write tasks that can wait for a thread
+     */
+    public WriteBehind (int threads, int capacity) {
+        AtomicInteger count = new AtomicInteger();
+
+        this.executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, capacity)), (runnable) -> {
+                    Thread thread = new Thread(runnable, "write-behind-" + count.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.pool        = new ConcurrentLinkedQueue<ByteBuffer>();
+        this.pooled      = new AtomicInteger();
+        this.lock        = new ReentrantLock();
+        this.uncommitted = new LinkedHashSet<BlockWriter>();
+        this.buffers     = new AtomicLong();
+        this.bytes       = new AtomicLong();
+        this.direct      = new AtomicLong();
+        this.forced      = new AtomicLong();
+        this.commits     = new AtomicLong();
+    }
+
+    /**
+     * Returns the write behind shared by the transfers of the process
+     *
+     * @return Default write behind
+     */
+    public static WriteBehind getDefault () {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns a summary of the write behind statistics
+     */
+    @Override
+    public String toString () {
+        return "Write behind:      " + (this.bytes.get() / 1024) + " KiB in " + this.buffers.get() +
+               " writes, " + this.direct.get() + " blocks written by transfers, " + this.forced.get() +
+               " files forced in " + this.commits.get() + " group commits";
+    }
+
+    /**
+     * Runs a write task on a background thread
+     *
+     * @param task - Writes the full buffers of a writer
+     *
+     * @return If the task was queued, false if the caller must run it
+     */
+    boolean submit (Runnable task) {
+        try {
+            this.executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Takes a free buffer from the pool, or allocates one if the pool is empty
+     *
+     * @return Empty buffer of BUFFER_SIZE bytes
+     */
+    ByteBuffer allocate () {
+        ByteBuffer buffer = this.pool.poll();
+
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        this.pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer that is no longer used to the pool, buffers that do
+     * not fit are left to the garbage collector
+     *
+     * @param buffer - Buffer taken from the pool
+     */
+    void recycle (ByteBuffer buffer) {
+        if (this.pooled.incrementAndGet() > POOLED_BUFFERS) {
+            this.pooled.decrementAndGet();
+            return;
+        }
+        this.pool.offer(buffer);
+    }
+
+    /**
+     * Adds a writer to the next group commit
+     *
+     * @param writer - Writer with data that is not forced to disk
+     */
+    void commitLater (BlockWriter writer) {
+        this.lock.lock();
+        try {
+            this.uncommitted.add(writer);
+            if (this.committer == null) {
+                this.committer = new Thread(this::commit, "group-commit");
+                this.committer.setDaemon(true);
+                this.committer.start();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Counts a buffer written behind its transfer
+     *
+     * @param bytes - Number of bytes in the buffer
+     */
+    void written (int bytes) {
+        this.buffers.incrementAndGet();
+        this.bytes.addAndGet(bytes);
+    }
+
+    /**
+     * Counts a block written by its transfer
+     */
+    void writtenDirect () {
+        this.direct.incrementAndGet();
+    }
+
+    /**
+     * Counts a file forced to disk
+     */
+    void forced () {
+        this.forced.incrementAndGet();
+    }
+
+    /**
+     * Forces the files written since the last commit to disk on the commit
+     * interval
+     */
+    private void commit () {
+        BlockWriter[] writers;
+
+        while (true) {
+            try {
+                Thread.sleep(COMMIT_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            this.lock.lock();
+            try {
+                writers = this.uncommitted.toArray(new BlockWriter[0]);
+                this.uncommitted.clear();
+            } finally {
+                this.lock.unlock();
+            }
+
+            if (writers.length > 0) {
+                this.commits.incrementAndGet();
+            }
+            for (BlockWriter writer : writers) {
+                writer.commit();
+            }
+        }
+    }
+}
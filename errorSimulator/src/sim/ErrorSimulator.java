@@ -7,6 +7,8 @@ import java.util.ArrayList;
 import java.util.logging.Level;
 import core.cli.Command;
 import core.ctrl.Controller;
+import core.net.NodeSocket;
+import core.req.BlockNumber;
 import stream.SimulatorStream;
 import stream.SimulatorStreamFactory;
 import threads.SimulationEventListener;
@@ -15,8 +17,8 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
 
     public static final int SIMULATOR_PORT = 68;
     public static final int REQUEST_PACKET = 1;
-    public static final int HIGHEST_PACKET = Short.MAX_VALUE*2 + 1;
-    public static final int TIMEOUT_MILLISECONDS = 2400;
+    public static final int HIGHEST_PACKET = Integer.MAX_VALUE;
+    public static final int TIMEOUT_MILLISECONDS = NodeSocket.DEFAULT_TIMEOUT;
 
     /**
      * Declare valid commands as static final
@@ -89,8 +91,11 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
         System.out.println("TFTP Error Simulator");
         System.out.println("<type> must be either 'ack','data', or 'req'");
         System.out.println("<packetNum> starts counting at 1 (The first data packet is data 1)");
+        System.out.println("Packets are counted, not read by block number, so counting continues when block numbers roll over");
         System.out.println("Each simulation runs for a single transfer. The mode reset to norm after each transfer");
-        System.out.println("The server and client timeout is " + TIMEOUT_MILLISECONDS  + "ms\n");
+        System.out.println("Delays are in milliseconds. The server and client first wait " + TIMEOUT_MILLISECONDS + "ms"
+                + " before sending a packet again, after which they wait for the measured round trip time"
+                + " and double the wait each time they send the same packet again\n");
         System.out.println("    Commands:");
         System.out.println("    help                                         	Prints this message");
         System.out.println("    shutdown                                     	Exits the simulator");
@@ -100,10 +105,10 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
         System.out.println("    mode          <mode>                         	Changes the mode of the next request packet");
         System.out.println("    csa           <type> <packetNum>                    Changes the sender TID of a specified packet");
         System.out.println("    op            <type> <packetNum> <opCode>		Changes the opcode of a specified packet");
-        System.out.println("    bnum          <type> <packetNum> <opCode>		Changes the block number of a specified packet");
+        System.out.println("    bnum          <type> <packetNum> <blockNum>		Changes the block number of a specified packet");
         System.out.println("    cl            <type> <packetNum> <packetLen>	Changes the length of a specified packet");
-        System.out.println("    delay         <type> <packetNum> <numTimeouts>	Delays the specified packet by a number of timeouts");
-        System.out.println("    duplicate     <type> <packetNum> <numTimeouts>	Sends a duplicate of the specified packet after a number of timeouts");
+        System.out.println("    delay         <type> <packetNum> <delayMs>		Delays the specified packet by a number of milliseconds");
+        System.out.println("    duplicate     <type> <packetNum> <delayMs>		Sends a duplicate of the specified packet after a number of milliseconds");
         System.out.println("    drop          <type> <packetNum>			Drops the specified packet");
     }
 
@@ -178,7 +183,8 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
     }
 
     /**
-     * Sets the simulator configuration to delay a packet
+     * Sets the simulator configuration to delay a packet by a number of
+     * milliseconds
      * @param arguments
      */
     private void delayPacketSimulation(ArrayList<String> arguments) {
@@ -186,9 +192,9 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
             throw new IllegalArgumentException("Delay simulation requires 3 arguments");
         }
         int packetNum = verifyNum(arguments.get(1), 1);
-        int timeout = Integer.parseInt(arguments.get(2)) * TIMEOUT_MILLISECONDS;
+        int timeout = verifyNum(arguments.get(2), 0);
         if (timeout < 0){
-            this.cli.message("Timeout must be a positive number");
+            this.cli.message("Delay must be a positive number of milliseconds");
             return;
         }
         if(packetNum > 0 && packetNum < HIGHEST_PACKET) {
@@ -202,7 +208,7 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
                 this.cli.message(e.getMessage());
             }
         } else {
-            this.cli.message("Packet Number out of bounds:   1 < packetNumber < 65535");
+            this.cli.message("Packet Number out of bounds:   1 <= packetNumber < " + HIGHEST_PACKET);
         }
 
     }
@@ -227,12 +233,13 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
                 this.cli.message(e.getMessage());
             }
         } else {
-            this.cli.message("Packet Number out of bounds:   1 < packetNumber < 65535");
+            this.cli.message("Packet Number out of bounds:   1 <= packetNumber < " + HIGHEST_PACKET);
         }
     }
 
     /**
-     * Sets the simulator configuration to delay a packet
+     * Sets the simulator configuration to duplicate a packet after a
+     * number of milliseconds
      * @param arguments
      */
     private void duplicatePacketSimulation(ArrayList<String> arguments) {
@@ -240,7 +247,11 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
 			throw new IllegalArgumentException("Duplicate simulation requires 3 arguments");
 		}
 	    int packetNum = verifyNum(arguments.get(1), 1);
-	    int delay = verifyNum(arguments.get(2), 0) * TIMEOUT_MILLISECONDS;
+	    int delay = verifyNum(arguments.get(2), 0);
+	    if (delay < 0){
+	        this.cli.message("Delay must be a positive number of milliseconds");
+	        return;
+	    }
 
         if(packetNum > 0 && packetNum < HIGHEST_PACKET) {
 	    	try {
@@ -253,7 +264,7 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
 				this.cli.message(e.getMessage());
 			}
         } else {
-            this.cli.message("Packet Number out of bounds:   1 < packetNumber < 65535");
+            this.cli.message("Packet Number out of bounds:   1 <= packetNumber < " + HIGHEST_PACKET);
         }
     }
 
@@ -332,7 +343,7 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
             this.cli.message("Packet " + packetNum + " will now be sent from the wrong sender");
         }
         else {
-            this.cli.message("Packet Number out of bounds:   1 < packetNumber < 65535");
+            this.cli.message("Packet Number out of bounds:   1 <= packetNumber < " + HIGHEST_PACKET);
         }
 
     }
@@ -363,7 +374,7 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
             this.cli.message("Packet " + packetNum + " will now have its length changed to " + length);
         }
         else {
-            this.cli.message("Packet Number out of bounds:   1 < packetNumber < 65535");
+            this.cli.message("Packet Number out of bounds:   1 <= packetNumber < " + HIGHEST_PACKET);
         }
     }
 
@@ -412,7 +423,7 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
             }
         }
         else {
-            this.cli.message("Packet Number out of bounds:   1 < packetNumber < 65535");
+            this.cli.message("Packet Number out of bounds:   1 <= packetNumber < " + HIGHEST_PACKET);
         }
     }
 
@@ -433,9 +444,10 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
 
         int packetNum = verifyNum(args.get(1), 1);
         if(packetNum >= 0 && packetNum < HIGHEST_PACKET) {
-            //Parse out the opcode into bytes
-            short blockNumShort = (short)verifyNum(blockNum, Short.MIN_VALUE);
-            if(Short.MIN_VALUE < blockNumShort && blockNumShort < Short.MAX_VALUE) {
+            //Parse out the block number into bytes, block numbers are unsigned
+            int blockNumValue = verifyNum(blockNum, 0);
+            short blockNumShort = (short) blockNumValue;
+            if(0 <= blockNumValue && blockNumValue <= BlockNumber.MAX_BLOCK) {
                 ByteArrayOutputStream out = new ByteArrayOutputStream();
                 ByteBuffer b = ByteBuffer.allocate(2);
                 b.putShort(blockNumShort);
@@ -455,14 +467,14 @@ public class ErrorSimulator extends Controller implements SimulationEventListene
                 } catch (SocketException e) {
                     e.printStackTrace();
                 }
-                this.cli.message("Packet " + packetNum + " will now have its block number changed to " + blockNumShort);
+                this.cli.message("Packet " + packetNum + " will now have its block number changed to " + blockNumValue);
             }
             else {
-                this.cli.message("OpCode out of bounds.  -32727 < opcode < 32728");
+                this.cli.message("Block number out of bounds.  0 <= blockNum <= " + BlockNumber.MAX_BLOCK);
             }
         }
         else {
-            this.cli.message("Packet Number out of bounds:   1 < packetNumber < 65535");
+            this.cli.message("Packet Number out of bounds:   1 <= packetNumber < " + HIGHEST_PACKET);
         }
     }
 
@@ -4,6 +4,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.util.Arrays;
+import java.util.Map;
 
 import core.req.AckMessage;
 import core.req.DataMessage;
@@ -128,6 +129,14 @@ public class PacketModifier {
                 out.write(0);
             }
 
+            // Preserve any options appended to the request
+            for (Map.Entry<String, String> option : inMessage.getOptions().entrySet()) {
+                out.write(option.getKey().getBytes());
+                out.write(0);
+                out.write(option.getValue().getBytes());
+                out.write(0);
+            }
+
             return(handleLength(out));
         } catch(IOException e) {
             return new DatagramPacket(inBytes, inBytes.length, packetIn.getSocketAddress());
@@ -2,10 +2,6 @@ package stream;
 
 import java.net.DatagramPacket;
 import java.net.SocketException;
-import java.util.Arrays;
-import core.req.InvalidMessageException;
-import core.req.Message;
-import core.req.MessageFactory;
 import core.req.OpCode;
 
 /**
@@ -24,17 +20,9 @@ public class CountAcksStream extends PacketStream {
      */
     @Override
     protected void incNumRecieved(DatagramPacket packet) {
-        byte[] bytes = Arrays.copyOfRange(packet.getData(), 0, packet.getLength());
-        Message msg;
-        try {
-            msg = MessageFactory.createMessage(bytes);
-            if(OpCode.ACK.equals(msg.getOpCode())) {
-                super.incNumRecieved(packet);
-            }
-        } catch (InvalidMessageException e) {
-            // don't increment count
+        if (hasOpCode(packet, OpCode.ACK)) {
+            super.incNumRecieved(packet);
         }
-
     }
 
 }
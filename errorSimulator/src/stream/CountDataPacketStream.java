@@ -2,11 +2,7 @@ package stream;
 
 import java.net.DatagramPacket;
 import java.net.SocketException;
-import java.util.Arrays;
 
-import core.req.InvalidMessageException;
-import core.req.Message;
-import core.req.MessageFactory;
 import core.req.OpCode;
 
 /**
@@ -21,20 +17,15 @@ public class CountDataPacketStream extends PacketStream {
     }
 
     /**
-     * increment the number of packets received only if the packet is a data packet
+     * increment the number of packets received only if the packet is a data packet.
+     * Packets are counted rather than read by block number, so the count carries on
+     * once the block numbers roll over, and only the op code is read so that large
+     * transfers are not slowed down by decoding every block
      */
     @Override
     protected void incNumRecieved(DatagramPacket packet) {
-        byte[] bytes = Arrays.copyOfRange(packet.getData(), 0, packet.getLength());
-        Message msg;
-        try {
-            msg = MessageFactory.createMessage(bytes);
-            if(OpCode.DATA.equals(msg.getOpCode())) {
-                super.incNumRecieved(packet);
-            }
-        } catch (InvalidMessageException e) {
-            // don't increment count
+        if (hasOpCode(packet, OpCode.DATA)) {
+            super.incNumRecieved(packet);
         }
-
     }
 }
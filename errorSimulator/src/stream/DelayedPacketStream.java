@@ -7,6 +7,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import core.req.InvalidMessageException;
+import core.util.HashedWheelTimer;
 
 /**
  * DelayedPacketStream
@@ -40,19 +41,16 @@ public class DelayedPacketStream extends SimulatorStream {
     @Override
     public boolean send(final DatagramPacket packet) throws IOException, InvalidMessageException {
         if ((stream.getNumberPacketsOfPackets() == delayedPacketNumber) && !alreadyDelayed){
-            Thread t = new Thread(new Runnable(){
-                public void run(){
-                    try {
-                        LOGGER.log(Level.INFO, "Delaying packet by " + delayTime + "ms : " + Arrays.toString(packet.getData()));
-                        Thread.sleep(delayTime);
-                        stream.send(packet);
-                    } catch (IOException | InterruptedException e) {
-                        e.printStackTrace();
-                    }
+            LOGGER.log(Level.INFO, "Delaying packet by " + delayTime + "ms : " + Arrays.toString(packet.getData()));
+            // The packet is sent by the shared timer rather than a sleeping thread
+            HashedWheelTimer.getDefault().schedule(() -> {
+                try {
+                    stream.send(packet);
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
-            });
+            }, delayTime);
             alreadyDelayed = true;
-            t.start();
         }else{
             stream.send(packet);
         }
@@ -12,6 +12,7 @@ import core.req.Message;
 import core.req.MessageFactory;
 import core.req.OpCode;
 import core.util.ByteUtils;
+import core.util.HashedWheelTimer;
 import threads.SimulatorThread;
 
 public class DuplicatePacketStream extends SimulatorStream {
@@ -38,53 +39,38 @@ public class DuplicatePacketStream extends SimulatorStream {
     public boolean send(DatagramPacket packet) throws IOException, InvalidMessageException {
         this.stream.send(packet);
         if (!hasDuplicated && (this.stream.getNumberPacketsOfPackets() == this.duplicatedPacketNumber)){
-            LOGGER.log(Level.INFO, "Duplicating packet: " + ByteUtils.bytesToHexString(packet.getData()));
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.log(Level.INFO, "Duplicating packet: " + ByteUtils.bytesToHexString(
+                        packet.getData(), packet.getOffset(), packet.getLength()));
+            }
            
             Message msg=MessageFactory.createMessage(packet.getData());
             Runnable task;
             if (OpCode.READ.equals(msg.getOpCode())||OpCode.WRITE.equals(msg.getOpCode())) {
-            	packet.setSocketAddress(getClientAddress()); 
-            	// Spawn new thread for duplicate request
-            	task = new Runnable(){
-					@Override
-					public void run() {
-						try {
-							Thread.sleep(delay);
-							SimulatorThread task = new SimulatorThread(packet, new PacketStream());
-							task.run();
-						} catch (SocketException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						} catch (UnknownHostException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						} catch (InterruptedException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-					}
-            		
-            	};
+                packet.setSocketAddress(getClientAddress());
+                // The duplicate request runs a whole simulation, so it gets its
+                // own thread once the delay is over
+                task = () -> new Thread(() -> {
+                    try {
+                        new SimulatorThread(packet, new PacketStream()).run();
+                    } catch (SocketException | UnknownHostException e) {
+                        e.printStackTrace();
+                    }
+                }).start();
             }else {
-            	task = new Runnable () {
-					@Override
-					public void run() {
-	            		try {
-	            			Thread.sleep(delay);
-							stream.send(packet);
-						} catch (IOException e) {
-							e.printStackTrace();
-						} catch (InterruptedException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						} 	
-					} 
-            	};
+                task = () -> {
+                    try {
+                        stream.send(packet);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                };
             }
-            if(delay>0 || OpCode.READ.equals(msg.getOpCode())||OpCode.WRITE.equals(msg.getOpCode()) ) {
-            	new Thread(task).start();
+            // Delayed duplicates are sent by the shared timer rather than a sleeping thread
+            if (delay > 0) {
+                HashedWheelTimer.getDefault().schedule(task, delay);
             }else {
-            	task.run();
+                task.run();
             }
             hasDuplicated = true;
         }
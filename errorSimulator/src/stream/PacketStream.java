@@ -4,15 +4,21 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
-import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import core.req.DataMessage;
+import core.req.OpCode;
+import core.req.TransferOptions;
 import core.util.ByteUtils;
 
 
 public class PacketStream extends SimulatorStream {
 
 	private static final Logger LOGGER = Logger.getGlobal();
+	/**
+	 * Large enough to hold a data packet of the largest negotiable block size
+	 */
+	private static final int BUFFER_SIZE = TransferOptions.MAX_BLOCK_SIZE + DataMessage.HEADER_SIZE;
     private DatagramSocket socket;
     private int numReceived;
 
@@ -26,7 +32,7 @@ public class PacketStream extends SimulatorStream {
      * @throws IOException if stream closes during transfer
      */
     public DatagramPacket receive() throws IOException {
-        DatagramPacket packet = new DatagramPacket(new byte[1024], 1024);
+        DatagramPacket packet = new DatagramPacket(new byte[BUFFER_SIZE], BUFFER_SIZE);
         socket.receive(packet);
         incNumRecieved(packet);
         return packet;
@@ -38,10 +44,11 @@ public class PacketStream extends SimulatorStream {
      * @throws IOException if the socket is closed during transfer
      */
     public boolean send(DatagramPacket packet) throws IOException {
-    	LOGGER.log(Level.INFO, "Sending from "+socket.getLocalSocketAddress());
-        byte[] bytes = Arrays.copyOfRange(packet.getData(), 0, packet.getLength());
-        LOGGER.log(Level.INFO, "Bytes are: "+ByteUtils.bytesToHexString(bytes));
-        LOGGER.log(Level.INFO,"Sending message to: "+packet.getSocketAddress());
+        if (LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.log(Level.INFO, "Sending from "+socket.getLocalSocketAddress());
+            LOGGER.log(Level.INFO, "Bytes are: "+ByteUtils.bytesToHexString(packet.getData(), packet.getOffset(), packet.getLength()));
+            LOGGER.log(Level.INFO,"Sending message to: "+packet.getSocketAddress());
+        }
         socket.send(packet);
         return true;
     }
@@ -53,6 +60,19 @@ public class PacketStream extends SimulatorStream {
     public int getNumberPacketsOfPackets() {
         return numReceived;
     }
+    /**
+     * Checks the op code of a packet without decoding the rest of it
+     * @param packet the {@link DatagramPacket} to check
+     * @param code the op code to look for
+     * @return true if the packet starts with the op code
+     */
+    protected static boolean hasOpCode(DatagramPacket packet, OpCode code) {
+        byte[] data = packet.getData();
+        int offset = packet.getOffset();
+
+        return packet.getLength() >= 2 && data[offset] == 0 && data[offset + 1] == code.getCode();
+    }
+
     /**
      * increment the number of packets received whenever a packet is received
      * @param packet the {@link DatagramPacket} that needs to be checked before incrementing the number of packets received
@@ -3,7 +3,6 @@ package stream;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.SocketException;
-import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import core.req.InvalidMessageException;
@@ -57,9 +56,11 @@ public class WrongSenderStream extends SimulatorStream {
             LOGGER.log(Level.INFO,"Sending packet from wrong stream");
             wrongStream.send(packet);
             DatagramPacket responsePacket=wrongStream.receive();
-            byte[] bytes = Arrays.copyOfRange(responsePacket.getData(), 0, responsePacket.getLength());
-            LOGGER.log(Level.INFO,"Received Packet From "+responsePacket.getSocketAddress());
-            LOGGER.log(Level.INFO, "Bytes are: "+ByteUtils.bytesToHexString(bytes));
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.log(Level.INFO,"Received Packet From "+responsePacket.getSocketAddress());
+                LOGGER.log(Level.INFO, "Bytes are: "+ByteUtils.bytesToHexString(
+                        responsePacket.getData(), responsePacket.getOffset(), responsePacket.getLength()));
+            }
         }else {
             mainStream.send(packet);
         }
@@ -10,10 +10,13 @@ import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import core.req.DataMessage;
 import core.req.InvalidMessageException;
 import core.req.Message;
 import core.req.MessageFactory;
 import core.req.OpCode;
+import core.req.OptionAckMessage;
+import core.req.TransferOptions;
 import stream.SimulatorStream;
 
 /**
@@ -29,6 +32,7 @@ public  class SimulatorThread extends Thread {
     private SocketAddress serverAddress;
     private SimulatorStream stream;
     private SimulationEventListener eventListener;
+    private int blockSize;
 
     /**
      * Creates a new socket and sets the timeout to 1000
@@ -41,6 +45,7 @@ public  class SimulatorThread extends Thread {
         this.packetIn=packet;
         this.sendAddress= new InetSocketAddress(InetAddress.getLocalHost(),69);
         this.stream = stream;
+        this.blockSize = DataMessage.BLOCK_SIZE;
         this.clientAddress = packet.getSocketAddress(); //save address of client from initial request
         this.stream.setClientAddress(clientAddress); // save the client address in the stream
     }
@@ -62,7 +67,7 @@ public  class SimulatorThread extends Thread {
             sendPacket(msg, sendAddress);
             msg = receivePacket();
             serverAddress = packetIn.getSocketAddress(); //Server address must come from the first response to initial request
-            while(!MessageFactory.isLastMessage(msg)){
+            while(!MessageFactory.isLastMessage(msg, blockSize)){
 
                 LOGGER.log(Level.INFO,"Message is "+msg);
                 sendPacket(msg);
@@ -104,7 +109,27 @@ public  class SimulatorThread extends Thread {
         packetIn=stream.receive();
         byte[] bytes = Arrays.copyOfRange(packetIn.getData(), 0, packetIn.getLength());
         LOGGER.log(Level.INFO,"Received Packet From "+packetIn.getSocketAddress());
-        return MessageFactory.createMessage(bytes);
+        Message msg = MessageFactory.createMessage(bytes);
+        trackBlockSize(msg);
+        return msg;
+    }
+
+    /**
+     * Records the block size acknowledged in an option acknowledge so that the
+     * last data packet of the transfer can be detected
+     * @param msg The received message
+     */
+    private void trackBlockSize(Message msg) {
+        if (OpCode.OACK.equals(msg.getOpCode())) {
+            String size = ((OptionAckMessage) msg).getOptions().get(TransferOptions.BLOCK_SIZE_OPTION);
+            try {
+                if (size != null) {
+                    blockSize = Integer.parseInt(size);
+                }
+            } catch (NumberFormatException e) {
+                // The endpoints will reject the invalid option
+            }
+        }
     }
 
     /**
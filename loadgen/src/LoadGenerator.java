@@ -0,0 +1,492 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import core.net.ReadTransfer;
+import core.net.Transfer;
+import core.net.TransferListener;
+import core.net.WriteTransfer;
+import core.req.AckMessage;
+import core.req.ErrorMessage;
+import core.req.Message;
+import core.req.TransferOptions;
+
+/**
+ * Load Generator
+ *
+ * Drives concurrent read and write transfers against a server over the
+ * loopback interface and reports the aggregate throughput and completion
+ * time percentiles as JSON. The server is embedded unless the address of
+ * a running server is given.
+ *
+ * The files are generated in a work directory before the run, one for each
+ * file size. Each worker runs one transfer at a time so the concurrency is
+ * the number of workers. A transfer is complete once the last block has
+ * been acknowledged, the dally of the receiver after the last acknowledge
+ * is not part of its completion time. A received file that differs from
+ * the file it was transferred from is recorded as a failed transfer.
+ *
+ * Example
+ * java LoadGenerator -transfers=1000 -concurrency=32 -blksize=1428 -engine=nio
+ */
+public class LoadGenerator {
+
+    /**
+     * Command line value of the number of measured transfers
+     */
+    public static final String TRANSFERS_VALUE = "transfers";
+
+    /**
+     * Command line value of the number of transfers run before measuring
+     */
+    public static final String WARMUP_VALUE = "warmup";
+
+    /**
+     * Command line value of the number of transfers that run at once
+     */
+    public static final String CONCURRENCY_VALUE = "concurrency";
+
+    /**
+     * Command line value of the comma separated file sizes in bytes
+     */
+    public static final String SIZES_VALUE = "sizes";
+
+    /**
+     * Command line value of the kind of transfers, read, write or mixed
+     */
+    public static final String MIX_VALUE = "mix";
+
+    /**
+     * Command line value of the server port
+     */
+    public static final String PORT_VALUE = "port";
+
+    /**
+     * Command line value of the host of a running server to use in place
+     * of the embedded server
+     */
+    public static final String SERVER_VALUE = "server";
+
+    /**
+     * Command line value of the work directory of the files
+     */
+    public static final String DIRECTORY_VALUE = "dir";
+
+    /**
+     * Command line value of the file to write the report to
+     */
+    public static final String REPORT_VALUE = "report";
+
+    /**
+     * File sizes of the test files, plus a generated 4 MiB file
+     */
+    public static final String DEFAULT_SIZES = "0,200,512,2048,100000,4194304";
+
+    /**
+     * Default port of the embedded server
+     */
+    public static final int DEFAULT_PORT = 6970;
+
+    /**
+     * Prefix of the names of the generated files
+     */
+    private static final String FILE_PREFIX = "load-";
+
+    /**
+     * Values given on the command line
+     */
+    private Map<String, String> values;
+
+    /**
+     * Address of the server
+     */
+    private InetSocketAddress address;
+
+    /**
+     * Directory of the files served by the server
+     */
+    private File serverDirectory;
+
+    /**
+     * Directory of the files of the clients
+     */
+    private File clientDirectory;
+
+    /**
+     * Sizes of the transferred files in bytes
+     */
+    private long[] sizes;
+
+    /**
+     * Kind of transfers that are run
+     */
+    private String mix;
+
+    /**
+     * Number of transfers that run at once
+     */
+    private int concurrency;
+
+    /**
+     * Constructs a load generator from the command line arguments
+     *
+     * @param commandLineArgs - Arguments from the command line
+     *
+     * @throws IOException - If the work directory cannot be created
+     */
+    public LoadGenerator (String[] commandLineArgs) throws IOException {
+        String[] sizes;
+        String host;
+
+        this.values = new HashMap<String, String>();
+        for (String arg : commandLineArgs) {
+            int separator = arg.indexOf('=');
+            if (arg.startsWith("-") && separator > 1) {
+                this.values.put(arg.substring(1, separator), arg.substring(separator + 1));
+            }
+        }
+
+        host = this.values.get(SERVER_VALUE);
+        this.address = new InetSocketAddress(
+                host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host),
+                this.getNumber(PORT_VALUE, DEFAULT_PORT));
+        this.serverDirectory = this.values.containsKey(DIRECTORY_VALUE)
+                ? new File(this.values.get(DIRECTORY_VALUE))
+                : Files.createTempDirectory("tftp-load").toFile();
+        this.clientDirectory = new File(this.serverDirectory, "client");
+        this.concurrency = Math.max(1, this.getNumber(CONCURRENCY_VALUE, 16));
+        this.mix = this.values.getOrDefault(MIX_VALUE, "mixed");
+
+        sizes = this.values.getOrDefault(SIZES_VALUE, DEFAULT_SIZES).split(",");
+        this.sizes = new long[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            this.sizes[i] = Long.parseLong(sizes[i].trim());
+        }
+    }
+
+    /**
+     * Generates the files, runs the warm up and measured transfers and
+     * returns the report of the measured transfers
+     *
+     * @return JSON report
+     *
+     * @throws IOException - If the files cannot be generated
+     * @throws InterruptedException - If the run is interrupted
+     */
+    public String run () throws IOException, InterruptedException {
+        Map<String, String> config = new LinkedHashMap<String, String>();
+        LoadReport report = new LoadReport();
+        long elapsed;
+
+        this.generateFiles();
+        this.runTransfers(this.getNumber(WARMUP_VALUE, 50), new LoadReport());
+        elapsed = this.runTransfers(this.getNumber(TRANSFERS_VALUE, 200), report);
+
+        config.put("server", this.values.containsKey(SERVER_VALUE) ? this.address.toString() : "embedded");
+        config.put("engine", this.values.getOrDefault("engine", "thread"));
+        config.put(TRANSFERS_VALUE, Integer.toString(this.getNumber(TRANSFERS_VALUE, 200)));
+        config.put(CONCURRENCY_VALUE, Integer.toString(this.concurrency));
+        config.put(SIZES_VALUE, this.values.getOrDefault(SIZES_VALUE, DEFAULT_SIZES));
+        config.put(MIX_VALUE, this.mix);
+        config.put("options", this.createOptions().toMap().toString());
+        return report.toJson(config, elapsed);
+    }
+
+    /**
+     * Runs transfers on the workers until the given number have finished
+     *
+     * @param count - Number of transfers to run
+     * @param report - Report to record the transfers in
+     *
+     * @return Time in ns taken to run the transfers
+     *
+     * @throws InterruptedException - If the run is interrupted
+     */
+    private long runTransfers (int count, LoadReport report) throws InterruptedException {
+        Thread[] workers = new Thread[this.concurrency];
+        AtomicInteger next = new AtomicInteger();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(() -> {
+                int transfer;
+                while ((transfer = next.getAndIncrement()) < count) {
+                    this.runTransfer(transfer, report);
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Runs a transfer on the current thread and records its outcome. The
+     * file sizes are cycled through and a mixed run alternates reads and
+     * writes on each cycle. The received file is compared with its source
+     * before it is deleted
+     *
+     * @param transfer - Number of the transfer in the run
+     * @param report - Report to record the transfer in
+     */
+    private void runTransfer (int transfer, LoadReport report) {
+        long size = this.sizes[transfer % this.sizes.length];
+        boolean write = "write".equals(this.mix) ||
+                ("mixed".equals(this.mix) && (transfer / this.sizes.length) % 2 == 1);
+        String source = FILE_PREFIX + size;
+        String name = (write ? "w" : "r") + transfer + "-" + source;
+        File received = new File(write ? this.serverDirectory : this.clientDirectory, name);
+        File original = new File(write ? this.clientDirectory : this.serverDirectory, source);
+        Outcome outcome = new Outcome(write);
+        Transfer runner;
+        long start = System.nanoTime();
+
+        try {
+            if (write) {
+                runner = new WriteTransfer(this.address, original.getPath(), name, this.createOptions());
+            }
+            else {
+                runner = new ReadTransfer(this.address, source, received.getPath(), this.createOptions());
+            }
+            runner.addTransferListener(outcome);
+            if (runner.sendRequest()) {
+                runner.run();
+            }
+        } catch (IOException e) {
+            outcome.handleException(e);
+        }
+
+        if (outcome.finished == 0) {
+            report.fail(size, outcome.reason);
+        }
+        else if (!this.matches(received, original)) {
+            report.fail(size, "content mismatch");
+        }
+        else {
+            report.complete(size, outcome.finished - start);
+        }
+        received.delete();
+    }
+
+    /**
+     * Returns if a received file has the same length and contents as the
+     * file it was transferred from
+     *
+     * @param received - File that was received
+     * @param original - File that was sent
+     *
+     * @return If the files are the same
+     */
+    private boolean matches (File received, File original) {
+        try {
+            return Files.mismatch(received.toPath(), original.toPath()) == -1;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates the options requested by each transfer from the
+     * command line values
+     *
+     * @return Requested options
+     */
+    private TransferOptions createOptions () {
+        TransferOptions options = new TransferOptions();
+
+        for (Map.Entry<String, String> value : this.values.entrySet()) {
+            if (TransferOptions.isOption(value.getKey())) {
+                options.set(value.getKey(), value.getValue());
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Generates a file of each size with random contents in the server and
+     * client directories, keeping files that already have the right size
+     *
+     * @throws IOException - If a file cannot be written
+     */
+    private void generateFiles () throws IOException {
+        Random random = new Random(69);
+        byte[] block = new byte[64 * 1024];
+
+        this.clientDirectory.mkdirs();
+        for (long size : this.sizes) {
+            for (File dir : new File[] { this.serverDirectory, this.clientDirectory }) {
+                File file = new File(dir, FILE_PREFIX + size);
+                if (file.length() == size && file.isFile()) {
+                    continue;
+                }
+                try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                    out.setLength(0);
+                    for (long written = 0; written < size; written += block.length) {
+                        random.nextBytes(block);
+                        out.write(block, 0, (int) Math.min(block.length, size - written));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a number given as a command line value or the default
+     *
+     * @param name - Name of the command line value
+     * @param defaultValue - Number to use if the value is not given
+     *
+     * @return Number given on the command line
+     */
+    private int getNumber (String name, int defaultValue) {
+        try {
+            return Integer.parseInt(this.values.getOrDefault(name, Integer.toString(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring command line option: " + name + " must be a number");
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Returns the directory of the files served by the server
+     *
+     * @return Server directory
+     */
+    public File getServerDirectory () {
+        return this.serverDirectory;
+    }
+
+    /**
+     * Returns if a running server is used in place of the embedded server
+     *
+     * @return If the server is external
+     */
+    public boolean isExternalServer () {
+        return this.values.containsKey(SERVER_VALUE);
+    }
+
+    /**
+     * Returns the port of the server
+     *
+     * @return Server port
+     */
+    public int getPort () {
+        return this.address.getPort();
+    }
+
+    /**
+     * Returns the file to write the report to
+     *
+     * @return Report file or null to print the report
+     */
+    public String getReportFile () {
+        return this.values.get(REPORT_VALUE);
+    }
+
+    public static void main (String[] args) {
+        LoadServer server = null;
+        LoadGenerator generator;
+        String report;
+
+        try {
+            generator = new LoadGenerator(args);
+            if (!generator.isExternalServer()) {
+                server = new LoadServer(generator.getPort(), args);
+                server.changeWorkingDirectory(generator.getServerDirectory().getPath());
+                server.listen();
+            }
+
+            report = generator.run();
+            if (generator.getReportFile() == null) {
+                System.out.print(report);
+            }
+            else {
+                try (FileWriter out = new FileWriter(generator.getReportFile())) {
+                    out.write(report);
+                }
+            }
+        } catch (SocketException e) {
+            System.err.println("Server could not bind to the port: " + e.getMessage());
+            System.exit(1);
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Load run failed: " + e.getMessage());
+            System.exit(1);
+        }
+
+        if (server != null) {
+            server.stop();
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Outcome
+     *
+     * Records when a transfer finished, or why it failed
+     */
+    private static class Outcome implements TransferListener {
+
+        /**
+         * If the transfer writes to the server
+         */
+        final boolean write;
+
+        /**
+         * Time in ns that the transfer finished, 0 until it completes
+         */
+        long finished;
+
+        /**
+         * Time in ns that the last acknowledge was sent by a read
+         */
+        long acknowledged;
+
+        /**
+         * Description of the last failure
+         */
+        String reason = "Transfer did not complete";
+
+        Outcome (boolean write) {
+            this.write = write;
+        }
+
+        public void handleStart () {
+        }
+
+        public void handleSendMessage (Message msg) {
+            if (!this.write && msg instanceof AckMessage) {
+                this.acknowledged = System.nanoTime();
+            }
+        }
+
+        public void handleErrorMessage (ErrorMessage err) {
+            this.reason = err.toString();
+        }
+
+        public void handleMessage (Message msg) {
+        }
+
+        public void handleComplete () {
+            this.finished = this.write ? System.nanoTime() : this.acknowledged;
+        }
+
+        public void handleException (Exception e) {
+            this.reason = e.toString();
+        }
+
+        public void handleInfo (String info) {
+        }
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Load Report
+ *
+ * Collects the completion time of each transfer of a load run and reports
+ * the aggregate throughput and the completion time percentiles as JSON.
+ * Transfers are recorded from every worker thread so recording is
+ * synchronized, which costs nothing next to the time of a transfer
+ */
+public class LoadReport {
+
+    /**
+     * Completion times in ns of the successful transfers
+     */
+    private long[] times;
+
+    /**
+     * Number of successful transfers
+     */
+    private int completed;
+
+    /**
+     * Number of failed transfers
+     */
+    private int failed;
+
+    /**
+     * Number of file bytes moved by the successful transfers
+     */
+    private long bytes;
+
+    /**
+     * Completion times of the successful transfers of each file size
+     */
+    private TreeMap<Long, LoadReport> sizes;
+
+    /**
+     * Last failure reported, to explain the failures in the report
+     */
+    private String lastFailure;
+
+    /**
+     * Constructs an empty report
+     */
+    public LoadReport () {
+        this.times = new long[64];
+        this.sizes = new TreeMap<Long, LoadReport>();
+    }
+
+    /**
+     * Records a successful transfer
+     *
+     * @param size - Number of bytes in the transferred file
+     * @param time - Completion time of the transfer in ns
+     */
+    public synchronized void complete (long size, long time) {
+        this.add(size, time);
+        this.sizes.computeIfAbsent(size, s -> new LoadReport()).add(size, time);
+    }
+
+    /**
+     * Records a failed transfer
+     *
+     * @param size - Number of bytes in the file that was not transferred
+     * @param reason - Description of the failure
+     */
+    public synchronized void fail (long size, String reason) {
+        this.failed++;
+        this.sizes.computeIfAbsent(size, s -> new LoadReport()).failed++;
+        this.lastFailure = reason;
+    }
+
+    /**
+     * Returns the number of failed transfers
+     *
+     * @return Number of failures
+     */
+    public synchronized int getFailed () {
+        return this.failed;
+    }
+
+    /**
+     * Formats the report as a JSON document
+     *
+     * @param config - Settings of the load run, reported as given
+     * @param elapsed - Duration of the load run in ns
+     *
+     * @return JSON report
+     */
+    public synchronized String toJson (Map<String, String> config, long elapsed) {
+        StringBuilder json = new StringBuilder();
+        double seconds = Math.max(elapsed, 1) / 1e9;
+        boolean first = true;
+
+        json.append("{\n  \"config\": {");
+        for (Map.Entry<String, String> entry : config.entrySet()) {
+            json.append(first ? "\n" : ",\n");
+            json.append("    ").append(quote(entry.getKey())).append(": ").append(quote(entry.getValue()));
+            first = false;
+        }
+        json.append("\n  },\n");
+        json.append("  \"seconds\": ").append(format(seconds)).append(",\n");
+        json.append("  \"completed\": ").append(this.completed).append(",\n");
+        json.append("  \"failed\": ").append(this.failed).append(",\n");
+        json.append("  \"bytes\": ").append(this.bytes).append(",\n");
+        json.append("  \"mbPerSecond\": ").append(format(this.bytes / 1e6 / seconds)).append(",\n");
+        json.append("  \"transfersPerSecond\": ").append(format(this.completed / seconds)).append(",\n");
+        json.append("  \"latencyMs\": ").append(this.latency()).append(",\n");
+        json.append("  \"sizes\": [");
+        first = true;
+        for (Map.Entry<Long, LoadReport> entry : this.sizes.entrySet()) {
+            json.append(first ? "\n" : ",\n");
+            json.append("    {\"size\": ").append(entry.getKey());
+            json.append(", \"completed\": ").append(entry.getValue().completed);
+            json.append(", \"failed\": ").append(entry.getValue().failed);
+            json.append(", \"latencyMs\": ").append(entry.getValue().latency()).append("}");
+            first = false;
+        }
+        json.append("\n  ]");
+        if (this.lastFailure != null) {
+            json.append(",\n  \"lastFailure\": ").append(quote(this.lastFailure));
+        }
+        json.append("\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Adds the completion time of a successful transfer
+     *
+     * @param size - Number of bytes in the transferred file
+     * @param time - Completion time of the transfer in ns
+     */
+    private void add (long size, long time) {
+        if (this.completed == this.times.length) {
+            this.times = Arrays.copyOf(this.times, this.times.length * 2);
+        }
+        this.times[this.completed++] = time;
+        this.bytes += size;
+    }
+
+    /**
+     * Formats the completion time percentiles as a JSON object
+     *
+     * @return Percentiles in ms
+     */
+    private String latency () {
+        long[] sorted = Arrays.copyOf(this.times, this.completed);
+        long total = 0;
+
+        Arrays.sort(sorted);
+        for (long time : sorted) {
+            total += time;
+        }
+        return "{\"mean\": " + millis(sorted.length == 0 ? 0 : total / sorted.length) +
+                ", \"p50\": " + millis(percentile(sorted, 0.50)) +
+                ", \"p99\": " + millis(percentile(sorted, 0.99)) +
+                ", \"p999\": " + millis(percentile(sorted, 0.999)) +
+                ", \"max\": " + millis(sorted.length == 0 ? 0 : sorted[sorted.length - 1]) + "}";
+    }
+
+    /**
+     * Returns the nearest rank percentile of sorted times
+     *
+     * @param sorted - Times in ascending order
+     * @param fraction - Fraction of the times at or below the percentile
+     *
+     * @return The percentile, or 0 if there are no times
+     */
+    private static long percentile (long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.max(0, Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    /**
+     * Formats a time in ns as ms
+     *
+     * @param nanos - Time in ns
+     *
+     * @return Time in ms
+     */
+    private static String millis (long nanos) {
+        return format(nanos / 1e6);
+    }
+
+    /**
+     * Formats a number with three decimal places
+     *
+     * @param value - Number to format
+     *
+     * @return Formatted number
+     */
+    private static String format (double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Quotes a string as a JSON string
+     *
+     * @param value - String to quote
+     *
+     * @return Quoted string
+     */
+    private static String quote (String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            }
+            else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,96 @@
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import core.ctrl.RequestController;
+import core.log.ConsoleLogger;
+import core.req.ErrorMessage;
+import core.req.Message;
+
+/**
+ * Load Server
+ *
+ * Server embedded in the load generator. It runs without a command line
+ * interface and only counts the transfers it finishes so that logging does
+ * not skew the measurements
+ */
+public class LoadServer extends RequestController {
+
+    /**
+     * Number of transfers the server completed
+     */
+    private AtomicInteger completed;
+
+    /**
+     * Number of transfers the server finished with errors
+     */
+    private AtomicInteger failed;
+
+    /**
+     * Constructs a server listening on the given port
+     *
+     * @param port - Port to listen for requests on
+     * @param commandLineArgs - Arguments from the command line
+     *
+     * @throws SocketException - If the port is in use
+     */
+    public LoadServer (int port, String[] commandLineArgs) throws SocketException {
+        super(port, commandLineArgs);
+        this.completed = new AtomicInteger();
+        this.failed    = new AtomicInteger();
+    }
+
+    /**
+     * Returns the number of transfers the server completed
+     *
+     * @return Number of completed transfers
+     */
+    public int getCompleted () {
+        return this.completed.get();
+    }
+
+    /**
+     * Returns the number of transfers the server finished with errors
+     *
+     * @return Number of failed transfers
+     */
+    public int getFailed () {
+        return this.failed.get();
+    }
+
+    /**
+     * Logs warnings only, whatever the command line options are
+     */
+    @Override
+    protected void applyCommandLineOptions () {
+        ConsoleLogger.init(Level.WARNING);
+    }
+
+    @Override
+    public void usage () {
+    }
+
+    public void handleStart () {
+    }
+
+    public void handleSendMessage (Message msg) {
+    }
+
+    public void handleMessage (Message msg) {
+    }
+
+    public void handleErrorMessage (ErrorMessage err) {
+        this.failed.incrementAndGet();
+    }
+
+    public void handleComplete () {
+        this.completed.incrementAndGet();
+    }
+
+    public void handleException (Exception e) {
+        this.failed.incrementAndGet();
+    }
+
+    public void handleInfo (String info) {
+    }
+}
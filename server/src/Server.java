@@ -6,6 +6,7 @@ import core.req.Message;
 import core.util.ByteUtils;
 
 import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 
@@ -14,13 +15,14 @@ public class Server extends RequestController {
     private static final int SERVER_PORT = 69;
 
     /**
-     * Tracks the number of incomplete transfers
+     * Tracks the number of incomplete transfers. Transfers update the count
+     * from their own threads without holding a lock
      */
-    private int activeTransferCount;
+    private AtomicInteger activeTransferCount;
 
     public Server (String[] commandLineArgs) throws SocketException {
         super(SERVER_PORT, commandLineArgs);
-        this.activeTransferCount = 0;
+        this.activeTransferCount = new AtomicInteger();
     }
 
     @Override
@@ -29,43 +31,64 @@ public class Server extends RequestController {
         System.out.println("  Commands:");
         System.out.println("    help           Prints this message");
         System.out.println("    cd             Change the working directory (source and destination directory of files)");
+        System.out.println("    stats          Prints the intake queue, the number of running, waiting and rejected transfers and the file cache statistics");
         System.out.println("    shutdown       Exits the server");
+        System.out.println("  Receivers:");
+        System.out.println("    Start with -receivers=<n> to receive requests on n sockets and threads sharing the port");
+        System.out.println("  Durability:");
+        System.out.println("    Start with -durability=close to force received files to disk before their transfers complete,");
+        System.out.println("    or -durability=group to force them together every second");
+        System.out.println("  Ports:");
+        System.out.println("    Start with -ports=<low>-<high> to send and receive transfers on ports of that range only");
+        System.out.println("  Rollover:");
+        System.out.println("    Start with -rollover=1 to wrap block numbers after 65535 to 1 instead of 0 for clients");
+        System.out.println("    that do not request the rollover option");
+        System.out.println("  Multicast:");
+        System.out.println("    Start with -multicast=<address>:<port> to send files read with the multicast option to a group");
     }
 
     @Override
     public void handleMessage(Message msg){
-        LOGGER.log(Level.FINE, "Received bytes: " + ByteUtils.bytesToHexString(msg.toBytes()));
-        LOGGER.log(Level.FINE, "Received message: " + msg.toString());
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Received bytes: " + ByteUtils.bytesToHexString(msg.toBytes()));
+            LOGGER.log(Level.FINE, "Received message: " + msg.toString());
+        }
     }
 
     @Override
     public void handleSendMessage(Message msg) {
-        LOGGER.log(Level.FINE, "Sending bytes: " + ByteUtils.bytesToHexString(msg.toBytes()));
-        LOGGER.log(Level.FINE, "Sending message: " + msg.toString());
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Sending bytes: " + ByteUtils.bytesToHexString(msg.toBytes()));
+            LOGGER.log(Level.FINE, "Sending message: " + msg.toString());
+        }
     }
 
     @Override
-    public synchronized void handleComplete () {
+    public void handleComplete () {
         this.cli.message("\nCompleted a transfer");
-        this.activeTransferCount--;
+        this.activeTransferCount.decrementAndGet();
     }
 
-    public synchronized void handleErrorMessage (ErrorMessage err){
-        LOGGER.log(Level.FINE, "Error bytes: " + ByteUtils.bytesToHexString(err.toBytes()));
+    public void handleErrorMessage (ErrorMessage err){
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Error bytes: " + ByteUtils.bytesToHexString(err.toBytes()));
+        }
         LOGGER.log(Level.SEVERE, "Error message: " + err.toString());
         this.cli.message("\nFinished transfer with errors");
-        this.activeTransferCount--;
+        this.activeTransferCount.decrementAndGet();
     }
 
-    public synchronized void handleStart (){
+    public void handleStart (){
         this.cli.message("\nStarting transfer");
-        this.activeTransferCount++;
+        this.activeTransferCount.incrementAndGet();
     }
 
     @Override
-    public synchronized void stop(){
-        if (this.activeTransferCount != 0){
-            this.cli.message("There are currently " + this.activeTransferCount +
+    public void stop(){
+        int active = this.activeTransferCount.get();
+
+        if (active != 0){
+            this.cli.message("There are currently " + active +
                     " transfers still running. The server will shut down after all transfers have completed.");
         }
         super.stop();
@@ -88,7 +111,7 @@ public class Server extends RequestController {
     public void handleException(Exception e) {
         LOGGER.log(Level.SEVERE,e.getMessage());
         this.cli.message("Finished transfer with errors");
-        this.activeTransferCount--;
+        this.activeTransferCount.decrementAndGet();
     }
 
     @Override